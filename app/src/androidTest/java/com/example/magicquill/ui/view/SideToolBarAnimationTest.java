@@ -0,0 +1,107 @@
+package com.example.magicquill.ui.view;
+
+import android.animation.ObjectAnimator;
+import android.content.Context;
+import android.view.View;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.magicquill.ui.model.ToolModel;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented frame-timing test: stepping the toolbar's slide frame by
+ * frame must not request a single measure or layout pass.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SideToolBarAnimationTest {
+
+    private static final long FRAME_MS = 16;
+
+    /**
+     * Counts layout requests from the toolbar and every child below it.
+     */
+    private static class CountingToolBar extends SideToolBar {
+        int layoutRequests;
+        int layoutPasses;
+
+        CountingToolBar(Context context) {
+            super(context);
+        }
+
+        @Override
+        public void requestLayout() {
+            layoutRequests++;
+            super.requestLayout();
+        }
+
+        @Override
+        protected void onLayout(boolean changed, int l, int t, int r, int b) {
+            layoutPasses++;
+            super.onLayout(changed, l, t, r, b);
+        }
+    }
+
+    @Test
+    public void expandAndCollapse_runWithoutLayoutPasses() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+            CountingToolBar toolBar = new CountingToolBar(context);
+            measureAndLayout(toolBar);
+            float collapsed = toolBar.getTranslationX();
+            assertTrue(collapsed < 0);
+
+            ToolModel model = new ToolModel();
+            toolBar.setModel(model);
+            // Expansion changes reach the toolbar posted; setModel applies them now
+            model.setMenuExpanded(true);
+            toolBar.setModel(model);
+            // Buttons inflated by opening are laid out before the slide; settle that here
+            assertFalse(toolBar.getToolButtons().isEmpty());
+            measureAndLayout(toolBar);
+            toolBar.layoutRequests = 0;
+            toolBar.layoutPasses = 0;
+
+            stepToEnd(toolBar, toolBar.getSlideAnimator(), collapsed, 0f);
+            assertEquals(0f, toolBar.getTranslationX(), 0f);
+
+            model.setMenuExpanded(false);
+            toolBar.setModel(model);
+            stepToEnd(toolBar, toolBar.getSlideAnimator(), 0f, collapsed);
+            assertEquals(collapsed, toolBar.getTranslationX(), 0f);
+
+            assertEquals("layout requests during the slide", 0, toolBar.layoutRequests);
+            assertEquals("layout passes during the slide", 0, toolBar.layoutPasses);
+            assertFalse(toolBar.isLayoutRequested());
+            assertEquals(View.LAYER_TYPE_NONE, toolBar.getLayerType());
+        });
+    }
+
+    private static void measureAndLayout(SideToolBar toolBar) {
+        toolBar.measure(View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED),
+                View.MeasureSpec.makeMeasureSpec(1200, View.MeasureSpec.EXACTLY));
+        toolBar.layout(0, 0, toolBar.getMeasuredWidth(), 1200);
+    }
+
+    /**
+     * Step an animator frame by frame, checking it only ever moves the toolbar.
+     */
+    private static void stepToEnd(CountingToolBar toolBar, ObjectAnimator animator, float from, float to) {
+        assertNotNull(animator);
+        float previous = from;
+        for (long time = 0; time <= animator.getDuration(); time += FRAME_MS) {
+            animator.setCurrentPlayTime(time);
+            float x = toolBar.getTranslationX();
+            assertTrue("slide must be monotonic", to > from ? x >= previous : x <= previous);
+            assertEquals(View.LAYER_TYPE_HARDWARE, toolBar.getLayerType());
+            assertFalse(toolBar.isLayoutRequested());
+            previous = x;
+        }
+        animator.end();
+    }
+}
@@ -0,0 +1,48 @@
+#ifndef MAGICQUILL_BRUSH_RASTER_H
+#define MAGICQUILL_BRUSH_RASTER_H
+
+#include <cstdint>
+
+namespace magicquill {
+
+// Edge length of a layer tile; must match TiledLayer.TILE_SIZE.
+constexpr int kTileSize = 256;
+
+struct RasterRect {
+    int left;
+    int top;
+    int right;
+    int bottom;
+};
+
+// A round-capped brush segment in layer pixels.
+struct BrushSegment {
+    float x0;
+    float y0;
+    float x1;
+    float y1;
+    float radius;
+};
+
+// Antialiased coverage of one pixel center, in [0, 255]. Mirrors
+// BrushRasterizer.coverage() operation for operation so both paths produce
+// the same bytes; build with -ffp-contract=off so nothing is fused.
+int brushCoverage(const BrushSegment& segment, float px, float py);
+
+// Fill a segment into an ALPHA_8 tile (stride kTileSize).
+// clip is in layer pixels and must lie inside the tile at (tileLeft, tileTop).
+// Fully covered pixels take the brush alpha, edge pixels keep the larger of
+// the old alpha and the scaled brush alpha. hit receives the bounds of the
+// covered pixels. Returns false if no pixel was covered.
+bool fillAlpha(uint8_t* tile, int tileLeft, int tileTop, const RasterRect& clip,
+               const BrushSegment& segment, int alpha, RasterRect* hit);
+
+// Fill a segment into an ARGB tile (stride kTileSize, one int per pixel as
+// stored by a Java int[]). Fully covered pixels take the brush color, edge
+// pixels composite the brush over the old color by their coverage.
+bool fillArgb(uint32_t* tile, int tileLeft, int tileTop, const RasterRect& clip,
+              const BrushSegment& segment, uint32_t color, RasterRect* hit);
+
+}  // namespace magicquill
+
+#endif  // MAGICQUILL_BRUSH_RASTER_H
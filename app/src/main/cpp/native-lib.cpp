@@ -1,10 +1,66 @@
 #include <jni.h>
 #include <string>
 
+#include "brush_raster.h"
+
 extern "C" JNIEXPORT jstring JNICALL
 Java_com_example_magicquill_MainActivity_stringFromJNI(
         JNIEnv* env,
         jobject /* this */) {
     std::string hello = "Hello from C++";
     return env->NewStringUTF(hello.c_str());
-}
\ No newline at end of file
+}
+namespace {
+
+// Run a fill on a Java tile array without copying it. Nothing between Get and
+// Release may call back into the VM, so hit bounds are written afterwards.
+template <typename Pixel, typename Fill>
+jboolean fillTile(JNIEnv* env, jarray tile, jint tileLeft, jint tileTop,
+                  jint left, jint top, jint right, jint bottom,
+                  jfloat x0, jfloat y0, jfloat x1, jfloat y1, jfloat radius,
+                  jintArray hit, Fill fill) {
+    const magicquill::RasterRect clip = {left, top, right, bottom};
+    const magicquill::BrushSegment segment = {x0, y0, x1, y1, radius};
+    magicquill::RasterRect bounds;
+    auto* pixels = static_cast<Pixel*>(env->GetPrimitiveArrayCritical(tile, nullptr));
+    if (pixels == nullptr) {
+        return JNI_FALSE;
+    }
+    const bool covered = fill(pixels, tileLeft, tileTop, clip, segment, &bounds);
+    env->ReleasePrimitiveArrayCritical(tile, pixels, covered ? 0 : JNI_ABORT);
+    if (!covered) {
+        return JNI_FALSE;
+    }
+    const jint out[4] = {bounds.left, bounds.top, bounds.right, bounds.bottom};
+    env->SetIntArrayRegion(hit, 0, 4, out);
+    return JNI_TRUE;
+}
+
+}  // namespace
+
+extern "C" JNIEXPORT jboolean JNICALL
+Java_com_example_magicquill_data_layer_BrushRasterizer_nativeFillAlpha(
+        JNIEnv* env, jclass /* clazz */, jbyteArray tile, jint tileLeft, jint tileTop,
+        jint left, jint top, jint right, jint bottom,
+        jfloat x0, jfloat y0, jfloat x1, jfloat y1, jfloat radius, jint alpha, jintArray hit) {
+    return fillTile<uint8_t>(env, tile, tileLeft, tileTop, left, top, right, bottom,
+            x0, y0, x1, y1, radius, hit,
+            [alpha](uint8_t* pixels, int tl, int tt, const magicquill::RasterRect& clip,
+                    const magicquill::BrushSegment& segment, magicquill::RasterRect* bounds) {
+                return magicquill::fillAlpha(pixels, tl, tt, clip, segment, alpha, bounds);
+            });
+}
+
+extern "C" JNIEXPORT jboolean JNICALL
+Java_com_example_magicquill_data_layer_BrushRasterizer_nativeFillArgb(
+        JNIEnv* env, jclass /* clazz */, jintArray tile, jint tileLeft, jint tileTop,
+        jint left, jint top, jint right, jint bottom,
+        jfloat x0, jfloat y0, jfloat x1, jfloat y1, jfloat radius, jint color, jintArray hit) {
+    return fillTile<uint32_t>(env, tile, tileLeft, tileTop, left, top, right, bottom,
+            x0, y0, x1, y1, radius, hit,
+            [color](uint32_t* pixels, int tl, int tt, const magicquill::RasterRect& clip,
+                    const magicquill::BrushSegment& segment, magicquill::RasterRect* bounds) {
+                return magicquill::fillArgb(pixels, tl, tt, clip, segment,
+                        static_cast<uint32_t>(color), bounds);
+            });
+}
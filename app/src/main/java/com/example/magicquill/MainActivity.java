@@ -1,7 +1,10 @@
 package com.example.magicquill;
 
 import androidx.appcompat.app.AppCompatActivity;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Trace;
+import android.util.Log;
 import android.view.View;
 
 import com.google.android.material.bottomnavigation.BottomNavigationView;
@@ -18,15 +21,20 @@ import com.example.magicquill.ui.view.BottomNavItem;
 import com.example.magicquill.ui.CanvasFragment;
 import com.example.magicquill.ui.Screen3Fragment;
 import com.example.magicquill.ui.Screen4Fragment;
+import com.example.magicquill.startup.NativeLibrary;
+import com.example.magicquill.startup.StartupTrace;
 
 public class MainActivity extends AppCompatActivity {
 
-    static {
-        System.loadLibrary("magicquill");
-    }
+    private static final String TAG = "MainActivity";
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        StartupTrace trace = StartupTrace.get();
+        trace.setListener(new SystemTraceListener());
+        trace.begin(StartupTrace.Phase.ACTIVITY_CREATE);
+        // Load the native library off the main thread; its users fall back until it is ready
+        NativeLibrary.magicQuill().ready();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
@@ -40,6 +48,7 @@ public class MainActivity extends AppCompatActivity {
             }
         }
 
+        trace.begin(StartupTrace.Phase.NAV_HOST_SETUP);
         NavController navController = null;
         NavHostFragment navHostFragment = (NavHostFragment) getSupportFragmentManager().findFragmentById(R.id.nav_host_fragment);
         if (navHostFragment != null) {
@@ -51,8 +60,10 @@ public class MainActivity extends AppCompatActivity {
                 navController = null;
             }
         }
+        trace.end(StartupTrace.Phase.NAV_HOST_SETUP);
 
         // Create BottomNavigationBar object
+        trace.begin(StartupTrace.Phase.BOTTOM_NAV_WIRING);
         BottomNavigationView bottomNavView = findViewById(R.id.bottom_navigation);
         BottomNavigationBar bottomNavBar = null;
         if (bottomNavView != null) {
@@ -91,8 +102,31 @@ public class MainActivity extends AppCompatActivity {
                 bottomNavBar.setupBottomPadding(fragmentContainer);
             }
         }
+        trace.end(StartupTrace.Phase.BOTTOM_NAV_WIRING);
+        trace.end(StartupTrace.Phase.ACTIVITY_CREATE);
     }
 
-    // Native method implemented in C/C++
+    // Native method implemented in C/C++; only callable once NativeLibrary.magicQuill() is ready
     public native String stringFromJNI();
+
+    /**
+     * Mirrors startup phases into the system trace and the log. Phases
+     * overlap and end on other threads, so they are async sections.
+     */
+    private static class SystemTraceListener implements StartupTrace.Listener {
+        @Override
+        public void onPhaseBegin(StartupTrace.Phase phase) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                Trace.beginAsyncSection(phase.getSectionName(), phase.ordinal());
+            }
+        }
+
+        @Override
+        public void onPhaseEnd(StartupTrace.Phase phase, long durationNanos) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                Trace.endAsyncSection(phase.getSectionName(), phase.ordinal());
+            }
+            Log.i(TAG, phase.getSectionName() + " took " + durationNanos / 1000000f + "ms");
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,70 @@
+package com.example.magicquill.data;
+
+/**
+ * The {@code params} object of {@code /magic_quill/generate}.
+ * Defaults match the server defaults documented in API_Documentation.md.
+ */
+public class GenerationParams {
+
+    public static final String DEFAULT_CKPT_NAME = "SD1.5/realisticVisionV60B1_v51VAE.safetensors";
+
+    private String ckptName = DEFAULT_CKPT_NAME;
+    private String negativePrompt = "";
+    private boolean fineEdge = false;
+    private int growSize = 15;
+    private float edgeStrength = 0.55f;
+    private float colorStrength = 0.55f;
+    private float inpaintStrength = 1.0f;
+    private long seed = -1;
+    private int steps = 20;
+    private float cfg = 5.0f;
+    private String samplerName = "euler_ancestral";
+    private String scheduler = "karras";
+
+    public GenerationParams() {}
+
+    /**
+     * Copy constructor, used to snapshot the parameters of a queued request.
+     * @param other The parameters to copy
+     */
+    public GenerationParams(GenerationParams other) {
+        this.ckptName = other.ckptName;
+        this.negativePrompt = other.negativePrompt;
+        this.fineEdge = other.fineEdge;
+        this.growSize = other.growSize;
+        this.edgeStrength = other.edgeStrength;
+        this.colorStrength = other.colorStrength;
+        this.inpaintStrength = other.inpaintStrength;
+        this.seed = other.seed;
+        this.steps = other.steps;
+        this.cfg = other.cfg;
+        this.samplerName = other.samplerName;
+        this.scheduler = other.scheduler;
+    }
+
+    public String getCkptName() { return ckptName; }
+    public String getNegativePrompt() { return negativePrompt; }
+    public boolean isFineEdge() { return fineEdge; }
+    public int getGrowSize() { return growSize; }
+    public float getEdgeStrength() { return edgeStrength; }
+    public float getColorStrength() { return colorStrength; }
+    public float getInpaintStrength() { return inpaintStrength; }
+    public long getSeed() { return seed; }
+    public int getSteps() { return steps; }
+    public float getCfg() { return cfg; }
+    public String getSamplerName() { return samplerName; }
+    public String getScheduler() { return scheduler; }
+
+    public void setCkptName(String ckptName) { this.ckptName = ckptName; }
+    public void setNegativePrompt(String negativePrompt) { this.negativePrompt = negativePrompt; }
+    public void setFineEdge(boolean fineEdge) { this.fineEdge = fineEdge; }
+    public void setGrowSize(int growSize) { this.growSize = growSize; }
+    public void setEdgeStrength(float edgeStrength) { this.edgeStrength = edgeStrength; }
+    public void setColorStrength(float colorStrength) { this.colorStrength = colorStrength; }
+    public void setInpaintStrength(float inpaintStrength) { this.inpaintStrength = inpaintStrength; }
+    public void setSeed(long seed) { this.seed = seed; }
+    public void setSteps(int steps) { this.steps = steps; }
+    public void setCfg(float cfg) { this.cfg = cfg; }
+    public void setSamplerName(String samplerName) { this.samplerName = samplerName; }
+    public void setScheduler(String scheduler) { this.scheduler = scheduler; }
+}
@@ -0,0 +1,9 @@
+package com.example.magicquill.data;
+
+/**
+ * Resolution a generate request is sent at.
+ */
+public enum GenerationQuality {
+    PREVIEW,   // Working resolution; fast to encode and upload
+    FULL       // Original resolution; masks are upscaled at request time
+}
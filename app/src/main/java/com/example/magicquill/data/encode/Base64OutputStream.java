@@ -0,0 +1,116 @@
+package com.example.magicquill.data.encode;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Streaming standard Base64 encoder (RFC 4648, no line breaks) with a
+ * fixed-size output buffer. {@link #finish()} writes the padding without
+ * closing the underlying stream, so encoded data can be embedded in a
+ * larger document such as a JSON string.
+ */
+public class Base64OutputStream extends FilterOutputStream {
+
+    private static final byte[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes();
+    private static final int BUFFER_SIZE = 4096;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int bufferLength;
+    private int pending;
+    private int pendingCount;
+    private boolean finished;
+
+    public Base64OutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        pending = (pending << 8) | (b & 0xFF);
+        if (++pendingCount == 3) {
+            emitGroup();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int end = off + len;
+        int i = off;
+        // Complete a partial group first
+        while (pendingCount != 0 && i < end) {
+            write(b[i++]);
+        }
+        // Encode whole groups straight into the buffer
+        while (end - i >= 3) {
+            if (bufferLength > BUFFER_SIZE - 4) {
+                flushBuffer();
+            }
+            int group = ((b[i] & 0xFF) << 16) | ((b[i + 1] & 0xFF) << 8) | (b[i + 2] & 0xFF);
+            buffer[bufferLength++] = ALPHABET[(group >>> 18) & 0x3F];
+            buffer[bufferLength++] = ALPHABET[(group >>> 12) & 0x3F];
+            buffer[bufferLength++] = ALPHABET[(group >>> 6) & 0x3F];
+            buffer[bufferLength++] = ALPHABET[group & 0x3F];
+            i += 3;
+        }
+        while (i < end) {
+            write(b[i++]);
+        }
+    }
+
+    private void emitGroup() throws IOException {
+        if (bufferLength > BUFFER_SIZE - 4) {
+            flushBuffer();
+        }
+        buffer[bufferLength++] = ALPHABET[(pending >>> 18) & 0x3F];
+        buffer[bufferLength++] = ALPHABET[(pending >>> 12) & 0x3F];
+        buffer[bufferLength++] = ALPHABET[(pending >>> 6) & 0x3F];
+        buffer[bufferLength++] = ALPHABET[pending & 0x3F];
+        pending = 0;
+        pendingCount = 0;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (bufferLength > 0) {
+            out.write(buffer, 0, bufferLength);
+            bufferLength = 0;
+        }
+    }
+
+    /**
+     * Write the final group with padding and flush encoded bytes downstream.
+     * The underlying stream stays open.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (pendingCount > 0) {
+            if (bufferLength > BUFFER_SIZE - 4) {
+                flushBuffer();
+            }
+            int group = pending << (8 * (3 - pendingCount));
+            buffer[bufferLength++] = ALPHABET[(group >>> 18) & 0x3F];
+            buffer[bufferLength++] = ALPHABET[(group >>> 12) & 0x3F];
+            buffer[bufferLength++] = pendingCount == 2 ? ALPHABET[(group >>> 6) & 0x3F] : (byte) '=';
+            buffer[bufferLength++] = '=';
+            pending = 0;
+            pendingCount = 0;
+        }
+        flushBuffer();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        out.close();
+    }
+}
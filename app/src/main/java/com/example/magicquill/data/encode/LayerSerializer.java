@@ -0,0 +1,168 @@
+package com.example.magicquill.data.encode;
+
+import com.example.magicquill.data.layer.LayerStore;
+import com.example.magicquill.data.layer.LayerType;
+import com.example.magicquill.data.layer.TiledLayer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Encodes the five layers to PNG in parallel on a bounded worker pool.
+ * The layers are independent, so each is encoded on its own worker; the
+ * pool is sized to the available cores (at most one thread per layer).
+ * Encoded bytes are cached per layer and reused until that layer's version
+ * changes. Optional layers with nothing drawn on them are skipped and
+ * reported as null, which the generate endpoint accepts.
+ */
+public class LayerSerializer {
+
+    private final ThreadPoolExecutor executor;
+    private final PngEncoder encoder;
+    private final EnumMap<LayerType, CacheEntry> cache = new EnumMap<>(LayerType.class);
+
+    private static class CacheEntry {
+        final TiledLayer layer;
+        final long version;
+        final byte[] png;
+
+        CacheEntry(TiledLayer layer, long version, byte[] png) {
+            this.layer = layer;
+            this.version = version;
+            this.png = png;
+        }
+    }
+
+    public LayerSerializer() {
+        this(Runtime.getRuntime().availableProcessors(), new PngEncoder());
+    }
+
+    /**
+     * @param threads Maximum number of encoder threads (clamped to [1, layer count])
+     * @param encoder The PNG encoder to use
+     */
+    public LayerSerializer(int threads, PngEncoder encoder) {
+        int poolSize = Math.max(1, Math.min(threads, LayerType.values().length));
+        this.encoder = encoder;
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(LayerType.values().length), new EncoderThreadFactory());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public int getThreadCount() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Check whether the API accepts null for a layer.
+     * @param type The layer type
+     * @return True for add_color, add_edge and remove_edge
+     */
+    public static boolean isOptional(LayerType type) {
+        return type != LayerType.ORIGINAL_IMAGE && type != LayerType.TOTAL_MASK;
+    }
+
+    /**
+     * Encode every layer of the store, reusing cached output for unchanged layers.
+     * @param store The canvas layers
+     * @return PNG bytes per layer; null values mark skipped empty optional layers
+     * @throws IOException If encoding fails or is interrupted
+     */
+    public Map<LayerType, byte[]> encodeAll(LayerStore store) throws IOException {
+        EnumMap<LayerType, byte[]> result = new EnumMap<>(LayerType.class);
+        EnumMap<LayerType, Future<byte[]>> pending = new EnumMap<>(LayerType.class);
+
+        synchronized (cache) {
+            for (LayerType type : LayerType.values()) {
+                TiledLayer layer = store.getLayer(type);
+                if (isOptional(type) && layer.getAllocatedTileCount() == 0) {
+                    result.put(type, null);
+                    continue;
+                }
+                CacheEntry cached = cache.get(type);
+                if (cached != null && cached.layer == layer && cached.version == layer.getVersion()) {
+                    result.put(type, cached.png);
+                    continue;
+                }
+                long version = layer.getVersion();
+                pending.put(type, executor.submit(() -> {
+                    byte[] png = encode(layer, type);
+                    synchronized (cache) {
+                        cache.put(type, new CacheEntry(layer, version, png));
+                    }
+                    return png;
+                }));
+            }
+        }
+
+        try {
+            for (Map.Entry<LayerType, Future<byte[]>> entry : pending.entrySet()) {
+                result.put(entry.getKey(), entry.getValue().get());
+            }
+        } catch (InterruptedException e) {
+            cancelAll(pending);
+            Thread.currentThread().interrupt();
+            throw new IOException("Layer encoding interrupted", e);
+        } catch (ExecutionException e) {
+            cancelAll(pending);
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException("Layer encoding failed", cause);
+        }
+        return result;
+    }
+
+    /**
+     * Encode a single layer on the calling thread, bypassing the cache.
+     * @param layer The layer to encode
+     * @param type Its type; the original image is encoded without alpha
+     * @return The PNG bytes
+     */
+    public byte[] encode(TiledLayer layer, LayerType type) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(layer, type != LayerType.ORIGINAL_IMAGE, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Drop all cached encodings.
+     */
+    public void invalidate() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Stop the worker threads. The serializer cannot be used afterwards.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        invalidate();
+    }
+
+    private static void cancelAll(Map<LayerType, Future<byte[]>> pending) {
+        for (Future<byte[]> future : pending.values()) {
+            future.cancel(true);
+        }
+    }
+
+    private static class EncoderThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "layer-encode-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.magicquill.data.encode;
+
+import com.example.magicquill.data.layer.TiledLayer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Streaming PNG encoder for tiled layers.
+ * Rows are pulled from the layer one at a time, filtered, deflated and
+ * written out as fixed-size IDAT chunks, so memory use is a few row and
+ * chunk buffers regardless of the image size.
+ */
+public class PngEncoder {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int CHUNK_SIZE = 32 * 1024;
+    private static final int COLOR_TYPE_RGB = 2;
+    private static final int COLOR_TYPE_RGBA = 6;
+
+    private final int compressionLevel;
+
+    public PngEncoder() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param compressionLevel A {@link Deflater} level (0-9, or -1 for the default)
+     */
+    public PngEncoder(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Encode a whole layer as an 8-bit PNG.
+     * @param layer The layer to encode
+     * @param withAlpha True for RGBA, false for RGB (alpha dropped)
+     * @param out Destination stream; it is not closed
+     */
+    public void encode(TiledLayer layer, boolean withAlpha, OutputStream out) throws IOException {
+        int width = layer.getWidth();
+        int height = layer.getHeight();
+        int channels = withAlpha ? 4 : 3;
+        int rowBytes = width * channels;
+
+        out.write(SIGNATURE);
+        writeHeader(out, width, height, withAlpha ? COLOR_TYPE_RGBA : COLOR_TYPE_RGB);
+
+        int[] argbRow = new int[width];
+        byte[] previous = new byte[rowBytes];
+        byte[] current = new byte[rowBytes];
+        byte[] filtered = new byte[rowBytes + 1];
+
+        Deflater deflater = new Deflater(compressionLevel);
+        try {
+            ChunkOutputStream idat = new ChunkOutputStream(out, "IDAT");
+            DeflaterOutputStream zip = new DeflaterOutputStream(idat, deflater, CHUNK_SIZE);
+            for (int y = 0; y < height; y++) {
+                layer.readPixels(argbRow, 0, width, 0, y, width, 1);
+                unpackRow(argbRow, current, channels);
+                filterRow(current, previous, filtered, channels, y == 0);
+                zip.write(filtered, 0, filtered.length);
+                byte[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+            zip.finish();
+            idat.flushChunk();
+        } finally {
+            deflater.end();
+        }
+
+        writeChunk(out, "IEND", new byte[0], 0);
+    }
+
+    private static void unpackRow(int[] argb, byte[] row, int channels) {
+        int j = 0;
+        for (int pixel : argb) {
+            row[j++] = (byte) (pixel >>> 16);
+            row[j++] = (byte) (pixel >>> 8);
+            row[j++] = (byte) pixel;
+            if (channels == 4) {
+                row[j++] = (byte) (pixel >>> 24);
+            }
+        }
+    }
+
+    /**
+     * Pick the cheaper of the None, Sub and Up filters for a row using the
+     * minimum sum of absolute differences heuristic.
+     */
+    private static void filterRow(byte[] row, byte[] prev, byte[] out, int bpp, boolean firstRow) {
+        long sumNone = 0;
+        long sumSub = 0;
+        long sumUp = 0;
+        for (int i = 0; i < row.length; i++) {
+            int value = row[i];
+            int left = i >= bpp ? row[i - bpp] : 0;
+            sumNone += Math.abs(value);
+            sumSub += Math.abs((byte) (value - left));
+            if (!firstRow) {
+                sumUp += Math.abs((byte) (value - prev[i]));
+            }
+        }
+
+        if (!firstRow && sumUp <= sumSub && sumUp <= sumNone) {
+            out[0] = 2;
+            for (int i = 0; i < row.length; i++) {
+                out[i + 1] = (byte) (row[i] - prev[i]);
+            }
+        } else if (sumSub < sumNone) {
+            out[0] = 1;
+            for (int i = 0; i < row.length; i++) {
+                out[i + 1] = (byte) (row[i] - (i >= bpp ? row[i - bpp] : 0));
+            }
+        } else {
+            out[0] = 0;
+            System.arraycopy(row, 0, out, 1, row.length);
+        }
+    }
+
+    private static void writeHeader(OutputStream out, int width, int height, int colorType) throws IOException {
+        byte[] ihdr = new byte[13];
+        putInt(ihdr, 0, width);
+        putInt(ihdr, 4, height);
+        ihdr[8] = 8;          // Bit depth
+        ihdr[9] = (byte) colorType;
+        ihdr[10] = 0;         // Deflate
+        ihdr[11] = 0;         // Adaptive filtering
+        ihdr[12] = 0;         // No interlace
+        writeChunk(out, "IHDR", ihdr, ihdr.length);
+    }
+
+    static void writeChunk(OutputStream out, String type, byte[] data, int length) throws IOException {
+        byte[] header = new byte[8];
+        putInt(header, 0, length);
+        for (int i = 0; i < 4; i++) {
+            header[4 + i] = (byte) type.charAt(i);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(header, 4, 4);
+        crc.update(data, 0, length);
+        byte[] trailer = new byte[4];
+        putInt(trailer, 0, (int) crc.getValue());
+
+        out.write(header);
+        out.write(data, 0, length);
+        out.write(trailer);
+    }
+
+    private static void putInt(byte[] b, int offset, int value) {
+        b[offset] = (byte) (value >>> 24);
+        b[offset + 1] = (byte) (value >>> 16);
+        b[offset + 2] = (byte) (value >>> 8);
+        b[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Collects compressed bytes into a fixed buffer and emits a chunk each time it fills.
+     */
+    private static class ChunkOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final String type;
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int length;
+
+        ChunkOutputStream(OutputStream out, String type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (length == buffer.length) {
+                flushChunk();
+            }
+            buffer[length++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (length == buffer.length) {
+                    flushChunk();
+                }
+                int n = Math.min(len, buffer.length - length);
+                System.arraycopy(b, off, buffer, length, n);
+                length += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        void flushChunk() throws IOException {
+            if (length > 0) {
+                writeChunk(out, type, buffer, length);
+                length = 0;
+            }
+        }
+    }
+}
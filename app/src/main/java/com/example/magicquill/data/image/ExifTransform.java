@@ -0,0 +1,151 @@
+package com.example.magicquill.data.image;
+
+/**
+ * Maps between the stored (raw) pixel layout of a photo and its displayed
+ * layout according to the EXIF orientation tag.
+ * Strip-wise import needs the mapping in both directions: for a band of
+ * displayed rows it finds the raw rectangle to decode, then copies the
+ * decoded pixels into displayed order.
+ */
+public class ExifTransform {
+
+    // EXIF orientation tag values
+    public static final int NORMAL = 1;
+    public static final int FLIP_HORIZONTAL = 2;
+    public static final int ROTATE_180 = 3;
+    public static final int FLIP_VERTICAL = 4;
+    public static final int TRANSPOSE = 5;
+    public static final int ROTATE_90 = 6;
+    public static final int TRANSVERSE = 7;
+    public static final int ROTATE_270 = 8;
+
+    private final int orientation;
+    private final int rawWidth;
+    private final int rawHeight;
+
+    /**
+     * @param orientation EXIF orientation (1-8); anything else is treated as normal
+     * @param rawWidth Width of the stored image
+     * @param rawHeight Height of the stored image
+     */
+    public ExifTransform(int orientation, int rawWidth, int rawHeight) {
+        this.orientation = orientation >= NORMAL && orientation <= ROTATE_270 ? orientation : NORMAL;
+        this.rawWidth = rawWidth;
+        this.rawHeight = rawHeight;
+    }
+
+    public int getOrientation() {
+        return orientation;
+    }
+
+    /**
+     * Check whether width and height swap between raw and displayed layout.
+     * @return True for the transposing orientations (5-8)
+     */
+    public boolean swapsAxes() {
+        return orientation >= TRANSPOSE;
+    }
+
+    public int getWidth() {
+        return swapsAxes() ? rawHeight : rawWidth;
+    }
+
+    public int getHeight() {
+        return swapsAxes() ? rawWidth : rawHeight;
+    }
+
+    /**
+     * Map a displayed pixel to its raw X coordinate.
+     */
+    public int rawX(int x, int y) {
+        switch (orientation) {
+            case FLIP_HORIZONTAL:
+            case ROTATE_180:
+                return rawWidth - 1 - x;
+            case TRANSPOSE:
+            case ROTATE_90:
+                return y;
+            case TRANSVERSE:
+            case ROTATE_270:
+                return rawWidth - 1 - y;
+            default:
+                return x;
+        }
+    }
+
+    /**
+     * Map a displayed pixel to its raw Y coordinate.
+     */
+    public int rawY(int x, int y) {
+        switch (orientation) {
+            case ROTATE_180:
+            case FLIP_VERTICAL:
+                return rawHeight - 1 - y;
+            case TRANSPOSE:
+            case ROTATE_270:
+                return x;
+            case ROTATE_90:
+            case TRANSVERSE:
+                return rawHeight - 1 - x;
+            default:
+                return y;
+        }
+    }
+
+    /**
+     * Get the raw rectangle holding a band of displayed rows.
+     * @param y First displayed row
+     * @param rows Number of displayed rows
+     * @return {left, top, right, bottom} in raw pixels, right/bottom exclusive
+     */
+    public int[] rawRectForRows(int y, int rows) {
+        int last = y + rows - 1;
+        int right = getWidth() - 1;
+        int x0 = Math.min(Math.min(rawX(0, y), rawX(right, y)), Math.min(rawX(0, last), rawX(right, last)));
+        int x1 = Math.max(Math.max(rawX(0, y), rawX(right, y)), Math.max(rawX(0, last), rawX(right, last)));
+        int y0 = Math.min(Math.min(rawY(0, y), rawY(right, y)), Math.min(rawY(0, last), rawY(right, last)));
+        int y1 = Math.max(Math.max(rawY(0, y), rawY(right, y)), Math.max(rawY(0, last), rawY(right, last)));
+        return new int[]{x0, y0, x1 + 1, y1 + 1};
+    }
+
+    /**
+     * Copy decoded raw pixels of {@link #rawRectForRows} into displayed order.
+     * @param raw Pixels of the raw rectangle, row-major with stride rect width
+     * @param rect The raw rectangle as returned by {@link #rawRectForRows}
+     * @param y First displayed row
+     * @param rows Number of displayed rows
+     * @param out Destination with stride {@link #getWidth()}
+     */
+    public void toDisplayed(int[] raw, int[] rect, int y, int rows, int[] out) {
+        int width = getWidth();
+        int stride = rect[2] - rect[0];
+        if (orientation == NORMAL) {
+            System.arraycopy(raw, 0, out, 0, width * rows);
+            return;
+        }
+        for (int row = 0; row < rows; row++) {
+            int dy = y + row;
+            int outRow = row * width;
+            for (int x = 0; x < width; x++) {
+                out[outRow + x] = raw[(rawY(x, dy) - rect[1]) * stride + (rawX(x, dy) - rect[0])];
+            }
+        }
+    }
+
+    /**
+     * Pick the largest power-of-two subsampling that still decodes at least
+     * the target long edge, as BitmapFactory's inSampleSize expects.
+     * @param width Raw width
+     * @param height Raw height
+     * @param targetLongEdge Long edge the decoded image should reach
+     * @return The sample size (1, 2, 4, ...)
+     */
+    public static int sampleSizeFor(int width, int height, int targetLongEdge) {
+        int longEdge = Math.max(width, height);
+        int sampleSize = 1;
+        while (longEdge / (sampleSize * 2) >= targetLongEdge) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+}
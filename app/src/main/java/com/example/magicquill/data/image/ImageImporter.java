@@ -0,0 +1,266 @@
+package com.example.magicquill.data.image;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import androidx.exifinterface.media.ExifInterface;
+
+import com.example.magicquill.data.layer.LayerStore;
+import com.example.magicquill.data.layer.LayerType;
+import com.example.magicquill.data.layer.WorkingResolution;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Imports a picked photo without ever holding it in memory at full size.
+ * Bounds and EXIF orientation are read first; the working copy is decoded
+ * with a power-of-two inSampleSize and scaled to the working resolution,
+ * and a larger original is streamed to a {@link RawImageFile} in bands of
+ * rows with BitmapRegionDecoder. Everything runs on a background thread;
+ * progress and the result are delivered on the callback executor.
+ */
+public class ImageImporter {
+
+    // Displayed rows decoded per region; bounds peak memory for the full-size pass
+    private static final int STRIP_ROWS = 256;
+    // Share of the progress bar spent on the working copy
+    private static final float WORKING_COPY_PROGRESS = 0.2f;
+
+    public interface ImportListener {
+        void onProgress(float fraction);
+        void onImported(WorkingResolution resolution);
+        void onImportFailed(Exception error);
+    }
+
+    private final ContentResolver resolver;
+    private final File directory;
+    private final Executor callbackExecutor;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "image-import");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Future<?> current;
+    private volatile long currentId;
+
+    /**
+     * @param resolver Resolver used to open picked URIs
+     * @param directory Directory the full-resolution originals are written to
+     * @param callbackExecutor Executor listener callbacks run on, e.g. the main thread
+     */
+    public ImageImporter(ContentResolver resolver, File directory, Executor callbackExecutor) {
+        this.resolver = resolver;
+        this.directory = directory;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Start importing an image. An import still in progress is cancelled.
+     * @param uri The picked image
+     * @param maxLongEdge Long edge cap of the working resolution
+     * @param listener Receives progress and the result
+     */
+    public synchronized void importImage(Uri uri, int maxLongEdge, ImportListener listener) {
+        cancel();
+        long id = currentId;
+        current = worker.submit(() -> {
+            try {
+                WorkingResolution resolution = decode(uri, maxLongEdge, progress -> deliver(id, () -> listener.onProgress(progress)));
+                callbackExecutor.execute(() -> {
+                    if (id == currentId) {
+                        listener.onImported(resolution);
+                    } else {
+                        discard(resolution);
+                    }
+                });
+            } catch (InterruptedIOException e) {
+                // Cancelled; nobody is waiting for the result
+            } catch (IOException | RuntimeException | OutOfMemoryError e) {
+                Exception error = e instanceof Exception ? (Exception) e : new IOException("Image too large", e);
+                deliver(id, () -> listener.onImportFailed(error));
+            }
+        });
+    }
+
+    /**
+     * Cancel the import in progress, if any. Its listener is not called again.
+     */
+    public synchronized void cancel() {
+        currentId++;
+        if (current != null) {
+            current.cancel(true);
+            current = null;
+        }
+    }
+
+    public void shutdown() {
+        cancel();
+        worker.shutdownNow();
+    }
+
+    private interface ProgressSink {
+        void publish(float fraction);
+    }
+
+    private void deliver(long id, Runnable callback) {
+        callbackExecutor.execute(() -> {
+            if (id == currentId) {
+                callback.run();
+            }
+        });
+    }
+
+    private static void discard(WorkingResolution resolution) {
+        if (resolution.getOriginal() instanceof RawImageFile) {
+            RawImageFile original = (RawImageFile) resolution.getOriginal();
+            try {
+                original.close();
+            } catch (IOException e) {
+                // Deleted below anyway
+            }
+            original.getFile().delete();
+        }
+    }
+
+    private WorkingResolution decode(Uri uri, int maxLongEdge, ProgressSink progress) throws IOException {
+        // 1. Bounds and orientation; no pixels are decoded
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        try (InputStream in = open(uri)) {
+            BitmapFactory.decodeStream(in, null, bounds);
+        }
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            throw new IOException("Unsupported image: " + uri);
+        }
+        int orientation;
+        try (InputStream in = open(uri)) {
+            orientation = new ExifInterface(in).getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        }
+        ExifTransform transform = new ExifTransform(orientation, bounds.outWidth, bounds.outHeight);
+        int[] size = WorkingResolution.fitLongEdge(transform.getWidth(), transform.getHeight(), maxLongEdge);
+        checkCancelled();
+
+        // 2. Subsampled working copy
+        LayerStore store = new LayerStore(size[0], size[1]);
+        decodeWorkingCopy(uri, transform, store);
+        progress.publish(WORKING_COPY_PROGRESS);
+
+        // 3. Full-resolution original on disk, only if the working copy lost pixels
+        RawImageFile original = null;
+        if (size[0] != transform.getWidth() || size[1] != transform.getHeight()) {
+            original = writeOriginal(uri, transform, progress);
+        }
+        progress.publish(1f);
+        return new WorkingResolution(store, original);
+    }
+
+    private void decodeWorkingCopy(Uri uri, ExifTransform transform, LayerStore store) throws IOException {
+        // Decode in stored orientation, then rotate the small copy
+        int rawWidth = transform.swapsAxes() ? store.getHeight() : store.getWidth();
+        int rawHeight = transform.swapsAxes() ? store.getWidth() : store.getHeight();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        // Only the long edge matters, which rotation does not change
+        options.inSampleSize = ExifTransform.sampleSizeFor(transform.getWidth(), transform.getHeight(), Math.max(rawWidth, rawHeight));
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        Bitmap decoded;
+        try (InputStream in = open(uri)) {
+            decoded = BitmapFactory.decodeStream(in, null, options);
+        }
+        if (decoded == null) {
+            throw new IOException("Could not decode " + uri);
+        }
+        Bitmap scaled = decoded;
+        if (decoded.getWidth() != rawWidth || decoded.getHeight() != rawHeight) {
+            scaled = Bitmap.createScaledBitmap(decoded, rawWidth, rawHeight, true);
+            decoded.recycle();
+        }
+        int[] raw = new int[rawWidth * rawHeight];
+        scaled.getPixels(raw, 0, rawWidth, 0, 0, rawWidth, rawHeight);
+        scaled.recycle();
+
+        ExifTransform small = new ExifTransform(transform.getOrientation(), rawWidth, rawHeight);
+        int[] pixels = new int[store.getWidth() * store.getHeight()];
+        small.toDisplayed(raw, new int[]{0, 0, rawWidth, rawHeight}, 0, store.getHeight(), pixels);
+        store.getLayer(LayerType.ORIGINAL_IMAGE).writePixels(pixels, 0, store.getWidth(), 0, 0, store.getWidth(), store.getHeight(), null);
+    }
+
+    @SuppressWarnings("deprecation")
+    private RawImageFile writeOriginal(Uri uri, ExifTransform transform, ProgressSink progress) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        BitmapRegionDecoder decoder;
+        try (InputStream in = open(uri)) {
+            decoder = BitmapRegionDecoder.newInstance(in, false);
+        }
+        if (decoder == null) {
+            throw new IOException("Region decoding unsupported for " + uri);
+        }
+        File path = new File(directory, "original-" + System.currentTimeMillis() + ".raw");
+        RawImageFile file = RawImageFile.create(path, transform.getWidth(), transform.getHeight());
+        boolean complete = false;
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            Rect region = new Rect();
+            int width = transform.getWidth();
+            int height = transform.getHeight();
+            int[] strip = new int[width * STRIP_ROWS];
+            int[] raw = null;
+            for (int y = 0; y < height; y += STRIP_ROWS) {
+                checkCancelled();
+                int rows = Math.min(STRIP_ROWS, height - y);
+                int[] rect = transform.rawRectForRows(y, rows);
+                region.set(rect[0], rect[1], rect[2], rect[3]);
+                Bitmap band = decoder.decodeRegion(region, options);
+                if (band == null) {
+                    throw new IOException("Could not decode rows " + y + "-" + (y + rows));
+                }
+                int bandWidth = rect[2] - rect[0];
+                int bandHeight = rect[3] - rect[1];
+                if (raw == null || raw.length < bandWidth * bandHeight) {
+                    raw = new int[bandWidth * bandHeight];
+                }
+                band.getPixels(raw, 0, bandWidth, 0, 0, bandWidth, bandHeight);
+                band.recycle();
+                transform.toDisplayed(raw, rect, y, rows, strip);
+                file.writeRows(y, rows, strip);
+                progress.publish(WORKING_COPY_PROGRESS + (1f - WORKING_COPY_PROGRESS) * (y + rows) / height);
+            }
+            complete = true;
+            return file;
+        } finally {
+            decoder.recycle();
+            if (!complete) {
+                file.close();
+                path.delete();
+            }
+        }
+    }
+
+    private InputStream open(Uri uri) throws IOException {
+        InputStream in = resolver.openInputStream(uri);
+        if (in == null) {
+            throw new FileNotFoundException("Cannot open " + uri);
+        }
+        return in;
+    }
+
+    private static void checkCancelled() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Import cancelled");
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.magicquill.data.image;
+
+import java.io.IOException;
+
+/**
+ * Read access to an ARGB image that is too large to keep in memory,
+ * such as the full-resolution original kept on disk.
+ */
+public interface ImageSource {
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * Read whole rows of the image.
+     * @param y The first row
+     * @param rows Number of rows
+     * @param out Destination with stride {@link #getWidth()}
+     * @throws IOException If the backing storage cannot be read
+     */
+    void readRows(int y, int rows, int[] out) throws IOException;
+}
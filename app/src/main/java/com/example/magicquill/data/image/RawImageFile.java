@@ -0,0 +1,155 @@
+package com.example.magicquill.data.image;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Uncompressed ARGB image stored in a file, read and written by rows.
+ * A 16-byte header (magic, version, width, height) is followed by the
+ * pixels as big-endian ints in row-major order, so any row can be reached
+ * with a single seek. Used to keep the full-resolution original on disk
+ * while the canvas works on a downscaled copy.
+ */
+public class RawImageFile implements ImageSource, Closeable {
+
+    private static final int MAGIC = 0x4D515257;   // "MQRW"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    private final File path;
+    private final RandomAccessFile file;
+    private final int width;
+    private final int height;
+    private byte[] buffer = new byte[0];
+
+    private RawImageFile(File path, RandomAccessFile file, int width, int height) {
+        this.path = path;
+        this.file = file;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Create (or truncate) an image file of the given size. Pixels read as
+     * transparent until written.
+     * @param path The file
+     * @param width Image width
+     * @param height Image height
+     * @return The open image
+     */
+    public static RawImageFile create(File path, int width, int height) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid image size: " + width + "x" + height);
+        }
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        try {
+            file.setLength(0);
+            file.writeInt(MAGIC);
+            file.writeInt(VERSION);
+            file.writeInt(width);
+            file.writeInt(height);
+            file.setLength(HEADER_SIZE + (long) width * height * 4);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        return new RawImageFile(path, file, width, height);
+    }
+
+    /**
+     * Open an existing image file.
+     * @param path The file
+     * @return The open image
+     * @throws IOException If the file is missing, truncated or not an image file
+     */
+    public static RawImageFile open(File path) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        try {
+            if (file.length() < HEADER_SIZE || file.readInt() != MAGIC || file.readInt() != VERSION) {
+                throw new IOException("Not a raw image file: " + path);
+            }
+            int width = file.readInt();
+            int height = file.readInt();
+            if (width <= 0 || height <= 0 || file.length() < HEADER_SIZE + (long) width * height * 4) {
+                throw new IOException("Truncated raw image file: " + path);
+            }
+            return new RawImageFile(path, file, width, height);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    public File getFile() {
+        return path;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public synchronized void readRows(int y, int rows, int[] out) throws IOException {
+        checkRows(y, rows);
+        byte[] bytes = buffer(rows);
+        file.seek(offsetOf(y));
+        file.readFully(bytes, 0, rows * width * 4);
+        int count = rows * width;
+        for (int i = 0, j = 0; i < count; i++, j += 4) {
+            out[i] = ((bytes[j] & 0xFF) << 24) | ((bytes[j + 1] & 0xFF) << 16)
+                    | ((bytes[j + 2] & 0xFF) << 8) | (bytes[j + 3] & 0xFF);
+        }
+    }
+
+    /**
+     * Write whole rows of the image.
+     * @param y The first row
+     * @param rows Number of rows
+     * @param src Source pixels with stride {@link #getWidth()}
+     */
+    public synchronized void writeRows(int y, int rows, int[] src) throws IOException {
+        checkRows(y, rows);
+        byte[] bytes = buffer(rows);
+        int count = rows * width;
+        for (int i = 0, j = 0; i < count; i++, j += 4) {
+            int pixel = src[i];
+            bytes[j] = (byte) (pixel >>> 24);
+            bytes[j + 1] = (byte) (pixel >>> 16);
+            bytes[j + 2] = (byte) (pixel >>> 8);
+            bytes[j + 3] = (byte) pixel;
+        }
+        file.seek(offsetOf(y));
+        file.write(bytes, 0, rows * width * 4);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        file.close();
+    }
+
+    private long offsetOf(int y) {
+        return HEADER_SIZE + (long) y * width * 4;
+    }
+
+    private void checkRows(int y, int rows) {
+        if (y < 0 || rows < 0 || y + rows > height) {
+            throw new IndexOutOfBoundsException("Rows " + y + "+" + rows + " outside 0.." + height);
+        }
+    }
+
+    private byte[] buffer(int rows) {
+        int size = rows * width * 4;
+        if (buffer.length < size) {
+            buffer = new byte[size];
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,243 @@
+package com.example.magicquill.data.layer;
+
+import com.example.magicquill.startup.NativeLibrary;
+
+/**
+ * Antialiased round-capped brush segments, filled straight into tile buffers.
+ * Each pixel's coverage is the part of it inside the brush outline (measured
+ * at its center, ramping over one pixel at the edge). Fully covered pixels
+ * take the brush value outright; edge pixels keep the larger alpha on mask
+ * tiles and blend source-over on color tiles, so joints between the segments
+ * of one stroke do not darken.
+ * <p>
+ * The work is done by the native library when it is loaded and by an
+ * equivalent Java loop otherwise. Both follow the same float operations in
+ * the same order (the native side is built without FMA contraction), so they
+ * write identical bytes and a stroke replays the same way on either. That
+ * also lets the library load in the background: strokes drawn before it is
+ * ready use the Java loop, and a stroke may switch paths halfway through.
+ */
+public final class BrushRasterizer {
+
+    private static final int TILE_SIZE = TiledLayer.TILE_SIZE;
+    private static final NativeLibrary LIBRARY = NativeLibrary.magicQuill();
+    private static volatile boolean nativeEnabled = true;
+
+    static {
+        // Normally already started by MainActivity; never wait for it here
+        LIBRARY.ready();
+    }
+
+    private BrushRasterizer() {
+    }
+
+    /**
+     * Check whether the native rasterizer is loaded. Until it is, strokes
+     * use the Java fallback.
+     */
+    public static boolean isNativeAvailable() {
+        return LIBRARY.isLoaded();
+    }
+
+    public static boolean isNativeEnabled() {
+        return nativeEnabled && LIBRARY.isLoaded();
+    }
+
+    /**
+     * Choose between the native rasterizer and the Java fallback.
+     * @param enabled True to use the native rasterizer when it is available
+     */
+    public static void setNativeEnabled(boolean enabled) {
+        nativeEnabled = enabled;
+    }
+
+    /**
+     * Fill a segment into an 8-bit alpha tile.
+     * @param tile Tile pixels with stride TILE_SIZE
+     * @param tileLeft Layer X of the tile's first column
+     * @param tileTop Layer Y of the tile's first row
+     * @param left Clip left in layer pixels, inside the tile
+     * @param top Clip top in layer pixels, inside the tile
+     * @param right Clip right (exclusive)
+     * @param bottom Clip bottom (exclusive)
+     * @param x0 Start X in layer pixels
+     * @param y0 Start Y in layer pixels
+     * @param x1 End X in layer pixels
+     * @param y1 End Y in layer pixels
+     * @param radius Brush radius in layer pixels
+     * @param alpha Brush alpha in [0, 255]
+     * @param hit Receives {left, top, right, bottom} of the covered pixels
+     * @return False if no pixel was covered (the tile and hit are left untouched)
+     */
+    public static boolean fillAlpha(byte[] tile, int tileLeft, int tileTop,
+                                    int left, int top, int right, int bottom,
+                                    float x0, float y0, float x1, float y1, float radius,
+                                    int alpha, int[] hit) {
+        if (isNativeEnabled()) {
+            return nativeFillAlpha(tile, tileLeft, tileTop, left, top, right, bottom,
+                    x0, y0, x1, y1, radius, alpha, hit);
+        }
+        return fillAlphaJava(tile, tileLeft, tileTop, left, top, right, bottom,
+                x0, y0, x1, y1, radius, alpha, hit);
+    }
+
+    /**
+     * Fill a segment into an ARGB tile. Parameters as for {@link #fillAlpha},
+     * with an ARGB brush color instead of an alpha.
+     */
+    public static boolean fillArgb(int[] tile, int tileLeft, int tileTop,
+                                   int left, int top, int right, int bottom,
+                                   float x0, float y0, float x1, float y1, float radius,
+                                   int color, int[] hit) {
+        if (isNativeEnabled()) {
+            return nativeFillArgb(tile, tileLeft, tileTop, left, top, right, bottom,
+                    x0, y0, x1, y1, radius, color, hit);
+        }
+        return fillArgbJava(tile, tileLeft, tileTop, left, top, right, bottom,
+                x0, y0, x1, y1, radius, color, hit);
+    }
+
+    /**
+     * Get the coverage of one pixel center.
+     * @return Coverage in [0, 255]
+     */
+    static int coverage(float x0, float y0, float x1, float y1, float radius, float px, float py) {
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        float lengthSq = dx * dx + dy * dy;
+        float edge = radius + 0.5f;
+        float t = lengthSq > 0f ? ((px - x0) * dx + (py - y0) * dy) / lengthSq : 0f;
+        t = t < 0f ? 0f : (t > 1f ? 1f : t);
+        float ex = px - (x0 + t * dx);
+        float ey = py - (y0 + t * dy);
+        float c = (edge - (float) Math.sqrt(ex * ex + ey * ey)) * 255f + 0.5f;
+        c = c < 0f ? 0f : (c > 255f ? 255f : c);
+        return (int) c;
+    }
+
+    static boolean fillAlphaJava(byte[] tile, int tileLeft, int tileTop,
+                                 int left, int top, int right, int bottom,
+                                 float x0, float y0, float x1, float y1, float radius,
+                                 int alpha, int[] hit) {
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        float lengthSq = dx * dx + dy * dy;
+        float divisor = lengthSq > 0f ? lengthSq : 1f;
+        float edge = radius + 0.5f;
+        int hitLeft = Integer.MAX_VALUE;
+        int hitTop = 0;
+        int hitRight = Integer.MIN_VALUE;
+        int hitBottom = 0;
+
+        for (int y = top; y < bottom; y++) {
+            float py = y + 0.5f;
+            float rowDot = (py - y0) * dy;
+            int rowOffset = (y - tileTop) * TILE_SIZE - tileLeft;
+            for (int x = left; x < right; x++) {
+                float px = x + 0.5f;
+                float t = ((px - x0) * dx + rowDot) / divisor;
+                t = t < 0f ? 0f : (t > 1f ? 1f : t);
+                float ex = px - (x0 + t * dx);
+                float ey = py - (y0 + t * dy);
+                float c = (edge - (float) Math.sqrt(ex * ex + ey * ey)) * 255f + 0.5f;
+                int cov = (int) (c < 0f ? 0f : (c > 255f ? 255f : c));
+                if (cov == 0) {
+                    continue;
+                }
+                int old = tile[rowOffset + x] & 0xFF;
+                int scaled = (cov * alpha + 127) / 255;
+                tile[rowOffset + x] = (byte) (cov == 255 ? alpha : Math.max(scaled, old));
+                if (hitLeft == Integer.MAX_VALUE) {
+                    hitTop = y;
+                }
+                hitLeft = Math.min(hitLeft, x);
+                hitRight = Math.max(hitRight, x + 1);
+                hitBottom = y + 1;
+            }
+        }
+        return storeHit(hit, hitLeft, hitTop, hitRight, hitBottom);
+    }
+
+    static boolean fillArgbJava(int[] tile, int tileLeft, int tileTop,
+                                int left, int top, int right, int bottom,
+                                float x0, float y0, float x1, float y1, float radius,
+                                int color, int[] hit) {
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        float lengthSq = dx * dx + dy * dy;
+        float divisor = lengthSq > 0f ? lengthSq : 1f;
+        float edge = radius + 0.5f;
+        int ca = color >>> 24;
+        int cr = color >> 16 & 0xFF;
+        int cg = color >> 8 & 0xFF;
+        int cb = color & 0xFF;
+        int hitLeft = Integer.MAX_VALUE;
+        int hitTop = 0;
+        int hitRight = Integer.MIN_VALUE;
+        int hitBottom = 0;
+
+        for (int y = top; y < bottom; y++) {
+            float py = y + 0.5f;
+            float rowDot = (py - y0) * dy;
+            int rowOffset = (y - tileTop) * TILE_SIZE - tileLeft;
+            for (int x = left; x < right; x++) {
+                float px = x + 0.5f;
+                float t = ((px - x0) * dx + rowDot) / divisor;
+                t = t < 0f ? 0f : (t > 1f ? 1f : t);
+                float ex = px - (x0 + t * dx);
+                float ey = py - (y0 + t * dy);
+                float c = (edge - (float) Math.sqrt(ex * ex + ey * ey)) * 255f + 0.5f;
+                int cov = (int) (c < 0f ? 0f : (c > 255f ? 255f : c));
+                if (cov == 0) {
+                    continue;
+                }
+                if (hitLeft == Integer.MAX_VALUE) {
+                    hitTop = y;
+                }
+                hitLeft = Math.min(hitLeft, x);
+                hitRight = Math.max(hitRight, x + 1);
+                hitBottom = y + 1;
+                if (cov == 255) {
+                    tile[rowOffset + x] = color;
+                    continue;
+                }
+                int sa = (cov * ca + 127) / 255;
+                if (sa == 0) {
+                    continue;
+                }
+                // Non-premultiplied source-over with the brush alpha scaled by coverage
+                int dst = tile[rowOffset + x];
+                int ws = sa * 255;
+                int wd = (dst >>> 24) * (255 - sa);
+                int sum = ws + wd;
+                int oa = sa + (wd + 127) / 255;
+                int r = (cr * ws + (dst >> 16 & 0xFF) * wd + sum / 2) / sum;
+                int g = (cg * ws + (dst >> 8 & 0xFF) * wd + sum / 2) / sum;
+                int b = (cb * ws + (dst & 0xFF) * wd + sum / 2) / sum;
+                tile[rowOffset + x] = (oa << 24) | (r << 16) | (g << 8) | b;
+            }
+        }
+        return storeHit(hit, hitLeft, hitTop, hitRight, hitBottom);
+    }
+
+    private static boolean storeHit(int[] hit, int left, int top, int right, int bottom) {
+        if (left == Integer.MAX_VALUE) {
+            return false;
+        }
+        hit[0] = left;
+        hit[1] = top;
+        hit[2] = right;
+        hit[3] = bottom;
+        return true;
+    }
+
+    private static native boolean nativeFillAlpha(byte[] tile, int tileLeft, int tileTop,
+                                                  int left, int top, int right, int bottom,
+                                                  float x0, float y0, float x1, float y1, float radius,
+                                                  int alpha, int[] hit);
+
+    private static native boolean nativeFillArgb(int[] tile, int tileLeft, int tileTop,
+                                                 int left, int top, int right, int bottom,
+                                                 float x0, float y0, float x1, float y1, float radius,
+                                                 int color, int[] hit);
+}
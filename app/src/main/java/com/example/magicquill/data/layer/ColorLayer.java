@@ -0,0 +1,107 @@
+package com.example.magicquill.data.layer;
+
+/**
+ * Tiled layer storing full ARGB pixels, one int per pixel.
+ * Used for the original image and the color brush layer.
+ */
+public class ColorLayer extends TiledLayer {
+
+    private final int[][] tiles;
+    // Zeroed tile that a segment is drawn into when its tile is unallocated
+    private int[] spareTile;
+
+    public ColorLayer(LayerType type, int width, int height) {
+        super(type, width, height);
+        this.tiles = new int[getTileCount()][];
+    }
+
+    @Override
+    public boolean isTileAllocated(int tileIndex) {
+        return tiles[tileIndex] != null;
+    }
+
+    @Override
+    protected void ensureTile(int tileIndex) {
+        if (tiles[tileIndex] == null) {
+            tiles[tileIndex] = new int[TILE_PIXELS];
+        }
+    }
+
+    @Override
+    protected void releaseTile(int tileIndex) {
+        unshareTile(tileIndex);
+        tiles[tileIndex] = null;
+    }
+
+    /**
+     * Get an allocated tile's storage for writing, copying it first if a snapshot holds it.
+     */
+    private int[] writableTile(int tileIndex) {
+        if (unshareTile(tileIndex)) {
+            tiles[tileIndex] = tiles[tileIndex].clone();
+        }
+        return tiles[tileIndex];
+    }
+
+    @Override
+    protected boolean fillSegment(int tileIndex, int left, int top, int right, int bottom,
+                                  float x0, float y0, float x1, float y1, float radius,
+                                  int color, int[] hit) {
+        boolean fresh = tiles[tileIndex] == null;
+        int[] tile = fresh ? null : writableTile(tileIndex);
+        if (fresh) {
+            if (spareTile == null) {
+                spareTile = new int[TILE_PIXELS];
+            }
+            tile = spareTile;
+        }
+        if (!BrushRasterizer.fillArgb(tile, tileLeft(tileIndex), tileTop(tileIndex), left, top, right, bottom,
+                x0, y0, x1, y1, radius, color, hit)) {
+            // Nothing was written, so the spare tile is still clear
+            return false;
+        }
+        if (fresh) {
+            tiles[tileIndex] = tile;
+            spareTile = null;
+        }
+        return true;
+    }
+
+    @Override
+    protected void readTileRow(int tileIndex, int row, int col, int count, int[] out, int outOffset) {
+        System.arraycopy(tiles[tileIndex], row * TILE_SIZE + col, out, outOffset, count);
+    }
+
+    @Override
+    protected void writeTileRow(int tileIndex, int row, int col, int count, int[] src, int srcOffset) {
+        System.arraycopy(src, srcOffset, writableTile(tileIndex), row * TILE_SIZE + col, count);
+    }
+
+    @Override
+    protected Object copyTile(int tileIndex) {
+        return tiles[tileIndex] != null ? tiles[tileIndex].clone() : null;
+    }
+
+    @Override
+    protected void loadTile(int tileIndex, Object data) {
+        unshareTile(tileIndex);
+        tiles[tileIndex] = data != null ? ((int[]) data).clone() : null;
+    }
+
+    @Override
+    protected TiledLayer shareTiles() {
+        ColorLayer copy = new ColorLayer(getType(), getWidth(), getHeight());
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i] != null) {
+                copy.tiles[i] = tiles[i];
+                shareTile(i);
+            }
+        }
+        return copy;
+    }
+
+    @Override
+    public int getBytesPerTile() {
+        return TILE_PIXELS * 4;
+    }
+}
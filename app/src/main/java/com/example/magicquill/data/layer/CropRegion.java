@@ -0,0 +1,173 @@
+package com.example.magicquill.data.layer;
+
+import java.util.EnumMap;
+
+/**
+ * Rectangle of a canvas sent in place of the whole canvas for a cropped
+ * generate request: the bounds of everything drawn on the stroke layers,
+ * grown by the request's grow_size and a context margin.
+ * The server only changes pixels under the grown mask, so the generated
+ * crop can be pasted back at the same place. For a small edit on a large
+ * photo this shrinks both the upload and the area the model diffuses.
+ */
+public class CropRegion {
+
+    /** Context kept around the grown edit on each side, in canvas pixels. */
+    public static final int DEFAULT_MARGIN = 64;
+    // Smaller crops give the model too little context to match the photo
+    static final int MIN_SIZE = 256;
+    // The model works on 8x8 latent blocks; aligned sizes are not resized
+    static final int ALIGNMENT = 8;
+    // Above this share of the canvas a crop saves too little to be worth it
+    static final float MAX_AREA_FRACTION = 0.6f;
+
+    // Layers whose strokes decide the region; the original is never drawn on
+    private static final LayerType[] STROKE_LAYERS = {
+        LayerType.ADD_COLOR,
+        LayerType.ADD_EDGE,
+        LayerType.REMOVE_EDGE,
+        LayerType.TOTAL_MASK
+    };
+
+    private final int canvasWidth;
+    private final int canvasHeight;
+    private final int left;
+    private final int top;
+    private final int width;
+    private final int height;
+
+    public CropRegion(int canvasWidth, int canvasHeight, int left, int top, int width, int height) {
+        if (width <= 0 || height <= 0 || left < 0 || top < 0
+                || left + width > canvasWidth || top + height > canvasHeight) {
+            throw new IllegalArgumentException("Region " + left + "," + top + " " + width + "x" + height
+                    + " outside " + canvasWidth + "x" + canvasHeight);
+        }
+        this.canvasWidth = canvasWidth;
+        this.canvasHeight = canvasHeight;
+        this.left = left;
+        this.top = top;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Find the region of a canvas a generate request needs. Reads the
+     * layers' content bounds, so call on the thread that owns the store.
+     * @param store The canvas layers
+     * @param growSize The request's grow_size in canvas pixels
+     * @param margin Context to keep around the grown edit, in canvas pixels
+     * @return The region, or null if nothing is drawn or the region would
+     *         cover most of the canvas anyway
+     */
+    public static CropRegion compute(LayerStore store, int growSize, int margin) {
+        int[] bounds = new int[4];
+        int left = Integer.MAX_VALUE;
+        int top = Integer.MAX_VALUE;
+        int right = Integer.MIN_VALUE;
+        int bottom = Integer.MIN_VALUE;
+        for (LayerType type : STROKE_LAYERS) {
+            if (store.getLayer(type).getContentBounds(bounds)) {
+                left = Math.min(left, bounds[0]);
+                top = Math.min(top, bounds[1]);
+                right = Math.max(right, bounds[2]);
+                bottom = Math.max(bottom, bounds[3]);
+            }
+        }
+        if (left == Integer.MAX_VALUE) {
+            return null;
+        }
+        int pad = Math.max(0, growSize) + Math.max(0, margin);
+        int canvasWidth = store.getWidth();
+        int canvasHeight = store.getHeight();
+        int[] x = expand(left - pad, right + pad, canvasWidth);
+        int[] y = expand(top - pad, bottom + pad, canvasHeight);
+        if ((long) x[1] * y[1] > MAX_AREA_FRACTION * canvasWidth * canvasHeight) {
+            return null;
+        }
+        return new CropRegion(canvasWidth, canvasHeight, x[0], y[0], x[1], y[1]);
+    }
+
+    /**
+     * Clamp a span to the canvas, then widen it around its center to the
+     * minimum size and the alignment, shifting it back inside the canvas.
+     * @return {start, length}
+     */
+    private static int[] expand(int start, int end, int size) {
+        start = Math.max(0, start);
+        end = Math.min(size, end);
+        int length = Math.max(end - start, Math.min(MIN_SIZE, size));
+        length = (length + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+        if (length > size) {
+            return new int[]{0, size};
+        }
+        start -= (length - (end - start)) / 2;
+        start = Math.max(0, Math.min(size - length, start));
+        return new int[]{start, length};
+    }
+
+    /**
+     * Get read-only views of the region of every layer.
+     * @param store A store with the canvas size this region was computed for
+     * @return A store of the cropped layers
+     */
+    public LayerStore crop(LayerStore store) {
+        if (store.getWidth() != canvasWidth || store.getHeight() != canvasHeight) {
+            throw new IllegalArgumentException("Store is " + store.getWidth() + "x" + store.getHeight()
+                    + ", region is for " + canvasWidth + "x" + canvasHeight);
+        }
+        EnumMap<LayerType, TiledLayer> layers = new EnumMap<>(LayerType.class);
+        for (LayerType type : LayerType.values()) {
+            layers.put(type, new CroppedLayer(store.getLayer(type), left, top, width, height));
+        }
+        return new LayerStore(width, height, layers);
+    }
+
+    /**
+     * Map the region onto the same canvas at another size, e.g. from the
+     * full-resolution request back to the working canvas. Edges round
+     * outwards, so the mapped region covers at least the same area.
+     * @param targetWidth Width of the other canvas
+     * @param targetHeight Height of the other canvas
+     * @return The region in the other canvas's pixels
+     */
+    public CropRegion scaleTo(int targetWidth, int targetHeight) {
+        if (targetWidth == canvasWidth && targetHeight == canvasHeight) {
+            return this;
+        }
+        int l = (int) ((long) left * targetWidth / canvasWidth);
+        int t = (int) ((long) top * targetHeight / canvasHeight);
+        int r = (int) (((long) (left + width) * targetWidth + canvasWidth - 1) / canvasWidth);
+        int b = (int) (((long) (top + height) * targetHeight + canvasHeight - 1) / canvasHeight);
+        return new CropRegion(targetWidth, targetHeight, l, t, Math.max(1, r - l), Math.max(1, b - t));
+    }
+
+    public int getCanvasWidth() {
+        return canvasWidth;
+    }
+
+    public int getCanvasHeight() {
+        return canvasHeight;
+    }
+
+    public int getLeft() {
+        return left;
+    }
+
+    public int getTop() {
+        return top;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public String toString() {
+        return "CropRegion{" + left + "," + top + " " + width + "x" + height
+                + " of " + canvasWidth + "x" + canvasHeight + "}";
+    }
+}
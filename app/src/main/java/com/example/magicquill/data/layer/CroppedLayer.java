@@ -0,0 +1,82 @@
+package com.example.magicquill.data.layer;
+
+/**
+ * Read-only view of a rectangle of another layer. Pixels are read from the
+ * source when asked for, so a crop costs no copy of the layer.
+ * The view reports the source version, so encoders can cache its output
+ * until the source layer changes.
+ */
+public class CroppedLayer extends ReadOnlyLayer {
+
+    private final TiledLayer source;
+    private final int offsetX;
+    private final int offsetY;
+
+    /**
+     * @param source The layer to crop
+     * @param left Left edge of the crop in source pixels
+     * @param top Top edge of the crop in source pixels
+     * @param width Crop width; the crop must lie inside the source
+     * @param height Crop height
+     */
+    public CroppedLayer(TiledLayer source, int left, int top, int width, int height) {
+        super(source.getType(), width, height);
+        if (left < 0 || top < 0 || left + width > source.getWidth() || top + height > source.getHeight()) {
+            throw new IllegalArgumentException("Crop " + left + "," + top + " " + width + "x" + height
+                    + " outside " + source.getWidth() + "x" + source.getHeight());
+        }
+        this.source = source;
+        this.offsetX = left;
+        this.offsetY = top;
+    }
+
+    public TiledLayer getSource() {
+        return source;
+    }
+
+    @Override
+    public long getVersion() {
+        return source.getVersion();
+    }
+
+    @Override
+    public boolean isTileAllocated(int tileIndex) {
+        int left = offsetX + tileLeft(tileIndex);
+        int top = offsetY + tileTop(tileIndex);
+        int tx1 = (left + tileWidth(tileIndex) - 1) / TILE_SIZE;
+        int ty1 = (top + tileHeight(tileIndex) - 1) / TILE_SIZE;
+        for (int ty = top / TILE_SIZE; ty <= ty1; ty++) {
+            for (int tx = left / TILE_SIZE; tx <= tx1; tx++) {
+                if (source.isTileAllocated(source.tileIndex(tx, ty))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean getContentBounds(int[] out) {
+        if (!source.getContentBounds(out)) {
+            return false;
+        }
+        int left = Math.max(0, out[0] - offsetX);
+        int top = Math.max(0, out[1] - offsetY);
+        int right = Math.min(getWidth(), out[2] - offsetX);
+        int bottom = Math.min(getHeight(), out[3] - offsetY);
+        if (left >= right || top >= bottom) {
+            return false;
+        }
+        out[0] = left;
+        out[1] = top;
+        out[2] = right;
+        out[3] = bottom;
+        return true;
+    }
+
+    @Override
+    protected void readTileRow(int tileIndex, int row, int col, int count, int[] out, int outOffset) {
+        source.readPixels(out, outOffset, count, offsetX + tileLeft(tileIndex) + col,
+                offsetY + tileTop(tileIndex) + row, count, 1);
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.magicquill.data.layer;
+
+import java.util.BitSet;
+
+/**
+ * Set of tiles touched by one or more drawing operations on a layer,
+ * together with the pixel bounds of the change.
+ * Bounds are half-open: [left, right) x [top, bottom).
+ */
+public class DirtyRegion {
+
+    private final LayerType layer;
+    private final BitSet tiles;
+    private int left;
+    private int top;
+    private int right;
+    private int bottom;
+
+    public DirtyRegion(LayerType layer) {
+        this.layer = layer;
+        this.tiles = new BitSet();
+        clear();
+    }
+
+    /**
+     * Get the layer this region belongs to.
+     * @return The layer type
+     */
+    public LayerType getLayer() {
+        return layer;
+    }
+
+    /**
+     * Mark a tile as dirty and grow the bounds to cover the given pixel rectangle.
+     */
+    void add(int tileIndex, int l, int t, int r, int b) {
+        tiles.set(tileIndex);
+        left = Math.min(left, l);
+        top = Math.min(top, t);
+        right = Math.max(right, r);
+        bottom = Math.max(bottom, b);
+    }
+
+    /**
+     * Merge another region of the same layer into this one.
+     * @param other The region to merge
+     */
+    public void union(DirtyRegion other) {
+        if (other == null || other.isEmpty()) {
+            return;
+        }
+        tiles.or(other.tiles);
+        left = Math.min(left, other.left);
+        top = Math.min(top, other.top);
+        right = Math.max(right, other.right);
+        bottom = Math.max(bottom, other.bottom);
+    }
+
+    /**
+     * Reset to an empty region.
+     */
+    public void clear() {
+        tiles.clear();
+        left = Integer.MAX_VALUE;
+        top = Integer.MAX_VALUE;
+        right = Integer.MIN_VALUE;
+        bottom = Integer.MIN_VALUE;
+    }
+
+    public boolean isEmpty() {
+        return tiles.isEmpty();
+    }
+
+    public boolean containsTile(int tileIndex) {
+        return tiles.get(tileIndex);
+    }
+
+    /**
+     * Get the dirty tile indices. The returned set is live; do not modify it.
+     * @return The dirty tiles
+     */
+    public BitSet getTiles() {
+        return tiles;
+    }
+
+    public int getTileCount() {
+        return tiles.cardinality();
+    }
+
+    public int getLeft() {
+        return left;
+    }
+
+    public int getTop() {
+        return top;
+    }
+
+    public int getRight() {
+        return right;
+    }
+
+    public int getBottom() {
+        return bottom;
+    }
+}
@@ -0,0 +1,364 @@
+package com.example.magicquill.data.layer;
+
+import java.util.Arrays;
+
+/**
+ * Read-only preview of the area a generate request affects: the source mask
+ * (normally total_mask) dilated by the {@code grow_size} parameter, i.e.
+ * every pixel within that Euclidean distance of a mask pixel.
+ * <p>
+ * Each tile keeps the squared distance of its pixels to the nearest mask
+ * pixel, computed with a separable exact distance transform over the tile
+ * plus a {@link #MAX_GROW_SIZE} margin. Changing the grow size only
+ * re-thresholds those distances, and a stroke only invalidates the tiles
+ * whose margin it falls in.
+ */
+public class GrownMaskLayer extends ReadOnlyLayer {
+
+    /** Largest grow size the server accepts, in pixels. */
+    public static final int MAX_GROW_SIZE = 100;
+
+    // Mask pixels at or above half alpha count, as for PACKED_1BIT masks
+    private static final int MASK_THRESHOLD = 0x80;
+    // Column distances saturate here; anything farther is out of reach
+    private static final int FAR = MAX_GROW_SIZE + 1;
+    private static final int FAR_SQ = FAR * FAR;
+    private static final int WINDOW_SIZE = TILE_SIZE + 2 * MAX_GROW_SIZE;
+
+    private final TiledLayer source;
+    private final int maskRgb;
+    private int growSize;
+
+    // Squared distances per tile (stride TILE_SIZE, capped at FAR_SQ), null
+    // when nothing is in reach, and the source version they were built from
+    private final char[][] distances;
+    private final long[] distanceVersions;
+
+    // Scratch for one tile's window
+    private final byte[] sourceAlpha = new byte[TILE_PIXELS];
+    private final boolean[] seeds = new boolean[WINDOW_SIZE * WINDOW_SIZE];
+    private final char[] columnDistance = new char[WINDOW_SIZE * WINDOW_SIZE];
+    private final int[] rowCost = new int[WINDOW_SIZE];
+    private final int[] envelope = new int[WINDOW_SIZE];
+    private final float[] bounds = new float[WINDOW_SIZE + 1];
+
+    // Coverage by squared distance for the last feather asked for
+    private byte[] featherRamp;
+    private int featherRampGrowSize = -1;
+    private int featherRampWidth = -1;
+
+    /**
+     * @param source The mask to grow
+     * @param maskColor ARGB color used when expanding to ARGB (alpha ignored)
+     */
+    public GrownMaskLayer(TiledLayer source, int maskColor) {
+        super(source.getType(), source.getWidth(), source.getHeight());
+        this.source = source;
+        this.maskRgb = maskColor & 0x00FFFFFF;
+        this.distances = new char[getTileCount()][];
+        this.distanceVersions = new long[getTileCount()];
+        Arrays.fill(distanceVersions, -1);
+    }
+
+    public TiledLayer getSource() {
+        return source;
+    }
+
+    public int getGrowSize() {
+        return growSize;
+    }
+
+    /**
+     * Set how far the mask grows.
+     * @param growSize Radius in layer pixels; clamped to [0, MAX_GROW_SIZE]
+     */
+    public synchronized void setGrowSize(int growSize) {
+        this.growSize = Math.max(0, Math.min(MAX_GROW_SIZE, growSize));
+    }
+
+    @Override
+    public long getVersion() {
+        return source.getVersion() * (MAX_GROW_SIZE + 1) + growSize;
+    }
+
+    /**
+     * The version changes with the source tiles in reach and the grow size.
+     * Going back to an earlier grow size gives back the earlier version, so
+     * tiles cached for it stay valid.
+     */
+    @Override
+    public long getTileVersion(int tileIndex) {
+        return sourceVersion(tileIndex, growSize) * (MAX_GROW_SIZE + 1) + growSize;
+    }
+
+    @Override
+    public boolean isTileAllocated(int tileIndex) {
+        int reach = growSize;
+        int tx0 = Math.max(0, tileLeft(tileIndex) - reach) / TILE_SIZE;
+        int ty0 = Math.max(0, tileTop(tileIndex) - reach) / TILE_SIZE;
+        int tx1 = (Math.min(getWidth(), tileLeft(tileIndex) + tileWidth(tileIndex) + reach) - 1) / TILE_SIZE;
+        int ty1 = (Math.min(getHeight(), tileTop(tileIndex) + tileHeight(tileIndex) + reach) - 1) / TILE_SIZE;
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                if (source.isTileAllocated(source.tileIndex(tx, ty))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean getContentBounds(int[] out) {
+        if (!source.getContentBounds(out)) {
+            return false;
+        }
+        out[0] = Math.max(0, out[0] - growSize);
+        out[1] = Math.max(0, out[1] - growSize);
+        out[2] = Math.min(getWidth(), out[2] + growSize);
+        out[3] = Math.min(getHeight(), out[3] + growSize);
+        return true;
+    }
+
+    @Override
+    protected synchronized void readTileRow(int tileIndex, int row, int col, int count, int[] out, int outOffset) {
+        char[] tile = distancesFor(tileIndex);
+        if (tile == null) {
+            Arrays.fill(out, outOffset, outOffset + count, 0);
+            return;
+        }
+        int limit = growSize * growSize;
+        int start = row * TILE_SIZE + col;
+        int inside = 0xFF000000 | maskRgb;
+        for (int i = 0; i < count; i++) {
+            out[outOffset + i] = tile[start + i] <= limit ? inside : 0;
+        }
+    }
+
+    @Override
+    public synchronized boolean readTileAlpha(int tileIndex, byte[] out) {
+        if (!isTileAllocated(tileIndex)) {
+            return false;
+        }
+        char[] tile = distancesFor(tileIndex);
+        if (tile == null) {
+            Arrays.fill(out, 0, TILE_PIXELS, (byte) 0);
+            return true;
+        }
+        int limit = growSize * growSize;
+        for (int i = 0; i < TILE_PIXELS; i++) {
+            out[i] = tile[i] <= limit ? (byte) 0xFF : 0;
+        }
+        return true;
+    }
+
+    /**
+     * Read one tile as a feathered coverage: opaque within the grow size,
+     * then fading linearly to transparent over {@code feather} more pixels.
+     * Used to blend a generated image in without a visible seam.
+     * @param tileIndex The tile index
+     * @param feather Width of the fade in layer pixels; clamped so that the
+     *                grow size plus the fade stays within MAX_GROW_SIZE
+     * @param out Destination buffer with stride TILE_SIZE
+     * @return False if no pixel of the tile is covered (the buffer may be partly written)
+     */
+    public synchronized boolean readTileFeathered(int tileIndex, int feather, byte[] out) {
+        char[] tile = distancesFor(tileIndex);
+        if (tile == null) {
+            return false;
+        }
+        byte[] ramp = featherRamp(feather);
+        int covered = 0;
+        for (int i = 0; i < TILE_PIXELS; i++) {
+            byte coverage = ramp[tile[i]];
+            out[i] = coverage;
+            covered |= coverage;
+        }
+        return covered != 0;
+    }
+
+    /**
+     * Get the coverage for every squared distance a tile can hold.
+     */
+    private byte[] featherRamp(int feather) {
+        int width = Math.max(0, Math.min(MAX_GROW_SIZE - growSize, feather));
+        if (featherRamp != null && featherRampGrowSize == growSize && featherRampWidth == width) {
+            return featherRamp;
+        }
+        if (featherRamp == null) {
+            featherRamp = new byte[FAR_SQ + 1];
+        }
+        int inner = growSize * growSize;
+        int outer = (growSize + width) * (growSize + width);
+        for (int d2 = 0; d2 <= FAR_SQ; d2++) {
+            if (d2 <= inner) {
+                featherRamp[d2] = (byte) 0xFF;
+            } else if (d2 >= outer) {
+                featherRamp[d2] = 0;
+            } else {
+                float fade = (growSize + width - (float) Math.sqrt(d2)) / width;
+                featherRamp[d2] = (byte) Math.round(255 * fade);
+            }
+        }
+        featherRampGrowSize = growSize;
+        featherRampWidth = width;
+        return featherRamp;
+    }
+
+    /**
+     * Get the newest source tile version within a distance of a tile.
+     */
+    private long sourceVersion(int tileIndex, int reach) {
+        int tx0 = Math.max(0, tileLeft(tileIndex) - reach) / TILE_SIZE;
+        int ty0 = Math.max(0, tileTop(tileIndex) - reach) / TILE_SIZE;
+        int tx1 = (Math.min(getWidth(), tileLeft(tileIndex) + tileWidth(tileIndex) + reach) - 1) / TILE_SIZE;
+        int ty1 = (Math.min(getHeight(), tileTop(tileIndex) + tileHeight(tileIndex) + reach) - 1) / TILE_SIZE;
+        long newest = 0;
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                newest = Math.max(newest, source.getTileVersion(source.tileIndex(tx, ty)));
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * Get the distances of a tile, recomputing them if a source tile in the
+     * margin changed since.
+     */
+    private char[] distancesFor(int tileIndex) {
+        long version = sourceVersion(tileIndex, MAX_GROW_SIZE);
+        if (distanceVersions[tileIndex] != version) {
+            distances[tileIndex] = computeDistances(tileIndex, distances[tileIndex]);
+            distanceVersions[tileIndex] = version;
+        }
+        return distances[tileIndex];
+    }
+
+    private char[] computeDistances(int tileIndex, char[] reuse) {
+        int tileLeft = tileLeft(tileIndex);
+        int tileTop = tileTop(tileIndex);
+        int left = Math.max(0, tileLeft - MAX_GROW_SIZE);
+        int top = Math.max(0, tileTop - MAX_GROW_SIZE);
+        int right = Math.min(getWidth(), tileLeft + tileWidth(tileIndex) + MAX_GROW_SIZE);
+        int bottom = Math.min(getHeight(), tileTop + tileHeight(tileIndex) + MAX_GROW_SIZE);
+        int w = right - left;
+        int h = bottom - top;
+        if (!loadSeeds(left, top, w, h)) {
+            return null;
+        }
+
+        // Pass 1: distance to the nearest seed in the same column, both ways
+        char[] column = columnDistance;
+        for (int x = 0; x < w; x++) {
+            column[x] = seeds[x] ? 0 : (char) FAR;
+        }
+        for (int y = 1; y < h; y++) {
+            int i = y * w;
+            for (int x = 0; x < w; x++, i++) {
+                column[i] = seeds[i] ? 0 : (char) Math.min(FAR, column[i - w] + 1);
+            }
+        }
+        for (int y = h - 2; y >= 0; y--) {
+            int i = y * w;
+            for (int x = 0; x < w; x++, i++) {
+                column[i] = (char) Math.min(column[i], column[i + w] + 1);
+            }
+        }
+
+        // Pass 2: exact squared distance along each row of the tile, from the
+        // lower envelope of the parabolas (x - q)^2 + column[q]^2
+        char[] out = reuse;
+        if (out == null) {
+            // Padding past the edge of edge tiles stays out of reach
+            out = new char[TILE_PIXELS];
+            Arrays.fill(out, (char) FAR_SQ);
+        }
+        int firstX = tileLeft - left;
+        int rows = tileHeight(tileIndex);
+        int cols = tileWidth(tileIndex);
+        for (int row = 0; row < rows; row++) {
+            int windowRow = (tileTop + row - top) * w;
+            for (int q = 0; q < w; q++) {
+                int d = column[windowRow + q];
+                rowCost[q] = d * d;
+            }
+            lowerEnvelope(w);
+            int k = 0;
+            int o = row * TILE_SIZE;
+            for (int x = firstX; x < firstX + cols; x++, o++) {
+                while (bounds[k + 1] < x) {
+                    k++;
+                }
+                int dx = x - envelope[k];
+                out[o] = (char) Math.min(FAR_SQ, dx * dx + rowCost[envelope[k]]);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Build the lower envelope of the row's parabolas (Felzenszwalb and
+     * Huttenlocher): envelope[k] is the apex of the k-th lowest parabola,
+     * which is lowest between bounds[k] and bounds[k + 1].
+     */
+    private void lowerEnvelope(int n) {
+        int k = 0;
+        envelope[0] = 0;
+        bounds[0] = Float.NEGATIVE_INFINITY;
+        bounds[1] = Float.POSITIVE_INFINITY;
+        for (int q = 1; q < n; q++) {
+            float s = intersection(q, envelope[k]);
+            // bounds[0] is -infinity, so this stops at k == 0 at the latest
+            while (s <= bounds[k]) {
+                k--;
+                s = intersection(q, envelope[k]);
+            }
+            k++;
+            envelope[k] = q;
+            bounds[k] = s;
+            bounds[k + 1] = Float.POSITIVE_INFINITY;
+        }
+    }
+
+    /**
+     * Get where the parabolas with apexes at q and v (v < q) cross.
+     */
+    private float intersection(int q, int v) {
+        return ((rowCost[q] + q * q) - (rowCost[v] + v * v)) / (2f * (q - v));
+    }
+
+    /**
+     * Threshold the source mask over a window into seeds.
+     * @return False if the window holds no mask pixel
+     */
+    private boolean loadSeeds(int left, int top, int w, int h) {
+        Arrays.fill(seeds, 0, w * h, false);
+        boolean any = false;
+        for (int ty = top / TILE_SIZE; ty <= (top + h - 1) / TILE_SIZE; ty++) {
+            for (int tx = left / TILE_SIZE; tx <= (left + w - 1) / TILE_SIZE; tx++) {
+                int index = source.tileIndex(tx, ty);
+                if (!source.readTileAlpha(index, sourceAlpha)) {
+                    continue;
+                }
+                int tileLeft = tx * TILE_SIZE;
+                int tileTop = ty * TILE_SIZE;
+                int x0 = Math.max(left, tileLeft);
+                int x1 = Math.min(left + w, tileLeft + source.tileWidth(index));
+                int y0 = Math.max(top, tileTop);
+                int y1 = Math.min(top + h, tileTop + source.tileHeight(index));
+                for (int y = y0; y < y1; y++) {
+                    int src = (y - tileTop) * TILE_SIZE - tileLeft;
+                    int dst = (y - top) * w - left;
+                    for (int x = x0; x < x1; x++) {
+                        if ((sourceAlpha[src + x] & 0xFF) >= MASK_THRESHOLD) {
+                            seeds[dst + x] = true;
+                            any = true;
+                        }
+                    }
+                }
+            }
+        }
+        return any;
+    }
+}
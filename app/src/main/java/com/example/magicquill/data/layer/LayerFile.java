@@ -0,0 +1,468 @@
+package com.example.magicquill.data.layer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * One layer on disk: fixed-size tile slots in a memory-mapped file, found
+ * through a small index. Only the tiles that changed are written. The file
+ * is a copy of a layer that stays on the heap; tiles are read back only
+ * when a session is resumed.
+ * <p>
+ * A 4 KiB header written once on creation (magic, version, type, format,
+ * slot size, width, height) is followed by two roots, each padded to
+ * 4 KiB: magic, sequence, layer version and the generation of the flush
+ * that wrote it, one long per tile (slot + 1 in the high half and the
+ * tile's CRC32 in the low half, 0 for an unallocated tile) and a CRC32 of
+ * the root. The slots follow, twice as many as there are tiles.
+ * <p>
+ * A commit never overwrites anything the newest root refers to. New tile
+ * pixels go to free slots and are forced to disk first; only then is the
+ * older root rewritten with the next sequence number and forced. A crash
+ * at any point leaves the newest intact root, and so a whole commit either
+ * survives or is lost, never half of one. The older root stays intact
+ * until the next commit, so a file can also be opened as of the commit
+ * before, when the flush that made the newest one did not finish on the
+ * other layers (see {@link SessionAutosave}).
+ */
+public class LayerFile implements Closeable {
+
+    /** Pixel format of a file: ARGB ints, or the storage format of a mask layer. */
+    public static final int FORMAT_ARGB = 0;
+    public static final int FORMAT_ALPHA_8 = 1;
+    public static final int FORMAT_PACKED_1BIT = 2;
+
+    private static final int MAGIC = 0x4D514C46;   // "MQLF"
+    private static final int VERSION = 2;
+    private static final int PAGE_SIZE = 4096;
+    private static final int ROOT_MAGIC = 0x4D51524F;   // "MQRO"
+    private static final int ROOT_HEADER_SIZE = 32;
+    // Slots are mapped in chunks so a huge layer does not need one huge mapping
+    private static final int CHUNK_BYTES = 64 * 1024 * 1024;
+
+    private final File path;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final LayerType type;
+    private final int format;
+    private final int slotSize;
+    private final int width;
+    private final int height;
+    private final int tileCount;
+    private final int rootSize;
+    private final MappedByteBuffer roots;
+    private final MappedByteBuffer[] chunks;
+    private final boolean[] writtenChunks;
+    private final int slotsPerChunk;
+    private final byte[] scratch;
+    private final CRC32 crc = new CRC32();
+
+    // The newest root
+    private int activeRoot;
+    private long sequence;
+    private long layerVersion;
+    private long generation;
+    private long[] index;
+    private BitSet usedSlots;
+
+    private LayerFile(File path, RandomAccessFile file, LayerType type, int format, int slotSize,
+                      int width, int height) throws IOException {
+        this.path = path;
+        this.file = file;
+        this.channel = file.getChannel();
+        this.type = type;
+        this.format = format;
+        this.slotSize = slotSize;
+        this.width = width;
+        this.height = height;
+        this.tileCount = tileCount(width, height);
+        this.rootSize = rootSize(tileCount);
+        this.roots = channel.map(FileChannel.MapMode.READ_WRITE, PAGE_SIZE, 2L * rootSize);
+        this.slotsPerChunk = Math.max(1, CHUNK_BYTES / slotSize);
+        int chunkCount = ceilDiv(getSlotCount(), slotsPerChunk);
+        this.chunks = new MappedByteBuffer[chunkCount];
+        this.writtenChunks = new boolean[chunkCount];
+        this.scratch = new byte[slotSize];
+        this.index = new long[tileCount];
+        this.usedSlots = new BitSet(getSlotCount());
+    }
+
+    /**
+     * Create (or truncate) a file for a layer, with no tiles stored.
+     * @param path The file
+     * @param layer The layer whose type, format and size the file takes
+     * @return The open file
+     */
+    public static LayerFile create(File path, TiledLayer layer) throws IOException {
+        int format = formatOf(layer);
+        RandomAccessFile raf = new RandomAccessFile(path, "rw");
+        try {
+            raf.setLength(0);
+            LayerFile created = new LayerFile(path, raf, layer.getType(), format, layer.getBytesPerTile(),
+                    layer.getWidth(), layer.getHeight());
+            // Sparse: slots take no space until written
+            raf.setLength(created.getFileSize());
+            ByteBuffer header = ByteBuffer.allocate(28);
+            header.putInt(MAGIC).putInt(VERSION).putInt(created.type.ordinal()).putInt(format)
+                    .putInt(created.slotSize).putInt(created.width).putInt(created.height).flip();
+            raf.getChannel().write(header, 0);
+            raf.getChannel().force(false);
+            created.writeRoot(0, 1, 0, 0, created.index);
+            created.roots.force();
+            created.sequence = 1;
+            return created;
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open an existing file, recovering the newest root that survived.
+     * @param path The file
+     * @return The open file
+     * @throws IOException If the file cannot be read or has no intact root
+     */
+    public static LayerFile open(File path) throws IOException {
+        return open(path, Long.MAX_VALUE);
+    }
+
+    /**
+     * Open an existing file as of a flush generation: the newest intact root
+     * written at or before it. A newer root is overwritten by the next commit.
+     * @param path The file
+     * @param generation The newest flush generation to accept
+     * @return The open file
+     * @throws IOException If the file cannot be read or has no such root
+     */
+    public static LayerFile open(File path, long generation) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(path, "rw");
+        try {
+            ByteBuffer header = ByteBuffer.allocate(28);
+            raf.getChannel().read(header, 0);
+            header.flip();
+            if (header.remaining() < 28 || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException("Not a layer file: " + path);
+            }
+            int typeOrdinal = header.getInt(8);
+            int format = header.getInt(12);
+            int slotSize = header.getInt(16);
+            int width = header.getInt(20);
+            int height = header.getInt(24);
+            if (typeOrdinal < 0 || typeOrdinal >= LayerType.values().length
+                    || format < FORMAT_ARGB || format > FORMAT_PACKED_1BIT
+                    || slotSize <= 0 || width <= 0 || height <= 0) {
+                throw new IOException("Bad layer file header: " + path);
+            }
+            int tiles = tileCount(width, height);
+            // Checked before mapping, which would silently grow the file
+            if (raf.length() < PAGE_SIZE + 2L * rootSize(tiles) + 2L * tiles * slotSize) {
+                throw new IOException("Truncated layer file: " + path);
+            }
+            LayerFile opened = new LayerFile(path, raf, LayerType.values()[typeOrdinal], format,
+                    slotSize, width, height);
+            opened.recover(generation);
+            return opened;
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e instanceof IOException ? (IOException) e : new IOException("Corrupt layer file: " + path, e);
+        }
+    }
+
+    /**
+     * Get the format a layer is stored in.
+     * @return FORMAT_ARGB, FORMAT_ALPHA_8 or FORMAT_PACKED_1BIT
+     */
+    public static int formatOf(TiledLayer layer) {
+        if (layer instanceof MaskLayer) {
+            return ((MaskLayer) layer).getFormat() == MaskFormat.ALPHA_8 ? FORMAT_ALPHA_8 : FORMAT_PACKED_1BIT;
+        }
+        return FORMAT_ARGB;
+    }
+
+    public File getPath() {
+        return path;
+    }
+
+    public LayerType getType() {
+        return type;
+    }
+
+    public int getFormat() {
+        return format;
+    }
+
+    /**
+     * Get the mask storage format of the file.
+     * @return The format, or null for ARGB
+     */
+    public MaskFormat getMaskFormat() {
+        switch (format) {
+            case FORMAT_ALPHA_8:
+                return MaskFormat.ALPHA_8;
+            case FORMAT_PACKED_1BIT:
+                return MaskFormat.PACKED_1BIT;
+            default:
+                return null;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getTileCount() {
+        return tileCount;
+    }
+
+    /**
+     * Get the sequence number of the newest commit (1 for a new file).
+     */
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Get the flush generation recorded with the newest commit (0 for a new file).
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Get the layer version recorded with the newest commit.
+     */
+    public synchronized long getLayerVersion() {
+        return layerVersion;
+    }
+
+    /**
+     * Check whether the newest commit stores a tile.
+     */
+    public synchronized boolean isTileStored(int tileIndex) {
+        return index[tileIndex] != 0;
+    }
+
+    public synchronized int getStoredTileCount() {
+        int count = 0;
+        for (long entry : index) {
+            if (entry != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Read a tile of the newest commit.
+     * @param tileIndex The tile index
+     * @return The pixels as from {@link TiledLayer#copyTile}, or null if the tile is not stored
+     * @throws IOException If the stored pixels do not match their checksum
+     */
+    public synchronized Object readTile(int tileIndex) throws IOException {
+        long entry = index[tileIndex];
+        if (entry == 0) {
+            return null;
+        }
+        int slot = (int) (entry >>> 32) - 1;
+        ByteBuffer buffer = slotBuffer(slot);
+        buffer.get(scratch);
+        crc.reset();
+        crc.update(scratch, 0, slotSize);
+        if ((int) crc.getValue() != (int) entry) {
+            throw new IOException("Tile " + tileIndex + " of " + path + " is corrupt");
+        }
+        if (format == FORMAT_ARGB) {
+            int[] pixels = new int[slotSize / 4];
+            ByteBuffer.wrap(scratch).asIntBuffer().get(pixels);
+            return pixels;
+        }
+        return scratch.clone();
+    }
+
+    /**
+     * Store a set of tiles as one atomic commit.
+     * @param tiles New pixels by tile index, as from {@link TiledLayer#copyTile}; null removes a tile
+     * @param version The layer version the tiles were taken at
+     * @param generation The flush generation the commit belongs to
+     */
+    public synchronized void commit(Map<Integer, Object> tiles, long version, long generation) throws IOException {
+        long[] next = index.clone();
+        BitSet taken = (BitSet) usedSlots.clone();
+        ByteBuffer bytes = ByteBuffer.wrap(scratch);
+        for (Map.Entry<Integer, Object> tile : tiles.entrySet()) {
+            int tileIndex = tile.getKey();
+            Object data = tile.getValue();
+            if (data == null) {
+                next[tileIndex] = 0;
+                continue;
+            }
+            if (data instanceof int[]) {
+                bytes.clear();
+                bytes.asIntBuffer().put((int[]) data);
+            } else {
+                System.arraycopy((byte[]) data, 0, scratch, 0, slotSize);
+            }
+            // Never a slot the newest root still refers to
+            int slot = taken.nextClearBit(0);
+            taken.set(slot);
+            slotBuffer(slot).put(scratch);
+            writtenChunks[slot / slotsPerChunk] = true;
+            crc.reset();
+            crc.update(scratch, 0, slotSize);
+            next[tileIndex] = (long) (slot + 1) << 32 | (crc.getValue() & 0xFFFFFFFFL);
+        }
+        // Pixels first, then the root that refers to them
+        for (int i = 0; i < chunks.length; i++) {
+            if (writtenChunks[i]) {
+                chunks[i].force();
+                writtenChunks[i] = false;
+            }
+        }
+        int root = activeRoot ^ 1;
+        writeRoot(root, sequence + 1, version, generation, next);
+        roots.force();
+
+        activeRoot = root;
+        sequence++;
+        layerVersion = version;
+        this.generation = generation;
+        index = next;
+        usedSlots = slotsOf(next);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+        file.close();
+    }
+
+    int getSlotCount() {
+        return 2 * tileCount;
+    }
+
+    long getFileSize() {
+        return PAGE_SIZE + 2L * rootSize + (long) getSlotCount() * slotSize;
+    }
+
+    /**
+     * Pick the intact root with the highest sequence number among those
+     * written at or before a flush generation.
+     */
+    private void recover(long maxGeneration) throws IOException {
+        int best = -1;
+        long bestSequence = 0;
+        for (int root = 0; root < 2; root++) {
+            long rootSequence = validRootSequence(root);
+            if (rootSequence > bestSequence && roots.getLong(root * rootSize + 24) <= maxGeneration) {
+                best = root;
+                bestSequence = rootSequence;
+            }
+        }
+        if (best < 0) {
+            throw new IOException("No intact root of generation " + maxGeneration + " or older in " + path);
+        }
+        int base = best * rootSize;
+        activeRoot = best;
+        sequence = bestSequence;
+        layerVersion = roots.getLong(base + 16);
+        generation = roots.getLong(base + 24);
+        for (int i = 0; i < tileCount; i++) {
+            index[i] = roots.getLong(base + ROOT_HEADER_SIZE + i * 8);
+        }
+        usedSlots = slotsOf(index);
+    }
+
+    /**
+     * @return The root's sequence number, or 0 if it is torn or does not match this file
+     */
+    private long validRootSequence(int root) {
+        int base = root * rootSize;
+        int length = ROOT_HEADER_SIZE + tileCount * 8;
+        if (roots.getInt(base) != ROOT_MAGIC) {
+            return 0;
+        }
+        byte[] bytes = new byte[length];
+        ByteBuffer view = roots.duplicate();
+        view.position(base);
+        view.get(bytes);
+        CRC32 check = new CRC32();
+        check.update(bytes, 0, length);
+        if ((int) check.getValue() != roots.getInt(base + length)) {
+            return 0;
+        }
+        for (int i = 0; i < tileCount; i++) {
+            long entry = roots.getLong(base + ROOT_HEADER_SIZE + i * 8);
+            if (entry != 0 && ((entry >>> 32) < 1 || (entry >>> 32) > getSlotCount())) {
+                return 0;
+            }
+        }
+        return roots.getLong(base + 8);
+    }
+
+    private void writeRoot(int root, long rootSequence, long version, long rootGeneration, long[] entries) {
+        int base = root * rootSize;
+        int length = ROOT_HEADER_SIZE + tileCount * 8;
+        ByteBuffer out = ByteBuffer.allocate(length + 4);
+        out.putInt(ROOT_MAGIC).putInt(0).putLong(rootSequence).putLong(version).putLong(rootGeneration);
+        for (long entry : entries) {
+            out.putLong(entry);
+        }
+        CRC32 check = new CRC32();
+        check.update(out.array(), 0, length);
+        out.putInt((int) check.getValue());
+        ByteBuffer view = roots.duplicate();
+        view.position(base);
+        view.put(out.array());
+    }
+
+    /**
+     * Get a buffer positioned at a slot, mapping its chunk on first use.
+     */
+    private ByteBuffer slotBuffer(int slot) throws IOException {
+        int chunk = slot / slotsPerChunk;
+        if (chunks[chunk] == null) {
+            long offset = PAGE_SIZE + 2L * rootSize + (long) chunk * slotsPerChunk * slotSize;
+            long size = (long) Math.min(slotsPerChunk, getSlotCount() - chunk * slotsPerChunk) * slotSize;
+            chunks[chunk] = channel.map(FileChannel.MapMode.READ_WRITE, offset, size);
+        }
+        ByteBuffer buffer = chunks[chunk].duplicate();
+        int position = (slot - chunk * slotsPerChunk) * slotSize;
+        buffer.limit(position + slotSize).position(position);
+        return buffer;
+    }
+
+    private static BitSet slotsOf(long[] entries) {
+        BitSet slots = new BitSet();
+        for (long entry : entries) {
+            if (entry != 0) {
+                slots.set((int) (entry >>> 32) - 1);
+            }
+        }
+        return slots;
+    }
+
+    private static int tileCount(int width, int height) {
+        return ceilDiv(width, TiledLayer.TILE_SIZE) * ceilDiv(height, TiledLayer.TILE_SIZE);
+    }
+
+    private static int rootSize(int tileCount) {
+        return ceilDiv(ROOT_HEADER_SIZE + tileCount * 8 + 4, PAGE_SIZE) * PAGE_SIZE;
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+}
@@ -0,0 +1,375 @@
+package com.example.magicquill.data.layer;
+
+import com.example.magicquill.ui.model.ToolModel;
+import com.example.magicquill.ui.observer.EventChannel;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Holds the five MagicQuill layers of one canvas and records strokes on them.
+ * Layers are tiled and allocate memory only where something has been drawn.
+ * Implements the Observer pattern: {@link ChangeListener}s receive the
+ * {@link DirtyRegion} of every stroke segment so they can redraw just those tiles.
+ * The add_edge, remove_edge and total_mask layers are alpha-only
+ * {@link MaskLayer}s whose storage format can be chosen per tool.
+ * Strokes are recorded in a {@link StrokeHistory} for undo and redo.
+ */
+public class LayerStore {
+
+    /**
+     * Observer of layer contents.
+     */
+    public interface ChangeListener {
+        /**
+         * @param region The changed tiles, or null if anything may have changed
+         */
+        void onLayersChanged(DirtyRegion region);
+    }
+
+    private final EventChannel<ChangeListener> changeEvents = new EventChannel<>(ChangeListener.class);
+    private final int width;
+    private final int height;
+    private final EnumMap<LayerType, TiledLayer> layers;
+    private final StrokeHistory history;
+    // The last snapshot of each layer and the layer it was taken of, handed
+    // out again while that layer is in place and unchanged
+    private final EnumMap<LayerType, TiledLayer> snapshots = new EnumMap<>(LayerType.class);
+    private final EnumMap<LayerType, TiledLayer> snapshotSources = new EnumMap<>(LayerType.class);
+
+    // State of the stroke in progress
+    private TiledLayer strokeLayer;
+    private float strokeRadius;
+    private int strokeColor;
+    private float lastX;
+    private float lastY;
+    private DirtyRegion strokeDirty;
+    private DirtyRegion segmentDirty;
+
+    public LayerStore(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.layers = new EnumMap<>(LayerType.class);
+        for (LayerType type : LayerType.values()) {
+            layers.put(type, createLayer(type, width, height));
+        }
+        this.history = new StrokeHistory(this);
+    }
+
+    /**
+     * Wrap existing layers, e.g. read-only views of another store.
+     * @param width Width shared by all layers
+     * @param height Height shared by all layers
+     * @param layers One layer per type
+     */
+    LayerStore(int width, int height, EnumMap<LayerType, TiledLayer> layers) {
+        if (layers.size() != LayerType.values().length) {
+            throw new IllegalArgumentException("Expected one layer per type");
+        }
+        this.width = width;
+        this.height = height;
+        this.layers = layers;
+        this.history = null;
+    }
+
+    private static TiledLayer createLayer(LayerType type, int width, int height) {
+        if (type.isMask()) {
+            return new MaskLayer(type, width, height, MaskFormat.ALPHA_8, type.getDefaultBrushColor());
+        }
+        return new ColorLayer(type, width, height);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Get a layer by type.
+     * @param type The layer type
+     * @return The layer
+     */
+    public TiledLayer getLayer(LayerType type) {
+        return layers.get(type);
+    }
+
+    /**
+     * Get the mask storage format used by a masking tool's layer.
+     * @param tool ADD_EDGE, REMOVE_EDGE or ERASER
+     * @return The storage format
+     */
+    public MaskFormat getMaskFormat(ToolModel.ToolType tool) {
+        return ((MaskLayer) layers.get(maskLayerForTool(tool))).getFormat();
+    }
+
+    /**
+     * Change the mask storage format used by a masking tool's layer.
+     * Existing pixels are converted; converting to 1-bit thresholds alpha at 50%.
+     * @param tool ADD_EDGE, REMOVE_EDGE or ERASER
+     * @param format The new storage format
+     */
+    public void setMaskFormat(ToolModel.ToolType tool, MaskFormat format) {
+        LayerType type = maskLayerForTool(tool);
+        MaskLayer current = (MaskLayer) layers.get(type);
+        if (current.getFormat() == format) {
+            return;
+        }
+        if (strokeLayer == current) {
+            throw new IllegalStateException("Cannot change mask format during a stroke");
+        }
+        MaskLayer converted = new MaskLayer(type, width, height, format, type.getDefaultBrushColor());
+        int[] pixels = new int[TiledLayer.TILE_PIXELS];
+        for (int i = 0; i < current.getTileCount(); i++) {
+            if (current.readTile(i, pixels)) {
+                converted.writePixels(pixels, 0, TiledLayer.TILE_SIZE, current.tileLeft(i), current.tileTop(i),
+                        current.tileWidth(i), current.tileHeight(i), null);
+            }
+        }
+        layers.put(type, converted);
+        resetHistory();
+        notifyLayersChanged(null);
+    }
+
+    /**
+     * Swap in a layer of the same type and size, e.g. one read back from disk.
+     * @param layer The new layer
+     */
+    void replaceLayer(TiledLayer layer) {
+        if (layer.getWidth() != width || layer.getHeight() != height) {
+            throw new IllegalArgumentException("Layer size does not match the store");
+        }
+        layers.put(layer.getType(), layer);
+    }
+
+    private static LayerType maskLayerForTool(ToolModel.ToolType tool) {
+        LayerType type = LayerType.forTool(tool);
+        if (type == null || !type.isMask()) {
+            throw new IllegalArgumentException("Tool does not draw on a mask layer: " + tool);
+        }
+        return type;
+    }
+
+    /**
+     * Start a new stroke on a layer.
+     * @param type The target layer
+     * @param x Start X in layer pixels
+     * @param y Start Y in layer pixels
+     * @param radius Brush radius in layer pixels
+     * @param color ARGB brush color
+     */
+    public void beginStroke(LayerType type, float x, float y, float radius, int color) {
+        strokeLayer = layers.get(type);
+        strokeRadius = radius;
+        strokeColor = color;
+        strokeDirty = new DirtyRegion(type);
+        if (segmentDirty == null || segmentDirty.getLayer() != type) {
+            segmentDirty = new DirtyRegion(type);
+        }
+        lastX = x;
+        lastY = y;
+        if (history != null) {
+            history.beginStroke(type, x, y, radius, color);
+        }
+        drawTo(x, y);
+    }
+
+    /**
+     * Extend the stroke in progress to a new point.
+     * @param x X in layer pixels
+     * @param y Y in layer pixels
+     */
+    public void strokeTo(float x, float y) {
+        if (strokeLayer == null) {
+            return;
+        }
+        if (history != null) {
+            history.addPoint(x, y);
+        }
+        drawTo(x, y);
+    }
+
+    /**
+     * Finish the stroke in progress.
+     * @return The tiles dirtied by the whole stroke, or null if no stroke was active
+     */
+    public DirtyRegion endStroke() {
+        DirtyRegion result = strokeDirty;
+        if (history != null && strokeLayer != null) {
+            history.endStroke(!strokeDirty.isEmpty());
+        }
+        strokeLayer = null;
+        strokeDirty = null;
+        return result;
+    }
+
+    public boolean isStrokeActive() {
+        return strokeLayer != null;
+    }
+
+    /**
+     * Abandon the stroke in progress and put back the pixels it drew, e.g.
+     * when a second finger turns the touch into a pinch. Nothing is recorded.
+     */
+    public void cancelStroke() {
+        if (strokeLayer == null) {
+            return;
+        }
+        LayerType type = strokeLayer.getType();
+        boolean drew = !strokeDirty.isEmpty();
+        endStroke();
+        if (drew && history != null && StrokeHistory.isTracked(type)) {
+            EnumMap<LayerType, DirtyRegion> changed = new EnumMap<>(LayerType.class);
+            history.discardLastStroke(changed);
+            notifyChanged(changed);
+        }
+    }
+
+    private void drawTo(float x, float y) {
+        segmentDirty.clear();
+        strokeLayer.drawSegment(lastX, lastY, x, y, strokeRadius, strokeColor, segmentDirty);
+        lastX = x;
+        lastY = y;
+        if (!segmentDirty.isEmpty()) {
+            strokeDirty.union(segmentDirty);
+            notifyLayersChanged(segmentDirty);
+        }
+    }
+
+    /**
+     * Freeze the layers as they are now, for a worker thread to read while
+     * strokes go on here. Call on the thread that owns the store. Layers
+     * that have not changed since the last snapshot come back as the same
+     * objects, so encoders caching by layer and version keep hitting.
+     * @return A read-only store of {@link TiledLayer#snapshot() layer snapshots}
+     */
+    public LayerStore snapshot() {
+        EnumMap<LayerType, TiledLayer> frozen = new EnumMap<>(LayerType.class);
+        for (LayerType type : LayerType.values()) {
+            TiledLayer layer = layers.get(type);
+            TiledLayer last = snapshots.get(type);
+            if (last == null || snapshotSources.get(type) != layer || last.getVersion() != layer.getVersion()) {
+                last = layer.snapshot();
+                snapshots.put(type, last);
+                snapshotSources.put(type, layer);
+            }
+            frozen.put(type, last);
+        }
+        return new LayerStore(width, height, frozen);
+    }
+
+    /**
+     * Forget the snapshots kept for reuse, so tiles shared with them can be
+     * freed, e.g. before the tiles are spilled to disk.
+     */
+    public void releaseSnapshots() {
+        snapshots.clear();
+        snapshotSources.clear();
+    }
+
+    /**
+     * Get the undo log of this store.
+     * @return The history, or null for read-only views of another store
+     */
+    public StrokeHistory getHistory() {
+        return history;
+    }
+
+    public boolean canUndo() {
+        return history != null && !isStrokeActive() && history.canUndo();
+    }
+
+    public boolean canRedo() {
+        return history != null && !isStrokeActive() && history.canRedo();
+    }
+
+    /**
+     * Revert the most recent stroke. Observers receive the changed tiles.
+     * @return False if there was nothing to undo or a stroke is in progress
+     */
+    public boolean undo() {
+        if (!canUndo()) {
+            return false;
+        }
+        EnumMap<LayerType, DirtyRegion> changed = new EnumMap<>(LayerType.class);
+        history.undo(changed);
+        notifyChanged(changed);
+        return true;
+    }
+
+    /**
+     * Re-apply the most recently undone stroke.
+     * @return False if there was nothing to redo or a stroke is in progress
+     */
+    public boolean redo() {
+        if (!canRedo()) {
+            return false;
+        }
+        EnumMap<LayerType, DirtyRegion> changed = new EnumMap<>(LayerType.class);
+        history.redo(changed);
+        notifyChanged(changed);
+        return true;
+    }
+
+    private void notifyChanged(EnumMap<LayerType, DirtyRegion> changed) {
+        for (Map.Entry<LayerType, DirtyRegion> entry : changed.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                notifyLayersChanged(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Forget all recorded strokes, keeping the layers as they are.
+     * Call after changing a stroke layer without going through a stroke.
+     */
+    public void resetHistory() {
+        if (history != null) {
+            history.reset();
+        }
+    }
+
+    /**
+     * Release every tile of every layer. Undo history is discarded.
+     */
+    public void clear() {
+        for (TiledLayer layer : layers.values()) {
+            layer.clear();
+        }
+        resetHistory();
+        notifyLayersChanged(null);
+    }
+
+    /**
+     * Get the memory currently held by allocated tiles across all layers.
+     * @return The size in bytes
+     */
+    public long getAllocatedBytes() {
+        long total = 0;
+        for (TiledLayer layer : layers.values()) {
+            total += layer.getAllocatedBytes();
+        }
+        return total;
+    }
+
+    public void attach(ChangeListener listener) {
+        changeEvents.attach(listener);
+    }
+
+    public void detach(ChangeListener listener) {
+        changeEvents.detach(listener);
+    }
+
+    /**
+     * Tell observers that layers changed, e.g. after writing pixels directly.
+     * @param region The changed tiles, or null if anything may have changed
+     */
+    public void notifyLayersChanged(DirtyRegion region) {
+        ChangeListener[] listeners = changeEvents.listeners();
+        for (ChangeListener listener : listeners) {
+            listener.onLayersChanged(region);
+        }
+    }
+}
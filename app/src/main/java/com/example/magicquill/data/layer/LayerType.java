@@ -0,0 +1,58 @@
+package com.example.magicquill.data.layer;
+
+import com.example.magicquill.ui.model.ToolModel;
+import com.example.magicquill.ui.model.ToolRegistry;
+
+/**
+ * The five MagicQuill canvas layers, bottom to top.
+ * Each layer maps onto one field of the {@code from_frontend} object of
+ * {@code /magic_quill/generate}.
+ */
+public enum LayerType {
+    ORIGINAL_IMAGE("original_image", 0x00000000),
+    ADD_COLOR("add_color_image", 0xFF000000),
+    ADD_EDGE("add_edge_image", 0xFF000000),   // Black strokes, backend reads alpha
+    REMOVE_EDGE("remove_edge_image", 0xFF000000),
+    TOTAL_MASK("total_mask", 0xFFFFFFFF);     // White = area to regenerate
+
+    private final String apiKey;
+    private final int defaultBrushColor;
+
+    LayerType(String apiKey, int defaultBrushColor) {
+        this.apiKey = apiKey;
+        this.defaultBrushColor = defaultBrushColor;
+    }
+
+    /**
+     * Get the JSON key used for this layer in the generate request.
+     * @return The API field name
+     */
+    public String getApiKey() {
+        return apiKey;
+    }
+
+    /**
+     * Get the ARGB color brushes paint with on this layer by default.
+     * @return The default brush color
+     */
+    public int getDefaultBrushColor() {
+        return defaultBrushColor;
+    }
+
+    /**
+     * Check whether this layer only carries alpha (the backend ignores its color).
+     * @return True for add_edge, remove_edge and total_mask
+     */
+    public boolean isMask() {
+        return this == ADD_EDGE || this == REMOVE_EDGE || this == TOTAL_MASK;
+    }
+
+    /**
+     * Get the layer a drawing tool writes to.
+     * @param tool The selected tool
+     * @return The target layer, or null if the tool does not draw
+     */
+    public static LayerType forTool(ToolModel.ToolType tool) {
+        return ToolRegistry.getDefault().getLayer(tool);
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.magicquill.data.layer;
+
+/**
+ * Storage format of a single-channel mask layer.
+ */
+public enum MaskFormat {
+    /** One byte of alpha per pixel (1/4 of ARGB). */
+    ALPHA_8,
+    /** One bit per pixel, alpha thresholded at 50% (1/32 of ARGB). */
+    PACKED_1BIT
+}
@@ -0,0 +1,219 @@
+package com.example.magicquill.data.layer;
+
+/**
+ * Tiled layer storing only alpha, for the add_edge, remove_edge and
+ * total_mask layers. The backend reads nothing but the alpha channel of
+ * these layers, so pixels are kept as {@link MaskFormat#ALPHA_8} bytes or
+ * {@link MaskFormat#PACKED_1BIT} bits and expanded to ARGB (the layer's mask
+ * color plus the stored alpha) only when read for serialization.
+ */
+public class MaskLayer extends TiledLayer {
+
+    private static final int PACKED_TILE_BYTES = TILE_PIXELS / 8;
+
+    private final MaskFormat format;
+    private final int maskRgb;
+    private final byte[][] tiles;
+    // ALPHA_8 scratch: a zeroed tile for unallocated tiles, or the unpacked
+    // rows of a PACKED_1BIT tile
+    private byte[] spareTile;
+
+    /**
+     * @param type The layer type
+     * @param width Layer width in pixels
+     * @param height Layer height in pixels
+     * @param format The storage format
+     * @param maskColor ARGB color used when expanding to ARGB (alpha ignored)
+     */
+    public MaskLayer(LayerType type, int width, int height, MaskFormat format, int maskColor) {
+        super(type, width, height);
+        this.format = format;
+        this.maskRgb = maskColor & 0x00FFFFFF;
+        this.tiles = new byte[getTileCount()][];
+    }
+
+    public MaskFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Get the RGB color the mask expands to.
+     * @return The color with zero alpha
+     */
+    public int getMaskRgb() {
+        return maskRgb;
+    }
+
+    @Override
+    public boolean isTileAllocated(int tileIndex) {
+        return tiles[tileIndex] != null;
+    }
+
+    @Override
+    protected void ensureTile(int tileIndex) {
+        if (tiles[tileIndex] == null) {
+            tiles[tileIndex] = new byte[format == MaskFormat.ALPHA_8 ? TILE_PIXELS : PACKED_TILE_BYTES];
+        }
+    }
+
+    @Override
+    protected void releaseTile(int tileIndex) {
+        unshareTile(tileIndex);
+        tiles[tileIndex] = null;
+    }
+
+    /**
+     * Get an allocated tile's storage for writing, copying it first if a snapshot holds it.
+     */
+    private byte[] writableTile(int tileIndex) {
+        if (unshareTile(tileIndex)) {
+            tiles[tileIndex] = tiles[tileIndex].clone();
+        }
+        return tiles[tileIndex];
+    }
+
+    @Override
+    protected boolean fillSegment(int tileIndex, int left, int top, int right, int bottom,
+                                  float x0, float y0, float x1, float y1, float radius,
+                                  int color, int[] hit) {
+        byte[] tile = tiles[tileIndex];
+        int tileLeft = tileLeft(tileIndex);
+        int tileTop = tileTop(tileIndex);
+        if (spareTile == null) {
+            spareTile = new byte[TILE_PIXELS];
+        }
+        if (format == MaskFormat.ALPHA_8) {
+            boolean fresh = tile == null;
+            byte[] target = fresh ? spareTile : writableTile(tileIndex);
+            if (!BrushRasterizer.fillAlpha(target, tileLeft, tileTop, left, top, right, bottom,
+                    x0, y0, x1, y1, radius, color >>> 24, hit)) {
+                return false;
+            }
+            if (fresh) {
+                tiles[tileIndex] = target;
+                spareTile = null;
+            }
+            return true;
+        }
+
+        // Rasterize the clip rectangle at 8 bits, then threshold it back into bits
+        byte[] scratch = spareTile;
+        for (int y = top; y < bottom; y++) {
+            int offset = (y - tileTop) * TILE_SIZE - tileLeft;
+            for (int x = left; x < right; x++) {
+                scratch[offset + x] = tile != null ? (byte) getAlpha(tile, offset + x) : 0;
+            }
+        }
+        boolean covered = BrushRasterizer.fillAlpha(scratch, tileLeft, tileTop, left, top, right, bottom,
+                x0, y0, x1, y1, radius, color >>> 24, hit);
+        if (covered) {
+            ensureTile(tileIndex);
+            tile = writableTile(tileIndex);
+            for (int y = hit[1]; y < hit[3]; y++) {
+                int offset = (y - tileTop) * TILE_SIZE - tileLeft;
+                for (int x = hit[0]; x < hit[2]; x++) {
+                    setAlpha(tile, offset + x, scratch[offset + x] & 0xFF);
+                }
+            }
+        }
+        return covered;
+    }
+
+    @Override
+    protected void readTileRow(int tileIndex, int row, int col, int count, int[] out, int outOffset) {
+        byte[] tile = tiles[tileIndex];
+        int start = row * TILE_SIZE + col;
+        for (int i = 0; i < count; i++) {
+            int alpha = getAlpha(tile, start + i);
+            out[outOffset + i] = alpha == 0 ? 0 : (alpha << 24) | maskRgb;
+        }
+    }
+
+    @Override
+    protected void writeTileRow(int tileIndex, int row, int col, int count, int[] src, int srcOffset) {
+        byte[] tile = writableTile(tileIndex);
+        int start = row * TILE_SIZE + col;
+        for (int i = 0; i < count; i++) {
+            setAlpha(tile, start + i, src[srcOffset + i] >>> 24);
+        }
+    }
+
+    /**
+     * Read alpha straight from storage, skipping the ARGB expansion, to feed
+     * ALPHA_8 bitmaps directly.
+     */
+    @Override
+    public boolean readTileAlpha(int tileIndex, byte[] out) {
+        byte[] tile = tiles[tileIndex];
+        if (tile == null) {
+            return false;
+        }
+        if (format == MaskFormat.ALPHA_8) {
+            System.arraycopy(tile, 0, out, 0, TILE_PIXELS);
+        } else {
+            for (int i = 0; i < TILE_PIXELS; i++) {
+                out[i] = (tile[i >> 3] & (1 << (i & 7))) != 0 ? (byte) 0xFF : 0;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the alpha of a single pixel.
+     * @param x X in layer pixels
+     * @param y Y in layer pixels
+     * @return Alpha in [0, 255]
+     */
+    public int getAlphaAt(int x, int y) {
+        int tile = tileIndex(x / TILE_SIZE, y / TILE_SIZE);
+        if (tiles[tile] == null) {
+            return 0;
+        }
+        return getAlpha(tiles[tile], (y % TILE_SIZE) * TILE_SIZE + (x % TILE_SIZE));
+    }
+
+    private int getAlpha(byte[] tile, int offset) {
+        if (format == MaskFormat.ALPHA_8) {
+            return tile[offset] & 0xFF;
+        }
+        return (tile[offset >> 3] & (1 << (offset & 7))) != 0 ? 0xFF : 0;
+    }
+
+    private void setAlpha(byte[] tile, int offset, int alpha) {
+        if (format == MaskFormat.ALPHA_8) {
+            tile[offset] = (byte) alpha;
+        } else if (alpha >= 0x80) {
+            tile[offset >> 3] |= (byte) (1 << (offset & 7));
+        } else {
+            tile[offset >> 3] &= (byte) ~(1 << (offset & 7));
+        }
+    }
+
+    @Override
+    protected Object copyTile(int tileIndex) {
+        return tiles[tileIndex] != null ? tiles[tileIndex].clone() : null;
+    }
+
+    @Override
+    protected void loadTile(int tileIndex, Object data) {
+        unshareTile(tileIndex);
+        tiles[tileIndex] = data != null ? ((byte[]) data).clone() : null;
+    }
+
+    @Override
+    protected TiledLayer shareTiles() {
+        MaskLayer copy = new MaskLayer(getType(), getWidth(), getHeight(), format, maskRgb);
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i] != null) {
+                copy.tiles[i] = tiles[i];
+                shareTile(i);
+            }
+        }
+        return copy;
+    }
+
+    @Override
+    public int getBytesPerTile() {
+        return format == MaskFormat.ALPHA_8 ? TILE_PIXELS : PACKED_TILE_BYTES;
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.magicquill.data.layer;
+
+/**
+ * Base for layers whose pixels are computed from another source instead of
+ * being stored in tiles. They can be read and encoded like any other layer
+ * but cannot be drawn on.
+ */
+public abstract class ReadOnlyLayer extends TiledLayer {
+
+    protected ReadOnlyLayer(LayerType type, int width, int height) {
+        super(type, width, height);
+    }
+
+    @Override
+    protected void ensureTile(int tileIndex) {
+        throw new UnsupportedOperationException("Layer is read-only");
+    }
+
+    @Override
+    protected void releaseTile(int tileIndex) {
+        throw new UnsupportedOperationException("Layer is read-only");
+    }
+
+    @Override
+    protected boolean fillSegment(int tileIndex, int left, int top, int right, int bottom,
+                                  float x0, float y0, float x1, float y1, float radius,
+                                  int color, int[] hit) {
+        throw new UnsupportedOperationException("Layer is read-only");
+    }
+
+    @Override
+    protected void writeTileRow(int tileIndex, int row, int col, int count, int[] src, int srcOffset) {
+        throw new UnsupportedOperationException("Layer is read-only");
+    }
+
+    @Override
+    protected Object copyTile(int tileIndex) {
+        // Pixels are recomputed from the source, so there is nothing to copy
+        return null;
+    }
+
+    @Override
+    protected TiledLayer shareTiles() {
+        // Snapshot the layers this one is computed from instead
+        throw new UnsupportedOperationException("Layer is read-only");
+    }
+
+    @Override
+    protected void loadTile(int tileIndex, Object data) {
+        throw new UnsupportedOperationException("Layer is read-only");
+    }
+
+    /**
+     * Nothing is drawn on a computed layer, so by default its bounds are
+     * those of the tiles that report content. Subclasses that can derive
+     * tighter bounds from their source should.
+     */
+    @Override
+    public boolean getContentBounds(int[] out) {
+        int left = Integer.MAX_VALUE;
+        int top = Integer.MAX_VALUE;
+        int right = Integer.MIN_VALUE;
+        int bottom = Integer.MIN_VALUE;
+        for (int i = 0; i < getTileCount(); i++) {
+            if (isTileAllocated(i)) {
+                left = Math.min(left, tileLeft(i));
+                top = Math.min(top, tileTop(i));
+                right = Math.max(right, tileLeft(i) + tileWidth(i));
+                bottom = Math.max(bottom, tileTop(i) + tileHeight(i));
+            }
+        }
+        if (left == Integer.MAX_VALUE) {
+            return false;
+        }
+        out[0] = left;
+        out[1] = top;
+        out[2] = right;
+        out[3] = bottom;
+        return true;
+    }
+
+    @Override
+    public int getBytesPerTile() {
+        // Nothing is held per tile
+        return 0;
+    }
+}
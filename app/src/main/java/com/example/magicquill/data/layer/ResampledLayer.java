@@ -0,0 +1,197 @@
+package com.example.magicquill.data.layer;
+
+/**
+ * Read-only view of a layer at a different resolution. Pixels are sampled
+ * from the source layer when read, so an upscaled copy costs two source
+ * rows of memory instead of a full-size layer.
+ * Alpha masks use nearest-neighbour sampling to keep hard mask edges;
+ * color layers use bilinear sampling on premultiplied values, so transparent
+ * pixels do not darken the edges of strokes.
+ * The view reports the source version, so encoders can cache its output
+ * until the source layer changes.
+ */
+public class ResampledLayer extends ReadOnlyLayer {
+
+    /**
+     * Sampling filter.
+     */
+    public enum Filter {
+        NEAREST,
+        BILINEAR
+    }
+
+    private final TiledLayer source;
+    private final Filter filter;
+
+    // Two cached source rows; bilinear sampling needs a pair
+    private final int[][] rows;
+    private final int[] rowY = {-1, -1};
+    private int nextSlot;
+    private long cachedVersion = -1;
+
+    public ResampledLayer(TiledLayer source, int width, int height, Filter filter) {
+        super(source.getType(), width, height);
+        this.source = source;
+        this.filter = filter;
+        this.rows = new int[2][source.getWidth()];
+    }
+
+    /**
+     * Pick the filter for a layer type: nearest for masks, bilinear otherwise.
+     * @param type The layer type
+     * @return The filter
+     */
+    public static Filter filterFor(LayerType type) {
+        return type.isMask() ? Filter.NEAREST : Filter.BILINEAR;
+    }
+
+    public TiledLayer getSource() {
+        return source;
+    }
+
+    public Filter getFilter() {
+        return filter;
+    }
+
+    @Override
+    public long getVersion() {
+        return source.getVersion();
+    }
+
+    @Override
+    public boolean isTileAllocated(int tileIndex) {
+        // Allocated if any source tile under this tile (plus a filter margin) is
+        int sw = source.getWidth();
+        int sh = source.getHeight();
+        int left = (int) ((long) tileLeft(tileIndex) * sw / getWidth()) - 1;
+        int top = (int) ((long) tileTop(tileIndex) * sh / getHeight()) - 1;
+        int right = (int) (((long) (tileLeft(tileIndex) + tileWidth(tileIndex)) * sw + getWidth() - 1) / getWidth()) + 1;
+        int bottom = (int) (((long) (tileTop(tileIndex) + tileHeight(tileIndex)) * sh + getHeight() - 1) / getHeight()) + 1;
+        int tx0 = Math.max(0, left) / TILE_SIZE;
+        int ty0 = Math.max(0, top) / TILE_SIZE;
+        int tx1 = (Math.min(sw, right) - 1) / TILE_SIZE;
+        int ty1 = (Math.min(sh, bottom) - 1) / TILE_SIZE;
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                if (source.isTileAllocated(source.tileIndex(tx, ty))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Scale the source bounds, widened by a pixel for the filter footprint.
+     */
+    @Override
+    public boolean getContentBounds(int[] out) {
+        if (!source.getContentBounds(out)) {
+            return false;
+        }
+        int sw = source.getWidth();
+        int sh = source.getHeight();
+        out[0] = Math.max(0, (int) ((long) out[0] * getWidth() / sw) - 1);
+        out[1] = Math.max(0, (int) ((long) out[1] * getHeight() / sh) - 1);
+        out[2] = Math.min(getWidth(), (int) (((long) out[2] * getWidth() + sw - 1) / sw) + 1);
+        out[3] = Math.min(getHeight(), (int) (((long) out[3] * getHeight() + sh - 1) / sh) + 1);
+        return true;
+    }
+
+    @Override
+    protected synchronized void readTileRow(int tileIndex, int tileRow, int col, int count, int[] out, int outOffset) {
+        if (cachedVersion != source.getVersion()) {
+            rowY[0] = -1;
+            rowY[1] = -1;
+            cachedVersion = source.getVersion();
+        }
+        int y = tileTop(tileIndex) + tileRow;
+        int x = tileLeft(tileIndex) + col;
+        if (filter == Filter.NEAREST) {
+            readNearest(x, y, count, out, outOffset);
+        } else {
+            readBilinear(x, y, count, out, outOffset);
+        }
+    }
+
+    private void readNearest(int x, int y, int count, int[] out, int outOffset) {
+        int sw = source.getWidth();
+        int sy = (int) ((2L * y + 1) * source.getHeight() / (2L * getHeight()));
+        int[] row = sourceRow(sy);
+        for (int i = 0; i < count; i++) {
+            int sx = (int) ((2L * (x + i) + 1) * sw / (2L * getWidth()));
+            out[outOffset + i] = row[sx];
+        }
+    }
+
+    private void readBilinear(int x, int y, int count, int[] out, int outOffset) {
+        int sw = source.getWidth();
+        int sh = source.getHeight();
+        float fy = (y + 0.5f) * sh / getHeight() - 0.5f;
+        int y0 = clamp((int) Math.floor(fy), sh);
+        int y1 = clamp(y0 + 1, sh);
+        float wy = clampWeight(fy - y0);
+        int[] row0 = sourceRow(y0);
+        int[] row1 = sourceRow(y1);
+        float scaleX = sw / (float) getWidth();
+
+        for (int i = 0; i < count; i++) {
+            float fx = (x + i + 0.5f) * scaleX - 0.5f;
+            int x0 = clamp((int) Math.floor(fx), sw);
+            int x1 = clamp(x0 + 1, sw);
+            float wx = clampWeight(fx - x0);
+            out[outOffset + i] = blend(row0[x0], row0[x1], row1[x0], row1[x1], wx, wy);
+        }
+    }
+
+    /**
+     * Bilinear blend of four ARGB pixels in premultiplied space.
+     */
+    static int blend(int p00, int p10, int p01, int p11, float wx, float wy) {
+        float w00 = (1f - wx) * (1f - wy);
+        float w10 = wx * (1f - wy);
+        float w01 = (1f - wx) * wy;
+        float w11 = wx * wy;
+        float a00 = (p00 >>> 24) * w00;
+        float a10 = (p10 >>> 24) * w10;
+        float a01 = (p01 >>> 24) * w01;
+        float a11 = (p11 >>> 24) * w11;
+        float a = a00 + a10 + a01 + a11;
+        if (a <= 0f) {
+            return 0;
+        }
+        float r = ((p00 >> 16) & 0xFF) * a00 + ((p10 >> 16) & 0xFF) * a10 + ((p01 >> 16) & 0xFF) * a01 + ((p11 >> 16) & 0xFF) * a11;
+        float g = ((p00 >> 8) & 0xFF) * a00 + ((p10 >> 8) & 0xFF) * a10 + ((p01 >> 8) & 0xFF) * a01 + ((p11 >> 8) & 0xFF) * a11;
+        float b = (p00 & 0xFF) * a00 + (p10 & 0xFF) * a10 + (p01 & 0xFF) * a01 + (p11 & 0xFF) * a11;
+        int alpha = Math.min(255, Math.round(a));
+        return (alpha << 24)
+                | (Math.min(255, Math.round(r / a)) << 16)
+                | (Math.min(255, Math.round(g / a)) << 8)
+                | Math.min(255, Math.round(b / a));
+    }
+
+    private int[] sourceRow(int sy) {
+        // Least-recently-used of two slots
+        if (rowY[0] == sy) {
+            nextSlot = 1;
+            return rows[0];
+        }
+        if (rowY[1] == sy) {
+            nextSlot = 0;
+            return rows[1];
+        }
+        int slot = nextSlot;
+        nextSlot ^= 1;
+        source.readPixels(rows[slot], 0, source.getWidth(), 0, sy, source.getWidth(), 1);
+        rowY[slot] = sy;
+        return rows[slot];
+    }
+
+    private static int clamp(int value, int size) {
+        return value < 0 ? 0 : (value >= size ? size - 1 : value);
+    }
+
+    private static float clampWeight(float w) {
+        return w < 0f ? 0f : (w > 1f ? 1f : w);
+    }
+}
@@ -0,0 +1,320 @@
+package com.example.magicquill.data.layer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Merges a generated image into the original layer only where the request
+ * allowed the server to change it: total_mask grown by grow_size, with a
+ * feathered edge so no seam shows. Pixels outside that area are never
+ * written, so they stay bit-identical across edit rounds and tiles out of
+ * reach keep their version (and their cached encodings and bitmaps).
+ * <p>
+ * Blending runs tile-parallel on a bounded worker pool and only produces
+ * the blended tiles; {@link Blend#apply} writes them on the thread that
+ * owns the store. The mask is the one the request was sent with, taken
+ * from the request's {@link LayerStore#snapshot()}, so blending never
+ * reads the live mask while strokes go on.
+ */
+public class ResultBlender {
+
+    /** Width of the fade from generated to original pixels, in canvas pixels. */
+    public static final int DEFAULT_FEATHER = 8;
+
+    private final ThreadPoolExecutor executor;
+
+    public ResultBlender() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads Maximum number of blending threads (at least 1)
+     */
+    public ResultBlender(int threads) {
+        int poolSize = Math.max(1, threads);
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(poolSize), new BlendThreadFactory());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public int getThreadCount() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Get the part of an area a blend may change. If nothing is masked the
+     * server was free to change everything, so that is the whole area.
+     * @param mask The total_mask the request was sent with
+     * @param area Where the generated image lies on the canvas
+     * @param growSize grow_size in canvas pixels
+     * @param feather Width of the fade in canvas pixels
+     * @return The affected part of the area, or null if the mask is out of its reach
+     */
+    public static CropRegion affectedArea(TiledLayer mask, CropRegion area, int growSize, int feather) {
+        int[] bounds = new int[4];
+        if (!mask.getContentBounds(bounds)) {
+            return area;
+        }
+        int reach = Math.min(GrownMaskLayer.MAX_GROW_SIZE, Math.max(0, growSize) + Math.max(0, feather));
+        int left = Math.max(area.getLeft(), bounds[0] - reach);
+        int top = Math.max(area.getTop(), bounds[1] - reach);
+        int right = Math.min(area.getLeft() + area.getWidth(), bounds[2] + reach);
+        int bottom = Math.min(area.getTop() + area.getHeight(), bounds[3] + reach);
+        if (left >= right || top >= bottom) {
+            return null;
+        }
+        return new CropRegion(area.getCanvasWidth(), area.getCanvasHeight(), left, top, right - left, bottom - top);
+    }
+
+    /**
+     * Get a blend that changes nothing, for an image the mask does not reach.
+     * @param store The canvas
+     * @return An empty blend
+     */
+    public static Blend unchanged(LayerStore store) {
+        return new Blend(store.getLayer(LayerType.ORIGINAL_IMAGE));
+    }
+
+    /**
+     * Blend a generated image using the current total_mask of the store.
+     * Only for a store no other thread draws on.
+     * @see #blend(LayerStore, TiledLayer, int[], CropRegion, int, int)
+     */
+    public Blend blend(LayerStore store, int[] generated, CropRegion area, int growSize, int feather)
+            throws InterruptedException {
+        return blend(store, store.getLayer(LayerType.TOTAL_MASK), generated, area, growSize, feather);
+    }
+
+    /**
+     * Blend a generated image over the original layer of a store. The store
+     * is only read; nothing is written until the blend is applied.
+     * @param store The canvas
+     * @param mask The total_mask the request was sent with, e.g. from its
+     *             snapshot; decides where the image is used
+     * @param generated Generated ARGB pixels covering {@code area}, with stride area.getWidth()
+     * @param area Where the generated pixels lie on the canvas
+     * @param growSize grow_size in canvas pixels
+     * @param feather Width of the fade in canvas pixels
+     * @return The blended tiles
+     * @throws InterruptedException If the calling thread is interrupted while waiting for the workers
+     */
+    public Blend blend(LayerStore store, TiledLayer mask, int[] generated, CropRegion area, int growSize,
+                       int feather) throws InterruptedException {
+        if (area.getCanvasWidth() != store.getWidth() || area.getCanvasHeight() != store.getHeight()) {
+            throw new IllegalArgumentException(area + " is not on a " + store.getWidth() + "x" + store.getHeight()
+                    + " canvas");
+        }
+        if (mask.getWidth() != store.getWidth() || mask.getHeight() != store.getHeight()) {
+            throw new IllegalArgumentException("Mask is " + mask.getWidth() + "x" + mask.getHeight()
+                    + ", canvas is " + store.getWidth() + "x" + store.getHeight());
+        }
+        TiledLayer original = store.getLayer(LayerType.ORIGINAL_IMAGE);
+        Blend blend = new Blend(original);
+        CropRegion affected = affectedArea(mask, area, growSize, feather);
+        if (affected == null) {
+            return blend;
+        }
+
+        int tx0 = affected.getLeft() / TiledLayer.TILE_SIZE;
+        int ty0 = affected.getTop() / TiledLayer.TILE_SIZE;
+        int tx1 = (affected.getLeft() + affected.getWidth() - 1) / TiledLayer.TILE_SIZE;
+        int ty1 = (affected.getTop() + affected.getHeight() - 1) / TiledLayer.TILE_SIZE;
+        List<Integer> tiles = new ArrayList<>();
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                tiles.add(original.tileIndex(tx, ty));
+            }
+        }
+        boolean masked = mask.getContentBounds(new int[4]);
+
+        // One task per worker, each with its own grown mask so distance
+        // transforms run in parallel; tiles are dealt out in turn
+        int tasks = Math.min(getThreadCount(), tiles.size());
+        List<Future<List<BlendedTile>>> pending = new ArrayList<>(tasks);
+        for (int task = 0; task < tasks; task++) {
+            int first = task;
+            pending.add(executor.submit(() -> {
+                GrownMaskLayer grown = null;
+                if (masked) {
+                    grown = new GrownMaskLayer(mask, 0);
+                    grown.setGrowSize(growSize);
+                }
+                List<BlendedTile> out = new ArrayList<>();
+                byte[] coverage = new byte[TiledLayer.TILE_PIXELS];
+                for (int i = first; i < tiles.size(); i += tasks) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        break;
+                    }
+                    BlendedTile tile = blendTile(original, grown, tiles.get(i), generated, area, feather, coverage);
+                    if (tile != null) {
+                        out.add(tile);
+                    }
+                }
+                return out;
+            }));
+        }
+
+        try {
+            for (Future<List<BlendedTile>> future : pending) {
+                blend.tiles.addAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            cancelAll(pending);
+            throw e;
+        } catch (ExecutionException e) {
+            cancelAll(pending);
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause
+                    : new IllegalStateException("Blending failed", cause);
+        }
+        return blend;
+    }
+
+    /**
+     * Blend one tile.
+     * @param grown The grown total_mask, or null to use the generated image everywhere
+     * @return The blended tile, or null if no pixel of it changes
+     */
+    private static BlendedTile blendTile(TiledLayer original, GrownMaskLayer grown, int tileIndex,
+                                         int[] generated, CropRegion area, int feather, byte[] coverage) {
+        if (grown != null && !grown.readTileFeathered(tileIndex, feather, coverage)) {
+            return null;
+        }
+        int[] pixels = new int[TiledLayer.TILE_PIXELS];
+        original.readTile(tileIndex, pixels);
+        int tileLeft = original.tileLeft(tileIndex);
+        int tileTop = original.tileTop(tileIndex);
+        int x0 = Math.max(tileLeft, area.getLeft());
+        int y0 = Math.max(tileTop, area.getTop());
+        int x1 = Math.min(tileLeft + original.tileWidth(tileIndex), area.getLeft() + area.getWidth());
+        int y1 = Math.min(tileTop + original.tileHeight(tileIndex), area.getTop() + area.getHeight());
+
+        int left = Integer.MAX_VALUE;
+        int top = Integer.MAX_VALUE;
+        int right = 0;
+        int bottom = 0;
+        for (int y = y0; y < y1; y++) {
+            int i = (y - tileTop) * TiledLayer.TILE_SIZE + (x0 - tileLeft);
+            int g = (y - area.getTop()) * area.getWidth() + (x0 - area.getLeft());
+            for (int x = x0; x < x1; x++, i++, g++) {
+                int weight = grown != null ? coverage[i] & 0xFF : 0xFF;
+                if (weight == 0) {
+                    continue;
+                }
+                pixels[i] = weight == 0xFF ? generated[g] : mix(pixels[i], generated[g], weight);
+                left = Math.min(left, x);
+                right = Math.max(right, x + 1);
+                top = Math.min(top, y);
+                bottom = y + 1;
+            }
+        }
+        if (right == 0) {
+            return null;
+        }
+        return new BlendedTile(tileIndex, pixels, left, top, right, bottom);
+    }
+
+    /**
+     * Mix two ARGB colors per channel.
+     * @param weight Share of {@code b} out of 255
+     */
+    static int mix(int a, int b, int weight) {
+        int inverse = 0xFF - weight;
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int channel = ((a >>> shift & 0xFF) * inverse + (b >>> shift & 0xFF) * weight + 127) / 255;
+            result |= channel << shift;
+        }
+        return result;
+    }
+
+    /**
+     * Stop the worker threads. The blender cannot be used afterwards.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static void cancelAll(List<? extends Future<?>> pending) {
+        for (Future<?> future : pending) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Blended tiles of one generated image, waiting to be written.
+     */
+    public static class Blend {
+        private final TiledLayer original;
+        private final long originalVersion;
+        private final List<BlendedTile> tiles = new ArrayList<>();
+
+        Blend(TiledLayer original) {
+            this.original = original;
+            this.originalVersion = original.getVersion();
+        }
+
+        /**
+         * Get the number of tiles the blend changes.
+         */
+        public int getTileCount() {
+            return tiles.size();
+        }
+
+        /**
+         * Write the blended pixels into the original layer. Only the
+         * changed rectangle of each tile is written.
+         * @param store The store the blend was computed from
+         * @param dirty Receives the changed tiles (may be null)
+         * @return False if the original layer changed since the blend was computed (nothing is written)
+         */
+        public boolean apply(LayerStore store, DirtyRegion dirty) {
+            if (store.getLayer(LayerType.ORIGINAL_IMAGE) != original || original.getVersion() != originalVersion) {
+                return false;
+            }
+            for (BlendedTile tile : tiles) {
+                int offset = (tile.top - original.tileTop(tile.index)) * TiledLayer.TILE_SIZE
+                        + tile.left - original.tileLeft(tile.index);
+                original.writePixels(tile.pixels, offset, TiledLayer.TILE_SIZE, tile.left, tile.top,
+                        tile.right - tile.left, tile.bottom - tile.top, dirty);
+            }
+            return true;
+        }
+    }
+
+    private static class BlendedTile {
+        final int index;
+        final int[] pixels;
+        final int left;
+        final int top;
+        final int right;
+        final int bottom;
+
+        BlendedTile(int index, int[] pixels, int left, int top, int right, int bottom) {
+            this.index = index;
+            this.pixels = pixels;
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+        }
+    }
+
+    private static class BlendThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "result-blend-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package com.example.magicquill.data.layer;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a copy of a layer store on disk, one {@link LayerFile} per layer,
+ * so a killed process can pick the canvas up where it left off.
+ * <p>
+ * This is crash-safe autosave only: the store keeps every tile on the Java
+ * heap as before, and the files are a write-behind copy of it, never read
+ * back while the session runs.
+ * <p>
+ * {@link #flush()} runs on the thread that owns the store: it copies just
+ * the tiles whose version moved since the last flush and hands them to a
+ * background writer. A layer written in full takes a {@link
+ * TiledLayer#snapshot()} instead, and the writer copies its tiles. Each flush has a generation number. The writer
+ * commits every changed layer stamped with it, then replaces a small
+ * manifest holding the generation; only once the manifest names it does
+ * the flush count. A layer that was replaced (e.g. by a mask format
+ * change) is rewritten into a new file beside the old one, which it
+ * replaces after the manifest.
+ * <p>
+ * {@link #resume} reads the manifest and opens every layer as of that
+ * generation, so the layers always come back from the same flush: a
+ * layer committed by a flush cut short falls back to its previous commit,
+ * and a rewritten file the manifest does not name is dropped. Without a
+ * manifest, e.g. when the first flush never finished, there is no session.
+ * The undo log is not saved.
+ */
+public class SessionAutosave implements Closeable {
+
+    private static final String SUFFIX = ".layer";
+    private static final String REWRITE_SUFFIX = ".new";
+    private static final String TEMP_SUFFIX = ".tmp";
+    static final String MANIFEST = "session.manifest";
+    private static final int MANIFEST_MAGIC = 0x4D51534D;   // "MQSM"
+    private static final int MANIFEST_VERSION = 1;
+
+    private final LayerStore store;
+    private final File dir;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "session-autosave");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Written by the writer thread only
+    private final EnumMap<LayerType, LayerFile> files = new EnumMap<>(LayerType.class);
+    // The generation the manifest names
+    private long generation;
+    // Owned by the store's thread: what the last flush captured
+    private final EnumMap<LayerType, TiledLayer> savedLayers = new EnumMap<>(LayerType.class);
+    private final long[] savedVersions = new long[LayerType.values().length];
+    private volatile boolean writeFailed;
+
+    private SessionAutosave(LayerStore store, File dir) {
+        this.store = store;
+        this.dir = dir;
+    }
+
+    /**
+     * Start saving a store, replacing any session saved in the directory.
+     * Nothing is written until the first {@link #flush()}, which writes
+     * every layer.
+     * @param store The store to save
+     * @param dir App-private directory for the session
+     */
+    public static SessionAutosave create(LayerStore store, File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        delete(dir);
+        return new SessionAutosave(store, dir);
+    }
+
+    /**
+     * Read back the session saved in a directory, every layer as of the
+     * last flush that finished.
+     * @param dir The session directory
+     * @return The session, saving further changes into the same files, or
+     *         null if no flush finished
+     * @throws IOException If a saved layer cannot be recovered
+     */
+    public static SessionAutosave resume(File dir) throws IOException {
+        removeTempFiles(dir);
+        long generation = readManifest(dir);
+        if (generation < 0) {
+            return null;
+        }
+        for (LayerType type : LayerType.values()) {
+            settleRewrite(dir, type, generation);
+        }
+        EnumMap<LayerType, LayerFile> opened = new EnumMap<>(LayerType.class);
+        try {
+            for (LayerType type : LayerType.values()) {
+                LayerFile file = LayerFile.open(layerFile(dir, type), generation);
+                opened.put(type, file);
+                if (file.getType() != type) {
+                    throw new IOException(file.getPath() + " holds " + file.getType());
+                }
+            }
+            LayerFile original = opened.get(LayerType.ORIGINAL_IMAGE);
+            LayerStore store = new LayerStore(original.getWidth(), original.getHeight());
+            SessionAutosave session = new SessionAutosave(store, dir);
+            session.generation = generation;
+            for (LayerType type : LayerType.values()) {
+                LayerFile file = opened.get(type);
+                if (file.getWidth() != store.getWidth() || file.getHeight() != store.getHeight()) {
+                    throw new IOException(file.getPath() + " does not match the canvas size");
+                }
+                MaskFormat format = file.getMaskFormat();
+                if (type.isMask() && format != null && format != MaskFormat.ALPHA_8) {
+                    store.replaceLayer(new MaskLayer(type, store.getWidth(), store.getHeight(), format,
+                            type.getDefaultBrushColor()));
+                }
+                TiledLayer layer = store.getLayer(type);
+                if (LayerFile.formatOf(layer) != file.getFormat()) {
+                    throw new IOException(file.getPath() + " has an unexpected pixel format");
+                }
+                for (int i = 0; i < file.getTileCount(); i++) {
+                    Object tile = file.readTile(i);
+                    if (tile != null) {
+                        layer.restoreTile(i, tile, null);
+                    }
+                }
+                // What is on disk now matches the layer, so the next flush only writes changes
+                session.savedLayers.put(type, layer);
+                session.savedVersions[type.ordinal()] = layer.getVersion();
+            }
+            session.files.putAll(opened);
+            return session;
+        } catch (IOException | RuntimeException e) {
+            for (LayerFile file : opened.values()) {
+                file.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Delete a saved session.
+     * @param dir The session directory
+     */
+    public static void delete(File dir) {
+        // The manifest first, so a delete cut short leaves no session
+        new File(dir, MANIFEST).delete();
+        removeTempFiles(dir);
+        for (LayerType type : LayerType.values()) {
+            rewriteFile(dir, type).delete();
+            layerFile(dir, type).delete();
+        }
+    }
+
+    public LayerStore getStore() {
+        return store;
+    }
+
+    /**
+     * Capture the tiles changed since the last flush and write them in the
+     * background. Call on the thread that owns the store.
+     * @return Completes when the tiles are on disk; fails with the write error, if any
+     */
+    public Future<?> flush() {
+        if (writeFailed) {
+            // The files may lag behind by an unknown amount; write everything again
+            writeFailed = false;
+            savedLayers.clear();
+        }
+        EnumMap<LayerType, LayerSnapshot> snapshots = new EnumMap<>(LayerType.class);
+        for (LayerType type : LayerType.values()) {
+            TiledLayer layer = store.getLayer(type);
+            if (savedLayers.get(type) != layer) {
+                // Every tile goes out; share them rather than copy them all here
+                snapshots.put(type, new LayerSnapshot(layer.snapshot(), null, layer.getVersion()));
+            } else {
+                BitSet changed = new BitSet();
+                if (!layer.collectTilesChangedSince(savedVersions[type.ordinal()], changed)) {
+                    continue;
+                }
+                Map<Integer, Object> tiles = new HashMap<>();
+                for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+                    tiles.put(i, layer.copyTile(i));
+                }
+                snapshots.put(type, new LayerSnapshot(null, tiles, layer.getVersion()));
+            }
+            savedLayers.put(type, layer);
+            savedVersions[type.ordinal()] = layer.getVersion();
+        }
+        if (snapshots.isEmpty()) {
+            return writer.submit(() -> null);
+        }
+        return writer.submit(() -> {
+            try {
+                long next = generation + 1;
+                List<LayerType> rewritten = new ArrayList<>();
+                for (Map.Entry<LayerType, LayerSnapshot> entry : snapshots.entrySet()) {
+                    if (write(entry.getKey(), entry.getValue(), next)) {
+                        rewritten.add(entry.getKey());
+                    }
+                }
+                writeManifest(dir, next);
+                generation = next;
+                for (LayerType type : rewritten) {
+                    installRewrite(type);
+                }
+            } catch (IOException | RuntimeException e) {
+                writeFailed = true;
+                throw e;
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Wait for pending writes, then close the files. The saved session
+     * stays on disk.
+     */
+    @Override
+    public void close() throws IOException {
+        writer.shutdown();
+        try {
+            while (!writer.awaitTermination(1, TimeUnit.SECONDS)) {
+                // Large commits can take a while
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (LayerFile file : files.values()) {
+            file.close();
+        }
+        files.clear();
+    }
+
+    /**
+     * Commit one layer's tiles as part of a flush.
+     * @return True if the layer went to a new file that replaces its file
+     *         once the manifest names the flush
+     */
+    private boolean write(LayerType type, LayerSnapshot snapshot, long flushGeneration) throws IOException {
+        if (snapshot.layer == null) {
+            files.get(type).commit(snapshot.tiles, snapshot.version, flushGeneration);
+            return false;
+        }
+        Map<Integer, Object> tiles = new HashMap<>();
+        for (int i = 0; i < snapshot.layer.getTileCount(); i++) {
+            tiles.put(i, snapshot.layer.copyTile(i));
+        }
+        // Build the new file aside so a crash keeps the old one intact
+        File rewrite = rewriteFile(dir, type);
+        try (LayerFile rewritten = LayerFile.create(rewrite, snapshot.layer)) {
+            rewritten.commit(tiles, snapshot.version, flushGeneration);
+        } catch (IOException e) {
+            rewrite.delete();
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * Move a rewritten layer over its file, once the manifest names it.
+     */
+    private void installRewrite(LayerType type) throws IOException {
+        LayerFile file = files.remove(type);
+        if (file != null) {
+            file.close();
+        }
+        File target = layerFile(dir, type);
+        if (!rewriteFile(dir, type).renameTo(target)) {
+            throw new IOException("Cannot replace " + target);
+        }
+        files.put(type, LayerFile.open(target));
+    }
+
+    /**
+     * Finish or drop a rewritten layer left behind by a flush: finish it if
+     * the manifest names its flush, which then stopped before the rename.
+     */
+    private static void settleRewrite(File dir, LayerType type, long generation) throws IOException {
+        File rewrite = rewriteFile(dir, type);
+        if (!rewrite.isFile()) {
+            return;
+        }
+        boolean committed;
+        try (LayerFile file = LayerFile.open(rewrite)) {
+            committed = file.getGeneration() == generation;
+        } catch (IOException e) {
+            // Torn before its commit, so not part of any finished flush
+            committed = false;
+        }
+        if (!committed) {
+            rewrite.delete();
+        } else if (!rewrite.renameTo(layerFile(dir, type))) {
+            throw new IOException("Cannot replace " + layerFile(dir, type));
+        }
+    }
+
+    /**
+     * Replace the manifest with one naming a flush generation. Layers are
+     * already forced to disk, so the flush counts from here on.
+     */
+    private static void writeManifest(File dir, long generation) throws IOException {
+        File temp = new File(dir, MANIFEST + TEMP_SUFFIX);
+        try (FileOutputStream stream = new FileOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(stream)) {
+            out.writeInt(MANIFEST_MAGIC);
+            out.writeInt(MANIFEST_VERSION);
+            out.writeLong(generation);
+            out.flush();
+            stream.getFD().sync();
+        }
+        if (!temp.renameTo(new File(dir, MANIFEST))) {
+            temp.delete();
+            throw new IOException("Cannot replace " + new File(dir, MANIFEST));
+        }
+    }
+
+    /**
+     * @return The generation the manifest names, or -1 if there is none
+     */
+    private static long readManifest(File dir) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(new File(dir, MANIFEST)))) {
+            if (in.readInt() != MANIFEST_MAGIC || in.readInt() != MANIFEST_VERSION) {
+                throw new IOException("Not a session manifest in " + dir);
+            }
+            return in.readLong();
+        } catch (FileNotFoundException e) {
+            return -1;
+        }
+    }
+
+    private static File layerFile(File dir, LayerType type) {
+        return new File(dir, type.getApiKey() + SUFFIX);
+    }
+
+    private static File rewriteFile(File dir, LayerType type) {
+        return new File(dir, type.getApiKey() + SUFFIX + REWRITE_SUFFIX);
+    }
+
+    private static void removeTempFiles(File dir) {
+        File[] leftovers = dir.listFiles((d, name) -> name.endsWith(TEMP_SUFFIX));
+        if (leftovers != null) {
+            for (File leftover : leftovers) {
+                leftover.delete();
+            }
+        }
+    }
+
+    /**
+     * Tiles of one layer captured by a flush.
+     */
+    private static class LayerSnapshot {
+        /** A snapshot of the layer when its file must be rewritten, otherwise null. */
+        final TiledLayer layer;
+        /** The changed tiles, or null when the file is rewritten from the snapshot. */
+        final Map<Integer, Object> tiles;
+        final long version;
+
+        LayerSnapshot(TiledLayer layer, Map<Integer, Object> tiles, long version) {
+            this.layer = layer;
+            this.tiles = tiles;
+            this.version = version;
+        }
+    }
+}
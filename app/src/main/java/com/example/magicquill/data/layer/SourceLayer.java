@@ -0,0 +1,46 @@
+package com.example.magicquill.data.layer;
+
+import com.example.magicquill.data.image.ImageSource;
+
+import java.io.IOException;
+
+/**
+ * Read-only layer backed by an {@link ImageSource}, e.g. the full-resolution
+ * original on disk. Rows are read on demand and the last one is kept, so
+ * streaming the layer row by row reads the source exactly once.
+ */
+public class SourceLayer extends ReadOnlyLayer {
+
+    private final ImageSource source;
+    private final int[] row;
+    private int cachedRow = -1;
+
+    public SourceLayer(LayerType type, ImageSource source) {
+        super(type, source.getWidth(), source.getHeight());
+        this.source = source;
+        this.row = new int[source.getWidth()];
+    }
+
+    public ImageSource getSource() {
+        return source;
+    }
+
+    @Override
+    public boolean isTileAllocated(int tileIndex) {
+        return true;
+    }
+
+    @Override
+    protected synchronized void readTileRow(int tileIndex, int tileRow, int col, int count, int[] out, int outOffset) {
+        int y = tileTop(tileIndex) + tileRow;
+        if (y != cachedRow) {
+            try {
+                source.readRows(y, 1, row);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to read image row " + y, e);
+            }
+            cachedRow = y;
+        }
+        System.arraycopy(row, tileLeft(tileIndex) + col, out, outOffset, count);
+    }
+}
@@ -0,0 +1,427 @@
+package com.example.magicquill.data.layer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.List;
+
+/**
+ * Undo/redo log for the strokes of a {@link LayerStore}.
+ * Strokes are recorded as compact commands (layer, radius, color and the
+ * points, kept in one shared float buffer) instead of pixels. Every few
+ * strokes the tiles changed since the previous checkpoint are copied, so an
+ * undo restores the nearest checkpoint and replays only the strokes after it.
+ * Memory stays under a byte budget: when it is exceeded the oldest checkpoint
+ * is folded into the base state and the strokes before it are forgotten.
+ * The original image is never a stroke target and is not tracked.
+ */
+public class StrokeHistory {
+
+    public static final long DEFAULT_BUDGET_BYTES = 32L * 1024 * 1024;
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 16;
+
+    // Layer, color, radius and point offset of one command
+    private static final int COMMAND_BYTES = 13;
+    // Marks a tile a checkpoint captured while it was unallocated
+    private static final Object UNALLOCATED = new Object();
+
+    /**
+     * Copy of the tiles that changed since the previous checkpoint, taken
+     * after {@code step} commands. The base checkpoint holds every allocated tile.
+     */
+    private static class Checkpoint {
+        int step;
+        final long[] versions = new long[LayerType.values().length];
+        final Object[][] tiles = new Object[LayerType.values().length][];
+
+        Checkpoint(int step) {
+            this.step = step;
+        }
+    }
+
+    private final LayerStore store;
+    private long budgetBytes = DEFAULT_BUDGET_BYTES;
+    private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+
+    // Command log; command i owns points [pointStarts[i], pointStarts[i + 1])
+    private int commandCount;
+    private byte[] commandLayers = new byte[16];
+    private int[] commandColors = new int[16];
+    private float[] commandRadii = new float[16];
+    private int[] commandPointStarts = new int[17];
+    private float[] points = new float[1024];
+    private int pointCount;
+    private boolean recording;
+
+    // Commands currently applied to the layers; the rest can be redone
+    private int cursor;
+
+    private final List<Checkpoint> checkpoints = new ArrayList<>();
+    private long snapshotBytes;
+    private final BitSet changedTiles = new BitSet();
+
+    StrokeHistory(LayerStore store) {
+        this.store = store;
+        reset();
+    }
+
+    /**
+     * Set the memory the history may hold. Older strokes are forgotten to stay within it.
+     * @param bytes The budget in bytes
+     */
+    public void setBudgetBytes(long bytes) {
+        this.budgetBytes = bytes;
+        enforceBudget();
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    /**
+     * Set how many strokes are recorded between checkpoints. Fewer means
+     * faster undo and more memory per stroke.
+     * @param strokes Strokes per checkpoint, at least 1
+     */
+    public void setCheckpointInterval(int strokes) {
+        this.checkpointInterval = Math.max(1, strokes);
+    }
+
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /**
+     * Get the memory held by recorded strokes and tile checkpoints.
+     * @return The size in bytes
+     */
+    public long getUsedBytes() {
+        return snapshotBytes + (long) pointCount * 4 + (long) commandCount * COMMAND_BYTES;
+    }
+
+    public boolean canUndo() {
+        return cursor > 0;
+    }
+
+    public boolean canRedo() {
+        return cursor < commandCount;
+    }
+
+    /**
+     * Get the number of strokes that can be undone.
+     * @return The undo depth
+     */
+    public int getUndoDepth() {
+        return cursor;
+    }
+
+    public int getCheckpointCount() {
+        return checkpoints.size();
+    }
+
+    /**
+     * Forget every recorded stroke; the current layers become the base state.
+     * Needed after a tracked layer was changed other than by a stroke.
+     */
+    public void reset() {
+        commandCount = 0;
+        pointCount = 0;
+        commandPointStarts[0] = 0;
+        cursor = 0;
+        recording = false;
+        checkpoints.clear();
+        snapshotBytes = 0;
+
+        Checkpoint base = new Checkpoint(0);
+        for (LayerType type : LayerType.values()) {
+            if (!isTracked(type)) {
+                continue;
+            }
+            TiledLayer layer = store.getLayer(type);
+            base.versions[type.ordinal()] = layer.getVersion();
+            for (int i = 0; i < layer.getTileCount(); i++) {
+                Object data = layer.copyTile(i);
+                if (data != null) {
+                    if (base.tiles[type.ordinal()] == null) {
+                        base.tiles[type.ordinal()] = new Object[layer.getTileCount()];
+                    }
+                    base.tiles[type.ordinal()][i] = data;
+                    snapshotBytes += sizeOf(data);
+                }
+            }
+        }
+        checkpoints.add(base);
+    }
+
+    static boolean isTracked(LayerType type) {
+        return type != LayerType.ORIGINAL_IMAGE;
+    }
+
+    // --- Recording, driven by LayerStore ---
+
+    void beginStroke(LayerType type, float x, float y, float radius, int color) {
+        if (!isTracked(type)) {
+            recording = false;
+            return;
+        }
+        truncateRedo();
+        ensureCommandCapacity(commandCount + 1);
+        commandLayers[commandCount] = (byte) type.ordinal();
+        commandColors[commandCount] = color;
+        commandRadii[commandCount] = radius;
+        recording = true;
+        addPoint(x, y);
+    }
+
+    void addPoint(float x, float y) {
+        if (!recording) {
+            return;
+        }
+        if (pointCount + 2 > points.length) {
+            points = Arrays.copyOf(points, points.length * 2);
+        }
+        points[pointCount++] = x;
+        points[pointCount++] = y;
+    }
+
+    /**
+     * @param changed False if the stroke did not touch any pixel; it is then dropped
+     */
+    void endStroke(boolean changed) {
+        if (!recording) {
+            return;
+        }
+        recording = false;
+        if (!changed) {
+            pointCount = commandPointStarts[commandCount];
+            return;
+        }
+        commandCount++;
+        commandPointStarts[commandCount] = pointCount;
+        cursor = commandCount;
+        if (cursor - lastCheckpoint().step >= checkpointInterval) {
+            takeCheckpoint();
+        }
+        enforceBudget();
+    }
+
+    // --- Undo / redo ---
+
+    /**
+     * Step back one stroke.
+     * @param changed Receives the tiles that changed, per layer
+     */
+    void undo(EnumMap<LayerType, DirtyRegion> changed) {
+        int target = cursor - 1;
+        int index = checkpoints.size() - 1;
+        while (checkpoints.get(index).step > target) {
+            index--;
+        }
+        Checkpoint checkpoint = checkpoints.get(index);
+
+        // Put every tile touched since the checkpoint back to its state there
+        for (LayerType type : LayerType.values()) {
+            if (!isTracked(type)) {
+                continue;
+            }
+            TiledLayer layer = store.getLayer(type);
+            changedTiles.clear();
+            if (layer.collectTilesChangedSince(checkpoint.versions[type.ordinal()], changedTiles)) {
+                DirtyRegion dirty = regionFor(changed, type);
+                for (int i = changedTiles.nextSetBit(0); i >= 0; i = changedTiles.nextSetBit(i + 1)) {
+                    layer.restoreTile(i, tileAt(index, type, i), dirty);
+                }
+            }
+        }
+        for (int i = checkpoint.step; i < target; i++) {
+            replay(i, changed);
+        }
+        cursor = target;
+    }
+
+    /**
+     * Re-apply the next undone stroke.
+     * @param changed Receives the tiles that changed, per layer
+     */
+    void redo(EnumMap<LayerType, DirtyRegion> changed) {
+        replay(cursor, changed);
+        cursor++;
+    }
+
+    /**
+     * Undo the most recent stroke and forget it, so it can't be redone.
+     * @param changed Receives the tiles that changed, per layer
+     */
+    void discardLastStroke(EnumMap<LayerType, DirtyRegion> changed) {
+        undo(changed);
+        truncateRedo();
+    }
+
+    private void replay(int command, EnumMap<LayerType, DirtyRegion> changed) {
+        LayerType type = LayerType.values()[commandLayers[command]];
+        TiledLayer layer = store.getLayer(type);
+        DirtyRegion dirty = regionFor(changed, type);
+        float radius = commandRadii[command];
+        int color = commandColors[command];
+        int start = commandPointStarts[command];
+        int end = commandPointStarts[command + 1];
+        // Same segments as the live stroke: a dot at the first point, then each move
+        float lastX = points[start];
+        float lastY = points[start + 1];
+        for (int p = start; p < end; p += 2) {
+            layer.drawSegment(lastX, lastY, points[p], points[p + 1], radius, color, dirty);
+            lastX = points[p];
+            lastY = points[p + 1];
+        }
+    }
+
+    private static DirtyRegion regionFor(EnumMap<LayerType, DirtyRegion> changed, LayerType type) {
+        DirtyRegion region = changed.get(type);
+        if (region == null) {
+            region = new DirtyRegion(type);
+            changed.put(type, region);
+        }
+        return region;
+    }
+
+    /**
+     * Find a tile's content at a checkpoint: the newest copy at or before it.
+     */
+    private Object tileAt(int checkpointIndex, LayerType type, int tile) {
+        for (int i = checkpointIndex; i > 0; i--) {
+            Object[] tiles = checkpoints.get(i).tiles[type.ordinal()];
+            if (tiles != null && tiles[tile] != null) {
+                return tiles[tile] == UNALLOCATED ? null : tiles[tile];
+            }
+        }
+        Object[] base = checkpoints.get(0).tiles[type.ordinal()];
+        return base != null ? base[tile] : null;
+    }
+
+    // --- Checkpoints and budget ---
+
+    private Checkpoint lastCheckpoint() {
+        return checkpoints.get(checkpoints.size() - 1);
+    }
+
+    private void takeCheckpoint() {
+        Checkpoint previous = lastCheckpoint();
+        Checkpoint checkpoint = new Checkpoint(cursor);
+        for (LayerType type : LayerType.values()) {
+            if (!isTracked(type)) {
+                continue;
+            }
+            TiledLayer layer = store.getLayer(type);
+            checkpoint.versions[type.ordinal()] = layer.getVersion();
+            changedTiles.clear();
+            if (layer.collectTilesChangedSince(previous.versions[type.ordinal()], changedTiles)) {
+                Object[] tiles = new Object[layer.getTileCount()];
+                for (int i = changedTiles.nextSetBit(0); i >= 0; i = changedTiles.nextSetBit(i + 1)) {
+                    Object data = layer.copyTile(i);
+                    tiles[i] = data != null ? data : UNALLOCATED;
+                    snapshotBytes += sizeOf(data);
+                }
+                checkpoint.tiles[type.ordinal()] = tiles;
+            }
+        }
+        checkpoints.add(checkpoint);
+    }
+
+    private void enforceBudget() {
+        while (getUsedBytes() > budgetBytes) {
+            if (checkpoints.size() > 1 && checkpoints.get(1).step <= cursor) {
+                foldOldestCheckpoint();
+            } else if (commandCount > cursor) {
+                truncateRedo();
+            } else if (cursor > 0) {
+                // Strokes alone exceed the budget; snapshot now so they can be folded
+                takeCheckpoint();
+            } else {
+                // The base state alone is over budget; nothing left to drop
+                break;
+            }
+        }
+    }
+
+    /**
+     * Make the oldest checkpoint the new base and drop the strokes before it.
+     */
+    private void foldOldestCheckpoint() {
+        Checkpoint base = checkpoints.get(0);
+        Checkpoint next = checkpoints.remove(1);
+        for (int layer = 0; layer < next.tiles.length; layer++) {
+            Object[] tiles = next.tiles[layer];
+            if (tiles == null) {
+                continue;
+            }
+            if (base.tiles[layer] == null) {
+                base.tiles[layer] = new Object[tiles.length];
+            }
+            for (int i = 0; i < tiles.length; i++) {
+                if (tiles[i] != null) {
+                    snapshotBytes -= sizeOf(base.tiles[layer][i]);
+                    base.tiles[layer][i] = tiles[i] == UNALLOCATED ? null : tiles[i];
+                }
+            }
+        }
+        System.arraycopy(next.versions, 0, base.versions, 0, base.versions.length);
+
+        // Shift the remaining commands and points to the front
+        int dropped = next.step;
+        int pointShift = commandPointStarts[dropped];
+        int remaining = commandCount - dropped;
+        System.arraycopy(commandLayers, dropped, commandLayers, 0, remaining);
+        System.arraycopy(commandColors, dropped, commandColors, 0, remaining);
+        System.arraycopy(commandRadii, dropped, commandRadii, 0, remaining);
+        for (int i = 0; i <= remaining; i++) {
+            commandPointStarts[i] = commandPointStarts[i + dropped] - pointShift;
+        }
+        System.arraycopy(points, pointShift, points, 0, pointCount - pointShift);
+        pointCount -= pointShift;
+        commandCount = remaining;
+        cursor -= dropped;
+        for (int i = 1; i < checkpoints.size(); i++) {
+            checkpoints.get(i).step -= dropped;
+        }
+    }
+
+    /**
+     * Forget undone strokes and the checkpoints taken after the current step.
+     */
+    private void truncateRedo() {
+        commandCount = cursor;
+        pointCount = commandPointStarts[cursor];
+        for (int i = checkpoints.size() - 1; i > 0 && checkpoints.get(i).step > cursor; i--) {
+            Checkpoint removed = checkpoints.remove(i);
+            for (Object[] tiles : removed.tiles) {
+                if (tiles != null) {
+                    for (Object data : tiles) {
+                        snapshotBytes -= sizeOf(data);
+                    }
+                }
+            }
+        }
+    }
+
+    private void ensureCommandCapacity(int count) {
+        if (count < commandLayers.length) {
+            return;
+        }
+        int capacity = Math.max(count + 1, commandLayers.length * 2);
+        commandLayers = Arrays.copyOf(commandLayers, capacity);
+        commandColors = Arrays.copyOf(commandColors, capacity);
+        commandRadii = Arrays.copyOf(commandRadii, capacity);
+        commandPointStarts = Arrays.copyOf(commandPointStarts, capacity + 1);
+    }
+
+    private static long sizeOf(Object data) {
+        if (data instanceof int[]) {
+            return ((int[]) data).length * 4L;
+        }
+        if (data instanceof byte[]) {
+            return ((byte[]) data).length;
+        }
+        return 0;
+    }
+}
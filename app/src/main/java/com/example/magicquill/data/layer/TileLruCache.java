@@ -0,0 +1,163 @@
+package com.example.magicquill.data.layer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least-recently-used cache of per-tile values (pixel arrays, bitmaps) with
+ * a byte budget. Every entry carries the version of the data it was built
+ * from, so a lookup with a newer version misses and the stale value can be
+ * reused as the buffer for the rebuild.
+ * @param <V> The cached value type
+ */
+public class TileLruCache<V> {
+
+    /**
+     * Told about entries that leave the cache, e.g. to recycle bitmaps.
+     */
+    public interface Evictor<V> {
+        void onEvicted(V value);
+    }
+
+    private static final class Entry<V> {
+        V value;
+        long version;
+        long bytes;
+    }
+
+    private final LinkedHashMap<Long, Entry<V>> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final Evictor<V> evictor;
+    private long maxBytes;
+    private long sizeBytes;
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * @param maxBytes Byte budget for all entries
+     * @param evictor Called for every value that is evicted, replaced or removed; may be null
+     */
+    public TileLruCache(long maxBytes, Evictor<V> evictor) {
+        this.maxBytes = maxBytes;
+        this.evictor = evictor;
+    }
+
+    /**
+     * Build a key from a layer and a tile index.
+     */
+    public static long key(LayerType layer, int tileIndex) {
+        return ((long) layer.ordinal() << 56) | (tileIndex & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Look up a value built from the given version.
+     * @param key The tile key
+     * @param version The current version of the tile's source data
+     * @return The value, or null if missing or built from another version
+     */
+    public V get(long key, long version) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null || entry.version != version) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return entry.value;
+    }
+
+    /**
+     * Get a value whatever its version, without counting a hit or a miss.
+     * @param key The tile key
+     * @return The value, or null if missing
+     */
+    public V peek(long key) {
+        Entry<V> entry = entries.get(key);
+        return entry != null ? entry.value : null;
+    }
+
+    /**
+     * Store a value, evicting least recently used entries over the budget.
+     * @param key The tile key
+     * @param version The version of the source data the value was built from
+     * @param value The value
+     * @param bytes Memory held by the value
+     */
+    public void put(long key, long version, V value, long bytes) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry<>();
+            entries.put(key, entry);
+        } else {
+            sizeBytes -= entry.bytes;
+            if (entry.value != value) {
+                evict(entry.value);
+            }
+        }
+        entry.value = value;
+        entry.version = version;
+        entry.bytes = bytes;
+        sizeBytes += bytes;
+        // Never evict the value just stored; the caller is about to use it
+        trimToSize(maxBytes, 1);
+    }
+
+    /**
+     * Drop one entry.
+     * @param key The tile key
+     */
+    public void remove(long key) {
+        Entry<V> entry = entries.remove(key);
+        if (entry != null) {
+            sizeBytes -= entry.bytes;
+            evict(entry.value);
+        }
+    }
+
+    /**
+     * Drop every entry.
+     */
+    public void clear() {
+        trimToSize(-1, 0);
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trimToSize(maxBytes, 0);
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    private void trimToSize(long limit, int keep) {
+        Iterator<Map.Entry<Long, Entry<V>>> it = entries.entrySet().iterator();
+        while (sizeBytes > limit && entries.size() > keep && it.hasNext()) {
+            Entry<V> eldest = it.next().getValue();
+            it.remove();
+            sizeBytes -= eldest.bytes;
+            evict(eldest.value);
+        }
+    }
+
+    private void evict(V value) {
+        if (evictor != null && value != null) {
+            evictor.onEvicted(value);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.magicquill.data.layer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Moves the tiles of a layer store out of the heap into a file while nobody
+ * is looking at the canvas, and back again. Tile versions are left alone:
+ * the tiles come back bit-identical, so everything cached against their
+ * versions (tile bitmaps, upload fingerprints, content bounds) stays valid
+ * and nothing has to be re-decoded or re-composited.
+ * <p>
+ * The file holds a 16-byte header (magic, version, width, height), then per
+ * layer its type, the number of spilled tiles and each tile as an index
+ * followed by its pixels. Read-only layers are skipped; their pixels are
+ * not on the heap. The store must not be read or written while spilled.
+ */
+public class TileSpill {
+
+    private static final int MAGIC = 0x4D51534C;   // "MQSL"
+    private static final int VERSION = 1;
+    private static final int INT_PIXELS = 0;
+    private static final int BYTE_PIXELS = 1;
+
+    private final LayerStore store;
+    private final File file;
+    private boolean spilled;
+
+    /**
+     * @param store The store to spill
+     * @param file Where its tiles are kept while spilled
+     */
+    public TileSpill(LayerStore store, File file) {
+        this.store = store;
+        this.file = file;
+    }
+
+    public LayerStore getStore() {
+        return store;
+    }
+
+    public synchronized boolean isSpilled() {
+        return spilled;
+    }
+
+    /**
+     * Write every allocated tile to the file, then release them. If writing
+     * fails the tiles stay where they are.
+     * @return The number of bytes written, 0 if already spilled
+     */
+    public synchronized long spill() throws IOException {
+        if (spilled) {
+            return 0;
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(store.getWidth());
+            out.writeInt(store.getHeight());
+            for (LayerType type : LayerType.values()) {
+                TiledLayer layer = store.getLayer(type);
+                int count = layer instanceof ReadOnlyLayer ? 0 : layer.getAllocatedTileCount();
+                out.writeInt(type.ordinal());
+                out.writeInt(count);
+                if (count == 0) {
+                    continue;
+                }
+                // Settle lazily rescanned bounds while the pixels are still here
+                layer.getContentBounds(new int[4]);
+                for (int i = 0; i < layer.getTileCount(); i++) {
+                    if (layer.isTileAllocated(i)) {
+                        out.writeInt(i);
+                        writeTile(out, layer.copyTile(i));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        }
+        for (LayerType type : LayerType.values()) {
+            TiledLayer layer = store.getLayer(type);
+            if (layer instanceof ReadOnlyLayer) {
+                continue;
+            }
+            for (int i = 0; i < layer.getTileCount(); i++) {
+                if (layer.isTileAllocated(i)) {
+                    layer.releaseTile(i);
+                }
+            }
+        }
+        spilled = true;
+        return file.length();
+    }
+
+    /**
+     * Read the spilled tiles back into the store and delete the file.
+     * Does nothing if the store is not spilled.
+     */
+    public synchronized void restore() throws IOException {
+        if (!spilled) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || in.readInt() != store.getWidth() || in.readInt() != store.getHeight()) {
+                throw new IOException("Not a spill of this canvas: " + file);
+            }
+            for (int n = 0; n < LayerType.values().length; n++) {
+                TiledLayer layer = store.getLayer(LayerType.values()[in.readInt()]);
+                int count = in.readInt();
+                for (int t = 0; t < count; t++) {
+                    int index = in.readInt();
+                    layer.loadTile(index, readTile(in));
+                }
+            }
+        }
+        spilled = false;
+        file.delete();
+    }
+
+    /**
+     * Forget a spill without restoring it, e.g. when the store is replaced.
+     */
+    public synchronized void discard() {
+        spilled = false;
+        file.delete();
+    }
+
+    private static void writeTile(DataOutputStream out, Object data) throws IOException {
+        if (data instanceof int[]) {
+            int[] pixels = (int[]) data;
+            out.writeByte(INT_PIXELS);
+            out.writeInt(pixels.length);
+            for (int pixel : pixels) {
+                out.writeInt(pixel);
+            }
+        } else {
+            byte[] pixels = (byte[]) data;
+            out.writeByte(BYTE_PIXELS);
+            out.writeInt(pixels.length);
+            out.write(pixels);
+        }
+    }
+
+    private static Object readTile(DataInputStream in) throws IOException {
+        int kind = in.readByte();
+        int length = in.readInt();
+        if (kind == INT_PIXELS) {
+            int[] pixels = new int[length];
+            for (int i = 0; i < length; i++) {
+                pixels[i] = in.readInt();
+            }
+            return pixels;
+        }
+        byte[] pixels = new byte[length];
+        in.readFully(pixels);
+        return pixels;
+    }
+}
@@ -0,0 +1,611 @@
+package com.example.magicquill.data.layer;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Base class for a canvas layer split into fixed-size square tiles.
+ * Tiles are only allocated when something is drawn on them, so an empty
+ * layer costs a few bytes of bookkeeping regardless of its dimensions.
+ * Every modification stamps the touched tiles with a new version number,
+ * which lets each consumer (redraw, export, ...) find the tiles that changed
+ * since it last looked without sharing a single dirty flag.
+ * <p>
+ * A {@link #snapshot()} freezes the layer for readers on other threads.
+ * Snapshot and layer share tile storage; the layer copies a shared tile
+ * before it next writes to it, so only tiles drawn on afterwards cost memory.
+ */
+public abstract class TiledLayer {
+
+    public static final int TILE_SIZE = 256;
+    public static final int TILE_PIXELS = TILE_SIZE * TILE_SIZE;
+
+    private final LayerType type;
+    private final int width;
+    private final int height;
+    private final int tilesX;
+    private final int tilesY;
+    private final long[] tileVersions;
+    private long version;
+    private final int[] hitBounds = new int[4];
+
+    // Painted bounds per tile in layer pixels, {left, top, right, bottom} at
+    // 4 * tileIndex (left == right for none), and their union. Strokes grow
+    // both as they draw; tiles written or restored wholesale are rescanned,
+    // and the union rebuilt, only when the bounds are next asked for.
+    // Owned by the thread that draws on the layer, like the pixels.
+    private final int[] tileBounds;
+    private final BitSet unscannedTiles = new BitSet();
+    private final int[] contentBounds = new int[4];
+    private boolean contentBoundsStale;
+
+    // Tiles whose storage a snapshot also holds; copied before the next write
+    private final BitSet sharedTiles = new BitSet();
+    private boolean frozen;
+
+    protected TiledLayer(LayerType type, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid layer size: " + width + "x" + height);
+        }
+        this.type = type;
+        this.width = width;
+        this.height = height;
+        this.tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        this.tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+        this.tileVersions = new long[tilesX * tilesY];
+        this.version = 0;
+        this.tileBounds = new int[4 * tilesX * tilesY];
+        this.contentBounds[0] = Integer.MAX_VALUE;
+    }
+
+    // --- Storage, implemented by subclasses ---
+
+    /**
+     * Check whether a tile has backing storage.
+     * @param tileIndex The tile index
+     * @return True if the tile has been allocated
+     */
+    public abstract boolean isTileAllocated(int tileIndex);
+
+    /**
+     * Allocate backing storage for a tile if it does not have any yet.
+     */
+    protected abstract void ensureTile(int tileIndex);
+
+    /**
+     * Drop the backing storage of a tile, making it fully transparent.
+     */
+    protected abstract void releaseTile(int tileIndex);
+
+    /**
+     * Fill a brush segment into one tile with {@link BrushRasterizer},
+     * allocating the tile only if a pixel is actually covered.
+     * @param tileIndex The tile index
+     * @param left Clip left in layer pixels, inside the tile
+     * @param top Clip top in layer pixels, inside the tile
+     * @param right Clip right (exclusive)
+     * @param bottom Clip bottom (exclusive)
+     * @param x0 Start X in layer pixels
+     * @param y0 Start Y in layer pixels
+     * @param x1 End X in layer pixels
+     * @param y1 End Y in layer pixels
+     * @param radius Brush radius in layer pixels
+     * @param color The ARGB brush color
+     * @param hit Receives {left, top, right, bottom} of the covered pixels
+     * @return True if any pixel was covered
+     */
+    protected abstract boolean fillSegment(int tileIndex, int left, int top, int right, int bottom,
+                                           float x0, float y0, float x1, float y1, float radius,
+                                           int color, int[] hit);
+
+    /**
+     * Read one row of an allocated tile as ARGB.
+     */
+    protected abstract void readTileRow(int tileIndex, int row, int col, int count, int[] out, int outOffset);
+
+    /**
+     * Write one row of ARGB pixels into an allocated tile.
+     */
+    protected abstract void writeTileRow(int tileIndex, int row, int col, int count, int[] src, int srcOffset);
+
+    /**
+     * Copy the backing storage of a tile, e.g. for an undo checkpoint.
+     * @param tileIndex The tile index
+     * @return A private copy, or null if the tile is unallocated
+     */
+    protected abstract Object copyTile(int tileIndex);
+
+    /**
+     * Replace the backing storage of a tile with a copy of earlier storage.
+     * @param tileIndex The tile index
+     * @param data A value returned by {@link #copyTile}, or null to release the tile
+     */
+    protected abstract void loadTile(int tileIndex, Object data);
+
+    /**
+     * Create an empty layer of the same kind and size that holds the same
+     * tile storage, calling {@link #shareTile} for every tile handed over.
+     * @return The new layer
+     */
+    protected abstract TiledLayer shareTiles();
+
+    /**
+     * Get the number of bytes one allocated tile occupies.
+     * @return The tile size in bytes
+     */
+    public abstract int getBytesPerTile();
+
+    // --- Geometry ---
+
+    public LayerType getType() {
+        return type;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getTilesX() {
+        return tilesX;
+    }
+
+    public int getTilesY() {
+        return tilesY;
+    }
+
+    public int getTileCount() {
+        return tileVersions.length;
+    }
+
+    public int tileIndex(int tileX, int tileY) {
+        return tileY * tilesX + tileX;
+    }
+
+    public int tileLeft(int tileIndex) {
+        return (tileIndex % tilesX) * TILE_SIZE;
+    }
+
+    public int tileTop(int tileIndex) {
+        return (tileIndex / tilesX) * TILE_SIZE;
+    }
+
+    /**
+     * Get the number of valid pixel columns in a tile (edge tiles are clipped).
+     */
+    public int tileWidth(int tileIndex) {
+        return Math.min(TILE_SIZE, width - tileLeft(tileIndex));
+    }
+
+    /**
+     * Get the number of valid pixel rows in a tile (edge tiles are clipped).
+     */
+    public int tileHeight(int tileIndex) {
+        return Math.min(TILE_SIZE, height - tileTop(tileIndex));
+    }
+
+    // --- Versioning ---
+
+    /**
+     * Get the layer version. It increases with every modification.
+     * @return The current version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public long getTileVersion(int tileIndex) {
+        return tileVersions[tileIndex];
+    }
+
+    /**
+     * Collect the tiles modified after the given version.
+     * @param sinceVersion A version previously returned by {@link #getVersion()}
+     * @param out Receives the indices of the changed tiles
+     * @return True if any tile changed
+     */
+    public boolean collectTilesChangedSince(long sinceVersion, BitSet out) {
+        boolean any = false;
+        if (sinceVersion >= version) {
+            return false;
+        }
+        for (int i = 0; i < tileVersions.length; i++) {
+            if (tileVersions[i] > sinceVersion) {
+                out.set(i);
+                any = true;
+            }
+        }
+        return any;
+    }
+
+    protected long beginModification() {
+        if (frozen) {
+            throw new IllegalStateException("Layer is a snapshot");
+        }
+        return ++version;
+    }
+
+    protected void stampTile(int tileIndex, long stamp) {
+        tileVersions[tileIndex] = stamp;
+    }
+
+    // --- Snapshots ---
+
+    /**
+     * Freeze the layer as it is now, e.g. for a generate request encoded on
+     * a worker while strokes go on. Call on the thread that owns the layer.
+     * The snapshot reports this layer's version and content bounds and
+     * throws on any attempt to modify it.
+     * @return A read-only copy sharing tile storage with this layer
+     */
+    public TiledLayer snapshot() {
+        if (contentBoundsStale) {
+            // Settle the bounds here, so readers of the snapshot never write
+            rebuildContentBounds();
+        }
+        TiledLayer copy = shareTiles();
+        copy.version = version;
+        System.arraycopy(tileVersions, 0, copy.tileVersions, 0, tileVersions.length);
+        System.arraycopy(tileBounds, 0, copy.tileBounds, 0, tileBounds.length);
+        System.arraycopy(contentBounds, 0, copy.contentBounds, 0, contentBounds.length);
+        copy.frozen = true;
+        return copy;
+    }
+
+    public boolean isSnapshot() {
+        return frozen;
+    }
+
+    /**
+     * Record that a snapshot now holds a tile's storage too.
+     */
+    protected void shareTile(int tileIndex) {
+        sharedTiles.set(tileIndex);
+    }
+
+    /**
+     * Stop sharing a tile, because its storage is about to be written or replaced.
+     * @return True if a snapshot holds the storage, which must then be copied before writing
+     */
+    protected boolean unshareTile(int tileIndex) {
+        if (!sharedTiles.get(tileIndex)) {
+            return false;
+        }
+        sharedTiles.clear(tileIndex);
+        return true;
+    }
+
+    // --- Memory ---
+
+    public int getAllocatedTileCount() {
+        int count = 0;
+        for (int i = 0; i < tileVersions.length; i++) {
+            if (isTileAllocated(i)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public long getAllocatedBytes() {
+        return (long) getAllocatedTileCount() * getBytesPerTile();
+    }
+
+    // --- Content bounds ---
+
+    /**
+     * Get the bounding box of the painted pixels. Kept up to date as strokes
+     * draw, so asking is cheap however large the layer is. The box may be
+     * larger than the pixels with non-zero alpha, never smaller.
+     * The bounds are settled lazily, so call on the thread that owns the
+     * layer; a {@link #snapshot()} can be asked from any thread.
+     * @param out Receives {left, top, right, bottom} in layer pixels (right and bottom exclusive)
+     * @return False if nothing is painted (out is left untouched)
+     */
+    public boolean getContentBounds(int[] out) {
+        if (contentBoundsStale) {
+            rebuildContentBounds();
+        }
+        if (contentBounds[0] == Integer.MAX_VALUE) {
+            return false;
+        }
+        System.arraycopy(contentBounds, 0, out, 0, 4);
+        return true;
+    }
+
+    private void growContentBounds(int tileIndex, int left, int top, int right, int bottom) {
+        int i = 4 * tileIndex;
+        if (tileBounds[i] == tileBounds[i + 2]) {
+            tileBounds[i] = left;
+            tileBounds[i + 1] = top;
+            tileBounds[i + 2] = right;
+            tileBounds[i + 3] = bottom;
+        } else {
+            tileBounds[i] = Math.min(tileBounds[i], left);
+            tileBounds[i + 1] = Math.min(tileBounds[i + 1], top);
+            tileBounds[i + 2] = Math.max(tileBounds[i + 2], right);
+            tileBounds[i + 3] = Math.max(tileBounds[i + 3], bottom);
+        }
+        if (!contentBoundsStale) {
+            unionContentBounds(left, top, right, bottom);
+        }
+    }
+
+    /**
+     * Forget a tile's bounds after its pixels were replaced wholesale.
+     */
+    private void invalidateContentBounds(int tileIndex) {
+        unscannedTiles.set(tileIndex);
+        contentBoundsStale = true;
+    }
+
+    private void unionContentBounds(int left, int top, int right, int bottom) {
+        if (contentBounds[0] == Integer.MAX_VALUE) {
+            contentBounds[0] = left;
+            contentBounds[1] = top;
+            contentBounds[2] = right;
+            contentBounds[3] = bottom;
+        } else {
+            contentBounds[0] = Math.min(contentBounds[0], left);
+            contentBounds[1] = Math.min(contentBounds[1], top);
+            contentBounds[2] = Math.max(contentBounds[2], right);
+            contentBounds[3] = Math.max(contentBounds[3], bottom);
+        }
+    }
+
+    private void rebuildContentBounds() {
+        byte[] alpha = null;
+        for (int tile = unscannedTiles.nextSetBit(0); tile >= 0; tile = unscannedTiles.nextSetBit(tile + 1)) {
+            if (alpha == null) {
+                alpha = new byte[TILE_PIXELS];
+            }
+            scanTileBounds(tile, alpha);
+        }
+        unscannedTiles.clear();
+        contentBounds[0] = Integer.MAX_VALUE;
+        for (int i = 0; i < tileVersions.length; i++) {
+            int b = 4 * i;
+            if (tileBounds[b] != tileBounds[b + 2]) {
+                unionContentBounds(tileBounds[b], tileBounds[b + 1], tileBounds[b + 2], tileBounds[b + 3]);
+            }
+        }
+        contentBoundsStale = false;
+    }
+
+    private void scanTileBounds(int tileIndex, byte[] alpha) {
+        int b = 4 * tileIndex;
+        tileBounds[b] = 0;
+        tileBounds[b + 2] = 0;
+        if (!readTileAlpha(tileIndex, alpha)) {
+            return;
+        }
+        int left = TILE_SIZE;
+        int top = TILE_SIZE;
+        int right = 0;
+        int bottom = 0;
+        int rows = tileHeight(tileIndex);
+        int cols = tileWidth(tileIndex);
+        for (int y = 0; y < rows; y++) {
+            int offset = y * TILE_SIZE;
+            for (int x = 0; x < cols; x++) {
+                if (alpha[offset + x] != 0) {
+                    left = Math.min(left, x);
+                    right = Math.max(right, x + 1);
+                    top = Math.min(top, y);
+                    bottom = y + 1;
+                }
+            }
+        }
+        if (right > 0) {
+            int tileLeft = tileLeft(tileIndex);
+            int tileTop = tileTop(tileIndex);
+            tileBounds[b] = tileLeft + left;
+            tileBounds[b + 1] = tileTop + top;
+            tileBounds[b + 2] = tileLeft + right;
+            tileBounds[b + 3] = tileTop + bottom;
+        }
+    }
+
+    // --- Drawing ---
+
+    /**
+     * Fill an antialiased round-capped segment of the given radius with a
+     * brush color. Only tiles that actually receive a pixel are allocated and reported.
+     * @param x0 Start X in layer pixels
+     * @param y0 Start Y in layer pixels
+     * @param x1 End X in layer pixels
+     * @param y1 End Y in layer pixels
+     * @param radius Brush radius in layer pixels
+     * @param color ARGB brush color
+     * @param dirty Receives the touched tiles and bounds (may be null)
+     */
+    public void drawSegment(float x0, float y0, float x1, float y1, float radius, int color, DirtyRegion dirty) {
+        int minX = Math.max(0, (int) Math.floor(Math.min(x0, x1) - radius));
+        int minY = Math.max(0, (int) Math.floor(Math.min(y0, y1) - radius));
+        int maxX = Math.min(width, (int) Math.ceil(Math.max(x0, x1) + radius) + 1);
+        int maxY = Math.min(height, (int) Math.ceil(Math.max(y0, y1) + radius) + 1);
+        if (minX >= maxX || minY >= maxY) {
+            return;
+        }
+
+        long stamp = beginModification();
+        for (int ty = minY / TILE_SIZE; ty <= (maxY - 1) / TILE_SIZE; ty++) {
+            for (int tx = minX / TILE_SIZE; tx <= (maxX - 1) / TILE_SIZE; tx++) {
+                int tile = tileIndex(tx, ty);
+                int tileLeft = tx * TILE_SIZE;
+                int tileTop = ty * TILE_SIZE;
+                int startX = Math.max(minX, tileLeft);
+                int endX = Math.min(maxX, tileLeft + TILE_SIZE);
+                int startY = Math.max(minY, tileTop);
+                int endY = Math.min(maxY, tileTop + TILE_SIZE);
+                if (fillSegment(tile, startX, startY, endX, endY, x0, y0, x1, y1, radius, color, hitBounds)) {
+                    stampTile(tile, stamp);
+                    growContentBounds(tile, hitBounds[0], hitBounds[1], hitBounds[2], hitBounds[3]);
+                    if (dirty != null) {
+                        dirty.add(tile, hitBounds[0], hitBounds[1], hitBounds[2], hitBounds[3]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy a rectangle of ARGB pixels into the layer, allocating tiles as needed.
+     * @param src Source pixels
+     * @param srcOffset Index of the first source pixel
+     * @param srcStride Source row stride in pixels
+     * @param x Destination left
+     * @param y Destination top
+     * @param w Rectangle width
+     * @param h Rectangle height
+     * @param dirty Receives the touched tiles and bounds (may be null)
+     */
+    public void writePixels(int[] src, int srcOffset, int srcStride, int x, int y, int w, int h, DirtyRegion dirty) {
+        int left = Math.max(0, x);
+        int top = Math.max(0, y);
+        int right = Math.min(width, x + w);
+        int bottom = Math.min(height, y + h);
+        if (left >= right || top >= bottom) {
+            return;
+        }
+        long stamp = beginModification();
+        for (int ty = top / TILE_SIZE; ty <= (bottom - 1) / TILE_SIZE; ty++) {
+            for (int tx = left / TILE_SIZE; tx <= (right - 1) / TILE_SIZE; tx++) {
+                int tile = tileIndex(tx, ty);
+                int tileLeft = tx * TILE_SIZE;
+                int tileTop = ty * TILE_SIZE;
+                int startX = Math.max(left, tileLeft);
+                int endX = Math.min(right, tileLeft + TILE_SIZE);
+                int startY = Math.max(top, tileTop);
+                int endY = Math.min(bottom, tileTop + TILE_SIZE);
+                ensureTile(tile);
+                for (int row = startY; row < endY; row++) {
+                    writeTileRow(tile, row - tileTop, startX - tileLeft, endX - startX,
+                            src, srcOffset + (row - y) * srcStride + (startX - x));
+                }
+                stampTile(tile, stamp);
+                invalidateContentBounds(tile);
+                if (dirty != null) {
+                    dirty.add(tile, startX, startY, endX, endY);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a rectangle of the layer as ARGB. Unallocated tiles read as transparent.
+     * @param out Destination pixels
+     * @param outOffset Index of the first destination pixel
+     * @param outStride Destination row stride in pixels
+     * @param x Source left
+     * @param y Source top
+     * @param w Rectangle width
+     * @param h Rectangle height
+     */
+    public void readPixels(int[] out, int outOffset, int outStride, int x, int y, int w, int h) {
+        for (int row = 0; row < h; row++) {
+            int ly = y + row;
+            int rowStart = outOffset + row * outStride;
+            if (ly < 0 || ly >= height) {
+                Arrays.fill(out, rowStart, rowStart + w, 0);
+                continue;
+            }
+            int ty = ly / TILE_SIZE;
+            int col = 0;
+            while (col < w) {
+                int lx = x + col;
+                if (lx < 0 || lx >= width) {
+                    out[rowStart + col] = 0;
+                    col++;
+                    continue;
+                }
+                int tx = lx / TILE_SIZE;
+                int tile = tileIndex(tx, ty);
+                int tileLeft = tx * TILE_SIZE;
+                int count = Math.min(w - col, Math.min(width, tileLeft + TILE_SIZE) - lx);
+                if (isTileAllocated(tile)) {
+                    readTileRow(tile, ly - ty * TILE_SIZE, lx - tileLeft, count, out, rowStart + col);
+                } else {
+                    Arrays.fill(out, rowStart + col, rowStart + col + count, 0);
+                }
+                col += count;
+            }
+        }
+    }
+
+    /**
+     * Read one whole tile as ARGB into a TILE_PIXELS sized buffer.
+     * @param tileIndex The tile index
+     * @param out Destination buffer with stride TILE_SIZE
+     * @return False if the tile is unallocated (the buffer is left untouched)
+     */
+    public boolean readTile(int tileIndex, int[] out) {
+        if (!isTileAllocated(tileIndex)) {
+            return false;
+        }
+        int rows = tileHeight(tileIndex);
+        for (int row = 0; row < rows; row++) {
+            readTileRow(tileIndex, row, 0, TILE_SIZE, out, row * TILE_SIZE);
+        }
+        return true;
+    }
+
+    /**
+     * Read one whole tile as 8-bit alpha into a TILE_PIXELS sized buffer.
+     * @param tileIndex The tile index
+     * @param out Destination buffer with stride TILE_SIZE
+     * @return False if the tile is unallocated (the buffer is left untouched)
+     */
+    public boolean readTileAlpha(int tileIndex, byte[] out) {
+        if (!isTileAllocated(tileIndex)) {
+            return false;
+        }
+        int[] row = new int[TILE_SIZE];
+        int rows = tileHeight(tileIndex);
+        for (int r = 0; r < rows; r++) {
+            readTileRow(tileIndex, r, 0, TILE_SIZE, row, 0);
+            for (int i = 0; i < TILE_SIZE; i++) {
+                out[r * TILE_SIZE + i] = (byte) (row[i] >>> 24);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Put a tile back to a copy taken with {@link #copyTile}.
+     * @param tileIndex The tile index
+     * @param data The copy, or null for an unallocated tile
+     * @param dirty Receives the tile (may be null)
+     */
+    void restoreTile(int tileIndex, Object data, DirtyRegion dirty) {
+        long stamp = beginModification();
+        loadTile(tileIndex, data);
+        stampTile(tileIndex, stamp);
+        invalidateContentBounds(tileIndex);
+        if (dirty != null) {
+            int left = tileLeft(tileIndex);
+            int top = tileTop(tileIndex);
+            dirty.add(tileIndex, left, top, left + tileWidth(tileIndex), top + tileHeight(tileIndex));
+        }
+    }
+
+    /**
+     * Release every tile, leaving a fully transparent layer.
+     */
+    public void clear() {
+        long stamp = beginModification();
+        for (int i = 0; i < tileVersions.length; i++) {
+            if (isTileAllocated(i)) {
+                releaseTile(i);
+                stampTile(i, stamp);
+            }
+        }
+        Arrays.fill(tileBounds, 0);
+        unscannedTiles.clear();
+        contentBounds[0] = Integer.MAX_VALUE;
+        contentBoundsStale = false;
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.magicquill.data.layer;
+
+import com.example.magicquill.data.GenerationQuality;
+import com.example.magicquill.data.image.ImageSource;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumMap;
+
+/**
+ * Pairs a canvas kept at a capped working resolution with the
+ * full-resolution original kept on disk.
+ * Strokes, redraws and preview generations only touch the working store,
+ * so memory and stroke latency stay bounded however large the photo is.
+ * A full-quality generate gets a store of read-only views at the original
+ * size: the original streams from disk, masks are upscaled with nearest
+ * neighbour and the color layer with bilinear sampling, row by row while
+ * the request is encoded.
+ */
+public class WorkingResolution {
+
+    public static final int DEFAULT_MAX_LONG_EDGE = 1024;
+
+    private final LayerStore working;
+    private final ImageSource original;
+    private final int fullWidth;
+    private final int fullHeight;
+    private long originalSyncVersion;
+    private LayerStore fullStore;
+    // Working layers and disk choice the full store was built from
+    private final EnumMap<LayerType, TiledLayer> fullSources = new EnumMap<>(LayerType.class);
+    private boolean fullUsesDiskOriginal;
+
+    /**
+     * @param working The canvas at working resolution; its original layer must already hold the downscaled image
+     * @param original The full-resolution original, or null if there is none
+     */
+    public WorkingResolution(LayerStore working, ImageSource original) {
+        this.working = working;
+        this.original = original;
+        this.fullWidth = original != null ? original.getWidth() : working.getWidth();
+        this.fullHeight = original != null ? original.getHeight() : working.getHeight();
+        markOriginalSynced();
+    }
+
+    /**
+     * Fit a size inside a maximum long edge, keeping the aspect ratio.
+     * Sizes already within the limit are returned unchanged.
+     * @param width Source width
+     * @param height Source height
+     * @param maxLongEdge Maximum length of the longer side
+     * @return {width, height}
+     */
+    public static int[] fitLongEdge(int width, int height, int maxLongEdge) {
+        int longEdge = Math.max(width, height);
+        if (longEdge <= maxLongEdge) {
+            return new int[]{width, height};
+        }
+        double scale = maxLongEdge / (double) longEdge;
+        return new int[]{
+            Math.max(1, (int) Math.round(width * scale)),
+            Math.max(1, (int) Math.round(height * scale))
+        };
+    }
+
+    public LayerStore getWorkingStore() {
+        return working;
+    }
+
+    public ImageSource getOriginal() {
+        return original;
+    }
+
+    public int getFullWidth() {
+        return fullWidth;
+    }
+
+    public int getFullHeight() {
+        return fullHeight;
+    }
+
+    /**
+     * Check whether the working canvas is smaller than the original.
+     * @return True if full-quality generation sends more pixels than preview
+     */
+    public boolean isDownscaled() {
+        return fullWidth != working.getWidth() || fullHeight != working.getHeight();
+    }
+
+    /**
+     * Record that the working original layer matches the on-disk original.
+     * Once the working original is edited (e.g. replaced by a generated
+     * image) full-quality requests upscale it instead of reading the disk copy.
+     */
+    public void markOriginalSynced() {
+        originalSyncVersion = working.getLayer(LayerType.ORIGINAL_IMAGE).getVersion();
+    }
+
+    /**
+     * Get the store to send for a generate request.
+     * @param quality Preview or full quality
+     * @return The working store, or a full-resolution view of it
+     */
+    public LayerStore getStore(GenerationQuality quality) {
+        if (quality == GenerationQuality.PREVIEW || !isDownscaled()) {
+            return working;
+        }
+        return getFullResolutionStore();
+    }
+
+    /**
+     * Freeze the layers for a generate request encoded on a worker thread.
+     * Call on the thread that owns the working store.
+     * @param quality Preview or full quality
+     * @return A {@link LayerStore#snapshot() snapshot} of the working store,
+     *         or full-resolution views of one
+     */
+    public LayerStore snapshot(GenerationQuality quality) {
+        LayerStore frozen = working.snapshot();
+        if (quality == GenerationQuality.PREVIEW || !isDownscaled()) {
+            return frozen;
+        }
+        return getFullResolutionStore(frozen);
+    }
+
+    /**
+     * Get read-only full-resolution views of the working layers. The views
+     * are reused while the working layers stay the same, so the layer
+     * serializer can keep their encoded output between requests.
+     * @return The full-resolution store
+     */
+    public LayerStore getFullResolutionStore() {
+        return getFullResolutionStore(working);
+    }
+
+    /**
+     * Forget the snapshots and full-resolution views kept for reuse, so the
+     * tiles they share with the working layers can be freed, e.g. before
+     * the working tiles are spilled to disk.
+     */
+    public synchronized void releaseSnapshots() {
+        working.releaseSnapshots();
+        fullStore = null;
+        fullSources.clear();
+    }
+
+    /**
+     * Get full-resolution views of the working layers or of a snapshot of them.
+     */
+    private synchronized LayerStore getFullResolutionStore(LayerStore source) {
+        if (fullStore == null || !isCurrent(source)) {
+            EnumMap<LayerType, TiledLayer> layers = new EnumMap<>(LayerType.class);
+            fullUsesDiskOriginal = useDiskOriginal(source);
+            for (LayerType type : LayerType.values()) {
+                TiledLayer layer = source.getLayer(type);
+                fullSources.put(type, layer);
+                if (type == LayerType.ORIGINAL_IMAGE && fullUsesDiskOriginal) {
+                    layers.put(type, new SourceLayer(type, original));
+                } else {
+                    layers.put(type, new ResampledLayer(layer, fullWidth, fullHeight, ResampledLayer.filterFor(type)));
+                }
+            }
+            fullStore = new LayerStore(fullWidth, fullHeight, layers);
+        }
+        return fullStore;
+    }
+
+    private boolean useDiskOriginal(LayerStore source) {
+        return original != null
+                && source.getLayer(LayerType.ORIGINAL_IMAGE).getVersion() == originalSyncVersion;
+    }
+
+    private boolean isCurrent(LayerStore source) {
+        if (fullUsesDiskOriginal != useDiskOriginal(source)) {
+            return false;
+        }
+        for (LayerType type : LayerType.values()) {
+            if (fullSources.get(type) != source.getLayer(type)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fill a layer with an area-averaged downscale of an image. Rows are
+     * streamed from the source one at a time.
+     * @param source The full-resolution image
+     * @param target The layer to fill; must not be larger than the source
+     */
+    public static void downsample(ImageSource source, TiledLayer target) throws IOException {
+        int sw = source.getWidth();
+        int sh = source.getHeight();
+        int tw = target.getWidth();
+        int th = target.getHeight();
+        int[] srcRow = new int[sw];
+        int[] dstRow = new int[tw];
+        int[] column = new int[sw];
+        for (int x = 0; x < sw; x++) {
+            column[x] = (int) ((long) x * tw / sw);
+        }
+        long[] sums = new long[tw * 4];
+        int[] counts = new int[tw];
+
+        for (int ty = 0; ty < th; ty++) {
+            int sy0 = (int) ((long) ty * sh / th);
+            int sy1 = Math.max(sy0 + 1, (int) ((long) (ty + 1) * sh / th));
+            Arrays.fill(sums, 0);
+            Arrays.fill(counts, 0);
+            for (int sy = sy0; sy < sy1; sy++) {
+                source.readRows(sy, 1, srcRow);
+                for (int x = 0; x < sw; x++) {
+                    int p = srcRow[x];
+                    int c = column[x];
+                    sums[c * 4] += p >>> 24;
+                    sums[c * 4 + 1] += (p >> 16) & 0xFF;
+                    sums[c * 4 + 2] += (p >> 8) & 0xFF;
+                    sums[c * 4 + 3] += p & 0xFF;
+                    counts[c]++;
+                }
+            }
+            for (int x = 0; x < tw; x++) {
+                int n = Math.max(1, counts[x]);
+                dstRow[x] = (int) ((sums[x * 4] + n / 2) / n) << 24
+                        | (int) ((sums[x * 4 + 1] + n / 2) / n) << 16
+                        | (int) ((sums[x * 4 + 2] + n / 2) / n) << 8
+                        | (int) ((sums[x * 4 + 3] + n / 2) / n);
+            }
+            target.writePixels(dstRow, 0, tw, 0, ty, tw, 1, null);
+        }
+    }
+}
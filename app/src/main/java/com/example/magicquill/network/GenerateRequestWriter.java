@@ -0,0 +1,252 @@
+package com.example.magicquill.network;
+
+import com.example.magicquill.data.GenerationParams;
+import com.example.magicquill.data.encode.Base64OutputStream;
+import com.example.magicquill.data.encode.LayerSerializer;
+import com.example.magicquill.data.encode.PngEncoder;
+import com.example.magicquill.data.layer.LayerStore;
+import com.example.magicquill.data.layer.LayerType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes the {@code /magic_quill/generate} JSON body straight to an output stream.
+ * Each layer goes pixels -> PNG filter -> deflate -> base64 -> stream through
+ * fixed-size buffers, so no PNG byte[], base64 String or JSON String of the
+ * whole request is ever held in memory.
+ * When a {@link LayerSerializer} is supplied, layers are instead encoded in
+ * parallel (or taken from its cache) up front and only the compressed PNG
+ * bytes are base64-streamed; empty optional layers are sent as null.
+ */
+public class GenerateRequestWriter {
+
+    private static final String DATA_URI_PREFIX = "data:image/png;base64,";
+    static final String REFERENCE_PREFIX = "sha256:";
+
+    // Order of the from_frontend fields as documented
+    private static final LayerType[] FRONTEND_ORDER = {
+        LayerType.TOTAL_MASK,
+        LayerType.ORIGINAL_IMAGE,
+        LayerType.ADD_COLOR,
+        LayerType.ADD_EDGE,
+        LayerType.REMOVE_EDGE
+    };
+
+    private final LayerStore store;
+    private final String prompt;
+    private final GenerationParams params;
+    private final PngEncoder encoder;
+    private final LayerSerializer serializer;
+    private Map<LayerType, byte[]> encoded;
+    private String uploadSession;
+    private Map<LayerType, String> fingerprints;
+    private Set<LayerType> referenced = EnumSet.noneOf(LayerType.class);
+
+    public GenerateRequestWriter(LayerStore store, String prompt, GenerationParams params) {
+        this(store, prompt, params, new PngEncoder());
+    }
+
+    public GenerateRequestWriter(LayerStore store, String prompt, GenerationParams params, PngEncoder encoder) {
+        this.store = store;
+        this.prompt = prompt;
+        this.params = params;
+        this.encoder = encoder;
+        this.serializer = null;
+    }
+
+    public GenerateRequestWriter(LayerStore store, String prompt, GenerationParams params, LayerSerializer serializer) {
+        this.store = store;
+        this.prompt = prompt;
+        this.params = params;
+        this.encoder = null;
+        this.serializer = serializer;
+    }
+
+    /**
+     * Encode the layers ahead of {@link #writeTo(OutputStream)} when a serializer is used.
+     * Calling this is optional; it lets callers finish the CPU-heavy work before opening a connection.
+     */
+    public void prepare() throws IOException {
+        if (serializer != null && encoded == null) {
+            encoded = serializer.encodeAll(store);
+        }
+    }
+
+    /**
+     * Get the layers encoded by {@link #prepare()}.
+     * @return PNG bytes per layer (null values mark skipped layers), or null
+     *         when layers are streamed without a serializer
+     */
+    public Map<LayerType, byte[]> getEncodedLayers() {
+        return encoded;
+    }
+
+    /**
+     * Switch the body to the delta-upload protocol. Layers in {@code referenced}
+     * are sent as {@code "sha256:<hex>"} instead of PNG data, and an
+     * {@code upload} object carries the session id and every layer's
+     * fingerprint so the server can store what it receives.
+     * @param sessionId The upload session
+     * @param fingerprints Fingerprint per non-null layer
+     * @param referenced Layers the server already holds
+     */
+    public void setDeltaUpload(String sessionId, Map<LayerType, String> fingerprints, Set<LayerType> referenced) {
+        this.uploadSession = sessionId;
+        this.fingerprints = fingerprints;
+        this.referenced = referenced.isEmpty() ? EnumSet.noneOf(LayerType.class) : EnumSet.copyOf(referenced);
+    }
+
+    /**
+     * Write the complete request body.
+     * @param out Destination stream; it is flushed but not closed
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        prepare();
+        write(out, "{\"from_frontend\":{");
+        for (int i = 0; i < FRONTEND_ORDER.length; i++) {
+            if (i > 0) {
+                write(out, ",");
+            }
+            writeLayer(out, FRONTEND_ORDER[i]);
+        }
+        write(out, "},\"from_backend\":{\"prompt\":");
+        writeString(out, prompt);
+        write(out, "},\"params\":");
+        writeParams(out, params);
+        if (uploadSession != null) {
+            writeUpload(out);
+        }
+        write(out, "}");
+        out.flush();
+    }
+
+    private void writeUpload(OutputStream out) throws IOException {
+        write(out, ",\"upload\":{\"session\":");
+        writeString(out, uploadSession);
+        write(out, ",\"hashes\":{");
+        boolean first = true;
+        for (Map.Entry<LayerType, String> entry : fingerprints.entrySet()) {
+            if (!first) {
+                write(out, ",");
+            }
+            first = false;
+            write(out, "\"" + entry.getKey().getApiKey() + "\":\"" + entry.getValue() + "\"");
+        }
+        write(out, "}}");
+    }
+
+    /**
+     * Write the {@code /magic_quill/guess_prompt} body: the original image plus
+     * the optional color and add-edge layers.
+     * @param out Destination stream; it is flushed but not closed
+     */
+    public void writeGuessPromptTo(OutputStream out) throws IOException {
+        prepare();
+        write(out, "{");
+        writeLayer(out, LayerType.ORIGINAL_IMAGE);
+        write(out, ",");
+        writeLayer(out, LayerType.ADD_COLOR);
+        write(out, ",");
+        writeLayer(out, LayerType.ADD_EDGE);
+        write(out, "}");
+        out.flush();
+    }
+
+    /**
+     * Write one {@code "key":"data:image/png;base64,..."} pair.
+     */
+    protected void writeLayer(OutputStream out, LayerType type) throws IOException {
+        if (encoded != null && encoded.get(type) == null) {
+            write(out, "\"" + type.getApiKey() + "\":null");
+            return;
+        }
+        if (referenced.contains(type)) {
+            write(out, "\"" + type.getApiKey() + "\":\"" + REFERENCE_PREFIX + fingerprints.get(type) + "\"");
+            return;
+        }
+        write(out, "\"" + type.getApiKey() + "\":\"" + DATA_URI_PREFIX);
+        Base64OutputStream base64 = new Base64OutputStream(out);
+        if (encoded != null) {
+            base64.write(encoded.get(type));
+        } else {
+            // The original photo has no meaningful alpha; send it as RGB
+            encoder.encode(store.getLayer(type), type != LayerType.ORIGINAL_IMAGE, base64);
+        }
+        base64.finish();
+        write(out, "\"");
+    }
+
+    static void writeParams(OutputStream out, GenerationParams params) throws IOException {
+        write(out, "{\"ckpt_name\":");
+        writeString(out, params.getCkptName());
+        write(out, ",\"negative_prompt\":");
+        writeString(out, params.getNegativePrompt());
+        write(out, ",\"fine_edge\":\"" + (params.isFineEdge() ? "enable" : "disable") + "\"");
+        write(out, ",\"grow_size\":" + params.getGrowSize());
+        write(out, ",\"edge_strength\":" + formatFloat(params.getEdgeStrength()));
+        write(out, ",\"color_strength\":" + formatFloat(params.getColorStrength()));
+        write(out, ",\"inpaint_strength\":" + formatFloat(params.getInpaintStrength()));
+        write(out, ",\"seed\":" + params.getSeed());
+        write(out, ",\"steps\":" + params.getSteps());
+        write(out, ",\"cfg\":" + formatFloat(params.getCfg()));
+        write(out, ",\"sampler_name\":");
+        writeString(out, params.getSamplerName());
+        write(out, ",\"scheduler\":");
+        writeString(out, params.getScheduler());
+        write(out, "}");
+    }
+
+    private static String formatFloat(float value) {
+        return Float.toString(value);
+    }
+
+    static void write(OutputStream out, String ascii) throws IOException {
+        out.write(ascii.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Write a JSON string literal, or null.
+     */
+    static void writeString(OutputStream out, String value) throws IOException {
+        if (value == null) {
+            write(out, "null");
+            return;
+        }
+        StringBuilder sb = new StringBuilder(value.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format(Locale.US, "\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+        write(out, sb.toString());
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.magicquill.network;
+
+import com.example.magicquill.data.layer.CropRegion;
+
+/**
+ * Response of {@code /magic_quill/generate}.
+ */
+public class GenerateResult {
+
+    private final String generatedImage;
+    private final long seed;
+    private final CropRegion region;
+
+    public GenerateResult(String generatedImage, long seed) {
+        this(generatedImage, seed, null);
+    }
+
+    /**
+     * @param generatedImage The generated image as a PNG data URI
+     * @param seed The seed the server used
+     * @param region The part of the canvas the image covers, or null for all of it
+     */
+    public GenerateResult(String generatedImage, long seed, CropRegion region) {
+        this.generatedImage = generatedImage;
+        this.seed = seed;
+        this.region = region;
+    }
+
+    /**
+     * Get the generated image as a PNG data URI.
+     * @return The data URI string
+     */
+    public String getGeneratedImage() {
+        return generatedImage;
+    }
+
+    /**
+     * Get the seed the server used.
+     * @return The seed
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Get where the image goes on the canvas the request was made from.
+     * @return The region of a cropped request, or null if the image covers the whole canvas
+     */
+    public CropRegion getRegion() {
+        return region;
+    }
+}
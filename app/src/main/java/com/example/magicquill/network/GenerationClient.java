@@ -0,0 +1,273 @@
+package com.example.magicquill.network;
+
+import com.example.magicquill.data.GenerationParams;
+import com.example.magicquill.data.layer.LayerStore;
+import com.example.magicquill.ui.observer.EventChannel;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Asynchronous front end for {@link MagicQuillApi}.
+ * Generate requests are single-flight: at most one runs at a time and at
+ * most one waits behind it. Submitting while a request is waiting replaces
+ * the waiting one (it is reported as SUPERSEDED), so repeated taps never
+ * build a backlog of stale generations. Running requests can be cancelled,
+ * which aborts the HTTP exchange.
+ * Every state change is published to observers as a {@link GenerationEvent}
+ * on the callback executor (the main thread on Android).
+ */
+public class GenerationClient {
+
+    /**
+     * Observer of generation state changes.
+     */
+    public interface Listener {
+        void onGenerationEvent(GenerationEvent event);
+    }
+
+    private final MagicQuillApi api;
+    private final Executor callbackExecutor;
+    private final ExecutorService generateWorker;
+    private final ExecutorService requestWorker;
+    private final EventChannel<Listener> events = new EventChannel<>(Listener.class);
+
+    private final Object lock = new Object();
+    private Job pending;
+    private Job running;
+    private long nextRequestId;
+    private boolean shutdown;
+
+    /**
+     * Callback for the non-generate endpoints.
+     */
+    public interface ApiCallback<T> {
+        void onSuccess(T result);
+        void onError(Exception error);
+    }
+
+    /**
+     * A blocking call against the API, run on the request worker.
+     */
+    public interface ApiCall<T> {
+        T call(MagicQuillApi api) throws IOException;
+    }
+
+    private static class Job {
+        final long id;
+        final MagicQuillApi.GenerateCall call;
+
+        Job(long id, MagicQuillApi.GenerateCall call) {
+            this.id = id;
+            this.call = call;
+        }
+    }
+
+    /**
+     * @param api The blocking API client; shut down together with this client
+     * @param callbackExecutor Executor that delivers events and callbacks
+     */
+    public GenerationClient(MagicQuillApi api, Executor callbackExecutor) {
+        this.api = api;
+        this.callbackExecutor = callbackExecutor;
+        this.generateWorker = Executors.newSingleThreadExecutor(r -> newWorkerThread(r, "magic-quill-generate"));
+        this.requestWorker = Executors.newSingleThreadExecutor(r -> newWorkerThread(r, "magic-quill-request"));
+    }
+
+    public MagicQuillApi getApi() {
+        return api;
+    }
+
+    /**
+     * Queue a generate request. If another request is already waiting it is
+     * replaced. The parameters are copied, so later edits do not affect it.
+     * @param store The canvas layers. They are read on a worker while the
+     *              request runs, so pass a {@link LayerStore#snapshot()}
+     *              rather than a store that is still being drawn on
+     * @param prompt The positive prompt
+     * @param params The generation parameters
+     * @return The request id carried by this request's events
+     * @throws IllegalStateException If the client has been shut down
+     */
+    public long submitGenerate(LayerStore store, String prompt, GenerationParams params) {
+        GenerationParams copy = new GenerationParams(params);
+        // Prepared here, on the caller's thread, which owns the layers' bounds
+        MagicQuillApi.GenerateCall call = api.newGenerateCall(store, prompt, copy);
+        Job superseded;
+        Job job;
+        synchronized (lock) {
+            if (shutdown) {
+                throw new IllegalStateException("GenerationClient is shut down");
+            }
+            job = new Job(++nextRequestId, call);
+            superseded = pending;
+            pending = job;
+        }
+        if (superseded != null) {
+            publish(GenerationEvent.Type.SUPERSEDED, superseded.id, null, null);
+        }
+        generateWorker.execute(this::runPending);
+        return job.id;
+    }
+
+    /**
+     * Cancel a request, whether it is waiting or running.
+     * @param requestId The id returned by {@link #submitGenerate}
+     * @return True if the request was found
+     */
+    public boolean cancel(long requestId) {
+        Job queued = null;
+        MagicQuillApi.GenerateCall active = null;
+        synchronized (lock) {
+            if (pending != null && pending.id == requestId) {
+                queued = pending;
+                pending = null;
+            } else if (running != null && running.id == requestId) {
+                active = running.call;
+            }
+        }
+        return finishCancel(queued, active);
+    }
+
+    /**
+     * Cancel the waiting and the running request, if any.
+     */
+    public void cancelAll() {
+        Job queued;
+        MagicQuillApi.GenerateCall active;
+        synchronized (lock) {
+            queued = pending;
+            pending = null;
+            active = running != null ? running.call : null;
+        }
+        finishCancel(queued, active);
+    }
+
+    private boolean finishCancel(Job queued, MagicQuillApi.GenerateCall active) {
+        if (queued != null) {
+            publish(GenerationEvent.Type.CANCELLED, queued.id, null, null);
+        }
+        if (active != null) {
+            // The worker reports CANCELLED once the aborted call unwinds
+            active.cancel();
+        }
+        return queued != null || active != null;
+    }
+
+    /**
+     * Check whether a generate request is waiting or running.
+     * @return True if busy
+     */
+    public boolean isBusy() {
+        synchronized (lock) {
+            return pending != null || running != null;
+        }
+    }
+
+    private void runPending() {
+        Job job;
+        synchronized (lock) {
+            job = pending;
+            if (job == null) {
+                // Superseded or cancelled while queued
+                return;
+            }
+            pending = null;
+            running = job;
+        }
+
+        publish(GenerationEvent.Type.STARTED, job.id, null, null);
+        GenerationEvent.Type outcome;
+        GenerateResult result = null;
+        Exception error = null;
+        try {
+            result = job.call.execute();
+            outcome = GenerationEvent.Type.SUCCEEDED;
+        } catch (IOException | RuntimeException e) {
+            outcome = job.call.isCancelled() ? GenerationEvent.Type.CANCELLED : GenerationEvent.Type.FAILED;
+            error = outcome == GenerationEvent.Type.FAILED ? e : null;
+        }
+        // Go idle before reporting, so observers see isBusy() == false
+        synchronized (lock) {
+            running = null;
+        }
+        publish(outcome, job.id, result, error);
+    }
+
+    /**
+     * Run a blocking API call on the request worker and report the outcome
+     * on the callback executor. Requests run one at a time, in order.
+     * @param call The call to run
+     * @param callback Receives the result or the error
+     */
+    public <T> void enqueue(ApiCall<T> call, ApiCallback<T> callback) {
+        synchronized (lock) {
+            if (shutdown) {
+                throw new IllegalStateException("GenerationClient is shut down");
+            }
+        }
+        requestWorker.execute(() -> {
+            try {
+                T result = call.call(api);
+                callbackExecutor.execute(() -> callback.onSuccess(result));
+            } catch (IOException | RuntimeException e) {
+                callbackExecutor.execute(() -> callback.onError(e));
+            }
+        });
+    }
+
+    /**
+     * Ask the server for prompt suggestions for the current canvas.
+     * @param store The canvas layers
+     * @param callback Receives the comma-separated suggestions
+     */
+    public void guessPrompt(LayerStore store, ApiCallback<String> callback) {
+        enqueue(api -> api.guessPrompt(store), callback);
+    }
+
+    /**
+     * Observe generation events. They are delivered on the callback executor.
+     * @param listener The listener to attach
+     */
+    public void attach(Listener listener) {
+        events.attach(listener);
+    }
+
+    public void detach(Listener listener) {
+        events.detach(listener);
+    }
+
+    /**
+     * Cancel everything, stop the workers and release the API client.
+     * The client cannot be used afterwards.
+     */
+    public void shutdown() {
+        synchronized (lock) {
+            shutdown = true;
+        }
+        cancelAll();
+        generateWorker.shutdownNow();
+        requestWorker.shutdownNow();
+        api.shutdown();
+    }
+
+    private void publish(GenerationEvent.Type type, long requestId, GenerateResult result, Exception error) {
+        GenerationEvent event = new GenerationEvent(type, requestId, result, error);
+        callbackExecutor.execute(() -> deliver(event));
+    }
+
+    private void deliver(GenerationEvent event) {
+        Listener[] listeners = events.listeners();
+        for (Listener listener : listeners) {
+            listener.onGenerationEvent(event);
+        }
+    }
+
+    private static Thread newWorkerThread(Runnable r, String name) {
+        Thread thread = new Thread(r, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.magicquill.network;
+
+/**
+ * State change of a generate request, published by {@link GenerationClient}
+ * to its observers.
+ */
+public class GenerationEvent {
+
+    /**
+     * Event types.
+     */
+    public enum Type {
+        STARTED,     // The request left the queue and is being uploaded
+        SUCCEEDED,   // The server returned a result
+        FAILED,      // The request failed; see getError()
+        CANCELLED,   // The request was cancelled before or while running
+        SUPERSEDED   // A newer request replaced this one before it started
+    }
+
+    private final Type type;
+    private final long requestId;
+    private final GenerateResult result;
+    private final Exception error;
+
+    GenerationEvent(Type type, long requestId, GenerateResult result, Exception error) {
+        this.type = type;
+        this.requestId = requestId;
+        this.result = result;
+        this.error = error;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Get the id returned by {@link GenerationClient#submitGenerate}.
+     * @return The request id
+     */
+    public long getRequestId() {
+        return requestId;
+    }
+
+    /**
+     * @return The result for SUCCEEDED events, otherwise null
+     */
+    public GenerateResult getResult() {
+        return result;
+    }
+
+    /**
+     * @return The failure for FAILED events, otherwise null
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    /**
+     * Check whether the request is finished (no further events will follow).
+     * @return True for every type except STARTED
+     */
+    public boolean isTerminal() {
+        return type != Type.STARTED;
+    }
+}
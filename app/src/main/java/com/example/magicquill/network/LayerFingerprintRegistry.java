@@ -0,0 +1,96 @@
+package com.example.magicquill.network;
+
+import com.example.magicquill.data.layer.LayerType;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Tracks which encoded layers the server holds for the current upload
+ * session, by SHA-256 of the PNG bytes.
+ * The layer serializer hands back the same byte[] for a layer that has not
+ * changed, so the last fingerprint per layer is memoized by array identity
+ * and unchanged layers are never re-hashed.
+ */
+public class LayerFingerprintRegistry {
+
+    private String sessionId = newSessionId();
+    private final Set<String> uploaded = new HashSet<>();
+    private final EnumMap<LayerType, byte[]> lastPng = new EnumMap<>(LayerType.class);
+    private final EnumMap<LayerType, String> lastFingerprint = new EnumMap<>(LayerType.class);
+
+    /**
+     * Get the id the server files this client's layers under.
+     * @return The session id
+     */
+    public synchronized String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * Get the fingerprint of an encoded layer.
+     * @param type The layer type
+     * @param png The PNG bytes
+     * @return Lowercase hex SHA-256 of the bytes
+     */
+    public synchronized String fingerprint(LayerType type, byte[] png) {
+        if (lastPng.get(type) == png) {
+            return lastFingerprint.get(type);
+        }
+        String hash;
+        try {
+            hash = ResultCache.toHex(MessageDigest.getInstance("SHA-256").digest(png));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 unavailable", e);
+        }
+        lastPng.put(type, png);
+        lastFingerprint.put(type, hash);
+        return hash;
+    }
+
+    /**
+     * Check whether the server is known to hold a layer.
+     * @param fingerprint The layer fingerprint
+     * @return True if it was uploaded in this session and not reported missing since
+     */
+    public synchronized boolean isUploaded(String fingerprint) {
+        return uploaded.contains(fingerprint);
+    }
+
+    /**
+     * Record layers the server accepted.
+     * @param fingerprints Fingerprints sent with a successful request
+     */
+    public synchronized void markUploaded(Collection<String> fingerprints) {
+        uploaded.addAll(fingerprints);
+    }
+
+    /**
+     * Forget layers the server reported missing, e.g. after a restart or eviction.
+     * @param fingerprints The missing fingerprints
+     */
+    public synchronized void forget(Collection<String> fingerprints) {
+        uploaded.removeAll(fingerprints);
+    }
+
+    /**
+     * Start a new session. Nothing is assumed to be on the server afterwards.
+     */
+    public synchronized void reset() {
+        sessionId = newSessionId();
+        uploaded.clear();
+    }
+
+    public synchronized int getUploadedCount() {
+        return uploaded.size();
+    }
+
+    private static String newSessionId() {
+        return UUID.randomUUID().toString();
+    }
+}
@@ -0,0 +1,489 @@
+package com.example.magicquill.network;
+
+import com.example.magicquill.data.GenerationParams;
+import com.example.magicquill.data.encode.LayerSerializer;
+import com.example.magicquill.data.layer.CropRegion;
+import com.example.magicquill.data.layer.LayerStore;
+import com.example.magicquill.data.layer.LayerType;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Blocking client for the MagicQuill server endpoints.
+ * Must be called off the main thread.
+ */
+public class MagicQuillApi {
+
+    private static final int CONNECT_TIMEOUT_MS = 30_000;
+    private static final int READ_TIMEOUT_MS = 120_000;  // Generation takes 20-60 s
+    private static final int STREAM_CHUNK_SIZE = 64 * 1024;
+
+    private final String baseUrl;
+    private final LayerSerializer serializer;
+    private volatile ResultCache resultCache;
+    private volatile UploadMode uploadMode = UploadMode.FULL;
+    private volatile RequestMode requestMode = RequestMode.FULL_IMAGE;
+    private volatile int cropMargin = CropRegion.DEFAULT_MARGIN;
+    private final LayerFingerprintRegistry fingerprintRegistry = new LayerFingerprintRegistry();
+
+    /**
+     * @param baseUrl Server root, e.g. {@code http://10.0.2.2:7860}
+     */
+    public MagicQuillApi(String baseUrl) {
+        this(baseUrl, new LayerSerializer());
+    }
+
+    /**
+     * @param baseUrl Server root, e.g. {@code http://10.0.2.2:7860}
+     * @param serializer Parallel, caching layer encoder shared across requests
+     */
+    public MagicQuillApi(String baseUrl, LayerSerializer serializer) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.serializer = serializer;
+    }
+
+    /**
+     * Get the layer encoder, whose cache keeps the layers it last encoded.
+     */
+    public LayerSerializer getSerializer() {
+        return serializer;
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    /**
+     * Serve repeated fixed-seed generate requests from a local cache.
+     * @param resultCache The cache, or null to always hit the server
+     */
+    public void setResultCache(ResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Choose how layers are uploaded. In {@link UploadMode#DELTA} mode layers
+     * the server received earlier in the session are sent as hash references;
+     * if the server no longer has them it answers 409 and the request is
+     * retried once as a full upload. Changing the mode starts a new session.
+     * @param uploadMode The upload mode
+     */
+    public void setUploadMode(UploadMode uploadMode) {
+        if (this.uploadMode != uploadMode) {
+            this.uploadMode = uploadMode;
+            fingerprintRegistry.reset();
+        }
+    }
+
+    public UploadMode getUploadMode() {
+        return uploadMode;
+    }
+
+    /**
+     * Choose how much of the canvas generate requests send. In
+     * {@link RequestMode#CROPPED} mode only the bounds of the strokes, grown
+     * by grow_size and the crop margin, are sent, and the result carries the
+     * {@link CropRegion} to paste it at. Requests whose region would cover
+     * most of the canvas, or that have nothing drawn, still send everything.
+     * @param requestMode The request mode
+     */
+    public void setRequestMode(RequestMode requestMode) {
+        this.requestMode = requestMode;
+    }
+
+    public RequestMode getRequestMode() {
+        return requestMode;
+    }
+
+    /**
+     * Set the context kept around the edit in cropped requests.
+     * @param margin The margin in canvas pixels
+     */
+    public void setCropMargin(int margin) {
+        this.cropMargin = Math.max(0, margin);
+    }
+
+    public int getCropMargin() {
+        return cropMargin;
+    }
+
+    public LayerFingerprintRegistry getFingerprintRegistry() {
+        return fingerprintRegistry;
+    }
+
+    /**
+     * POST {@code /magic_quill/generate}, streaming the layers into the request body.
+     * @param store The canvas layers
+     * @param prompt The positive prompt
+     * @param params The generation parameters
+     * @return The generated image and seed
+     * @throws IOException On network failure or a non-200 response
+     */
+    public GenerateResult generate(LayerStore store, String prompt, GenerationParams params) throws IOException {
+        return newGenerateCall(store, prompt, params).execute();
+    }
+
+    /**
+     * Prepare a cancellable {@code /magic_quill/generate} call. In
+     * {@link RequestMode#CROPPED} mode the region to send is found here, from
+     * the layers' content bounds, so call on the thread that owns the store.
+     * @param store The canvas layers
+     * @param prompt The positive prompt
+     * @param params The generation parameters
+     * @return The call; run it with {@link GenerateCall#execute()}
+     */
+    public GenerateCall newGenerateCall(LayerStore store, String prompt, GenerationParams params) {
+        return new GenerateCall(store, prompt, params);
+    }
+
+    /**
+     * A single generate request that another thread can abort.
+     */
+    public class GenerateCall {
+        private final LayerStore store;
+        private final CropRegion region;
+        private final String prompt;
+        private final GenerationParams params;
+        private volatile HttpURLConnection connection;
+        private volatile boolean cancelled;
+
+        GenerateCall(LayerStore store, String prompt, GenerationParams params) {
+            this.store = store;
+            this.region = requestMode == RequestMode.CROPPED
+                    ? CropRegion.compute(store, params.getGrowSize(), cropMargin) : null;
+            this.prompt = prompt;
+            this.params = params;
+        }
+
+        /**
+         * Get the part of the canvas this call sends.
+         * @return The region, or null for the whole canvas
+         */
+        public CropRegion getRegion() {
+            return region;
+        }
+
+        /**
+         * Run the request on the calling thread.
+         * @return The generated image and seed
+         * @throws InterruptedIOException If the call was cancelled
+         * @throws IOException On network failure or a non-200 response
+         */
+        public GenerateResult execute() throws IOException {
+            checkCancelled();
+            LayerStore sent = region != null ? region.crop(store) : store;
+            // Encode before connecting so the server never waits on a half-sent body
+            GenerateRequestWriter writer = new GenerateRequestWriter(sent, prompt, params, serializer);
+            writer.prepare();
+            checkCancelled();
+
+            ResultCache cache = resultCache;
+            String cacheKey = null;
+            if (cache != null && ResultCache.isCacheable(params)) {
+                cacheKey = ResultCache.computeKey(writer.getEncodedLayers(), prompt, params);
+                GenerateResult cached = cache.get(cacheKey);
+                if (cached != null) {
+                    return placed(cached, region);
+                }
+            }
+
+            Map<LayerType, String> fingerprints = null;
+            Set<LayerType> referenced = EnumSet.noneOf(LayerType.class);
+            if (uploadMode == UploadMode.DELTA) {
+                fingerprints = fingerprintLayers(writer.getEncodedLayers());
+                for (Map.Entry<LayerType, String> entry : fingerprints.entrySet()) {
+                    if (fingerprintRegistry.isUploaded(entry.getValue())) {
+                        referenced.add(entry.getKey());
+                    }
+                }
+                writer.setDeltaUpload(fingerprintRegistry.getSessionId(), fingerprints, referenced);
+            }
+
+            GenerateResult result;
+            try {
+                result = send(writer, !referenced.isEmpty());
+            } catch (LayerMissException e) {
+                // The server dropped the session (restart or eviction); upload everything once
+                List<String> stale = new ArrayList<>();
+                for (LayerType type : referenced) {
+                    stale.add(fingerprints.get(type));
+                }
+                fingerprintRegistry.forget(stale);
+                writer.setDeltaUpload(fingerprintRegistry.getSessionId(), fingerprints, EnumSet.noneOf(LayerType.class));
+                result = send(writer, false);
+            }
+            if (fingerprints != null) {
+                fingerprintRegistry.markUploaded(fingerprints.values());
+            }
+            if (cacheKey != null) {
+                cache.put(cacheKey, result);
+            }
+            return placed(result, region);
+        }
+
+        /**
+         * Attach the region a cropped result belongs at. The cache holds the
+         * bare image: the same cropped layers may come from another spot.
+         */
+        private GenerateResult placed(GenerateResult result, CropRegion region) {
+            return region != null ? new GenerateResult(result.getGeneratedImage(), result.getSeed(), region) : result;
+        }
+
+        private GenerateResult send(GenerateRequestWriter writer, boolean hasReferences) throws IOException {
+            checkCancelled();
+            connection = openPost("/magic_quill/generate");
+            try {
+                checkCancelled();
+                try (OutputStream body = connection.getOutputStream()) {
+                    writer.writeTo(body);
+                }
+                if (hasReferences && connection.getResponseCode() == HttpURLConnection.HTTP_CONFLICT) {
+                    throw new LayerMissException();
+                }
+                return parseGenerateResult(readResponse(connection));
+            } catch (IOException e) {
+                checkCancelled();
+                throw e;
+            } finally {
+                connection.disconnect();
+            }
+        }
+
+        /**
+         * Abort the call. A blocked {@link #execute()} fails with {@link InterruptedIOException}.
+         */
+        public void cancel() {
+            cancelled = true;
+            HttpURLConnection active = connection;
+            if (active != null) {
+                active.disconnect();
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void checkCancelled() throws InterruptedIOException {
+            if (cancelled) {
+                throw new InterruptedIOException("Generate call cancelled");
+            }
+        }
+    }
+
+    /**
+     * Thrown when the server answers 409 because it no longer holds a referenced layer.
+     */
+    private static class LayerMissException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        LayerMissException() {
+            super("Server is missing a referenced layer");
+        }
+    }
+
+    private Map<LayerType, String> fingerprintLayers(Map<LayerType, byte[]> encoded) {
+        EnumMap<LayerType, String> fingerprints = new EnumMap<>(LayerType.class);
+        for (Map.Entry<LayerType, byte[]> entry : encoded.entrySet()) {
+            if (entry.getValue() != null) {
+                fingerprints.put(entry.getKey(), fingerprintRegistry.fingerprint(entry.getKey(), entry.getValue()));
+            }
+        }
+        return fingerprints;
+    }
+
+    /**
+     * POST {@code /magic_quill/guess_prompt} with the original, color and edge layers.
+     * @param store The canvas layers
+     * @return Comma-separated prompt suggestions
+     */
+    public String guessPrompt(LayerStore store) throws IOException {
+        GenerateRequestWriter writer = new GenerateRequestWriter(store, null, null, serializer);
+        writer.prepare();
+        HttpURLConnection connection = openPost("/magic_quill/guess_prompt");
+        try {
+            try (OutputStream body = connection.getOutputStream()) {
+                writer.writeGuessPromptTo(body);
+            }
+            return parseJsonString(readResponse(connection));
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * POST {@code /magic_quill/process_background_img}.
+     * @param dataUri The image as a PNG/JPEG/WebP data URI
+     * @return The resized image as a PNG data URI
+     */
+    public String processBackgroundImage(String dataUri) throws IOException {
+        HttpURLConnection connection = openPost("/magic_quill/process_background_img");
+        try {
+            try (OutputStream body = connection.getOutputStream()) {
+                GenerateRequestWriter.writeString(body, dataUri);
+            }
+            return parseJsonString(readResponse(connection));
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * GET {@code /magic_quill/checkpoints}.
+     * @return Checkpoint paths relative to {@code models/checkpoints/}
+     */
+    public List<String> getCheckpoints() throws IOException {
+        try {
+            JSONArray array = new JSONObject(get("/magic_quill/checkpoints")).getJSONArray("checkpoints");
+            List<String> checkpoints = new ArrayList<>(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                checkpoints.add(array.getString(i));
+            }
+            return checkpoints;
+        } catch (JSONException e) {
+            throw new IOException("Invalid checkpoints response", e);
+        }
+    }
+
+    /**
+     * GET {@code /magic_quill/config}.
+     * @return The server configuration
+     */
+    public ServerConfig getConfig() throws IOException {
+        return parseServerConfig(get("/magic_quill/config"));
+    }
+
+    /**
+     * POST {@code /magic_quill/config}.
+     * @param config The configuration to apply
+     * @return The configuration the server now uses
+     */
+    public ServerConfig updateConfig(ServerConfig config) throws IOException {
+        HttpURLConnection connection = openPost("/magic_quill/config");
+        try {
+            try (OutputStream body = connection.getOutputStream()) {
+                GenerateRequestWriter.write(body, "{\"resolution\":" + config.getResolution()
+                        + ",\"auto_save\":" + config.isAutoSave() + "}");
+            }
+            return parseServerConfig(readResponse(connection));
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * GET {@code /magic_quill/health}.
+     * @return True if the server reports GPU availability
+     */
+    public boolean isGpuAvailable() throws IOException {
+        try {
+            return new JSONObject(get("/magic_quill/health")).optBoolean("gpu_available", false);
+        } catch (JSONException e) {
+            throw new IOException("Invalid health response", e);
+        }
+    }
+
+    /**
+     * Release the encoder threads.
+     */
+    public void shutdown() {
+        serializer.shutdown();
+    }
+
+    protected String get(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(CONNECT_TIMEOUT_MS);
+        try {
+            return readResponse(connection);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    protected HttpURLConnection openPost(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setDoOutput(true);
+        // Stream the body instead of letting HttpURLConnection buffer it to compute Content-Length
+        connection.setChunkedStreamingMode(STREAM_CHUNK_SIZE);
+        return connection;
+    }
+
+    protected static String readResponse(HttpURLConnection connection) throws IOException {
+        int code = connection.getResponseCode();
+        InputStream in = code >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        String body = in != null ? readFully(in) : "";
+        if (code != HttpURLConnection.HTTP_OK) {
+            throw new IOException("API Error: " + code + " " + body);
+        }
+        return body;
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        try (InputStream input = in) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            int n;
+            while ((n = input.read(chunk)) != -1) {
+                buffer.write(chunk, 0, n);
+            }
+            return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    static String parseJsonString(String body) throws IOException {
+        try {
+            Object value = new JSONTokener(body).nextValue();
+            if (!(value instanceof String)) {
+                throw new IOException("Expected a JSON string response");
+            }
+            return (String) value;
+        } catch (JSONException e) {
+            throw new IOException("Invalid string response", e);
+        }
+    }
+
+    static ServerConfig parseServerConfig(String body) throws IOException {
+        try {
+            JSONObject json = new JSONObject(body);
+            return new ServerConfig(json.getInt("resolution"), json.optBoolean("auto_save", false));
+        } catch (JSONException e) {
+            throw new IOException("Invalid config response", e);
+        }
+    }
+
+    static GenerateResult parseGenerateResult(String body) throws IOException {
+        try {
+            JSONObject json = new JSONObject(body);
+            return new GenerateResult(json.getString("generated_image"), json.optLong("seed", -1));
+        } catch (JSONException e) {
+            throw new IOException("Invalid generate response", e);
+        }
+    }
+}
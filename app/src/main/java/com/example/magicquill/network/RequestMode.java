@@ -0,0 +1,9 @@
+package com.example.magicquill.network;
+
+/**
+ * How much of the canvas a {@code /magic_quill/generate} request covers.
+ */
+public enum RequestMode {
+    FULL_IMAGE, // The whole canvas is sent and the whole image comes back (the documented protocol)
+    CROPPED     // Only the edited region plus a margin is sent; the result is a patch to paste back
+}
@@ -0,0 +1,262 @@
+package com.example.magicquill.network;
+
+import com.example.magicquill.data.GenerationParams;
+import com.example.magicquill.data.layer.LayerType;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Content-addressed LRU disk cache of generate results.
+ * The key is a SHA-256 over the encoded layer PNGs, the prompt and every
+ * generation parameter, so an identical request maps to the same file.
+ * Only requests with a fixed seed are cacheable: with seed -1 the server
+ * picks a random seed and the same inputs are expected to give a new image.
+ * Entries are evicted least-recently-used first once the byte budget is
+ * exceeded; access order survives restarts through the file timestamps.
+ */
+public class ResultCache {
+
+    private static final String SUFFIX = ".result";
+    private static final int FORMAT_VERSION = 1;
+
+    private final File directory;
+    private long maxBytes;
+    private long sizeBytes;
+    private long hitCount;
+    private long missCount;
+
+    // Key -> file size, in access order (eldest first)
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param directory Directory holding the cache files; created if missing
+     * @param maxBytes Byte budget for all entries
+     */
+    public ResultCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        load();
+    }
+
+    /**
+     * Check whether a request may be served from the cache.
+     * @param params The generation parameters
+     * @return True if the seed is fixed
+     */
+    public static boolean isCacheable(GenerationParams params) {
+        return params.getSeed() != -1;
+    }
+
+    /**
+     * Compute the cache key of a generate request.
+     * @param layers PNG bytes per layer as produced by the layer serializer; null values mark skipped layers
+     * @param prompt The positive prompt
+     * @param params The generation parameters
+     * @return The key as a lowercase hex SHA-256
+     */
+    public static String computeKey(Map<LayerType, byte[]> layers, String prompt, GenerationParams params) {
+        MessageDigest digest = newDigest();
+        try (DataOutputStream out = new DataOutputStream(new DigestOutputStream(new DiscardOutputStream(), digest))) {
+            for (LayerType type : LayerType.values()) {
+                byte[] png = layers.get(type);
+                out.writeUTF(type.getApiKey());
+                out.writeInt(png != null ? png.length : -1);
+                if (png != null) {
+                    out.write(png);
+                }
+            }
+            GenerateRequestWriter.writeString(out, prompt);
+            // The request's own params JSON covers every field the server sees
+            GenerateRequestWriter.writeParams(out, params);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Look up a result.
+     * @param key The key from {@link #computeKey}
+     * @return The cached result, or null on a miss
+     */
+    public synchronized GenerateResult get(String key) {
+        // get() rather than containsKey() so the lookup counts as an access
+        if (entries.get(key) == null) {
+            missCount++;
+            return null;
+        }
+        File file = fileFor(key);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Unknown cache format");
+            }
+            long seed = in.readLong();
+            byte[] image = new byte[in.readInt()];
+            in.readFully(image);
+            file.setLastModified(System.currentTimeMillis());
+            hitCount++;
+            return new GenerateResult(new String(image, StandardCharsets.UTF_8), seed);
+        } catch (IOException e) {
+            // Corrupt or removed behind our back; treat as a miss
+            remove(key);
+            missCount++;
+            return null;
+        }
+    }
+
+    /**
+     * Store a result, evicting older entries to stay within the budget.
+     * Failures are ignored; the cache is only an optimization.
+     * @param key The key from {@link #computeKey}
+     * @param result The result to store
+     */
+    public synchronized void put(String key, GenerateResult result) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return;
+        }
+        byte[] image = result.getGeneratedImage().getBytes(StandardCharsets.UTF_8);
+        File file = fileFor(key);
+        File temp = new File(directory, key + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(result.getSeed());
+            out.writeInt(image.length);
+            out.write(image);
+        } catch (IOException e) {
+            temp.delete();
+            return;
+        }
+        // Rename so a crash never leaves a truncated entry under its real name
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            return;
+        }
+        Long previous = entries.put(key, file.length());
+        sizeBytes += file.length() - (previous != null ? previous : 0);
+        trimToSize();
+    }
+
+    /**
+     * Change the byte budget, evicting entries if it shrank.
+     * @param maxBytes The new budget
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trimToSize();
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Delete every entry. The counters are kept.
+     */
+    public synchronized void clear() {
+        for (String key : entries.keySet()) {
+            fileFor(key).delete();
+        }
+        entries.clear();
+        sizeBytes = 0;
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (sizeBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            fileFor(eldest.getKey()).delete();
+            sizeBytes -= eldest.getValue();
+            it.remove();
+        }
+    }
+
+    private void remove(String key) {
+        Long size = entries.remove(key);
+        if (size != null) {
+            sizeBytes -= size;
+        }
+        fileFor(key).delete();
+    }
+
+    private void load() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        // Oldest access first, so the LinkedHashMap order matches LRU order
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(SUFFIX)) {
+                entries.put(name.substring(0, name.length() - SUFFIX.length()), file.length());
+                sizeBytes += file.length();
+            } else if (name.endsWith(".tmp")) {
+                file.delete();
+            }
+        }
+        trimToSize();
+    }
+
+    private File fileFor(String key) {
+        return new File(directory, key + SUFFIX);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 unavailable", e);
+        }
+    }
+
+    private static class DiscardOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.magicquill.network;
+
+/**
+ * Server configuration exposed by {@code /magic_quill/config}.
+ */
+public class ServerConfig {
+
+    private final int resolution;
+    private final boolean autoSave;
+
+    public ServerConfig(int resolution, boolean autoSave) {
+        this.resolution = resolution;
+        this.autoSave = autoSave;
+    }
+
+    /**
+     * Get the resolution the server resizes the smaller image side to.
+     * @return The resolution in pixels (256-2048)
+     */
+    public int getResolution() {
+        return resolution;
+    }
+
+    public boolean isAutoSave() {
+        return autoSave;
+    }
+}
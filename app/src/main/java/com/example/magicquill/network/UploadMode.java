@@ -0,0 +1,9 @@
+package com.example.magicquill.network;
+
+/**
+ * How layers are sent to {@code /magic_quill/generate}.
+ */
+public enum UploadMode {
+    FULL,   // Every layer is sent as a base64 PNG (the documented protocol)
+    DELTA   // Layers the server already holds for this session are sent as hash references
+}
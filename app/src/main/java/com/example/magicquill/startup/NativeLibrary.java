@@ -0,0 +1,101 @@
+package com.example.magicquill.startup;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Loads a native library once, on a background thread, instead of in a
+ * static initializer on the startup path. Callers that can do without the
+ * library check {@link #isLoaded()} and fall back until it is; callers that
+ * need it wait on {@link #ready()}.
+ */
+public final class NativeLibrary {
+
+    public interface Loader {
+        void load(String name);
+    }
+
+    private static NativeLibrary magicQuill;
+
+    private final String name;
+    private final Loader loader;
+    private final StartupTrace trace;
+    private final FutureTask<Boolean> task = new FutureTask<>(this::loadNow);
+    private final AtomicBoolean started = new AtomicBoolean();
+    private volatile boolean loaded;
+
+    NativeLibrary(String name, Loader loader, StartupTrace trace) {
+        this.name = name;
+        this.loader = loader;
+        this.trace = trace;
+    }
+
+    /**
+     * Get the app's own library, libmagicquill.
+     */
+    public static synchronized NativeLibrary magicQuill() {
+        if (magicQuill == null) {
+            magicQuill = new NativeLibrary("magicquill", System::loadLibrary, StartupTrace.get());
+        }
+        return magicQuill;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Start loading the library on a background thread, unless that has
+     * already started.
+     * @return A future that completes with true once the library is loaded,
+     *         or false if it cannot be loaded here
+     */
+    public Future<Boolean> ready() {
+        if (started.compareAndSet(false, true)) {
+            Thread thread = new Thread(task, "native-load-" + name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return task;
+    }
+
+    /**
+     * Check whether the library is loaded, without waiting for it.
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Wait until the library is loaded. Loads it on the calling thread if
+     * nothing has started loading it yet.
+     * @return False if the library cannot be loaded here
+     * @throws InterruptedException If the calling thread is interrupted while waiting
+     */
+    public boolean await() throws InterruptedException {
+        if (started.compareAndSet(false, true)) {
+            task.run();
+        }
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            return false;
+        }
+    }
+
+    private boolean loadNow() {
+        trace.begin(StartupTrace.Phase.NATIVE_LOAD);
+        try {
+            loader.load(name);
+            loaded = true;
+        } catch (UnsatisfiedLinkError | SecurityException e) {
+            // Plain JVM (unit tests) or a device without the library
+            loaded = false;
+        } finally {
+            trace.end(StartupTrace.Phase.NATIVE_LOAD);
+        }
+        return loaded;
+    }
+}
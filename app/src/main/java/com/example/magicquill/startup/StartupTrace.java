@@ -0,0 +1,191 @@
+package com.example.magicquill.startup;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Cold-start timings, split into phases. Each phase is recorded once per
+ * process: a phase that has begun is not restarted, and one that has ended
+ * keeps its first end, so a recreated activity or a second canvas view does
+ * not overwrite the cold start.
+ * <p>
+ * Times are {@link Clock} nanoseconds; offsets are measured from the first
+ * phase that began.
+ */
+public class StartupTrace {
+
+    public enum Phase {
+        /** MainActivity.onCreate, from its first line to its last. */
+        ACTIVITY_CREATE("startup:activity_create"),
+        /** Finding the NavHostFragment and its NavController. */
+        NAV_HOST_SETUP("startup:nav_host_setup"),
+        /** Building BottomNavigationBar and binding it to the NavController. */
+        BOTTOM_NAV_WIRING("startup:bottom_nav_wiring"),
+        /** From creating the canvas view to its first drawn frame. */
+        FIRST_CANVAS_FRAME("startup:first_canvas_frame"),
+        /** Loading the native library, off the main thread. */
+        NATIVE_LOAD("startup:native_load");
+
+        private final String sectionName;
+
+        Phase(String sectionName) {
+            this.sectionName = sectionName;
+        }
+
+        /**
+         * Get the name of the phase in system traces.
+         */
+        public String getSectionName() {
+            return sectionName;
+        }
+    }
+
+    public interface Clock {
+        long nanoTime();
+    }
+
+    /**
+     * Receives phases as they are recorded, e.g. to mirror them into the
+     * system trace. Called on the thread that recorded the phase.
+     */
+    public interface Listener {
+        void onPhaseBegin(Phase phase);
+
+        void onPhaseEnd(Phase phase, long durationNanos);
+    }
+
+    private static StartupTrace instance;
+
+    private final Clock clock;
+    private final Map<Phase, Long> begins = new EnumMap<>(Phase.class);
+    private final Map<Phase, Long> ends = new EnumMap<>(Phase.class);
+    private long origin;
+    private Listener listener;
+
+    public StartupTrace(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Get the process-wide trace.
+     */
+    public static synchronized StartupTrace get() {
+        if (instance == null) {
+            instance = new StartupTrace(System::nanoTime);
+        }
+        return instance;
+    }
+
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Begin a phase. Does nothing if it already began.
+     * @param phase The phase
+     */
+    public void begin(Phase phase) {
+        Listener notify;
+        synchronized (this) {
+            if (begins.containsKey(phase)) {
+                return;
+            }
+            long now = clock.nanoTime();
+            if (begins.isEmpty()) {
+                origin = now;
+            }
+            begins.put(phase, now);
+            notify = listener;
+        }
+        if (notify != null) {
+            notify.onPhaseBegin(phase);
+        }
+    }
+
+    /**
+     * End a phase. Does nothing if it has not begun or already ended.
+     * @param phase The phase
+     */
+    public void end(Phase phase) {
+        Listener notify;
+        long duration;
+        synchronized (this) {
+            Long begin = begins.get(phase);
+            if (begin == null || ends.containsKey(phase)) {
+                return;
+            }
+            long now = clock.nanoTime();
+            ends.put(phase, now);
+            duration = now - begin;
+            notify = listener;
+        }
+        if (notify != null) {
+            notify.onPhaseEnd(phase, duration);
+        }
+    }
+
+    public synchronized boolean hasEnded(Phase phase) {
+        return ends.containsKey(phase);
+    }
+
+    /**
+     * Check whether every phase has ended.
+     */
+    public synchronized boolean isComplete() {
+        return ends.size() == Phase.values().length;
+    }
+
+    /**
+     * Get how long a phase took.
+     * @param phase The phase
+     * @return Duration in nanoseconds, or -1 if it has not ended
+     */
+    public synchronized long getDurationNanos(Phase phase) {
+        Long end = ends.get(phase);
+        return end != null ? end - begins.get(phase) : -1;
+    }
+
+    /**
+     * Get when a phase began, relative to the start of the trace.
+     * @param phase The phase
+     * @return Offset in nanoseconds, or -1 if it has not begun
+     */
+    public synchronized long getBeginOffsetNanos(Phase phase) {
+        Long begin = begins.get(phase);
+        return begin != null ? begin - origin : -1;
+    }
+
+    /**
+     * Get when a phase ended, relative to the start of the trace. For
+     * FIRST_CANVAS_FRAME this is the time to the first canvas frame.
+     * @param phase The phase
+     * @return Offset in nanoseconds, or -1 if it has not ended
+     */
+    public synchronized long getEndOffsetNanos(Phase phase) {
+        Long end = ends.get(phase);
+        return end != null ? end - origin : -1;
+    }
+
+    /**
+     * Get the durations of all ended phases, in phase order.
+     */
+    public synchronized Map<Phase, Long> getDurationsNanos() {
+        Map<Phase, Long> durations = new EnumMap<>(Phase.class);
+        for (Map.Entry<Phase, Long> entry : ends.entrySet()) {
+            durations.put(entry.getKey(), entry.getValue() - begins.get(entry.getKey()));
+        }
+        return durations;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder out = new StringBuilder("StartupTrace{");
+        String separator = "";
+        for (Map.Entry<Phase, Long> entry : getDurationsNanos().entrySet()) {
+            out.append(separator).append(entry.getKey().getSectionName()).append('=')
+                    .append(entry.getValue() / 1000000f).append("ms");
+            separator = ", ";
+        }
+        return out.append('}').toString();
+    }
+}
@@ -3,10 +3,17 @@ package com.example.magicquill.ui;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+import android.widget.CheckBox;
+import android.widget.EditText;
+import android.widget.LinearLayout;
+import android.widget.SeekBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -15,12 +22,22 @@ import androidx.activity.result.contract.ActivityResultContracts;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.appcompat.app.AlertDialog;
 import androidx.fragment.app.Fragment;
+import androidx.lifecycle.ViewModelProvider;
 
-import com.example.magicquill.MainActivity;
 import com.example.magicquill.R;
+import com.example.magicquill.data.GenerationParams;
+import com.example.magicquill.data.GenerationQuality;
+import com.example.magicquill.data.layer.GrownMaskLayer;
+import com.example.magicquill.data.layer.LayerStore;
+import com.example.magicquill.data.layer.LayerType;
+import com.example.magicquill.data.layer.WorkingResolution;
+import com.example.magicquill.startup.StartupTrace;
 import com.example.magicquill.ui.controller.ToolController;
 import com.example.magicquill.ui.model.ToolModel;
+import com.example.magicquill.ui.model.ToolSpec;
+import com.example.magicquill.ui.view.LayerCanvasView;
 import com.example.magicquill.ui.view.SideToolBar;
 import com.example.magicquill.ui.view.ToolButton;
 
@@ -34,6 +51,52 @@ public class CanvasFragment extends Fragment {
     private ToolModel model;
     private SideToolBar view;
     private ToolController controller;
+    private ToolModel.ToolType drawingTool = ToolModel.ToolType.NONE;
+    private boolean returningFromUndo;
+    
+    // Layers, undo log and generation outlive the view in the session
+    private CanvasSession session;
+    private LayerCanvasView canvasView;
+    private TextView statusText;
+    
+    // Generation, imports and spills run in the session; the view shows their progress
+    private final CanvasSession.Listener sessionObserver = new CanvasSession.Listener() {
+        @Override
+        public void onGenerationProgress(float progress) {
+            if (model != null) {
+                model.setProgress(progress);
+            }
+        }
+
+        @Override
+        public void onGenerationFailed(String message) {
+            Toast.makeText(getContext(), message, Toast.LENGTH_SHORT).show();
+        }
+
+        @Override
+        public void onCanvasRestored() {
+            if (canvasView != null && canvasView.getWidth() > 0) {
+                showCanvas(canvasView.getWidth(), canvasView.getHeight());
+            }
+        }
+
+        @Override
+        public void onImportProgress(float progress) {
+            showImportProgress(progress);
+        }
+
+        @Override
+        public void onImageImported() {
+            if (canvasView != null) {
+                canvasView.setLayerStore(session.getLayerStore());
+            }
+        }
+
+        @Override
+        public void onImportFailed(String message) {
+            Toast.makeText(getContext(), message, Toast.LENGTH_SHORT).show();
+        }
+    };
     
     private static final String TAG = "CanvasFragment";
     
@@ -42,30 +105,31 @@ public class CanvasFragment extends Fragment {
 
     public CanvasFragment() {}
 
+    @Override
+    public void onCreate(@Nullable Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        session = new ViewModelProvider(this).get(CanvasSession.class);
+    }
+
     @Nullable
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState) {
+        StartupTrace.get().begin(StartupTrace.Phase.FIRST_CANVAS_FRAME);
         View root = inflater.inflate(R.layout.fragment_canvas, container, false);
-        TextView tv = root.findViewById(R.id.canvas_text);
-
-        String text = "(native text unavailable)";
-        if (getActivity() instanceof MainActivity) {
-            try {
-                MainActivity ma = (MainActivity) getActivity();
-                text = ma.stringFromJNI();
-            } catch (UnsatisfiedLinkError e) {
-                // leave fallback text
-            }
-        }
-
-        tv.setText(text);
+        statusText = root.findViewById(R.id.status_text);
         
         // Initialize image picker launcher
         initializeImagePicker();
         
+        // Initialize layer canvas
+        initializeCanvas(root);
+        
         // Initialize MVC components
         initializeMVC(root);
         
+        // Initialize generate action
+        initializeGeneration(root);
+        
         return root;
     }
     
@@ -73,6 +137,10 @@ public class CanvasFragment extends Fragment {
      * Initialize the image picker launcher.
      */
     private void initializeImagePicker() {
+        // An import may still be running from before the view was recreated
+        if (session.getImportProgress() != ToolModel.PROGRESS_NONE) {
+            showImportProgress(session.getImportProgress());
+        }
         imagePickerLauncher = registerForActivityResult(
             new ActivityResultContracts.StartActivityForResult(),
             result -> {
@@ -87,12 +155,27 @@ public class CanvasFragment extends Fragment {
     }
     
     /**
-     * Handle selected image.
+     * Handle selected image. The session imports it in the background and
+     * switches the canvas to it once its working copy is ready, even if the
+     * view is gone by then.
      */
     private void handleImageSelected(Uri imageUri) {
         Log.d(TAG, "Image selected: " + imageUri.toString());
-        Toast.makeText(getContext(), "Image selected: " + imageUri.toString(), Toast.LENGTH_SHORT).show();
-        // TODO: Process the selected image
+        session.importImage(imageUri);
+    }
+    
+    /**
+     * Show image import progress from the session.
+     */
+    private void showImportProgress(float progress) {
+        if (statusText == null) {
+            return;
+        }
+        if (progress == ToolModel.PROGRESS_NONE) {
+            statusText.setText("");
+        } else {
+            statusText.setText("Importing image... " + Math.round(progress * 100) + "%");
+        }
     }
     
     /**
@@ -113,12 +196,190 @@ public class CanvasFragment extends Fragment {
         }
     }
     
+    /**
+     * End the first-canvas-frame startup phase when the canvas first draws.
+     * Later views of the fragment find the phase ended and skip this.
+     */
+    private static void traceFirstFrame(View canvas) {
+        if (StartupTrace.get().hasEnded(StartupTrace.Phase.FIRST_CANVAS_FRAME)) {
+            return;
+        }
+        ViewTreeObserver observer = canvas.getViewTreeObserver();
+        observer.addOnDrawListener(new ViewTreeObserver.OnDrawListener() {
+            @Override
+            public void onDraw() {
+                StartupTrace.get().end(StartupTrace.Phase.FIRST_CANVAS_FRAME);
+                // Listeners cannot be removed while the tree is dispatching them
+                ViewTreeObserver.OnDrawListener self = this;
+                canvas.post(() -> {
+                    if (canvas.getViewTreeObserver().isAlive()) {
+                        canvas.getViewTreeObserver().removeOnDrawListener(self);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Initialize the layer canvas. Once the view has been measured the
+     * session opens the autosaved canvas, or a blank one matching the view size.
+     */
+    private void initializeCanvas(View root) {
+        canvasView = root.findViewById(R.id.layer_canvas);
+        if (canvasView == null) {
+            Log.e(TAG, "LayerCanvasView not found in layout!");
+            return;
+        }
+        canvasView.setInkOverlay(root.findViewById(R.id.ink_overlay));
+        traceFirstFrame(canvasView);
+        canvasView.setCanvasViewListener(this::showCanvas);
+    }
+
+    /**
+     * Show the session's canvas, opening it first if there is none yet.
+     * While spilled tiles are being read back the canvas stays empty, so
+     * nothing draws or strokes on missing tiles; the session calls back
+     * once they are in.
+     * @param width Width of the canvas view
+     * @param height Height of the canvas view
+     */
+    private void showCanvas(int width, int height) {
+        if (session.isSpilled()) {
+            return;
+        }
+        LayerStore layerStore = session.getLayerStore();
+        if (layerStore == null) {
+            // Work at a capped resolution; strokes and redraws never touch more pixels than this
+            int[] size = WorkingResolution.fitLongEdge(width, height, WorkingResolution.DEFAULT_MAX_LONG_EDGE);
+            session.openCanvas(size[0], size[1]);
+            layerStore = session.getLayerStore();
+        }
+        if (canvasView.getLayerStore() != layerStore) {
+            canvasView.setLayerStore(layerStore);
+        }
+    }
+    
+    /**
+     * Initialize the generate button and listen to the session. Its events
+     * are delivered on the main thread.
+     */
+    private void initializeGeneration(View root) {
+        session.attach(sessionObserver);
+        View generateButton = root.findViewById(R.id.generate_button);
+        if (generateButton != null) {
+            generateButton.setOnClickListener(v -> promptForGeneration());
+        }
+    }
+    
+    /**
+     * Ask for a prompt, then start generation.
+     */
+    private void promptForGeneration() {
+        LayerStore layerStore = session.getLayerStore();
+        if (layerStore == null) {
+            return;
+        }
+        WorkingResolution workingResolution = session.getWorkingResolution();
+        GenerationParams generationParams = session.getGenerationParams();
+        LinearLayout form = new LinearLayout(requireContext());
+        form.setOrientation(LinearLayout.VERTICAL);
+        EditText input = new EditText(requireContext());
+        input.setHint("Describe the edit");
+        form.addView(input);
+        // Only offer full quality when it would send more pixels than the preview
+        CheckBox fullQuality = new CheckBox(requireContext());
+        fullQuality.setText("Full quality (slower)");
+        fullQuality.setChecked(session.getGenerationQuality() == GenerationQuality.FULL);
+        if (workingResolution != null && workingResolution.isDownscaled()) {
+            form.addView(fullQuality);
+        }
+
+        // Show what grow_size lets the server change while the slider moves
+        GrownMaskLayer grown = new GrownMaskLayer(layerStore.getLayer(LayerType.TOTAL_MASK),
+                LayerType.TOTAL_MASK.getDefaultBrushColor());
+        TextView growLabel = new TextView(requireContext());
+        SeekBar growSlider = new SeekBar(requireContext());
+        growSlider.setMax(GrownMaskLayer.MAX_GROW_SIZE);
+        growSlider.setProgress(generationParams.getGrowSize());
+        growSlider.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                updateGrowPreview(grown, growLabel, progress, fullQuality.isChecked());
+            }
+
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) {
+            }
+
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {
+            }
+        });
+        fullQuality.setOnCheckedChangeListener((button, checked) ->
+                updateGrowPreview(grown, growLabel, growSlider.getProgress(), checked));
+        form.addView(growLabel);
+        form.addView(growSlider);
+        updateGrowPreview(grown, growLabel, generationParams.getGrowSize(), fullQuality.isChecked());
+        if (canvasView != null) {
+            canvasView.setGrowPreview(grown);
+        }
+
+        new AlertDialog.Builder(requireContext())
+            .setTitle("Generate")
+            .setView(form)
+            .setPositiveButton("Generate", (dialog, which) -> {
+                session.setGenerationQuality(fullQuality.isChecked() ? GenerationQuality.FULL : GenerationQuality.PREVIEW);
+                generationParams.setGrowSize(growSlider.getProgress());
+                session.startGeneration(input.getText().toString());
+            })
+            .setNegativeButton(android.R.string.cancel, null)
+            .setOnDismissListener(dialog -> {
+                if (canvasView != null) {
+                    canvasView.setGrowPreview(null);
+                }
+            })
+            .show();
+    }
+
+    /**
+     * Show a grow size on the slider label and the canvas preview.
+     * The server grows the mask of the image it receives, so at full quality
+     * the radius shrinks by the working resolution's downscale.
+     */
+    private void updateGrowPreview(GrownMaskLayer grown, TextView label, int growSize, boolean fullQuality) {
+        label.setText("Grow size: " + growSize + " px");
+        grown.setGrowSize(session.getWorkingGrowRadius(growSize, fullQuality));
+        if (canvasView != null) {
+            canvasView.invalidate();
+        }
+    }
+
+    /**
+     * Show background work progress from the model.
+     */
+    private void showProgress(float progress) {
+        if (statusText == null) {
+            return;
+        }
+        if (progress == ToolModel.PROGRESS_NONE) {
+            statusText.setText("");
+        } else {
+            statusText.setText("Generating... " + Math.round(progress * 100) + "%");
+        }
+    }
+    
     /**
      * Initialize Model-View-Controller architecture.
      */
     private void initializeMVC(View root) {
         // 1. Create Model
         model = new ToolModel();
+        // Drag positions and writes posted by worker threads are applied in
+        // batches on the main thread
+        model.setUiExecutor(new Handler(Looper.getMainLooper())::post);
+        model.getProgressEvents().attach(this::showProgress);
+        // A request may still be out from before the view was recreated
+        model.setProgress(session.getGenerationProgress());
         
         // 2. Get View
         view = root.findViewById(R.id.side_tool_bar);
@@ -142,6 +403,15 @@ public class CanvasFragment extends Fragment {
                 });
             }
             
+            // Long-press on undo redoes
+            ToolButton undoButton = view.getToolButton(ToolModel.ToolType.UNDO);
+            if (undoButton != null) {
+                undoButton.setOnLongClickListener(v -> {
+                    redoStroke();
+                    return true;
+                });
+            }
+            
             Log.d(TAG, "SideToolBar initialized and set to visible");
         } else {
             Log.e(TAG, "SideToolBar not found in layout!");
@@ -171,35 +441,48 @@ public class CanvasFragment extends Fragment {
      * Handle tool change from controller.
      */
     private void handleToolChanged(ToolModel.ToolType tool) {
-        String toolName = getToolName(tool);
+        if (tool == ToolModel.ToolType.UNDO) {
+            undoStroke();
+            return;
+        }
+        drawingTool = tool;
+        ToolSpec spec = controller.getToolSpec(tool);
+        String toolName = spec != null ? spec.getLabel() : "Unknown";
         Log.d(TAG, "Tool changed: " + toolName);
-        Toast.makeText(getContext(), "Selected: " + toolName, Toast.LENGTH_SHORT).show();
+        if (!returningFromUndo) {
+            Toast.makeText(getContext(), "Selected: " + toolName, Toast.LENGTH_SHORT).show();
+        }
         
-        // TODO: Implement actual tool functionality here
-        // This is where you would update the canvas drawing mode, etc.
+        // Route touches on the canvas to the layer this tool writes to, with its brush
+        if (canvasView != null) {
+            LayerType layer = spec != null ? spec.getLayer() : null;
+            canvasView.setActiveLayer(layer);
+            canvasView.setLowLatencyInk(spec != null && spec.usesLowLatencyInk());
+            if (layer != null) {
+                canvasView.setBrushColor(spec.getBrushColor());
+                canvasView.setBrushRadius(spec.getBrushRadius());
+            }
+        }
     }
     
     /**
-     * Get human-readable tool name.
+     * Undo the last stroke. Undo is an action rather than a mode, so the
+     * previous tool is selected again and undo can be tapped repeatedly.
      */
-    private String getToolName(ToolModel.ToolType tool) {
-        switch (tool) {
-            case ADD_EDGE:
-                return "Add Edge";
-            case REMOVE_EDGE:
-                return "Remove Edge";
-            case COLOR_BRUSH:
-                return "Color Brush";
-            case ERASER:
-                return "Eraser";
-            case SELECT:
-                return "Select";
-            case UNDO:
-                return "Undo";
-            case NONE:
-                return "None";
-            default:
-                return "Unknown";
+    private void undoStroke() {
+        LayerStore layerStore = session.getLayerStore();
+        if (layerStore == null || !layerStore.undo()) {
+            Toast.makeText(getContext(), "Nothing to undo", Toast.LENGTH_SHORT).show();
+        }
+        returningFromUndo = true;
+        model.setCurrentTool(drawingTool);
+        returningFromUndo = false;
+    }
+    
+    private void redoStroke() {
+        LayerStore layerStore = session.getLayerStore();
+        if (layerStore == null || !layerStore.redo()) {
+            Toast.makeText(getContext(), "Nothing to redo", Toast.LENGTH_SHORT).show();
         }
     }
     
@@ -220,7 +503,39 @@ public class CanvasFragment extends Fragment {
             controller.cleanup();
         }
         if (model != null) {
-            model.clearObservers();
+            model.clearListeners();
+        }
+        if (canvasView != null) {
+            canvasView.setLayerStore(null);
+            canvasView = null;
+        }
+        // Generation and imports carry on in the session; their results are applied there
+        session.detach(sessionObserver);
+        statusText = null;
+    }
+    
+    @Override
+    public void onStart() {
+        super.onStart();
+        // Bring spilled tiles back in the background; onCanvasRestored shows them
+        session.restore();
+        if (session.isSpilled() && canvasView != null) {
+            // Spilled after the view stopped; keep it off the tiles until they are back
+            canvasView.setLayerStore(null);
+        }
+    }
+    
+    @Override
+    public void onStop() {
+        super.onStop();
+        if (requireActivity().isChangingConfigurations()) {
+            // The session outlives the rotation and the canvas is back right away
+            return;
+        }
+        // Another tab or app is in front; give the heap back until the canvas returns
+        session.spill();
+        if (session.isSpilled() && canvasView != null) {
+            canvasView.setLayerStore(null);
         }
     }
 }
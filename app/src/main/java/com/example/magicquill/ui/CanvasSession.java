@@ -0,0 +1,703 @@
+package com.example.magicquill.ui;
+
+import android.app.Application;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Base64;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.AndroidViewModel;
+
+import com.example.magicquill.R;
+import com.example.magicquill.data.GenerationParams;
+import com.example.magicquill.data.GenerationQuality;
+import com.example.magicquill.data.image.ImageImporter;
+import com.example.magicquill.data.image.RawImageFile;
+import com.example.magicquill.data.layer.CropRegion;
+import com.example.magicquill.data.layer.DirtyRegion;
+import com.example.magicquill.data.layer.LayerStore;
+import com.example.magicquill.data.layer.LayerType;
+import com.example.magicquill.data.layer.ResultBlender;
+import com.example.magicquill.data.layer.SessionAutosave;
+import com.example.magicquill.data.layer.StrokeHistory;
+import com.example.magicquill.data.layer.TileSpill;
+import com.example.magicquill.data.layer.TiledLayer;
+import com.example.magicquill.data.layer.WorkingResolution;
+import com.example.magicquill.network.GenerateResult;
+import com.example.magicquill.network.GenerationClient;
+import com.example.magicquill.network.GenerationEvent;
+import com.example.magicquill.network.MagicQuillApi;
+import com.example.magicquill.network.RequestMode;
+import com.example.magicquill.network.ResultCache;
+import com.example.magicquill.network.UploadMode;
+import com.example.magicquill.ui.model.ToolModel;
+import com.example.magicquill.ui.observer.EventChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Everything the canvas owns that should outlive its view: the layer store
+ * with its undo log, the full-resolution original, the generation client
+ * and the settings of the last generate request. Switching bottom
+ * navigation tabs destroys CanvasFragment's view (and configuration
+ * changes the fragment); the session lives until the canvas leaves the
+ * back stack for good.
+ * <p>
+ * Generate requests and image imports belong to the session too: a result
+ * or an imported image that arrives while the view is gone still goes into
+ * the canvas, and the next view shows it.
+ * <p>
+ * While the canvas is not visible its tiles can be spilled to a file so
+ * the heap is free for the other screens. They are read back unchanged, in
+ * the background, on return; the store is not handed out until they are.
+ * <p>
+ * The layers are also autosaved to app-private storage a moment after each
+ * change, so a canvas killed with the process comes back on the next start.
+ */
+public class CanvasSession extends AndroidViewModel {
+
+    /**
+     * Observer of the session's background work, for the view to show.
+     * Called on the main thread.
+     */
+    public interface Listener {
+        /**
+         * @param progress Progress of the active generate request in [0, 1],
+         *                 or {@link ToolModel#PROGRESS_NONE} once it is over
+         */
+        void onGenerationProgress(float progress);
+
+        /**
+         * The active generate request failed, or its image could not be used.
+         */
+        void onGenerationFailed(String message);
+
+        /**
+         * Spilled tiles are back on the heap and {@link #getLayerStore()}
+         * returns the store again; null if they could not be read and a
+         * canvas has to be opened again.
+         */
+        void onCanvasRestored();
+
+        /**
+         * @param progress Progress of the image import in [0, 1], or
+         *                 {@link ToolModel#PROGRESS_NONE} once it is over
+         */
+        void onImportProgress(float progress);
+
+        /**
+         * An imported image replaced the canvas; {@link #getLayerStore()}
+         * returns its store.
+         */
+        void onImageImported();
+
+        /**
+         * The picked image could not be imported; the canvas is unchanged.
+         */
+        void onImportFailed(String message);
+    }
+
+    private static final String TAG = "CanvasSession";
+    private static final String RESULT_CACHE_DIR = "generate_results";
+    private static final long RESULT_CACHE_BYTES = 64L * 1024 * 1024;
+    private static final String SPILL_FILE = "canvas_spill.bin";
+    private static final String SESSION_DIR = "session";
+    private static final String ORIGINALS_DIR = "originals";
+    private static final long AUTOSAVE_DELAY_MS = 1000;
+
+    private LayerStore layerStore;
+    private WorkingResolution workingResolution;
+    private TileSpill spill;
+    // Set from spill() until the tiles are back; the store is off limits meanwhile
+    private Future<?> pendingSpill;
+    private boolean restoring;
+    // The canvas was hidden during a generate request or a restore; spill once it is over
+    private boolean spillDeferred;
+    private SessionAutosave autosave;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable autosaveTask = this::flushAutosave;
+    private final LayerStore.ChangeListener autosaveTrigger = region -> {
+        // Strokes report every segment; save once they pause
+        mainHandler.removeCallbacks(autosaveTask);
+        mainHandler.postDelayed(autosaveTask, AUTOSAVE_DELAY_MS);
+    };
+
+    private GenerationClient generationClient;
+    private final GenerationParams generationParams = new GenerationParams();
+    private GenerationQuality generationQuality = GenerationQuality.PREVIEW;
+    // Decodes and blends generated images; spills and restores run on it
+    // too, so they never overlap a blend reading the store
+    private final ExecutorService decodeExecutor = Executors.newSingleThreadExecutor();
+    private final ResultBlender resultBlender = new ResultBlender();
+    private final EventChannel<Listener> events = new EventChannel<>(Listener.class);
+    private ImageImporter imageImporter;
+    private float importProgress = ToolModel.PROGRESS_NONE;
+
+    // The generate request whose result goes into the canvas, -1 for none
+    private long activeRequestId = -1;
+    // Its grow_size in working canvas pixels
+    private int activeGrowRadius;
+    // The working total_mask it was sent with, frozen at submit time
+    private TiledLayer activeMask;
+    private float generationProgress = ToolModel.PROGRESS_NONE;
+
+    public CanvasSession(@NonNull Application application) {
+        super(application);
+    }
+
+    /**
+     * Get the layer store.
+     * @return The store, or null before the canvas has been measured and
+     *         while its tiles are spilled
+     */
+    public LayerStore getLayerStore() {
+        return pendingSpill == null ? layerStore : null;
+    }
+
+    /**
+     * Check whether the tiles are spilled or being read back. The store
+     * comes back through {@link Listener#onCanvasRestored}.
+     */
+    public boolean isSpilled() {
+        return pendingSpill != null;
+    }
+
+    public void attach(Listener listener) {
+        events.attach(listener);
+    }
+
+    public void detach(Listener listener) {
+        events.detach(listener);
+    }
+
+    public WorkingResolution getWorkingResolution() {
+        return workingResolution;
+    }
+
+    /**
+     * Open the canvas, unless one is open already: the autosaved session if
+     * there is one, otherwise a blank canvas.
+     * @param width Working width of a blank canvas
+     * @param height Working height of a blank canvas
+     */
+    public void openCanvas(int width, int height) {
+        if (layerStore != null) {
+            return;
+        }
+        File dir = new File(getApplication().getFilesDir(), SESSION_DIR);
+        try {
+            SessionAutosave resumed = SessionAutosave.resume(dir);
+            if (resumed != null) {
+                workingResolution = new WorkingResolution(resumed.getStore(), null);
+                layerStore = resumed.getStore();
+                configureHistory(layerStore);
+                autosave = resumed;
+                layerStore.attach(autosaveTrigger);
+                return;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not resume the saved canvas", e);
+            SessionAutosave.delete(dir);
+        }
+        install(new WorkingResolution(new LayerStore(width, height), null));
+    }
+
+    /**
+     * Replace the canvas with an imported image. Pending generation and any
+     * spill belong to the previous image and are dropped.
+     */
+    public void install(WorkingResolution resolution) {
+        spillDeferred = false;
+        if (generationClient != null) {
+            generationClient.cancelAll();
+        }
+        finishGeneration();
+        dropSpill();
+        closeAutosave();
+        releaseOriginal();
+        workingResolution = resolution;
+        layerStore = resolution.getWorkingStore();
+        configureHistory(layerStore);
+        try {
+            autosave = SessionAutosave.create(layerStore, new File(getApplication().getFilesDir(), SESSION_DIR));
+            layerStore.attach(autosaveTrigger);
+            autosave.flush();
+        } catch (IOException e) {
+            Log.w(TAG, "Canvas will not be autosaved", e);
+        }
+    }
+
+    /**
+     * Import a picked image in the background, replacing an import still in
+     * progress. Once its working copy is ready it replaces the canvas through
+     * {@link #install}, and listeners get {@link Listener#onImageImported}.
+     * @param uri The picked image
+     */
+    public void importImage(Uri uri) {
+        if (imageImporter == null) {
+            Application app = getApplication();
+            imageImporter = new ImageImporter(app.getContentResolver(), new File(app.getFilesDir(), ORIGINALS_DIR),
+                    mainHandler::post);
+        }
+        setImportProgress(0f);
+        imageImporter.importImage(uri, WorkingResolution.DEFAULT_MAX_LONG_EDGE, new ImageImporter.ImportListener() {
+            @Override
+            public void onProgress(float fraction) {
+                setImportProgress(fraction);
+            }
+
+            @Override
+            public void onImported(WorkingResolution resolution) {
+                setImportProgress(ToolModel.PROGRESS_NONE);
+                install(resolution);
+                for (Listener listener : events.listeners()) {
+                    listener.onImageImported();
+                }
+            }
+
+            @Override
+            public void onImportFailed(Exception error) {
+                Log.e(TAG, "Image import failed", error);
+                setImportProgress(ToolModel.PROGRESS_NONE);
+                for (Listener listener : events.listeners()) {
+                    listener.onImportFailed("Could not open image: " + error.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Get the progress of the image import, for a new view.
+     * @return Progress in [0, 1], or {@link ToolModel#PROGRESS_NONE}
+     */
+    public float getImportProgress() {
+        return importProgress;
+    }
+
+    private void setImportProgress(float progress) {
+        importProgress = progress;
+        for (Listener listener : events.listeners()) {
+            listener.onImportProgress(progress);
+        }
+    }
+
+    /**
+     * Apply the configured undo memory budget to a new layer store.
+     */
+    private void configureHistory(LayerStore store) {
+        StrokeHistory history = store.getHistory();
+        if (history != null) {
+            history.setBudgetBytes(getApplication().getResources()
+                    .getInteger(R.integer.magic_quill_undo_budget_mb) * 1024L * 1024L);
+        }
+    }
+
+    /**
+     * Write the changes since the last autosave in the background. Skipped
+     * while the tiles are spilled; nothing can change then.
+     */
+    private void flushAutosave() {
+        mainHandler.removeCallbacks(autosaveTask);
+        if (autosave != null && pendingSpill == null) {
+            autosave.flush();
+        }
+    }
+
+    private void closeAutosave() {
+        if (autosave == null) {
+            return;
+        }
+        flushAutosave();
+        autosave.getStore().detach(autosaveTrigger);
+        try {
+            autosave.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Error closing the autosaved canvas", e);
+        }
+        autosave = null;
+    }
+
+    /**
+     * Get the generation client, creating it on first use. Events are
+     * delivered on the main thread.
+     */
+    public GenerationClient getGenerationClient() {
+        if (generationClient == null) {
+            Application app = getApplication();
+            MagicQuillApi api = new MagicQuillApi(app.getString(R.string.magic_quill_server_url));
+            api.setResultCache(new ResultCache(new File(app.getCacheDir(), RESULT_CACHE_DIR), RESULT_CACHE_BYTES));
+            if (app.getResources().getBoolean(R.bool.magic_quill_delta_upload)) {
+                api.setUploadMode(UploadMode.DELTA);
+            }
+            if (app.getResources().getBoolean(R.bool.magic_quill_cropped_generate)) {
+                api.setRequestMode(RequestMode.CROPPED);
+            }
+            generationClient = new GenerationClient(api, mainHandler::post);
+            generationClient.attach(this::handleGenerationEvent);
+        }
+        return generationClient;
+    }
+
+    /**
+     * Queue a generate request for the canvas. A request still waiting to
+     * start is replaced, so only the latest prompt is sent. Uses the
+     * session's generation parameters and quality.
+     * @param prompt The prompt
+     * @return The request id, or -1 while the canvas is not open
+     */
+    public long startGeneration(String prompt) {
+        LayerStore store = getLayerStore();
+        if (store == null) {
+            return -1;
+        }
+        // Workers encode a frozen copy while strokes go on into the live tiles
+        LayerStore sent = workingResolution != null ? workingResolution.snapshot(generationQuality)
+                : store.snapshot();
+        activeRequestId = getGenerationClient().submitGenerate(sent, prompt, generationParams);
+        activeGrowRadius = getWorkingGrowRadius(generationParams.getGrowSize(), generationQuality == GenerationQuality.FULL);
+        // Unchanged layers snapshot to the same copy, so this is the working mask just sent
+        activeMask = store.snapshot().getLayer(LayerType.TOTAL_MASK);
+        return activeRequestId;
+    }
+
+    /**
+     * Get a grow size in working canvas pixels. The server grows the mask
+     * of the image it receives, so at full quality the radius shrinks by
+     * the working resolution's downscale.
+     */
+    public int getWorkingGrowRadius(int growSize, boolean fullQuality) {
+        if (fullQuality && workingResolution != null && workingResolution.isDownscaled()) {
+            return Math.round(growSize * workingResolution.getWorkingStore().getWidth()
+                    / (float) workingResolution.getFullWidth());
+        }
+        return growSize;
+    }
+
+    /**
+     * Get the progress of the active generate request, for a new view.
+     * @return Progress in [0, 1], or {@link ToolModel#PROGRESS_NONE}
+     */
+    public float getGenerationProgress() {
+        return generationProgress;
+    }
+
+    private void handleGenerationEvent(GenerationEvent event) {
+        if (event.getRequestId() != activeRequestId) {
+            return;
+        }
+        switch (event.getType()) {
+            case STARTED:
+                setGenerationProgress(0f);
+                break;
+            case SUCCEEDED:
+                // The server is done; decoding and applying are the remaining half
+                setGenerationProgress(0.5f);
+                blendGeneratedImage(event.getRequestId(), event.getResult());
+                break;
+            case FAILED:
+                Log.e(TAG, "Generation failed", event.getError());
+                finishGeneration();
+                for (Listener listener : events.listeners()) {
+                    listener.onGenerationFailed("Generation failed: " + event.getError().getMessage());
+                }
+                break;
+            case CANCELLED:
+                Log.d(TAG, "Generation cancelled");
+                finishGeneration();
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Decode the generated image and blend it over the original off the
+     * main thread, then write the blended tiles.
+     */
+    private void blendGeneratedImage(long requestId, GenerateResult result) {
+        LayerStore store = layerStore;
+        TiledLayer mask = activeMask;
+        int growRadius = activeGrowRadius;
+        decodeExecutor.execute(() -> {
+            Bitmap bitmap = decodeDataUri(result.getGeneratedImage());
+            ResultBlender.Blend blend = null;
+            if (bitmap != null) {
+                try {
+                    blend = blend(store, mask, bitmap, result.getRegion(), growRadius);
+                } catch (InterruptedException e) {
+                    // The session is going away
+                    return;
+                }
+            }
+            ResultBlender.Blend blended = blend;
+            mainHandler.post(() -> {
+                if (requestId == activeRequestId && store == layerStore) {
+                    finishGeneration();
+                    applyGeneratedImage(store, blended);
+                }
+            });
+        });
+    }
+
+    private static Bitmap decodeDataUri(String dataUri) {
+        int comma = dataUri.indexOf(',');
+        String base64 = dataUri.startsWith("data:image") && comma >= 0 ? dataUri.substring(comma + 1) : dataUri;
+        byte[] imageBytes = Base64.decode(base64, Base64.DEFAULT);
+        return BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length);
+    }
+
+    /**
+     * Blend a decoded generated image over the original layer. Only the
+     * pixels the mask can reach are taken from the bitmap.
+     * @param mask The working total_mask the request was sent with
+     * @param region Where a cropped result goes on the request's canvas, or null for the whole layer
+     * @return The blended tiles, to be applied on the main thread
+     */
+    private ResultBlender.Blend blend(LayerStore store, TiledLayer mask, Bitmap bitmap, CropRegion region,
+                                      int growRadius) throws InterruptedException {
+        // A full-quality region is in original pixels; map it onto the working canvas
+        CropRegion target = region != null ? region.scaleTo(store.getWidth(), store.getHeight())
+                : new CropRegion(store.getWidth(), store.getHeight(), 0, 0, store.getWidth(), store.getHeight());
+        if (bitmap.getWidth() != target.getWidth() || bitmap.getHeight() != target.getHeight()) {
+            Bitmap scaled = Bitmap.createScaledBitmap(bitmap, target.getWidth(), target.getHeight(), true);
+            bitmap.recycle();
+            bitmap = scaled;
+        }
+        try {
+            CropRegion area = ResultBlender.affectedArea(mask, target, growRadius, ResultBlender.DEFAULT_FEATHER);
+            if (area == null) {
+                return ResultBlender.unchanged(store);
+            }
+            int[] pixels = new int[area.getWidth() * area.getHeight()];
+            bitmap.getPixels(pixels, 0, area.getWidth(), area.getLeft() - target.getLeft(),
+                    area.getTop() - target.getTop(), area.getWidth(), area.getHeight());
+            return resultBlender.blend(store, mask, pixels, area, growRadius, ResultBlender.DEFAULT_FEATHER);
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * Write a blended generated image into the original layer. The result
+     * becomes the original for the next round; pixels outside the grown
+     * mask are left exactly as they were.
+     * @param blend The blended tiles, or null if the image could not be decoded
+     */
+    private void applyGeneratedImage(LayerStore store, ResultBlender.Blend blend) {
+        if (blend == null) {
+            for (Listener listener : events.listeners()) {
+                listener.onGenerationFailed("Could not decode generated image");
+            }
+            return;
+        }
+        DirtyRegion dirty = new DirtyRegion(LayerType.ORIGINAL_IMAGE);
+        if (!blend.apply(store, dirty)) {
+            // Only a new image or another result replaces the original meanwhile
+            Log.w(TAG, "Original changed since the request; generated image dropped");
+            for (Listener listener : events.listeners()) {
+                listener.onGenerationFailed("The image changed while generating; result not applied");
+            }
+            return;
+        }
+        if (!dirty.isEmpty()) {
+            store.notifyLayersChanged(dirty);
+        }
+    }
+
+    /**
+     * Forget the active request, then run a spill put off while it was out.
+     */
+    private void finishGeneration() {
+        activeRequestId = -1;
+        activeMask = null;
+        setGenerationProgress(ToolModel.PROGRESS_NONE);
+        if (spillDeferred) {
+            spillDeferred = false;
+            spill();
+        }
+    }
+
+    private void setGenerationProgress(float progress) {
+        generationProgress = progress;
+        for (Listener listener : events.listeners()) {
+            listener.onGenerationProgress(progress);
+        }
+    }
+
+    public GenerationParams getGenerationParams() {
+        return generationParams;
+    }
+
+    public GenerationQuality getGenerationQuality() {
+        return generationQuality;
+    }
+
+    public void setGenerationQuality(GenerationQuality quality) {
+        this.generationQuality = quality;
+    }
+
+    /**
+     * Move the canvas tiles to disk in the background. Call when the canvas
+     * is no longer visible; {@link #restore()} brings them back. Put off
+     * while a generate request is out: its snapshot shares the tiles, so
+     * spilling would free nothing, and its result still has to be written.
+     */
+    public void spill() {
+        if (activeRequestId != -1 || restoring) {
+            spillDeferred = true;
+            return;
+        }
+        if (layerStore == null || pendingSpill != null) {
+            return;
+        }
+        // Take the autosave snapshot while the tiles are still here
+        flushAutosave();
+        // Snapshots and cached encodings kept for reuse hold on to the tiles too
+        if (generationClient != null) {
+            generationClient.getApi().getSerializer().invalidate();
+        }
+        workingResolution.releaseSnapshots();
+        if (spill == null || spill.getStore() != layerStore) {
+            spill = new TileSpill(layerStore, new File(getApplication().getCacheDir(), SPILL_FILE));
+        }
+        TileSpill target = spill;
+        pendingSpill = decodeExecutor.submit(() -> {
+            try {
+                long bytes = target.spill();
+                Log.d(TAG, "Spilled " + bytes + " bytes of canvas tiles");
+            } catch (IOException e) {
+                // The tiles simply stay on the heap
+                Log.w(TAG, "Could not spill canvas tiles", e);
+            }
+        });
+    }
+
+    /**
+     * Start reading spilled tiles back in the background, after a spill
+     * still being written. Listeners get the store through
+     * {@link Listener#onCanvasRestored} once the tiles are back.
+     */
+    public void restore() {
+        spillDeferred = false;
+        if (pendingSpill == null || restoring) {
+            return;
+        }
+        restoring = true;
+        TileSpill target = spill;
+        // Queued behind the spill on the same thread, so it never reads a half-written file
+        decodeExecutor.execute(() -> {
+            IOException failure = null;
+            try {
+                target.restore();
+            } catch (IOException e) {
+                failure = e;
+            }
+            IOException error = failure;
+            mainHandler.post(() -> finishRestore(target, error));
+        });
+    }
+
+    private void finishRestore(TileSpill target, IOException error) {
+        if (!restoring || target != spill) {
+            // Dropped by install() in the meantime
+            return;
+        }
+        restoring = false;
+        awaitSpill();
+        if (error != null) {
+            // Rather than show a half-empty canvas, reopen the autosaved one
+            Log.e(TAG, "Could not restore canvas tiles", error);
+            spill.discard();
+            closeAutosave();
+            releaseOriginal();
+            layerStore = null;
+            workingResolution = null;
+        }
+        if (spillDeferred && layerStore != null) {
+            // Hidden again while reading; the next restore() hands the store out
+            spillDeferred = false;
+            spill();
+            return;
+        }
+        for (Listener listener : events.listeners()) {
+            listener.onCanvasRestored();
+        }
+    }
+
+    private void dropSpill() {
+        if (pendingSpill == null) {
+            return;
+        }
+        awaitSpill();
+        restoring = false;
+        spill.discard();
+    }
+
+    private void awaitSpill() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                pendingSpill.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                Log.w(TAG, "Spill failed", e.getCause());
+                break;
+            }
+        }
+        pendingSpill = null;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Close and delete the on-disk full-resolution original, if any.
+     */
+    private void releaseOriginal() {
+        if (workingResolution != null && workingResolution.getOriginal() instanceof RawImageFile) {
+            RawImageFile original = (RawImageFile) workingResolution.getOriginal();
+            try {
+                original.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error closing original image", e);
+            }
+            original.getFile().delete();
+        }
+    }
+
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        events.clear();
+        mainHandler.removeCallbacksAndMessages(null);
+        if (imageImporter != null) {
+            imageImporter.shutdown();
+            imageImporter = null;
+        }
+        if (generationClient != null) {
+            generationClient.shutdown();
+            generationClient = null;
+        }
+        decodeExecutor.shutdownNow();
+        resultBlender.shutdown();
+        if (spill != null) {
+            spill.discard();
+        }
+        // The saved session stays on disk for the next start
+        closeAutosave();
+        releaseOriginal();
+        workingResolution = null;
+        layerStore = null;
+    }
+}
@@ -5,18 +5,21 @@ import android.view.MotionEvent;
 import android.view.View;
 
 import com.example.magicquill.ui.model.ToolModel;
-import com.example.magicquill.ui.observer.Observer;
+import com.example.magicquill.ui.model.ToolRegistry;
+import com.example.magicquill.ui.model.ToolSpec;
 
 /**
  * Controller class for tool management (MVC Controller).
  * Handles user interactions and updates the model.
  * Acts as an Observer to respond to model changes.
  */
-public class ToolController implements Observer {
+public class ToolController implements ToolModel.ToolListener, ToolModel.MenuExpansionListener,
+        ToolModel.MenuPositionListener {
     
     private static final String TAG = "ToolController";
     
     private ToolModel model;
+    private final ToolRegistry registry;
     private ToolControllerListener listener;
     
     public interface ToolControllerListener {
@@ -26,9 +29,20 @@ public class ToolController implements Observer {
     }
     
     public ToolController(ToolModel model) {
+        this(model, ToolRegistry.getDefault());
+    }
+    
+    /**
+     * @param model The model to control
+     * @param registry Where tools are looked up
+     */
+    public ToolController(ToolModel model, ToolRegistry registry) {
         this.model = model;
+        this.registry = registry;
         // Register as observer to model changes
-        this.model.attach(this);
+        this.model.getToolEvents().attach(this);
+        this.model.getMenuExpansionEvents().attach(this);
+        this.model.getMenuPositionEvents().attach(this);
     }
     
     /**
@@ -44,7 +58,7 @@ public class ToolController implements Observer {
      * @param tool The tool to select
      */
     public void selectTool(ToolModel.ToolType tool) {
-        Log.d(TAG, "Tool selected: " + tool);
+        Log.d(TAG, "Tool selected: " + registry.getLabel(tool));
         model.setCurrentTool(tool);
         
         // Collapse menu after tool selection
@@ -119,6 +133,19 @@ public class ToolController implements Observer {
         return model.getCurrentTool();
     }
     
+    /**
+     * Get the spec of a tool.
+     * @param tool The tool type
+     * @return The spec, or null if the tool is not registered
+     */
+    public ToolSpec getToolSpec(ToolModel.ToolType tool) {
+        return registry.get(tool);
+    }
+    
+    public ToolRegistry getRegistry() {
+        return registry;
+    }
+    
     /**
      * Check if menu is expanded.
      * @return True if expanded
@@ -132,35 +159,30 @@ public class ToolController implements Observer {
      */
     public void cleanup() {
         if (model != null) {
-            model.detach(this);
+            model.getToolEvents().detach(this);
+            model.getMenuExpansionEvents().detach(this);
+            model.getMenuPositionEvents().detach(this);
         }
     }
     
     @Override
-    public void update(Object data) {
-        // Respond to model changes
-        if (data instanceof ToolModel.ToolType) {
-            ToolModel.ToolType tool = (ToolModel.ToolType) data;
-            if (listener != null) {
-                listener.onToolChanged(tool);
-            }
-        } else if (data instanceof Boolean) {
-            boolean expanded = (Boolean) data;
-            if (listener != null) {
-                listener.onMenuExpansionChanged(expanded);
-            }
-        } else if (data instanceof float[]) {
-            float[] position = (float[]) data;
-            if (position.length >= 2 && listener != null) {
-                listener.onMenuPositionChanged(position[0], position[1]);
-            }
-        } else {
-            // Generic update
-            if (listener != null) {
-                listener.onToolChanged(model.getCurrentTool());
-                listener.onMenuExpansionChanged(model.isMenuExpanded());
-            }
+    public void onToolChanged(ToolModel.ToolType tool) {
+        if (listener != null) {
+            listener.onToolChanged(tool);
+        }
+    }
+
+    @Override
+    public void onMenuExpansionChanged(boolean expanded) {
+        if (listener != null) {
+            listener.onMenuExpansionChanged(expanded);
         }
     }
-}
 
+    @Override
+    public void onMenuPositionChanged(float x, float y) {
+        if (listener != null) {
+            listener.onMenuPositionChanged(x, y);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.magicquill.ui.input;
+
+/**
+ * Predicts where a stroke will be a few milliseconds after its latest sample,
+ * from an exponentially smoothed velocity.
+ * The ink overlay draws the predicted tail so the line keeps up with the pen;
+ * the prediction is never committed to a layer.
+ */
+public class MotionPredictor {
+
+    // Weight of the newest velocity sample; lower is smoother but lags on turns
+    private static final float SMOOTHING = 0.5f;
+    // Samples this far apart no longer describe one motion
+    private static final long MAX_SAMPLE_GAP_MS = 50;
+
+    private final float[] prediction = new float[2];
+    private long horizonMs;
+    private float maxDistance;
+
+    private int sampleCount;
+    private float lastX;
+    private float lastY;
+    private long lastTime;
+    private float velocityX;
+    private float velocityY;
+
+    /**
+     * @param horizonMs How far ahead of the newest sample to predict
+     * @param maxDistance Longest prediction, in the units of the samples
+     */
+    public MotionPredictor(long horizonMs, float maxDistance) {
+        this.horizonMs = horizonMs;
+        this.maxDistance = maxDistance;
+    }
+
+    public void setHorizonMs(long horizonMs) {
+        this.horizonMs = horizonMs;
+    }
+
+    public long getHorizonMs() {
+        return horizonMs;
+    }
+
+    public void setMaxDistance(float maxDistance) {
+        this.maxDistance = maxDistance;
+    }
+
+    /**
+     * Forget the previous stroke.
+     */
+    public void reset() {
+        sampleCount = 0;
+        velocityX = 0f;
+        velocityY = 0f;
+    }
+
+    /**
+     * Feed a sample.
+     * @param x X position
+     * @param y Y position
+     * @param timeMs Event time in milliseconds
+     */
+    public void addSample(float x, float y, long timeMs) {
+        if (sampleCount > 0) {
+            long dt = timeMs - lastTime;
+            if (dt > MAX_SAMPLE_GAP_MS) {
+                // The pen paused; old velocity says nothing about the new motion
+                velocityX = 0f;
+                velocityY = 0f;
+                sampleCount = 0;
+            } else if (dt > 0) {
+                float vx = (x - lastX) / dt;
+                float vy = (y - lastY) / dt;
+                if (sampleCount == 1) {
+                    velocityX = vx;
+                    velocityY = vy;
+                } else {
+                    velocityX += SMOOTHING * (vx - velocityX);
+                    velocityY += SMOOTHING * (vy - velocityY);
+                }
+            }
+        }
+        lastX = x;
+        lastY = y;
+        lastTime = timeMs;
+        sampleCount++;
+    }
+
+    /**
+     * Check whether there is enough motion to predict from.
+     * @return True after at least two samples of the current motion
+     */
+    public boolean hasPrediction() {
+        return sampleCount >= 2;
+    }
+
+    /**
+     * Get the predicted position. The returned array is reused by the next call.
+     * @return {x, y}; the latest sample if there is no prediction
+     */
+    public float[] predict() {
+        float dx = 0f;
+        float dy = 0f;
+        if (hasPrediction()) {
+            dx = velocityX * horizonMs;
+            dy = velocityY * horizonMs;
+            float distance = (float) Math.sqrt(dx * dx + dy * dy);
+            if (distance > maxDistance) {
+                float scale = maxDistance / distance;
+                dx *= scale;
+                dy *= scale;
+            }
+        }
+        prediction[0] = lastX + dx;
+        prediction[1] = lastY + dy;
+        return prediction;
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.magicquill.ui.input;
+
+/**
+ * Fixed-capacity ring buffer of stroke input samples (position, pressure
+ * and event time) stored in primitive arrays.
+ * Touch events add every historical sample as it arrives; the renderer
+ * drains the buffer once per frame. Neither side allocates.
+ */
+public class StrokeSampleBuffer {
+
+    public interface SampleSink {
+        void onSample(float x, float y, float pressure, long time);
+    }
+
+    private final float[] xs;
+    private final float[] ys;
+    private final float[] pressures;
+    private final long[] times;
+    private final int mask;
+    private int head;   // Next sample to read
+    private int size;
+
+    /**
+     * @param capacity Maximum buffered samples, rounded up to a power of two
+     */
+    public StrokeSampleBuffer(int capacity) {
+        int rounded = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        xs = new float[rounded];
+        ys = new float[rounded];
+        pressures = new float[rounded];
+        times = new long[rounded];
+        mask = rounded - 1;
+    }
+
+    public int capacity() {
+        return xs.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size == xs.length;
+    }
+
+    /**
+     * Append a sample. The caller drains a full buffer first; if it did not,
+     * the oldest sample is overwritten.
+     */
+    public void add(float x, float y, float pressure, long time) {
+        int index = (head + size) & mask;
+        xs[index] = x;
+        ys[index] = y;
+        pressures[index] = pressure;
+        times[index] = time;
+        if (size == xs.length) {
+            head = (head + 1) & mask;
+        } else {
+            size++;
+        }
+    }
+
+    /**
+     * Hand every buffered sample to a sink, oldest first, and empty the buffer.
+     * @param sink Receives the samples
+     * @return The number of samples drained
+     */
+    public int drainTo(SampleSink sink) {
+        int drained = size;
+        for (int i = 0; i < drained; i++) {
+            int index = (head + i) & mask;
+            sink.onSample(xs[index], ys[index], pressures[index], times[index]);
+        }
+        head = (head + drained) & mask;
+        size = 0;
+        return drained;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+}
@@ -1,15 +1,28 @@
 package com.example.magicquill.ui.model;
 
-import com.example.magicquill.ui.observer.Observer;
-import com.example.magicquill.ui.observer.Subject;
+import com.example.magicquill.BuildConfig;
+import com.example.magicquill.ui.observer.EventChannel;
+
+import java.util.concurrent.Executor;
 
 /**
  * Model class for tool state management (MVC Model).
  * Manages the current tool selection and tool states.
- * Implements the Observer pattern as a Subject.
+ * Implements the Observer pattern with one typed {@link EventChannel} per
+ * kind of change, so publishing neither boxes nor allocates.
+ *
+ * <p>Concurrency contract: the model is confined to the thread that created
+ * it (the UI thread). Setters and event delivery happen only there, and debug
+ * builds throw if a setter is called from another thread. Worker threads use
+ * the post methods instead: their writes are collected and applied on the UI
+ * executor in one batch, however many arrive before it runs. Getters may be
+ * called from any thread: tool, menu and progress are read from an immutable
+ * {@link State} snapshot, and the menu position is packed into one volatile
+ * long so a reader never pairs an old X with a new Y and drags do not
+ * allocate.</p>
  */
-public class ToolModel extends Subject {
-    
+public class ToolModel {
+
     public enum ToolType {
         ADD_EDGE,
         REMOVE_EDGE,
@@ -19,100 +32,411 @@ public class ToolModel extends Subject {
         UNDO,
         NONE  // No tool selected
     }
-    
-    private ToolType currentTool;
-    private boolean isMenuExpanded;
-    private float menuPositionX;
-    private float menuPositionY;
-    
+
+    /** Progress value meaning no background work is being reported. */
+    public static final float PROGRESS_NONE = -1f;
+
+    /**
+     * Immutable snapshot of the tool, menu and progress state. Every setter
+     * publishes a new one, so a snapshot read on any thread never mixes old
+     * and new values.
+     */
+    public static final class State {
+        private final ToolType currentTool;
+        private final boolean menuExpanded;
+        private final float progress;
+
+        State(ToolType currentTool, boolean menuExpanded, float progress) {
+            this.currentTool = currentTool;
+            this.menuExpanded = menuExpanded;
+            this.progress = progress;
+        }
+
+        public ToolType getCurrentTool() {
+            return currentTool;
+        }
+
+        public boolean isMenuExpanded() {
+            return menuExpanded;
+        }
+
+        public float getProgress() {
+            return progress;
+        }
+    }
+
+    /**
+     * Observer of tool selection.
+     */
+    public interface ToolListener {
+        void onToolChanged(ToolType tool);
+    }
+
+    /**
+     * Observer of menu expansion.
+     */
+    public interface MenuExpansionListener {
+        void onMenuExpansionChanged(boolean expanded);
+    }
+
+    /**
+     * Observer of the menu position. Positions are coalesced, so a listener
+     * may skip intermediate values but always sees the latest one.
+     */
+    public interface MenuPositionListener {
+        void onMenuPositionChanged(float x, float y);
+    }
+
+    /**
+     * Observer of background work progress.
+     */
+    public interface ProgressListener {
+        /**
+         * @param progress Fraction done in [0, 1], or {@link #PROGRESS_NONE}
+         */
+        void onProgressChanged(float progress);
+    }
+
+    private final EventChannel<ToolListener> toolEvents = new EventChannel<>(ToolListener.class);
+    private final EventChannel<MenuExpansionListener> menuExpansionEvents =
+            new EventChannel<>(MenuExpansionListener.class);
+    private final EventChannel<MenuPositionListener> menuPositionEvents =
+            new EventChannel<>(MenuPositionListener.class);
+    private final EventChannel<ProgressListener> progressEvents = new EventChannel<>(ProgressListener.class);
+
+    private final Thread owner;
+    private final boolean checkConfinement;
+    private volatile State state;
+    // Float bits of X in the high half, Y in the low half
+    private volatile long menuPosition;
+
+    // Coalesced and cross-thread events run through this executor; while one
+    // is queued, newer values only overwrite the fields it will read
+    private Executor uiExecutor = Runnable::run;
+    private boolean positionDispatchPending;
+    private final Runnable positionDispatch = this::dispatchMenuPosition;
+
+    // Writes posted from other threads, guarded by pendingLock
+    private final Object pendingLock = new Object();
+    private boolean flushPending;
+    private boolean hasPendingTool;
+    private ToolType pendingTool;
+    private boolean hasPendingExpanded;
+    private boolean pendingExpanded;
+    private boolean hasPendingProgress;
+    private float pendingProgress;
+    private final Runnable pendingFlush = this::flushPending;
+
     public ToolModel() {
-        this.currentTool = ToolType.NONE;
-        this.isMenuExpanded = false;
-        this.menuPositionX = 0f;
-        this.menuPositionY = 0f;
+        this(BuildConfig.DEBUG);
+    }
+
+    /**
+     * @param checkConfinement Throw when a setter runs on another thread; on in debug builds
+     */
+    ToolModel(boolean checkConfinement) {
+        this.owner = Thread.currentThread();
+        this.checkConfinement = checkConfinement;
+        this.state = new State(ToolType.NONE, false, PROGRESS_NONE);
+        this.menuPosition = packPosition(0f, 0f);
+    }
+
+    /**
+     * Get a consistent snapshot of the tool, menu and progress state.
+     * Safe from any thread.
+     * @return The current state
+     */
+    public State getState() {
+        return state;
     }
-    
+
     /**
      * Get the currently selected tool.
      * @return The current tool type
      */
     public ToolType getCurrentTool() {
-        return currentTool;
+        return state.getCurrentTool();
     }
-    
+
     /**
      * Set the current tool and notify observers.
      * @param tool The tool to select
      */
     public void setCurrentTool(ToolType tool) {
-        if (this.currentTool != tool) {
-            this.currentTool = tool;
-            notifyObservers(tool);
+        checkThread();
+        State s = state;
+        if (s.currentTool != tool) {
+            state = new State(tool, s.menuExpanded, s.progress);
+            publishTool();
         }
     }
-    
+
     /**
      * Check if the menu is expanded.
      * @return True if expanded, false otherwise
      */
     public boolean isMenuExpanded() {
-        return isMenuExpanded;
+        return state.isMenuExpanded();
     }
-    
+
     /**
      * Set the menu expansion state and notify observers.
      * @param expanded True to expand, false to collapse
      */
     public void setMenuExpanded(boolean expanded) {
-        if (this.isMenuExpanded != expanded) {
-            this.isMenuExpanded = expanded;
-            notifyObservers(expanded);
+        checkThread();
+        State s = state;
+        if (s.menuExpanded != expanded) {
+            state = new State(s.currentTool, expanded, s.progress);
+            publishMenuExpansion();
         }
     }
-    
+
     /**
      * Toggle the menu expansion state.
      */
     public void toggleMenuExpanded() {
-        setMenuExpanded(!isMenuExpanded);
+        setMenuExpanded(!isMenuExpanded());
     }
-    
+
     /**
      * Get the menu X position.
      * @return The X coordinate
      */
     public float getMenuPositionX() {
-        return menuPositionX;
+        return positionX(menuPosition);
     }
-    
+
     /**
      * Get the menu Y position.
      * @return The Y coordinate
      */
     public float getMenuPositionY() {
-        return menuPositionY;
+        return positionY(menuPosition);
+    }
+
+    /**
+     * Read both menu coordinates from the same write. Safe from any thread.
+     * @param out Receives {x, y}
+     */
+    public void getMenuPosition(float[] out) {
+        long position = menuPosition;
+        out[0] = positionX(position);
+        out[1] = positionY(position);
     }
-    
+
     /**
-     * Set the menu position and notify observers.
+     * Set the menu position and notify observers. Positions set while an
+     * earlier one is still waiting on the UI executor replace it.
      * @param x The X coordinate
      * @param y The Y coordinate
      */
     public void setMenuPosition(float x, float y) {
-        if (this.menuPositionX != x || this.menuPositionY != y) {
-            this.menuPositionX = x;
-            this.menuPositionY = y;
-            notifyObservers(new float[]{x, y});
+        checkThread();
+        long position = menuPosition;
+        if (positionX(position) != x || positionY(position) != y) {
+            menuPosition = packPosition(x, y);
+            if (!positionDispatchPending) {
+                positionDispatchPending = true;
+                uiExecutor.execute(positionDispatch);
+            }
+        }
+    }
+
+    /**
+     * Get the progress of background work.
+     * @return Fraction done in [0, 1], or {@link #PROGRESS_NONE}
+     */
+    public float getProgress() {
+        return state.getProgress();
+    }
+
+    /**
+     * Set the progress of background work and notify observers.
+     * @param progress Fraction done in [0, 1], or {@link #PROGRESS_NONE}
+     */
+    public void setProgress(float progress) {
+        checkThread();
+        State s = state;
+        if (s.progress != progress) {
+            state = new State(s.currentTool, s.menuExpanded, progress);
+            publishProgress();
         }
     }
-    
+
+    /**
+     * Select a tool from any thread. Applied on the UI executor.
+     * @param tool The tool to select
+     */
+    public void postCurrentTool(ToolType tool) {
+        synchronized (pendingLock) {
+            hasPendingTool = true;
+            pendingTool = tool;
+            scheduleFlushLocked();
+        }
+    }
+
+    /**
+     * Expand or collapse the menu from any thread. Applied on the UI executor.
+     * @param expanded True to expand, false to collapse
+     */
+    public void postMenuExpanded(boolean expanded) {
+        synchronized (pendingLock) {
+            hasPendingExpanded = true;
+            pendingExpanded = expanded;
+            scheduleFlushLocked();
+        }
+    }
+
+    /**
+     * Report progress from any thread. Applied on the UI executor; reports
+     * that arrive before it runs are collapsed into the latest one.
+     * @param progress Fraction done in [0, 1], or {@link #PROGRESS_NONE}
+     */
+    public void postProgress(float progress) {
+        synchronized (pendingLock) {
+            hasPendingProgress = true;
+            pendingProgress = progress;
+            scheduleFlushLocked();
+        }
+    }
+
+    /**
+     * Set where coalesced events and posted writes are applied, normally a
+     * main-thread Handler's post. Defaults to running them synchronously,
+     * which is only correct if every caller is on the owning thread.
+     * @param executor The UI thread executor
+     */
+    public void setUiExecutor(Executor executor) {
+        this.uiExecutor = executor != null ? executor : Runnable::run;
+    }
+
     /**
      * Reset the model to initial state.
      */
     public void reset() {
-        this.currentTool = ToolType.NONE;
-        this.isMenuExpanded = false;
-        notifyObservers();
+        checkThread();
+        State s = state;
+        state = new State(ToolType.NONE, false, s.progress);
+        publishTool();
+        publishMenuExpansion();
+    }
+
+    public EventChannel<ToolListener> getToolEvents() {
+        return toolEvents;
     }
-}
 
+    public EventChannel<MenuExpansionListener> getMenuExpansionEvents() {
+        return menuExpansionEvents;
+    }
+
+    public EventChannel<MenuPositionListener> getMenuPositionEvents() {
+        return menuPositionEvents;
+    }
+
+    public EventChannel<ProgressListener> getProgressEvents() {
+        return progressEvents;
+    }
+
+    /**
+     * Detach every observer from every channel.
+     */
+    public void clearListeners() {
+        toolEvents.clear();
+        menuExpansionEvents.clear();
+        menuPositionEvents.clear();
+        progressEvents.clear();
+    }
+
+    private void checkThread() {
+        if (checkConfinement && Thread.currentThread() != owner) {
+            throw new IllegalStateException("ToolModel is confined to thread " + owner.getName()
+                    + " but was written from " + Thread.currentThread().getName() + "; use the post methods");
+        }
+    }
+
+    private void scheduleFlushLocked() {
+        if (!flushPending) {
+            flushPending = true;
+            uiExecutor.execute(pendingFlush);
+        }
+    }
+
+    private void flushPending() {
+        boolean applyTool;
+        ToolType tool;
+        boolean applyExpanded;
+        boolean expanded;
+        boolean applyProgress;
+        float progress;
+        synchronized (pendingLock) {
+            flushPending = false;
+            applyTool = hasPendingTool;
+            tool = pendingTool;
+            applyExpanded = hasPendingExpanded;
+            expanded = pendingExpanded;
+            applyProgress = hasPendingProgress;
+            progress = pendingProgress;
+            hasPendingTool = false;
+            pendingTool = null;
+            hasPendingExpanded = false;
+            hasPendingProgress = false;
+        }
+        if (applyTool) {
+            setCurrentTool(tool);
+        }
+        if (applyExpanded) {
+            setMenuExpanded(expanded);
+        }
+        if (applyProgress) {
+            setProgress(progress);
+        }
+    }
+
+    private void publishTool() {
+        ToolType tool = state.currentTool;
+        ToolListener[] listeners = toolEvents.listeners();
+        for (ToolListener listener : listeners) {
+            listener.onToolChanged(tool);
+        }
+    }
+
+    private void publishMenuExpansion() {
+        boolean expanded = state.menuExpanded;
+        MenuExpansionListener[] listeners = menuExpansionEvents.listeners();
+        for (MenuExpansionListener listener : listeners) {
+            listener.onMenuExpansionChanged(expanded);
+        }
+    }
+
+    private void publishProgress() {
+        float progress = state.progress;
+        ProgressListener[] listeners = progressEvents.listeners();
+        for (ProgressListener listener : listeners) {
+            listener.onProgressChanged(progress);
+        }
+    }
+
+    private void dispatchMenuPosition() {
+        positionDispatchPending = false;
+        long position = menuPosition;
+        float x = positionX(position);
+        float y = positionY(position);
+        MenuPositionListener[] listeners = menuPositionEvents.listeners();
+        for (MenuPositionListener listener : listeners) {
+            listener.onMenuPositionChanged(x, y);
+        }
+    }
+
+    private static long packPosition(float x, float y) {
+        return ((long) Float.floatToRawIntBits(x) << 32) | (Float.floatToRawIntBits(y) & 0xFFFFFFFFL);
+    }
+
+    private static float positionX(long position) {
+        return Float.intBitsToFloat((int) (position >>> 32));
+    }
+
+    private static float positionY(long position) {
+        return Float.intBitsToFloat((int) position);
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.magicquill.ui.model;
+
+import com.example.magicquill.R;
+import com.example.magicquill.data.layer.LayerType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+
+/**
+ * The one place tools are described. The toolbar builds its buttons from
+ * it, and the controller and canvas look up labels, target layers and
+ * brush defaults in it, in constant time by tool type.
+ * Toolbar order is the order of {@link ToolModel.ToolType}.
+ */
+public class ToolRegistry {
+
+    private static ToolRegistry defaultRegistry;
+
+    private final EnumMap<ToolModel.ToolType, ToolSpec> specs = new EnumMap<>(ToolModel.ToolType.class);
+
+    /**
+     * Get the registry of the built-in tools.
+     * @return The shared default registry
+     */
+    public static synchronized ToolRegistry getDefault() {
+        if (defaultRegistry == null) {
+            ToolRegistry registry = new ToolRegistry();
+            registry.register(new ToolSpec(ToolModel.ToolType.ADD_EDGE, R.drawable.ic_add_edge, "Add Edge",
+                    LayerType.ADD_EDGE, true));
+            registry.register(new ToolSpec(ToolModel.ToolType.REMOVE_EDGE, R.drawable.ic_remove_edge, "Remove Edge",
+                    LayerType.REMOVE_EDGE, true));
+            registry.register(new ToolSpec(ToolModel.ToolType.COLOR_BRUSH, R.drawable.ic_color_brush, "Color Brush",
+                    LayerType.ADD_COLOR, true));
+            // The eraser still draws straight into its layer
+            registry.register(new ToolSpec(ToolModel.ToolType.ERASER, R.drawable.ic_eraser, "Eraser",
+                    LayerType.TOTAL_MASK, false));
+            registry.register(new ToolSpec(ToolModel.ToolType.SELECT, R.drawable.ic_select, "Select"));
+            registry.register(new ToolSpec(ToolModel.ToolType.UNDO, R.drawable.ic_undo, "Undo"));
+            registry.register(new ToolSpec(ToolModel.ToolType.NONE, 0, "None"));
+            defaultRegistry = registry;
+        }
+        return defaultRegistry;
+    }
+
+    /**
+     * Add a tool, replacing any earlier spec of the same type.
+     * @param spec The tool
+     */
+    public synchronized void register(ToolSpec spec) {
+        specs.put(spec.getType(), spec);
+    }
+
+    /**
+     * Get a tool's spec.
+     * @param type The tool
+     * @return The spec, or null if the tool is not registered
+     */
+    public synchronized ToolSpec get(ToolModel.ToolType type) {
+        return type != null ? specs.get(type) : null;
+    }
+
+    /**
+     * Get the layer a tool draws on.
+     * @param type The tool
+     * @return The target layer, or null if the tool does not draw or is not registered
+     */
+    public LayerType getLayer(ToolModel.ToolType type) {
+        ToolSpec spec = get(type);
+        return spec != null ? spec.getLayer() : null;
+    }
+
+    /**
+     * Get the human-readable name of a tool.
+     * @param type The tool
+     * @return The label, or "Unknown" if the tool is not registered
+     */
+    public String getLabel(ToolModel.ToolType type) {
+        ToolSpec spec = get(type);
+        return spec != null ? spec.getLabel() : "Unknown";
+    }
+
+    /**
+     * Get the tools that have a toolbar button, in toolbar order.
+     * @return An unmodifiable snapshot
+     */
+    public synchronized List<ToolSpec> getToolbarTools() {
+        List<ToolSpec> tools = new ArrayList<>(specs.size());
+        for (ToolSpec spec : specs.values()) {
+            if (spec.isInToolbar()) {
+                tools.add(spec);
+            }
+        }
+        return Collections.unmodifiableList(tools);
+    }
+}
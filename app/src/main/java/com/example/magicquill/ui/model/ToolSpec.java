@@ -0,0 +1,108 @@
+package com.example.magicquill.ui.model;
+
+import com.example.magicquill.data.layer.LayerType;
+
+/**
+ * Everything the app needs to know about one tool: how the toolbar shows
+ * it, which layer it draws on and the brush it starts with.
+ * Specs are plain data, so registering one costs nothing until its button
+ * is shown.
+ */
+public class ToolSpec {
+
+    /** Brush radius tools start with, in layer pixels. */
+    public static final float DEFAULT_BRUSH_RADIUS = 12f;
+
+    private final ToolModel.ToolType type;
+    private final int iconResource;
+    private final String label;
+    private final LayerType layer;
+    private final int brushColor;
+    private final float brushRadius;
+    private final boolean lowLatencyInk;
+
+    /**
+     * A tool that does not draw, such as select or undo.
+     * @param type The tool
+     * @param iconResource Toolbar icon, or 0 to keep the tool out of the toolbar
+     * @param label Human-readable name
+     */
+    public ToolSpec(ToolModel.ToolType type, int iconResource, String label) {
+        this(type, iconResource, label, null, 0, 0f, false);
+    }
+
+    /**
+     * A drawing tool with the target layer's default brush.
+     * @param type The tool
+     * @param iconResource Toolbar icon, or 0 to keep the tool out of the toolbar
+     * @param label Human-readable name
+     * @param layer The layer the tool draws on
+     * @param lowLatencyInk True to draw strokes on the predicted ink overlay while the pen is down
+     */
+    public ToolSpec(ToolModel.ToolType type, int iconResource, String label, LayerType layer, boolean lowLatencyInk) {
+        this(type, iconResource, label, layer, layer.getDefaultBrushColor(), DEFAULT_BRUSH_RADIUS, lowLatencyInk);
+    }
+
+    /**
+     * @param type The tool
+     * @param iconResource Toolbar icon, or 0 to keep the tool out of the toolbar
+     * @param label Human-readable name
+     * @param layer The layer the tool draws on, or null if it does not draw
+     * @param brushColor ARGB color the brush starts with
+     * @param brushRadius Radius the brush starts with, in layer pixels
+     * @param lowLatencyInk True to draw strokes on the predicted ink overlay while the pen is down
+     */
+    public ToolSpec(ToolModel.ToolType type, int iconResource, String label, LayerType layer,
+                    int brushColor, float brushRadius, boolean lowLatencyInk) {
+        if (type == null || label == null) {
+            throw new IllegalArgumentException("A tool needs a type and a label");
+        }
+        this.type = type;
+        this.iconResource = iconResource;
+        this.label = label;
+        this.layer = layer;
+        this.brushColor = brushColor;
+        this.brushRadius = brushRadius;
+        this.lowLatencyInk = lowLatencyInk;
+    }
+
+    public ToolModel.ToolType getType() {
+        return type;
+    }
+
+    public int getIconResource() {
+        return iconResource;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Get the layer the tool draws on.
+     * @return The target layer, or null if the tool does not draw
+     */
+    public LayerType getLayer() {
+        return layer;
+    }
+
+    public int getBrushColor() {
+        return brushColor;
+    }
+
+    public float getBrushRadius() {
+        return brushRadius;
+    }
+
+    public boolean usesLowLatencyInk() {
+        return lowLatencyInk;
+    }
+
+    /**
+     * Check whether the tool has a toolbar button.
+     * @return True if it has an icon
+     */
+    public boolean isInToolbar() {
+        return iconResource != 0;
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.magicquill.ui.observer;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+
+/**
+ * Typed list of listeners for one kind of event (Observer pattern).
+ * Each event type has its own listener interface with a primitive-typed
+ * callback, so publishing never boxes values or allocates argument arrays,
+ * and listeners need no instanceof dispatch.
+ * The list is copy-on-write: attach and detach replace the array, while
+ * publishers iterate the snapshot returned by {@link #listeners()}. A
+ * listener may therefore detach itself, or attach others, while an event is
+ * being delivered, and that delivery still reaches exactly the snapshot.
+ * @param <L> The listener interface
+ */
+public final class EventChannel<L> {
+
+    private final L[] empty;
+    private volatile L[] listeners;
+
+    @SuppressWarnings("unchecked")
+    public EventChannel(Class<L> type) {
+        this.empty = (L[]) Array.newInstance(type, 0);
+        this.listeners = empty;
+    }
+
+    /**
+     * Attach a listener. Attaching the same listener twice has no effect.
+     * @param listener The listener to attach
+     */
+    public synchronized void attach(L listener) {
+        if (listener == null || indexOf(listener) >= 0) {
+            return;
+        }
+        L[] next = Arrays.copyOf(listeners, listeners.length + 1);
+        next[listeners.length] = listener;
+        listeners = next;
+    }
+
+    /**
+     * Detach a listener. A delivery already in progress still reaches it.
+     * @param listener The listener to detach
+     */
+    public synchronized void detach(L listener) {
+        int index = indexOf(listener);
+        if (index < 0) {
+            return;
+        }
+        if (listeners.length == 1) {
+            listeners = empty;
+            return;
+        }
+        L[] next = Arrays.copyOf(listeners, listeners.length - 1);
+        System.arraycopy(listeners, index + 1, next, index, listeners.length - index - 1);
+        listeners = next;
+    }
+
+    /**
+     * Detach every listener.
+     */
+    public synchronized void clear() {
+        listeners = empty;
+    }
+
+    /**
+     * Get the listeners to deliver an event to. The array is an immutable
+     * snapshot; iterate it with a plain loop.
+     * @return The current listeners
+     */
+    public L[] listeners() {
+        return listeners;
+    }
+
+    public int size() {
+        return listeners.length;
+    }
+
+    public boolean isEmpty() {
+        return listeners.length == 0;
+    }
+
+    private int indexOf(L listener) {
+        L[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == listener) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.magicquill.ui.view;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Transparent view stacked above the {@link LayerCanvasView} that draws only
+ * the stroke in progress, plus a short predicted tail.
+ * Invalidating it re-renders a single path instead of the tiled layers, so
+ * ink reaches the screen a frame sooner; the stroke is written into the
+ * layer once the pen lifts. It never consumes touches.
+ */
+public class InkOverlayView extends View {
+
+    private final Paint inkPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Path path = new Path();
+    private final Matrix layerToView = new Matrix();
+    private boolean active;
+    private float lastX;
+    private float lastY;
+    private boolean hasPrediction;
+    private float predictedX;
+    private float predictedY;
+
+    public InkOverlayView(Context context) {
+        super(context);
+        init();
+    }
+
+    public InkOverlayView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    public InkOverlayView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        init();
+    }
+
+    private void init() {
+        inkPaint.setStyle(Paint.Style.STROKE);
+        inkPaint.setStrokeCap(Paint.Cap.ROUND);
+        inkPaint.setStrokeJoin(Paint.Join.ROUND);
+    }
+
+    /**
+     * Start drawing a stroke.
+     * @param transform Layer-to-view transform of the canvas below
+     * @param x Start X in layer pixels
+     * @param y Start Y in layer pixels
+     * @param radius Brush radius in layer pixels
+     * @param color ARGB brush color
+     */
+    public void beginStroke(Matrix transform, float x, float y, float radius, int color) {
+        layerToView.set(transform);
+        inkPaint.setColor(color);
+        inkPaint.setStrokeWidth(radius * 2f);
+        path.rewind();
+        path.moveTo(x, y);
+        // A zero-length round-capped segment draws the initial dot
+        path.lineTo(x, y);
+        lastX = x;
+        lastY = y;
+        hasPrediction = false;
+        active = true;
+        invalidate();
+    }
+
+    /**
+     * Extend the stroke to a new sample.
+     * @param x X in layer pixels
+     * @param y Y in layer pixels
+     */
+    public void lineTo(float x, float y) {
+        if (!active) {
+            return;
+        }
+        path.lineTo(x, y);
+        lastX = x;
+        lastY = y;
+        invalidate();
+    }
+
+    /**
+     * Set where the stroke is expected to be next. Drawn, never committed.
+     * @param x Predicted X in layer pixels
+     * @param y Predicted Y in layer pixels
+     */
+    public void setPrediction(float x, float y) {
+        hasPrediction = true;
+        predictedX = x;
+        predictedY = y;
+        invalidate();
+    }
+
+    /**
+     * Remove the stroke, e.g. once it has been committed to its layer.
+     */
+    public void clearStroke() {
+        if (!active) {
+            return;
+        }
+        active = false;
+        hasPrediction = false;
+        path.rewind();
+        invalidate();
+    }
+
+    public boolean isStrokeActive() {
+        return active;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (!active) {
+            return;
+        }
+        int save = canvas.save();
+        canvas.concat(layerToView);
+        canvas.drawPath(path, inkPaint);
+        if (hasPrediction) {
+            canvas.drawLine(lastX, lastY, predictedX, predictedY, inkPaint);
+        }
+        canvas.restoreToCount(save);
+    }
+}
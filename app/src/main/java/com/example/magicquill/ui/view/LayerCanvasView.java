@@ -0,0 +1,709 @@
+package com.example.magicquill.ui.view;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+import android.view.Choreographer;
+import android.view.MotionEvent;
+import android.view.View;
+
+import com.example.magicquill.data.layer.DirtyRegion;
+import com.example.magicquill.data.layer.GrownMaskLayer;
+import com.example.magicquill.data.layer.LayerStore;
+import com.example.magicquill.data.layer.LayerType;
+import com.example.magicquill.data.layer.TileLruCache;
+import com.example.magicquill.data.layer.TiledLayer;
+import com.example.magicquill.ui.input.MotionPredictor;
+import com.example.magicquill.ui.input.StrokeSampleBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Canvas view that draws the tiled layers of a {@link LayerStore} and turns
+ * touches into strokes on the active layer.
+ * The canvas can be pinch-zoomed and panned with two fingers (or one, when
+ * no tool is active) through a {@link Viewport}. Only the tiles inside the
+ * view are drawn. Each drawn tile is mirrored by a tile bitmap in an LRU
+ * cache that is re-uploaded only when the tile's version changes, so a
+ * redraw touches only dirty tiles. The working canvas is capped at
+ * {@link com.example.magicquill.data.layer.WorkingResolution#DEFAULT_MAX_LONG_EDGE}
+ * and zooming out stops at fit-to-view, so tiles are drawn at their own
+ * resolution, never from a downscaled level.
+ * Mask layers are uploaded as ALPHA_8 tiles and tinted by the paint color,
+ * which is a quarter of the memory and upload bandwidth of ARGB tiles.
+ * Per-layer visibility, opacity and mask overlay colors come from a
+ * {@link LayerDisplay}. The layers below the one being drawn on are
+ * composited once into a view-sized cache bitmap, which the hardware
+ * renderer keeps as a texture until one of those layers changes; a frame
+ * during a stroke draws that texture plus the tiles of the upper layers,
+ * re-uploading only the tile bitmaps the stroke touched.
+ * Touch input keeps every batched historical sample: samples are queued in a
+ * primitive ring buffer and drawn once per vsync frame, without allocating.
+ * In low-latency ink mode the stroke in progress is drawn, with a predicted
+ * tail, on an {@link InkOverlayView} and written into its layer only when the
+ * pen lifts.
+ */
+public class LayerCanvasView extends View implements LayerStore.ChangeListener {
+
+    private LayerStore store;
+    private LayerType activeLayer;
+    private float brushRadius = 12f;
+    private int brushColor = Color.BLACK;
+    private CanvasViewListener listener;
+
+    // Tile bitmaps. Evicted bitmaps may still be referenced by the frame
+    // just recorded, so they are left to the garbage collector
+    private static final long TILE_BITMAP_BUDGET_BYTES = 32L * 1024 * 1024;
+    private final TileLruCache<Bitmap> tileBitmaps = new TileLruCache<>(TILE_BITMAP_BUDGET_BYTES, null);
+    // The grow preview shares a layer type with total_mask, so it gets its own cache
+    private static final long PREVIEW_BITMAP_BUDGET_BYTES = 4L * 1024 * 1024;
+    private final TileLruCache<Bitmap> previewBitmaps = new TileLruCache<>(PREVIEW_BITMAP_BUDGET_BYTES, null);
+    private GrownMaskLayer growPreview;
+    private final int[] tilePixels = new int[TiledLayer.TILE_PIXELS];
+    private final byte[] tileAlpha = new byte[TiledLayer.TILE_PIXELS];
+    private final ByteBuffer tileAlphaBuffer = ByteBuffer.wrap(tileAlpha);
+    private final Paint tilePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect tileSource = new Rect();
+    private final RectF tileDest = new RectF();
+    // Part of the layer inside the view, in layer pixels
+    private final RectF visibleBounds = new RectF();
+    private LayerDisplay display = new LayerDisplay();
+
+    // Composite of the layers below the active one, in view pixels
+    private Bitmap compositeCache;
+    private final Canvas compositeCanvas = new Canvas();
+    private int cachedBoundary = -1;
+    private long cachedDisplayVersion;
+    private final long[] cachedLayerVersions = new long[LayerType.values().length];
+
+    // Layer <-> view transform, from the viewport
+    private final Viewport viewport = new Viewport();
+    private final Matrix layerToView = new Matrix();
+    private final Matrix viewToLayer = new Matrix();
+    private final float[] touchPoint = new float[2];
+
+    // Pan/zoom gesture: focus and finger spread of the previous move
+    private boolean gestureActive;
+    private float gestureFocusX;
+    private float gestureFocusY;
+    private float gestureSpan;
+
+    // Low-latency ink: points of the stroke in progress, in layer pixels
+    private static final long PREDICTION_MS = 12;
+    private static final float MAX_PREDICTION_VIEW_PX = 48f;
+    private InkOverlayView inkOverlay;
+    private boolean lowLatencyInk;
+    private boolean inkStrokeActive;
+    private LayerType inkLayer;
+    private float inkRadius;
+    private int inkColor;
+    private float[] inkPoints = new float[256];
+    private int inkPointCount;
+    private final MotionPredictor predictor = new MotionPredictor(PREDICTION_MS, MAX_PREDICTION_VIEW_PX);
+    private final float[] matrixValues = new float[9];
+
+    // Touch samples waiting for the next frame
+    private static final int SAMPLE_CAPACITY = 256;
+    private final StrokeSampleBuffer pendingSamples = new StrokeSampleBuffer(SAMPLE_CAPACITY);
+    private final StrokeSampleBuffer.SampleSink strokeSink = (x, y, pressure, time) -> {
+        if (inkStrokeActive) {
+            appendInkPoint(x, y, time);
+        } else {
+            store.strokeTo(x, y);
+        }
+    };
+    private final Choreographer.FrameCallback frameCallback = frameTimeNanos -> {
+        framePosted = false;
+        flushSamples();
+    };
+    private boolean framePosted;
+
+    public interface CanvasViewListener {
+        void onCanvasSizeChanged(int width, int height);
+    }
+
+    public LayerCanvasView(Context context) {
+        super(context);
+    }
+
+    public LayerCanvasView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    public LayerCanvasView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+    }
+
+    /**
+     * Set the listener for canvas events.
+     * @param listener The listener
+     */
+    public void setCanvasViewListener(CanvasViewListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Set the layer store to draw and observe.
+     * @param store The store, or null to detach
+     */
+    public void setLayerStore(LayerStore store) {
+        if (this.store != null) {
+            this.store.detach(this);
+        }
+        this.store = store;
+        cancelFrame();
+        pendingSamples.clear();
+        cancelInkStroke();
+        releaseTileBitmaps();
+        if (this.store != null) {
+            this.store.attach(this);
+        }
+        gestureActive = false;
+        resetViewport();
+    }
+
+    public LayerStore getLayerStore() {
+        return store;
+    }
+
+    /**
+     * Set the layer that touches draw on.
+     * @param layer The target layer, or null to disable drawing
+     */
+    public void setActiveLayer(LayerType layer) {
+        this.activeLayer = layer;
+    }
+
+    public LayerType getActiveLayer() {
+        return activeLayer;
+    }
+
+    public void setBrushRadius(float radius) {
+        this.brushRadius = radius;
+    }
+
+    public void setBrushColor(int color) {
+        this.brushColor = color;
+    }
+
+    /**
+     * Get the display settings. Call {@link #onDisplayChanged()} after
+     * changing them.
+     * @return The layer display settings
+     */
+    public LayerDisplay getLayerDisplay() {
+        return display;
+    }
+
+    /**
+     * Replace the display settings.
+     * @param display The settings to draw with
+     */
+    public void setLayerDisplay(LayerDisplay display) {
+        this.display = display;
+        onDisplayChanged();
+    }
+
+    /**
+     * Redraw after the display settings changed.
+     */
+    public void onDisplayChanged() {
+        invalidate();
+    }
+
+    /**
+     * Set the overlay used for low-latency ink.
+     * @param overlay A view stacked above this one with the same bounds, or null
+     */
+    public void setInkOverlay(InkOverlayView overlay) {
+        cancelInkStroke();
+        this.inkOverlay = overlay;
+    }
+
+    /**
+     * Draw strokes on the ink overlay while the pen is down and commit them
+     * to the layer on release. Takes effect from the next stroke.
+     * @param enabled True to enable low-latency ink
+     */
+    public void setLowLatencyInk(boolean enabled) {
+        this.lowLatencyInk = enabled;
+    }
+
+    public boolean isLowLatencyInk() {
+        return lowLatencyInk;
+    }
+
+    /**
+     * Show the area a generate request would affect on top of the layers.
+     * @param preview A grown total_mask, or null to hide the preview
+     */
+    public void setGrowPreview(GrownMaskLayer preview) {
+        if (growPreview == preview) {
+            return;
+        }
+        growPreview = preview;
+        previewBitmaps.clear();
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        releaseCompositeCache();
+        resetViewport();
+        if (listener != null && w > 0 && h > 0) {
+            listener.onCanvasSizeChanged(w, h);
+        }
+    }
+
+    /**
+     * Zoom out to show the whole canvas, centered.
+     */
+    public void resetViewport() {
+        if (store != null) {
+            viewport.setSizes(store.getWidth(), store.getHeight(), getWidth(), getHeight());
+        } else {
+            viewport.setSizes(0, 0, getWidth(), getHeight());
+        }
+        updateTransform();
+        invalidate();
+    }
+
+    public Viewport getViewport() {
+        return viewport;
+    }
+
+    private void updateTransform() {
+        layerToView.setScale(viewport.getScale(), viewport.getScale());
+        layerToView.postTranslate(viewport.getTranslateX(), viewport.getTranslateY());
+        layerToView.invert(viewToLayer);
+        cachedBoundary = -1;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (store == null) {
+            return;
+        }
+        visibleBounds.set(viewport.toLayerX(0f), viewport.toLayerY(0f),
+                viewport.toLayerX(getWidth()), viewport.toLayerY(getHeight()));
+        // Layers below the one being drawn on change rarely; draw them from the cache.
+        // While panning or zooming the cache would be rebuilt every frame, so skip it
+        int boundary = activeLayer != null && !gestureActive ? activeLayer.ordinal() : 0;
+        if (boundary > 0 && updateCompositeCache(boundary)) {
+            canvas.drawBitmap(compositeCache, 0f, 0f, null);
+        } else {
+            boundary = 0;
+        }
+        int save = canvas.save();
+        canvas.concat(layerToView);
+        LayerType[] types = LayerType.values();
+        for (int i = boundary; i < types.length; i++) {
+            if (display.isDrawn(types[i])) {
+                drawLayer(canvas, store.getLayer(types[i]));
+            }
+        }
+        if (growPreview != null) {
+            // Tiles are versioned by grow size, so a slider step re-uploads only what changed
+            drawTiles(canvas, growPreview, previewBitmaps, display.getGrowPreviewColor());
+        }
+        canvas.restoreToCount(save);
+    }
+
+    /**
+     * Make the composite cache hold the layers below the boundary.
+     * @return False if the view has no size yet
+     */
+    private boolean updateCompositeCache(int boundary) {
+        if (getWidth() <= 0 || getHeight() <= 0) {
+            return false;
+        }
+        if (compositeCache == null) {
+            compositeCache = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
+            compositeCanvas.setBitmap(compositeCache);
+            cachedBoundary = -1;
+        }
+        LayerType[] types = LayerType.values();
+        boolean valid = cachedBoundary == boundary && cachedDisplayVersion == display.getVersion();
+        for (int i = 0; valid && i < boundary; i++) {
+            valid = cachedLayerVersions[i] == store.getLayer(types[i]).getVersion();
+        }
+        if (valid) {
+            return true;
+        }
+        compositeCanvas.drawColor(0, PorterDuff.Mode.CLEAR);
+        int save = compositeCanvas.save();
+        compositeCanvas.concat(layerToView);
+        for (int i = 0; i < boundary; i++) {
+            TiledLayer layer = store.getLayer(types[i]);
+            if (display.isDrawn(types[i])) {
+                drawLayer(compositeCanvas, layer);
+            }
+            cachedLayerVersions[i] = layer.getVersion();
+        }
+        compositeCanvas.restoreToCount(save);
+        cachedBoundary = boundary;
+        cachedDisplayVersion = display.getVersion();
+        return true;
+    }
+
+    private void releaseCompositeCache() {
+        if (compositeCache != null) {
+            compositeCanvas.setBitmap(null);
+            compositeCache.recycle();
+            compositeCache = null;
+        }
+        cachedBoundary = -1;
+    }
+
+    /**
+     * Draw the tiles of a layer that are inside the view.
+     */
+    private void drawLayer(Canvas canvas, TiledLayer layer) {
+        drawTiles(canvas, layer, tileBitmaps, display.getPaintColor(layer.getType()));
+    }
+
+    /**
+     * Draw the visible tiles of a layer.
+     * @param bitmaps The bitmap cache the layer's tiles are uploaded into
+     * @param paintColor ALPHA_8 bitmaps are drawn in this color; ARGB ones take only its alpha
+     */
+    private void drawTiles(Canvas canvas, TiledLayer layer, TileLruCache<Bitmap> bitmaps, int paintColor) {
+        int span = TiledLayer.TILE_SIZE;
+        int firstX = Math.max(0, (int) Math.floor(visibleBounds.left / span));
+        int firstY = Math.max(0, (int) Math.floor(visibleBounds.top / span));
+        int lastX = Math.min(layer.getTilesX() - 1, (int) Math.floor(visibleBounds.right / span));
+        int lastY = Math.min(layer.getTilesY() - 1, (int) Math.floor(visibleBounds.bottom / span));
+
+        tilePaint.setColor(paintColor);
+        for (int ty = firstY; ty <= lastY; ty++) {
+            for (int tx = firstX; tx <= lastX; tx++) {
+                int index = layer.tileIndex(tx, ty);
+                Bitmap bitmap = tileBitmap(layer, bitmaps, index);
+                if (bitmap == null) {
+                    continue;
+                }
+                int width = layer.tileWidth(index);
+                int height = layer.tileHeight(index);
+                tileSource.set(0, 0, width, height);
+                tileDest.set(tx * span, ty * span, tx * span + width, ty * span + height);
+                canvas.drawBitmap(bitmap, tileSource, tileDest, tilePaint);
+            }
+        }
+    }
+
+    /**
+     * Get the up-to-date bitmap of a tile, uploading it if the tile changed.
+     * @return The bitmap, or null for a transparent tile
+     */
+    private Bitmap tileBitmap(TiledLayer layer, TileLruCache<Bitmap> tileBitmaps, int index) {
+        long key = TileLruCache.key(layer.getType(), index);
+        long version = layer.getTileVersion(index);
+        Bitmap bitmap = tileBitmaps.get(key, version);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        boolean mask = layer.getType().isMask();
+        boolean allocated = mask ? layer.readTileAlpha(index, tileAlpha) : layer.readTile(index, tilePixels);
+        if (!allocated) {
+            tileBitmaps.remove(key);
+            return null;
+        }
+
+        // Re-upload into the stale bitmap if there is one
+        bitmap = tileBitmaps.peek(key);
+        Bitmap.Config config = mask ? Bitmap.Config.ALPHA_8 : Bitmap.Config.ARGB_8888;
+        if (bitmap == null || bitmap.isRecycled() || bitmap.getConfig() != config) {
+            bitmap = Bitmap.createBitmap(TiledLayer.TILE_SIZE, TiledLayer.TILE_SIZE, config);
+        }
+        if (mask) {
+            tileAlphaBuffer.rewind();
+            bitmap.copyPixelsFromBuffer(tileAlphaBuffer);
+        } else {
+            bitmap.setPixels(tilePixels, 0, TiledLayer.TILE_SIZE, 0, 0,
+                    layer.tileWidth(index), layer.tileHeight(index));
+        }
+        long bytes = (long) TiledLayer.TILE_PIXELS * (mask ? 1 : 4);
+        tileBitmaps.put(key, version, bitmap, bytes);
+        return bitmap;
+    }
+
+    private void releaseTileBitmaps() {
+        tileBitmaps.clear();
+        previewBitmaps.clear();
+        cachedBoundary = -1;
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (store == null) {
+            return super.onTouchEvent(event);
+        }
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                pendingSamples.clear();
+                gestureActive = false;
+                if (activeLayer == null) {
+                    // Without a drawing tool one finger pans
+                    anchorGesture(event, -1);
+                    return true;
+                }
+                touchPoint[0] = event.getX();
+                touchPoint[1] = event.getY();
+                viewToLayer.mapPoints(touchPoint);
+                if (lowLatencyInk && inkOverlay != null) {
+                    beginInkStroke(touchPoint[0], touchPoint[1], event.getEventTime());
+                } else {
+                    store.beginStroke(activeLayer, touchPoint[0], touchPoint[1], brushRadius, brushColor);
+                }
+                return true;
+            case MotionEvent.ACTION_POINTER_DOWN:
+                // A second finger turns the touch into pan/zoom; the stroke it
+                // interrupted was the first finger landing early, so drop it
+                abandonStroke();
+                anchorGesture(event, -1);
+                return true;
+            case MotionEvent.ACTION_POINTER_UP:
+                if (gestureActive) {
+                    // Keep going with the remaining fingers from where they are
+                    anchorGesture(event, event.getActionIndex());
+                }
+                return true;
+            case MotionEvent.ACTION_MOVE:
+                if (gestureActive) {
+                    updateGesture(event);
+                    return true;
+                }
+                if (!isStrokeActive()) {
+                    return true;
+                }
+                // A move event batches every sample since the last one; drawing only
+                // the newest turns fast strokes into polygons
+                for (int h = 0; h < event.getHistorySize(); h++) {
+                    queueSample(event.getHistoricalX(h), event.getHistoricalY(h),
+                            event.getHistoricalPressure(h), event.getHistoricalEventTime(h));
+                }
+                queueSample(event.getX(), event.getY(), event.getPressure(), event.getEventTime());
+                scheduleFrame();
+                return true;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                if (gestureActive) {
+                    gestureActive = false;
+                    // Redraw with the composite cache at the final transform
+                    invalidate();
+                    return true;
+                }
+                if (isStrokeActive()) {
+                    queueSample(event.getX(), event.getY(), event.getPressure(), event.getEventTime());
+                    // Apply what is left before the stroke is recorded
+                    cancelFrame();
+                    flushSamples();
+                    if (inkStrokeActive) {
+                        commitInkStroke();
+                    } else {
+                        store.endStroke();
+                    }
+                }
+                return true;
+        }
+        return super.onTouchEvent(event);
+    }
+
+    /**
+     * Start or re-anchor a pan/zoom gesture at the current pointers.
+     * @param skipIndex Index of a pointer that is lifting, or -1
+     */
+    private void anchorGesture(MotionEvent event, int skipIndex) {
+        gestureActive = true;
+        measureGesture(event, skipIndex);
+    }
+
+    private void updateGesture(MotionEvent event) {
+        float lastFocusX = gestureFocusX;
+        float lastFocusY = gestureFocusY;
+        float lastSpan = gestureSpan;
+        measureGesture(event, -1);
+        // Pan first so the layer point under the old focus sits under the new
+        // one, then zoom around it
+        viewport.panBy(gestureFocusX - lastFocusX, gestureFocusY - lastFocusY);
+        if (lastSpan > 0f && gestureSpan > 0f) {
+            viewport.zoomBy(gestureSpan / lastSpan, gestureFocusX, gestureFocusY);
+        }
+        updateTransform();
+        invalidate();
+    }
+
+    /**
+     * Compute the focus (pointer centroid) and span (mean distance from it,
+     * doubled) of the pointers. The span is 0 with a single pointer.
+     */
+    private void measureGesture(MotionEvent event, int skipIndex) {
+        int count = event.getPointerCount();
+        int used = 0;
+        float sumX = 0f;
+        float sumY = 0f;
+        for (int i = 0; i < count; i++) {
+            if (i != skipIndex) {
+                sumX += event.getX(i);
+                sumY += event.getY(i);
+                used++;
+            }
+        }
+        if (used == 0) {
+            return;
+        }
+        gestureFocusX = sumX / used;
+        gestureFocusY = sumY / used;
+        float distance = 0f;
+        for (int i = 0; i < count; i++) {
+            if (i != skipIndex) {
+                float dx = event.getX(i) - gestureFocusX;
+                float dy = event.getY(i) - gestureFocusY;
+                distance += (float) Math.sqrt(dx * dx + dy * dy);
+            }
+        }
+        gestureSpan = used > 1 ? 2f * distance / used : 0f;
+    }
+
+    /**
+     * Drop the stroke in progress without recording it.
+     */
+    private void abandonStroke() {
+        cancelFrame();
+        pendingSamples.clear();
+        if (inkStrokeActive) {
+            cancelInkStroke();
+        } else if (store.isStrokeActive()) {
+            store.cancelStroke();
+        }
+    }
+
+    private void queueSample(float x, float y, float pressure, long time) {
+        if (pendingSamples.isFull()) {
+            // The frame is late; draw what we have rather than drop samples
+            flushSamples();
+        }
+        touchPoint[0] = x;
+        touchPoint[1] = y;
+        viewToLayer.mapPoints(touchPoint);
+        pendingSamples.add(touchPoint[0], touchPoint[1], pressure, time);
+    }
+
+    /**
+     * Draw the queued samples into the stroke. Store observers invalidate
+     * the view, so this runs at most one redraw per frame.
+     */
+    private void flushSamples() {
+        if (store != null && isStrokeActive()) {
+            pendingSamples.drainTo(strokeSink);
+            if (inkStrokeActive && predictor.hasPrediction()) {
+                float[] predicted = predictor.predict();
+                inkOverlay.setPrediction(predicted[0], predicted[1]);
+            }
+        } else {
+            pendingSamples.clear();
+        }
+    }
+
+    private boolean isStrokeActive() {
+        return inkStrokeActive || store.isStrokeActive();
+    }
+
+    private void beginInkStroke(float x, float y, long time) {
+        inkStrokeActive = true;
+        inkLayer = activeLayer;
+        inkRadius = brushRadius;
+        inkColor = brushColor;
+        inkPointCount = 0;
+        layerToView.getValues(matrixValues);
+        float scale = matrixValues[Matrix.MSCALE_X];
+        predictor.reset();
+        predictor.setMaxDistance(scale > 0f ? MAX_PREDICTION_VIEW_PX / scale : MAX_PREDICTION_VIEW_PX);
+        inkOverlay.beginStroke(layerToView, x, y, inkRadius, display.getStrokeDisplayColor(inkLayer, inkColor));
+        appendInkPoint(x, y, time);
+    }
+
+    private void appendInkPoint(float x, float y, long time) {
+        if (inkPointCount + 2 > inkPoints.length) {
+            inkPoints = Arrays.copyOf(inkPoints, inkPoints.length * 2);
+        }
+        inkPoints[inkPointCount++] = x;
+        inkPoints[inkPointCount++] = y;
+        predictor.addSample(x, y, time);
+        if (inkPointCount > 2) {
+            inkOverlay.lineTo(x, y);
+        }
+    }
+
+    /**
+     * Write the inked stroke into its layer (recording it for undo) and
+     * clear the overlay. Both redraw in the same frame, so nothing flickers.
+     */
+    private void commitInkStroke() {
+        inkStrokeActive = false;
+        store.beginStroke(inkLayer, inkPoints[0], inkPoints[1], inkRadius, inkColor);
+        for (int i = 2; i < inkPointCount; i += 2) {
+            store.strokeTo(inkPoints[i], inkPoints[i + 1]);
+        }
+        store.endStroke();
+        inkOverlay.clearStroke();
+    }
+
+    private void cancelInkStroke() {
+        inkStrokeActive = false;
+        inkPointCount = 0;
+        if (inkOverlay != null) {
+            inkOverlay.clearStroke();
+        }
+    }
+
+    private void scheduleFrame() {
+        if (!framePosted) {
+            framePosted = true;
+            Choreographer.getInstance().postFrameCallback(frameCallback);
+        }
+    }
+
+    private void cancelFrame() {
+        if (framePosted) {
+            framePosted = false;
+            Choreographer.getInstance().removeFrameCallback(frameCallback);
+        }
+    }
+
+    @Override
+    public void onLayersChanged(DirtyRegion region) {
+        if (region == null) {
+            // Layers were replaced or cleared wholesale; re-upload everything
+            releaseTileBitmaps();
+            invalidate();
+            return;
+        }
+        // Hardware-accelerated views redraw whole anyway (the dirty-rect form
+        // of invalidate() is ignored); a frame costs the cached composite of
+        // the lower layers plus re-uploading the tiles whose version moved
+        invalidate();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        cancelFrame();
+        cancelInkStroke();
+        if (store != null) {
+            store.detach(this);
+        }
+        releaseTileBitmaps();
+        releaseCompositeCache();
+    }
+}
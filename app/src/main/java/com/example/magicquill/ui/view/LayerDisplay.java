@@ -0,0 +1,134 @@
+package com.example.magicquill.ui.view;
+
+import com.example.magicquill.data.layer.LayerType;
+
+/**
+ * How each layer appears on screen: visibility, opacity and, for mask
+ * layers, the overlay color their alpha is tinted with.
+ * Display settings never change the layer data sent to the server.
+ * Defaults follow the canvas integration guide: edge masks are previewed
+ * at half opacity (add_edge dark, remove_edge light so the two can be told
+ * apart) and total_mask as a 30% red tint.
+ */
+public class LayerDisplay {
+
+    private static final int LAYER_COUNT = LayerType.values().length;
+
+    private final boolean[] visible = new boolean[LAYER_COUNT];
+    private final float[] opacity = new float[LAYER_COUNT];
+    private final int[] overlayRgb = new int[LAYER_COUNT];
+    private long version;
+
+    public LayerDisplay() {
+        for (LayerType type : LayerType.values()) {
+            visible[type.ordinal()] = true;
+            opacity[type.ordinal()] = 1f;
+            overlayRgb[type.ordinal()] = type.getDefaultBrushColor() & 0x00FFFFFF;
+        }
+        opacity[LayerType.ADD_EDGE.ordinal()] = 0.5f;
+        opacity[LayerType.REMOVE_EDGE.ordinal()] = 0.5f;
+        overlayRgb[LayerType.REMOVE_EDGE.ordinal()] = 0xFFFFFF;
+        opacity[LayerType.TOTAL_MASK.ordinal()] = 0.3f;
+        overlayRgb[LayerType.TOTAL_MASK.ordinal()] = 0xFF0000;
+    }
+
+    public boolean isVisible(LayerType type) {
+        return visible[type.ordinal()];
+    }
+
+    public void setVisible(LayerType type, boolean visible) {
+        if (this.visible[type.ordinal()] != visible) {
+            this.visible[type.ordinal()] = visible;
+            version++;
+        }
+    }
+
+    public float getOpacity(LayerType type) {
+        return opacity[type.ordinal()];
+    }
+
+    /**
+     * Set how opaque a layer is drawn.
+     * @param type The layer
+     * @param opacity Opacity in [0, 1]; clamped
+     */
+    public void setOpacity(LayerType type, float opacity) {
+        float clamped = Math.max(0f, Math.min(1f, opacity));
+        if (this.opacity[type.ordinal()] != clamped) {
+            this.opacity[type.ordinal()] = clamped;
+            version++;
+        }
+    }
+
+    public int getOverlayRgb(LayerType type) {
+        return overlayRgb[type.ordinal()];
+    }
+
+    /**
+     * Set the color a mask layer's alpha is shown in. Ignored when drawing
+     * color layers.
+     * @param type The layer
+     * @param rgb RGB color; the alpha byte is ignored
+     */
+    public void setOverlayRgb(LayerType type, int rgb) {
+        int masked = rgb & 0x00FFFFFF;
+        if (overlayRgb[type.ordinal()] != masked) {
+            overlayRgb[type.ordinal()] = masked;
+            version++;
+        }
+    }
+
+    /**
+     * Check whether a layer contributes anything to the screen.
+     * @param type The layer
+     * @return True if visible with non-zero opacity
+     */
+    public boolean isDrawn(LayerType type) {
+        return visible[type.ordinal()] && opacity[type.ordinal()] > 0f;
+    }
+
+    /**
+     * Get the paint color to draw a layer's tiles with. Mask tiles are
+     * ALPHA_8 and drawn in this color; color tiles only take its alpha.
+     * @param type The layer
+     * @return ARGB paint color
+     */
+    public int getPaintColor(LayerType type) {
+        int alpha = Math.round(opacity[type.ordinal()] * 255f);
+        int rgb = type.isMask() ? overlayRgb[type.ordinal()] : 0xFFFFFF;
+        return (alpha << 24) | rgb;
+    }
+
+    /**
+     * Get the color a stroke painted with a brush color looks like once it
+     * is composited, so live ink matches the committed result.
+     * @param type The layer the stroke is on
+     * @param brushColor ARGB brush color
+     * @return ARGB display color
+     */
+    public int getStrokeDisplayColor(LayerType type, int brushColor) {
+        int alpha = Math.round((brushColor >>> 24) * opacity[type.ordinal()]);
+        // Mask layers keep only the brush alpha and show it in the overlay color
+        int rgb = type.isMask() ? overlayRgb[type.ordinal()] : brushColor & 0x00FFFFFF;
+        return (alpha << 24) | rgb;
+    }
+
+    /**
+     * Get the paint color of the grow_size preview: the total_mask overlay at
+     * half its opacity, so the mask itself still stands out inside the
+     * grown area.
+     * @return ARGB paint color
+     */
+    public int getGrowPreviewColor() {
+        int alpha = Math.round(opacity[LayerType.TOTAL_MASK.ordinal()] * 255f / 2f);
+        return (alpha << 24) | overlayRgb[LayerType.TOTAL_MASK.ordinal()];
+    }
+
+    /**
+     * Get a counter that changes whenever any setting changes.
+     * @return The settings version
+     */
+    public long getVersion() {
+        return version;
+    }
+}
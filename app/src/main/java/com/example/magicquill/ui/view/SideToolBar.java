@@ -2,10 +2,10 @@ package com.example.magicquill.ui.view;
 
 import android.animation.Animator;
 import android.animation.AnimatorListenerAdapter;
-import android.animation.ValueAnimator;
+import android.animation.ObjectAnimator;
 import android.content.Context;
-import android.content.Intent;
-import android.net.Uri;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.util.AttributeSet;
 import android.view.View;
 import android.view.ViewGroup;
@@ -13,36 +13,58 @@ import android.view.animation.DecelerateInterpolator;
 import android.widget.ImageButton;
 import android.widget.LinearLayout;
 
-import androidx.activity.result.ActivityResultLauncher;
-import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.core.content.ContextCompat;
 
 import com.example.magicquill.R;
 import com.example.magicquill.ui.model.ToolModel;
-import com.example.magicquill.ui.observer.Observer;
+import com.example.magicquill.ui.model.ToolRegistry;
+import com.example.magicquill.ui.model.ToolSpec;
 
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
 
 /**
  * Side toolbar component (MVC View).
  * Contains a collapsible side panel with tool buttons.
+ * The panel is always measured and laid out at its expanded width; folding
+ * it away only slides the whole toolbar left until just the toggle button
+ * shows. The animation changes nothing but translationX on a hardware
+ * layer, so opening the toolbar over a live canvas never re-runs measure
+ * or layout. Child sizes follow from the expanded width alone and are
+ * computed once, not on every layout.
+ * Tool buttons come from the {@link ToolRegistry} and are inflated lazily:
+ * when the main thread first goes idle, when the toolbar opens or when a
+ * button is asked for, whichever comes first. Buttons inflated on opening
+ * are laid out before the slide starts.
  */
-public class SideToolBar extends ViewGroup implements Observer {
+public class SideToolBar extends ViewGroup implements ToolModel.MenuExpansionListener {
     
     private ImageButton toggleButton;
     private ToolButton uploadButton;
     private View topDivider;
     private LinearLayout toolContainer;
     private View bottomDivider;
-    private List<ToolButton> toolButtons;
+    private final ToolRegistry registry = ToolRegistry.getDefault();
+    private final List<ToolSpec> toolbarTools = registry.getToolbarTools();
+    private final EnumMap<ToolModel.ToolType, ToolButton> toolButtons = new EnumMap<>(ToolModel.ToolType.class);
+    private final MessageQueue.IdleHandler inflateWhenIdle = () -> {
+        inflateToolButtons();
+        return false;
+    };
     private ToolModel model;
     
     private boolean isExpanded = false;
     private int sheetWidth = 200; // Width when expanded
     private int collapsedWidth = 48; // Width when collapsed (just arrow button)
-    private int currentWidth = collapsedWidth;
-    private ValueAnimator widthAnimator;
+    private static final int PADDING = 8;
+    private static final int DIVIDER_HEIGHT = 1;
+    private static final long ANIMATION_MS = 300;
+    // Child sizes, derived from sheetWidth
+    private int containerWidth;
+    private int toolButtonSize;
+    private ObjectAnimator slideAnimator;
+    private final Runnable syncWithModel = this::updateFromModel;
     
     public SideToolBar(Context context) {
         super(context);
@@ -63,6 +85,9 @@ public class SideToolBar extends ViewGroup implements Observer {
         setVisibility(VISIBLE);
         setBackgroundColor(ContextCompat.getColor(getContext(), android.R.color.white));
         setElevation(8f);
+        computeSizes();
+        // Start folded away
+        setTranslationX(collapsedOffset());
         
         // Create toggle button (arrow)
         toggleButton = new ImageButton(getContext());
@@ -78,68 +103,68 @@ public class SideToolBar extends ViewGroup implements Observer {
         uploadButton.setAction(R.drawable.ic_upload);
         uploadButton.setPadding(8, 8, 8, 8); // Less padding for larger icon
         uploadButton.setScaleType(ImageButton.ScaleType.FIT_CENTER); // Better scaling for larger icon
-        uploadButton.setVisibility(GONE);
+        uploadButton.setVisibility(INVISIBLE);
         addView(uploadButton);
         
         // Create top divider
         topDivider = new View(getContext());
         topDivider.setBackground(ContextCompat.getDrawable(getContext(), R.drawable.divider));
-        topDivider.setVisibility(GONE);
+        topDivider.setVisibility(INVISIBLE);
         addView(topDivider);
         
         // Create tool container
         toolContainer = new LinearLayout(getContext());
         toolContainer.setOrientation(LinearLayout.VERTICAL);
-        toolContainer.setVisibility(GONE);
+        toolContainer.setVisibility(INVISIBLE);
         addView(toolContainer);
         
         // Create bottom divider
         bottomDivider = new View(getContext());
         bottomDivider.setBackground(ContextCompat.getDrawable(getContext(), R.drawable.divider));
-        bottomDivider.setVisibility(GONE);
+        bottomDivider.setVisibility(INVISIBLE);
         addView(bottomDivider);
+    }
+    
+    /**
+     * Inflate the buttons of every toolbar tool that has none yet.
+     */
+    private void inflateToolButtons() {
+        if (toolButtons.size() == toolbarTools.size()) {
+            return;
+        }
+        for (ToolSpec spec : toolbarTools) {
+            getToolButton(spec.getType());
+        }
+    }
+    
+    /**
+     * Create a tool's button and put it in toolbar order.
+     */
+    private ToolButton inflateToolButton(ToolSpec spec) {
+        ToolButton toolButton = new ToolButton(getContext());
+        toolButton.setTool(spec.getType(), spec.getIconResource());
+        toolButton.setContentDescription(spec.getLabel());
+        toolButton.setToolButtonListener(tool -> {
+            if (model != null) {
+                model.setCurrentTool(tool);
+            }
+        });
         
-        // Create tool buttons
-        toolButtons = new ArrayList<>();
-        int[] toolIcons = {
-            R.drawable.ic_add_edge,
-            R.drawable.ic_remove_edge,
-            R.drawable.ic_color_brush,
-            R.drawable.ic_eraser,
-            R.drawable.ic_select,
-            R.drawable.ic_undo
-        };
-        
-        ToolModel.ToolType[] toolTypes = {
-            ToolModel.ToolType.ADD_EDGE,
-            ToolModel.ToolType.REMOVE_EDGE,
-            ToolModel.ToolType.COLOR_BRUSH,
-            ToolModel.ToolType.ERASER,
-            ToolModel.ToolType.SELECT,
-            ToolModel.ToolType.UNDO
-        };
+        // Square, 90% of the container width
+        LinearLayout.LayoutParams params = new LinearLayout.LayoutParams(toolButtonSize, toolButtonSize);
+        params.setMargins(PADDING, PADDING, PADDING, PADDING);
+        toolButton.setLayoutParams(params);
         
-        // Create ToolButton objects
-        for (int i = 0; i < toolIcons.length; i++) {
-            ToolButton toolButton = new ToolButton(getContext());
-            toolButton.setTool(toolTypes[i], toolIcons[i]);
-            toolButton.setToolButtonListener(tool -> {
-                if (model != null) {
-                    model.setCurrentTool(tool);
-                }
-            });
-            
-            // Width and height will be set dynamically in onLayout to be 90% of sidebar width (square)
-            LinearLayout.LayoutParams params = new LinearLayout.LayoutParams(
-                0, // Will be set in onLayout
-                0  // Will be set in onLayout
-            );
-            params.setMargins(8, 8, 8, 8);
-            toolButton.setLayoutParams(params);
-            
-            toolButtons.add(toolButton);
-            toolContainer.addView(toolButton);
+        // Buttons already inflated come before this one if their tool does
+        int index = 0;
+        for (ToolModel.ToolType inflated : toolButtons.keySet()) {
+            if (inflated.ordinal() < spec.getType().ordinal()) {
+                index++;
+            }
         }
+        toolButtons.put(spec.getType(), toolButton);
+        toolContainer.addView(toolButton, index);
+        return toolButton;
     }
     
     /**
@@ -155,127 +180,84 @@ public class SideToolBar extends ViewGroup implements Observer {
      */
     public void setModel(ToolModel model) {
         if (this.model != null) {
-            this.model.detach(this);
+            this.model.getMenuExpansionEvents().detach(this);
         }
         this.model = model;
         if (this.model != null) {
-            this.model.attach(this);
+            this.model.getMenuExpansionEvents().attach(this);
             updateFromModel();
         }
     }
     
+    /**
+     * Derive the child sizes from the expanded width. Tool buttons are
+     * square, 90% of the container width.
+     */
+    private void computeSizes() {
+        containerWidth = sheetWidth - collapsedWidth - PADDING;
+        toolButtonSize = (int) (containerWidth * 0.9f);
+    }
+
+    /**
+     * Get the translation that leaves only the toggle button on screen.
+     */
+    private float collapsedOffset() {
+        return -(sheetWidth - collapsedWidth);
+    }
+
     @Override
     protected void onLayout(boolean changed, int l, int t, int r, int b) {
-        int width = getWidth();
         int height = getHeight();
-        
-        if (width > 0 && height > 0) {
-            int toggleSize = collapsedWidth;
-            int buttonSize = 48;
-            int dividerHeight = 1;
-            int padding = 8;
-            
-            // Layout toggle button in the middle vertically, on the outer edge (right side)
-            int toggleTop = (height - toggleSize) / 2;
-            int toggleLeft = currentWidth - toggleSize;
-            toggleButton.layout(toggleLeft, toggleTop, toggleLeft + toggleSize, toggleTop + toggleSize);
-            
-            if (isExpanded) {
-                int containerWidth = currentWidth - toggleSize - padding;
-                int currentTop = padding;
-                
-                // Calculate tool button size: 90% of sidebar width, square
-                int toolButtonSize = (int)(containerWidth * 0.9f);
-                int toolButtonLeft = (containerWidth - toolButtonSize) / 2; // Center horizontally
-                
-                // Layout upload button at the top (ToolButton) - same size as tools, square
-                uploadButton.setVisibility(VISIBLE);
-                uploadButton.layout(toolButtonLeft, currentTop, toolButtonLeft + toolButtonSize, currentTop + toolButtonSize);
-                currentTop += toolButtonSize + padding;
-                
-                // Layout top divider
-                topDivider.setVisibility(VISIBLE);
-                topDivider.layout(0, currentTop, containerWidth, currentTop + dividerHeight);
-                currentTop += dividerHeight + padding;
-                
-                // Layout tool container (6 tools) - tools are 90% width, square
-                toolContainer.setVisibility(VISIBLE);
-                int toolContainerHeight = height - currentTop - dividerHeight - padding - padding;
-                toolContainer.layout(0, currentTop, containerWidth, currentTop + toolContainerHeight);
-                
-                // Update tool button sizes to be square (90% of container width)
-                for (ToolButton toolButton : toolButtons) {
-                    LinearLayout.LayoutParams toolParams = (LinearLayout.LayoutParams) toolButton.getLayoutParams();
-                    toolParams.width = toolButtonSize;
-                    toolParams.height = toolButtonSize;
-                    toolButton.setLayoutParams(toolParams);
-                }
-                
-                currentTop += toolContainerHeight + padding;
-                
-                // Layout bottom divider
-                bottomDivider.setVisibility(VISIBLE);
-                bottomDivider.layout(0, currentTop, containerWidth, currentTop + dividerHeight);
-            } else {
-                uploadButton.setVisibility(GONE);
-                topDivider.setVisibility(GONE);
-                bottomDivider.setVisibility(GONE);
-            }
+        if (height <= 0) {
+            return;
         }
+        // Layout toggle button in the middle vertically, on the outer edge (right side)
+        int toggleTop = (height - collapsedWidth) / 2;
+        int toggleLeft = sheetWidth - collapsedWidth;
+        toggleButton.layout(toggleLeft, toggleTop, toggleLeft + collapsedWidth, toggleTop + collapsedWidth);
+
+        int currentTop = PADDING;
+        int toolButtonLeft = (containerWidth - toolButtonSize) / 2; // Center horizontally
+
+        // Upload button at the top, same size as the tools
+        uploadButton.layout(toolButtonLeft, currentTop, toolButtonLeft + toolButtonSize, currentTop + toolButtonSize);
+        currentTop += toolButtonSize + PADDING;
+
+        topDivider.layout(0, currentTop, containerWidth, currentTop + DIVIDER_HEIGHT);
+        currentTop += DIVIDER_HEIGHT + PADDING;
+
+        int toolContainerHeight = height - currentTop - DIVIDER_HEIGHT - PADDING - PADDING;
+        toolContainer.layout(0, currentTop, containerWidth, currentTop + toolContainerHeight);
+        currentTop += toolContainerHeight + PADDING;
+
+        bottomDivider.layout(0, currentTop, containerWidth, currentTop + DIVIDER_HEIGHT);
     }
     
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
-        int width = MeasureSpec.getSize(widthMeasureSpec);
         int height = MeasureSpec.getSize(heightMeasureSpec);
         
-        // Measure toggle button
-        int toggleSize = collapsedWidth;
         toggleButton.measure(
-            MeasureSpec.makeMeasureSpec(toggleSize, MeasureSpec.EXACTLY),
-            MeasureSpec.makeMeasureSpec(toggleSize, MeasureSpec.EXACTLY)
+            MeasureSpec.makeMeasureSpec(collapsedWidth, MeasureSpec.EXACTLY),
+            MeasureSpec.makeMeasureSpec(collapsedWidth, MeasureSpec.EXACTLY)
         );
+        uploadButton.measure(
+            MeasureSpec.makeMeasureSpec(toolButtonSize, MeasureSpec.EXACTLY),
+            MeasureSpec.makeMeasureSpec(toolButtonSize, MeasureSpec.EXACTLY)
+        );
+        int dividerWidthSpec = MeasureSpec.makeMeasureSpec(containerWidth, MeasureSpec.EXACTLY);
+        int dividerHeightSpec = MeasureSpec.makeMeasureSpec(DIVIDER_HEIGHT, MeasureSpec.EXACTLY);
+        topDivider.measure(dividerWidthSpec, dividerHeightSpec);
+        bottomDivider.measure(dividerWidthSpec, dividerHeightSpec);
         
-        if (isExpanded) {
-            int containerWidth = currentWidth - toggleSize - 8;
-            // Tool button size: 90% of container width, square
-            int toolButtonSize = (int)(containerWidth * 0.9f);
-            int dividerHeight = 1;
-            int padding = 8;
-            
-            // Measure upload button (ToolButton at top) - same size as tools, square
-            uploadButton.measure(
-                MeasureSpec.makeMeasureSpec(toolButtonSize, MeasureSpec.EXACTLY),
-                MeasureSpec.makeMeasureSpec(toolButtonSize, MeasureSpec.EXACTLY)
-            );
-            
-            // Measure dividers
-            topDivider.measure(
-                MeasureSpec.makeMeasureSpec(containerWidth, MeasureSpec.EXACTLY),
-                MeasureSpec.makeMeasureSpec(dividerHeight, MeasureSpec.EXACTLY)
-            );
-            bottomDivider.measure(
-                MeasureSpec.makeMeasureSpec(containerWidth, MeasureSpec.EXACTLY),
-                MeasureSpec.makeMeasureSpec(dividerHeight, MeasureSpec.EXACTLY)
-            );
-            
-            // Measure tool container (6 tools) - all tools are square (90% width)
-            int availableHeight = height - toolButtonSize - dividerHeight - dividerHeight - (padding * 4);
-            toolContainer.measure(
-                MeasureSpec.makeMeasureSpec(containerWidth, MeasureSpec.EXACTLY),
-                MeasureSpec.makeMeasureSpec(availableHeight, MeasureSpec.AT_MOST)
-            );
-            
-            // Measure each tool button to be square (90% of container width)
-            for (ToolButton toolButton : toolButtons) {
-                toolButton.measure(
-                    MeasureSpec.makeMeasureSpec(toolButtonSize, MeasureSpec.EXACTLY),
-                    MeasureSpec.makeMeasureSpec(toolButtonSize, MeasureSpec.EXACTLY)
-                );
-            }
-        }
+        // The container measures the tool buttons from their fixed layout params
+        int availableHeight = Math.max(0, height - toolButtonSize - 2 * DIVIDER_HEIGHT - 4 * PADDING);
+        toolContainer.measure(
+            MeasureSpec.makeMeasureSpec(containerWidth, MeasureSpec.EXACTLY),
+            MeasureSpec.makeMeasureSpec(availableHeight, MeasureSpec.AT_MOST)
+        );
         
-        setMeasuredDimension(currentWidth, height);
+        setMeasuredDimension(sheetWidth, height);
     }
     
     private void toggleSheet() {
@@ -288,57 +270,88 @@ public class SideToolBar extends ViewGroup implements Observer {
         if (isExpanded) return;
         isExpanded = true;
         
+        if (toolButtons.size() < toolbarTools.size()) {
+            // Adding buttons requests layout; settle it before the slide starts
+            inflateToolButtons();
+            relayout();
+        }
+        // INVISIBLE -> VISIBLE only redraws; GONE would need a layout pass
         uploadButton.setVisibility(VISIBLE);
         topDivider.setVisibility(VISIBLE);
         toolContainer.setVisibility(VISIBLE);
         bottomDivider.setVisibility(VISIBLE);
-        
-        if (widthAnimator != null && widthAnimator.isRunning()) {
-            widthAnimator.cancel();
+        slideTo(0f, () -> toggleButton.setImageResource(R.drawable.ic_arrow_left));
+    }
+    
+    /**
+     * Measure and lay out again at the current size, clearing a pending
+     * layout request without waiting for the next traversal.
+     */
+    private void relayout() {
+        if (!isLaidOut()) {
+            return;
         }
-        
-        widthAnimator = ValueAnimator.ofInt(currentWidth, sheetWidth);
-        widthAnimator.setDuration(300);
-        widthAnimator.setInterpolator(new DecelerateInterpolator());
-        widthAnimator.addUpdateListener(animation -> {
-            currentWidth = (Integer) animation.getAnimatedValue();
-            requestLayout();
-        });
-        widthAnimator.addListener(new AnimatorListenerAdapter() {
-            @Override
-            public void onAnimationEnd(Animator animation) {
-                toggleButton.setImageResource(R.drawable.ic_arrow_left);
-            }
-        });
-        widthAnimator.start();
+        measure(MeasureSpec.makeMeasureSpec(getMeasuredWidth(), MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(getMeasuredHeight(), MeasureSpec.EXACTLY));
+        layout(getLeft(), getTop(), getRight(), getBottom());
     }
     
     private void collapse() {
         if (!isExpanded) return;
         isExpanded = false;
         
-        if (widthAnimator != null && widthAnimator.isRunning()) {
-            widthAnimator.cancel();
-        }
-        
-        widthAnimator = ValueAnimator.ofInt(currentWidth, collapsedWidth);
-        widthAnimator.setDuration(300);
-        widthAnimator.setInterpolator(new DecelerateInterpolator());
-        widthAnimator.addUpdateListener(animation -> {
-            currentWidth = (Integer) animation.getAnimatedValue();
-            requestLayout();
+        slideTo(collapsedOffset(), () -> {
+            // Folded-away buttons are off screen; keep them from taking focus
+            uploadButton.setVisibility(INVISIBLE);
+            topDivider.setVisibility(INVISIBLE);
+            toolContainer.setVisibility(INVISIBLE);
+            bottomDivider.setVisibility(INVISIBLE);
+            toggleButton.setImageResource(R.drawable.ic_arrow_right);
         });
-        widthAnimator.addListener(new AnimatorListenerAdapter() {
+    }
+
+    /**
+     * Slide the toolbar to a translation on a hardware layer, so each frame
+     * only recomposites the cached layer.
+     * @param onEnd Run when the slide completes (not when it is cancelled)
+     */
+    private void slideTo(float translationX, Runnable onEnd) {
+        if (slideAnimator != null && slideAnimator.isRunning()) {
+            slideAnimator.cancel();
+        }
+        slideAnimator = ObjectAnimator.ofFloat(this, TRANSLATION_X, getTranslationX(), translationX);
+        slideAnimator.setDuration(ANIMATION_MS);
+        slideAnimator.setInterpolator(new DecelerateInterpolator());
+        slideAnimator.addListener(new AnimatorListenerAdapter() {
+            private boolean cancelled;
+
+            @Override
+            public void onAnimationStart(Animator animation) {
+                setLayerType(LAYER_TYPE_HARDWARE, null);
+            }
+
+            @Override
+            public void onAnimationCancel(Animator animation) {
+                cancelled = true;
+            }
+
             @Override
             public void onAnimationEnd(Animator animation) {
-                uploadButton.setVisibility(GONE);
-                topDivider.setVisibility(GONE);
-                toolContainer.setVisibility(GONE);
-                bottomDivider.setVisibility(GONE);
-                toggleButton.setImageResource(R.drawable.ic_arrow_right);
+                setLayerType(LAYER_TYPE_NONE, null);
+                if (!cancelled) {
+                    onEnd.run();
+                }
             }
         });
-        widthAnimator.start();
+        slideAnimator.start();
+    }
+
+    /**
+     * Get the slide in progress, for frame-stepping tests.
+     * @return The animator, or null before the first slide
+     */
+    ObjectAnimator getSlideAnimator() {
+        return slideAnimator;
     }
     
     private void updateFromModel() {
@@ -355,41 +368,54 @@ public class SideToolBar extends ViewGroup implements Observer {
     }
     
     @Override
-    public void update(Object data) {
-        post(() -> updateFromModel());
+    public void onMenuExpansionChanged(boolean expanded) {
+        removeCallbacks(syncWithModel);
+        post(syncWithModel);
+    }
+    
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (toolButtons.size() < toolbarTools.size()) {
+            Looper.myQueue().addIdleHandler(inflateWhenIdle);
+        }
     }
     
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
-        if (widthAnimator != null) {
-            widthAnimator.cancel();
+        Looper.myQueue().removeIdleHandler(inflateWhenIdle);
+        if (slideAnimator != null) {
+            // Jump to where the slide was going rather than stopping halfway
+            slideAnimator.end();
         }
         if (model != null) {
-            model.detach(this);
+            model.getMenuExpansionEvents().detach(this);
         }
     }
     
     /**
-     * Get all tool buttons.
-     * @return List of tool buttons
+     * Get all tool buttons, inflating any not created yet.
+     * @return List of tool buttons in toolbar order
      */
     public List<ToolButton> getToolButtons() {
-        return toolButtons;
+        inflateToolButtons();
+        return new ArrayList<>(toolButtons.values());
     }
     
     /**
-     * Get a specific tool button by tool type.
+     * Get a specific tool button by tool type, inflating it if needed.
      * @param toolType The tool type
-     * @return The tool button, or null if not found
+     * @return The tool button, or null if the tool has no toolbar button
      */
     public ToolButton getToolButton(ToolModel.ToolType toolType) {
-        for (ToolButton button : toolButtons) {
-            if (button.getToolType() == toolType) {
-                return button;
+        ToolButton button = toolButtons.get(toolType);
+        if (button == null) {
+            ToolSpec spec = registry.get(toolType);
+            if (spec != null && spec.isInToolbar()) {
+                button = inflateToolButton(spec);
             }
         }
-        return null;
+        return button;
     }
 }
-
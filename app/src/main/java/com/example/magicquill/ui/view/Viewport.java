@@ -0,0 +1,143 @@
+package com.example.magicquill.ui.view;
+
+/**
+ * Pan and zoom state of the canvas: a uniform scale plus a translation from
+ * layer pixels to view pixels ({@code view = layer * scale + translate}).
+ * The scale never drops below fit-to-view, and the content is kept centered
+ * along any axis where it is smaller than the view and edge-to-edge
+ * otherwise, so the image can't be panned out of sight.
+ */
+public class Viewport {
+
+    /** Deepest zoom, in view pixels per layer pixel. */
+    public static final float DEFAULT_MAX_SCALE = 8f;
+
+    private int contentWidth;
+    private int contentHeight;
+    private int viewWidth;
+    private int viewHeight;
+    private float maxScale = DEFAULT_MAX_SCALE;
+
+    private float scale = 1f;
+    private float translateX;
+    private float translateY;
+
+    /**
+     * Set the content and view sizes and zoom to fit.
+     * @param contentWidth Layer width in pixels
+     * @param contentHeight Layer height in pixels
+     * @param viewWidth View width in pixels
+     * @param viewHeight View height in pixels
+     */
+    public void setSizes(int contentWidth, int contentHeight, int viewWidth, int viewHeight) {
+        this.contentWidth = contentWidth;
+        this.contentHeight = contentHeight;
+        this.viewWidth = viewWidth;
+        this.viewHeight = viewHeight;
+        fit();
+    }
+
+    /**
+     * Zoom out so the whole content is visible, centered.
+     */
+    public void fit() {
+        scale = getFitScale();
+        constrain();
+    }
+
+    public boolean isEmpty() {
+        return contentWidth <= 0 || contentHeight <= 0 || viewWidth <= 0 || viewHeight <= 0;
+    }
+
+    /**
+     * Get the scale at which the content exactly fits the view.
+     */
+    public float getFitScale() {
+        if (isEmpty()) {
+            return 1f;
+        }
+        return Math.min(viewWidth / (float) contentWidth, viewHeight / (float) contentHeight);
+    }
+
+    public void setMaxScale(float maxScale) {
+        this.maxScale = maxScale;
+        constrain();
+    }
+
+    public float getMaxScale() {
+        return Math.max(maxScale, getFitScale());
+    }
+
+    /**
+     * Zoom around a fixed point, e.g. the focus of a pinch.
+     * @param factor Scale multiplier; clamped to the allowed range
+     * @param focusX Focus X in view pixels; stays over the same layer pixel
+     * @param focusY Focus Y in view pixels
+     */
+    public void zoomBy(float factor, float focusX, float focusY) {
+        float target = Math.max(getFitScale(), Math.min(getMaxScale(), scale * factor));
+        float applied = target / scale;
+        translateX = focusX - (focusX - translateX) * applied;
+        translateY = focusY - (focusY - translateY) * applied;
+        scale = target;
+        constrain();
+    }
+
+    /**
+     * Move the content.
+     * @param dx Distance in view pixels
+     * @param dy Distance in view pixels
+     */
+    public void panBy(float dx, float dy) {
+        translateX += dx;
+        translateY += dy;
+        constrain();
+    }
+
+    public float getScale() {
+        return scale;
+    }
+
+    public float getTranslateX() {
+        return translateX;
+    }
+
+    public float getTranslateY() {
+        return translateY;
+    }
+
+    public float toLayerX(float viewX) {
+        return (viewX - translateX) / scale;
+    }
+
+    public float toLayerY(float viewY) {
+        return (viewY - translateY) / scale;
+    }
+
+    public float toViewX(float layerX) {
+        return layerX * scale + translateX;
+    }
+
+    public float toViewY(float layerY) {
+        return layerY * scale + translateY;
+    }
+
+    private void constrain() {
+        if (isEmpty()) {
+            scale = 1f;
+            translateX = 0f;
+            translateY = 0f;
+            return;
+        }
+        scale = Math.max(getFitScale(), Math.min(getMaxScale(), scale));
+        translateX = constrainAxis(translateX, contentWidth * scale, viewWidth);
+        translateY = constrainAxis(translateY, contentHeight * scale, viewHeight);
+    }
+
+    private static float constrainAxis(float translate, float content, float view) {
+        if (content <= view) {
+            return (view - content) / 2f;
+        }
+        return Math.max(view - content, Math.min(0f, translate));
+    }
+}
@@ -0,0 +1,119 @@
+// Host unit test for the native brush rasterizer. It renders the same scenes
+// as BrushRasterizerTest.java and checks them against the same golden hashes,
+// which ties the native output to the Java fallback.
+//
+// Build and run on Linux or macOS from the repository root, with the flags
+// app/src/main/cpp/CMakeLists.txt uses for the library:
+//   g++ -std=c++17 -O3 -ffp-contract=off -fno-math-errno -fno-trapping-math
+//       -Iapp/src/main/cpp app/src/main/cpp/brush_raster.cpp
+//       app/src/test/cpp/brush_raster_test.cpp -o /tmp/brush_raster_test
+//   /tmp/brush_raster_test
+
+#include "brush_raster.h"
+
+#include <cstdio>
+#include <cstring>
+#include <vector>
+
+using magicquill::BrushSegment;
+using magicquill::RasterRect;
+using magicquill::kTileSize;
+
+namespace {
+
+constexpr uint32_t kGoldenAlpha = 0x4f07bf30;
+constexpr uint32_t kGoldenArgb = 0xce1c598a;
+constexpr RasterRect kWholeTile = {0, 0, kTileSize, kTileSize};
+
+int failures = 0;
+
+#define CHECK(condition)                                                      \
+    do {                                                                      \
+        if (!(condition)) {                                                   \
+            std::fprintf(stderr, "%s:%d: CHECK failed: %s\n", __FILE__,       \
+                         __LINE__, #condition);                               \
+            failures++;                                                       \
+        }                                                                     \
+    } while (0)
+
+uint32_t fnv(const void* data, size_t size) {
+    const auto* bytes = static_cast<const uint8_t*>(data);
+    uint32_t hash = 0x811c9dc5u;
+    for (size_t i = 0; i < size; i++) {
+        hash = (hash ^ bytes[i]) * 0x01000193u;
+    }
+    return hash;
+}
+
+std::vector<uint8_t> renderAlphaScene() {
+    std::vector<uint8_t> tile(kTileSize * kTileSize);
+    RasterRect hit;
+    magicquill::fillAlpha(tile.data(), 0, 0, kWholeTile,
+                          {20.25f, 30.5f, 200.75f, 180.1f, 12.3f}, 0xFF, &hit);
+    magicquill::fillAlpha(tile.data(), 0, 0, kWholeTile,
+                          {128.f, 40.f, 128.f, 40.f, 0.4f}, 200, &hit);
+    magicquill::fillAlpha(tile.data(), 0, 0, kWholeTile,
+                          {100.f, 100.f, 150.f, 90.f, 3.7f}, 128, &hit);
+    magicquill::fillAlpha(tile.data(), 0, 0, {10, 200, 80, 240},
+                          {0.f, 220.f, 255.f, 220.f, 25.f}, 0xFF, &hit);
+    return tile;
+}
+
+std::vector<uint32_t> renderArgbScene() {
+    std::vector<uint32_t> tile(kTileSize * kTileSize);
+    const RasterRect clip = {256, 512, 512, 768};
+    RasterRect hit;
+    magicquill::fillArgb(tile.data(), 256, 512, clip,
+                         {260.f, 520.f, 500.f, 700.f, 9.6f}, 0xFFE01010u, &hit);
+    magicquill::fillArgb(tile.data(), 256, 512, clip,
+                         {300.f, 740.f, 480.f, 530.f, 14.2f}, 0x803050F0u, &hit);
+    magicquill::fillArgb(tile.data(), 256, 512, clip,
+                         {400.5f, 600.5f, 400.5f, 600.5f, 30.f}, 0xFF20C040u, &hit);
+    return tile;
+}
+
+void testGoldenScenes() {
+    const std::vector<uint8_t> alpha = renderAlphaScene();
+    const std::vector<uint32_t> argb = renderArgbScene();
+    // The hash covers the bytes as laid out in memory, which matches the Java
+    // test's little-endian walk of its int[] on every Android ABI
+    CHECK(fnv(alpha.data(), alpha.size()) == kGoldenAlpha);
+    CHECK(fnv(argb.data(), argb.size() * sizeof(uint32_t)) == kGoldenArgb);
+    CHECK(alpha[105 * kTileSize + 110] == 0xFF);
+    CHECK(alpha[250 * kTileSize + 10] == 0);
+}
+
+void testHitBounds() {
+    std::vector<uint8_t> tile(kTileSize * kTileSize);
+    RasterRect hit;
+    CHECK(magicquill::fillAlpha(tile.data(), 0, 0, kWholeTile,
+                                {50.f, 60.f, 50.f, 60.f, 4.f}, 0xFF, &hit));
+    CHECK(hit.left == 46 && hit.top == 56 && hit.right == 54 && hit.bottom == 64);
+
+    const std::vector<uint8_t> before = tile;
+    CHECK(!magicquill::fillAlpha(tile.data(), 0, 0, {100, 100, 120, 120},
+                                 {50.f, 60.f, 50.f, 60.f, 4.f}, 0xFF, &hit));
+    CHECK(std::memcmp(before.data(), tile.data(), tile.size()) == 0);
+}
+
+void testCoverage() {
+    const BrushSegment segment = {10.f, 10.f, 30.f, 10.f, 5.f};
+    CHECK(magicquill::brushCoverage(segment, 20.5f, 10.5f) == 255);
+    CHECK(magicquill::brushCoverage(segment, 20.5f, 20.5f) == 0);
+    const int edge = magicquill::brushCoverage(segment, 20.5f, 15.2f);
+    CHECK(edge > 0 && edge < 255);
+}
+
+}  // namespace
+
+int main() {
+    testGoldenScenes();
+    testHitBounds();
+    testCoverage();
+    if (failures != 0) {
+        std::fprintf(stderr, "%d check(s) failed\n", failures);
+        return 1;
+    }
+    std::printf("brush_raster_test: all checks passed\n");
+    return 0;
+}
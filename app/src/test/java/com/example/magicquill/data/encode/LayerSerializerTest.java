@@ -0,0 +1,117 @@
+package com.example.magicquill.data.encode;
+
+import com.example.magicquill.data.layer.LayerStore;
+import com.example.magicquill.data.layer.LayerType;
+import com.example.magicquill.data.layer.TiledLayer;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for parallel, cached layer encoding.
+ */
+public class LayerSerializerTest {
+
+    @Test
+    public void encodeAll_skipsEmptyOptionalLayers() throws Exception {
+        LayerStore store = new LayerStore(128, 128);
+        LayerSerializer serializer = new LayerSerializer(2, new PngEncoder());
+        try {
+            Map<LayerType, byte[]> encoded = serializer.encodeAll(store);
+            assertNotNull(encoded.get(LayerType.ORIGINAL_IMAGE));
+            assertNotNull(encoded.get(LayerType.TOTAL_MASK));
+            assertNull(encoded.get(LayerType.ADD_COLOR));
+            assertNull(encoded.get(LayerType.ADD_EDGE));
+            assertNull(encoded.get(LayerType.REMOVE_EDGE));
+            assertTrue(encoded.containsKey(LayerType.ADD_EDGE));
+        } finally {
+            serializer.shutdown();
+        }
+    }
+
+    @Test
+    public void encodeAll_reusesCacheUntilLayerChanges() throws Exception {
+        LayerStore store = new LayerStore(128, 128);
+        LayerSerializer serializer = new LayerSerializer(2, new PngEncoder());
+        try {
+            store.beginStroke(LayerType.ADD_EDGE, 10f, 10f, 4f, 0xFF000000);
+            store.endStroke();
+            Map<LayerType, byte[]> first = serializer.encodeAll(store);
+
+            store.beginStroke(LayerType.TOTAL_MASK, 50f, 50f, 4f, 0xFFFFFFFF);
+            store.endStroke();
+            Map<LayerType, byte[]> second = serializer.encodeAll(store);
+
+            assertSame(first.get(LayerType.ADD_EDGE), second.get(LayerType.ADD_EDGE));
+            assertSame(first.get(LayerType.ORIGINAL_IMAGE), second.get(LayerType.ORIGINAL_IMAGE));
+            assertNotSame(first.get(LayerType.TOTAL_MASK), second.get(LayerType.TOTAL_MASK));
+        } finally {
+            serializer.shutdown();
+        }
+    }
+
+    @Test
+    public void encodeAll_parallelMatchesSerialAndIsFaster() throws Exception {
+        LayerStore store = filled1080pStore();
+        int cores = Runtime.getRuntime().availableProcessors();
+        LayerSerializer serial = new LayerSerializer(1, new PngEncoder());
+        LayerSerializer parallel = new LayerSerializer(cores, new PngEncoder());
+        try {
+            // Warm up the JIT on both paths
+            serial.encodeAll(store);
+            parallel.encodeAll(store);
+
+            long serialNanos = Long.MAX_VALUE;
+            long parallelNanos = Long.MAX_VALUE;
+            Map<LayerType, byte[]> serialResult = null;
+            Map<LayerType, byte[]> parallelResult = null;
+            for (int run = 0; run < 3; run++) {
+                serial.invalidate();
+                long start = System.nanoTime();
+                serialResult = serial.encodeAll(store);
+                serialNanos = Math.min(serialNanos, System.nanoTime() - start);
+
+                parallel.invalidate();
+                start = System.nanoTime();
+                parallelResult = parallel.encodeAll(store);
+                parallelNanos = Math.min(parallelNanos, System.nanoTime() - start);
+            }
+
+            for (LayerType type : LayerType.values()) {
+                assertTrue(type.name(), Arrays.equals(serialResult.get(type), parallelResult.get(type)));
+            }
+
+            double speedup = serialNanos / (double) parallelNanos;
+            if (cores >= 4) {
+                assertTrue("Expected parallel speedup, got " + speedup, speedup > 1.5);
+            }
+        } finally {
+            serial.shutdown();
+            parallel.shutdown();
+        }
+    }
+
+    private static LayerStore filled1080pStore() {
+        int width = 1920;
+        int height = 1080;
+        LayerStore store = new LayerStore(width, height);
+        Random random = new Random(7);
+        int[] row = new int[width];
+        for (LayerType type : LayerType.values()) {
+            TiledLayer layer = store.getLayer(type);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    // Smooth gradient plus noise, roughly photo-like to compress
+                    row[x] = 0xFF000000 | ((x + y) & 0xFF) << 16 | (x & 0xFF) << 8 | random.nextInt(32);
+                }
+                layer.writePixels(row, 0, width, 0, y, width, 1, null);
+            }
+        }
+        return store;
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.magicquill.data.encode;
+
+import com.example.magicquill.data.layer.ColorLayer;
+import com.example.magicquill.data.layer.LayerType;
+import com.example.magicquill.data.layer.MaskFormat;
+import com.example.magicquill.data.layer.MaskLayer;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Base64;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the streaming PNG and Base64 encoders.
+ */
+public class PngEncoderTest {
+
+    @Test
+    public void base64_matchesJdkEncoderForAllTailLengths() throws Exception {
+        Random random = new Random(42);
+        for (int length = 0; length < 10000; length += 997) {
+            for (int tail = 0; tail < 3; tail++) {
+                byte[] data = new byte[length + tail];
+                random.nextBytes(data);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                Base64OutputStream base64 = new Base64OutputStream(out);
+                // Mix single-byte and bulk writes
+                base64.write(data, 0, Math.min(1, data.length));
+                if (data.length > 1) {
+                    base64.write(data, 1, data.length - 1);
+                }
+                base64.finish();
+                assertEquals(Base64.getEncoder().encodeToString(data), out.toString("US-ASCII"));
+            }
+        }
+    }
+
+    @Test
+    public void encode_colorLayer_decodesToSamePixels() throws Exception {
+        ColorLayer layer = new ColorLayer(LayerType.ADD_COLOR, 300, 270);
+        int[] pixels = new int[300 * 270];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | ((i * 7919) & 0xFFFFFF);
+        }
+        pixels[5] = 0x80112233;
+        layer.writePixels(pixels, 0, 300, 0, 0, 300, 270, null);
+
+        BufferedImage image = encodeAndDecode(layer, true);
+        assertEquals(300, image.getWidth());
+        assertEquals(270, image.getHeight());
+        for (int y = 0; y < 270; y += 17) {
+            for (int x = 0; x < 300; x += 13) {
+                assertEquals(pixels[y * 300 + x], image.getRGB(x, y));
+            }
+        }
+        assertEquals(0x80112233, image.getRGB(5, 0));
+    }
+
+    @Test
+    public void encode_maskLayer_expandsToRgbaWithTransparentBackground() throws Exception {
+        MaskLayer mask = new MaskLayer(LayerType.TOTAL_MASK, 600, 400, MaskFormat.PACKED_1BIT, 0xFFFFFFFF);
+        mask.drawSegment(100f, 100f, 500f, 100f, 10f, 0xFFFFFFFF, null);
+
+        BufferedImage image = encodeAndDecode(mask, true);
+        assertEquals(0xFFFFFFFF, image.getRGB(300, 100));
+        assertEquals(0, image.getRGB(300, 300) >>> 24);
+    }
+
+    private static BufferedImage encodeAndDecode(com.example.magicquill.data.layer.TiledLayer layer, boolean alpha)
+            throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new PngEncoder().encode(layer, alpha, out);
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+        assertNotNull(image);
+        return image;
+    }
+}
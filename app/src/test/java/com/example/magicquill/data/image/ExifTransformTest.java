@@ -0,0 +1,126 @@
+package com.example.magicquill.data.image;
+
+import org.junit.Test;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for EXIF orientation mapping used by strip-wise import.
+ */
+public class ExifTransformTest {
+
+    private static final int RAW_WIDTH = 7;
+    private static final int RAW_HEIGHT = 5;
+
+    @Test
+    public void allOrientations_matchReferenceTransform() {
+        for (int orientation = ExifTransform.NORMAL; orientation <= ExifTransform.ROTATE_270; orientation++) {
+            ExifTransform transform = new ExifTransform(orientation, RAW_WIDTH, RAW_HEIGHT);
+            AffineTransform reference = referenceFor(orientation);
+            for (int ry = 0; ry < RAW_HEIGHT; ry++) {
+                for (int rx = 0; rx < RAW_WIDTH; rx++) {
+                    // Map pixel centres so flips land on whole pixels
+                    Point2D displayed = reference.transform(new Point2D.Double(rx + 0.5, ry + 0.5), null);
+                    int x = (int) Math.floor(displayed.getX());
+                    int y = (int) Math.floor(displayed.getY());
+                    assertTrue(x >= 0 && x < transform.getWidth() && y >= 0 && y < transform.getHeight());
+                    assertEquals("orientation " + orientation, rx, transform.rawX(x, y));
+                    assertEquals("orientation " + orientation, ry, transform.rawY(x, y));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void strips_reassembleTheWholeImage() {
+        int[] raw = new int[RAW_WIDTH * RAW_HEIGHT];
+        for (int i = 0; i < raw.length; i++) {
+            raw[i] = i;
+        }
+        for (int orientation = ExifTransform.NORMAL; orientation <= ExifTransform.ROTATE_270; orientation++) {
+            ExifTransform transform = new ExifTransform(orientation, RAW_WIDTH, RAW_HEIGHT);
+            int width = transform.getWidth();
+            int height = transform.getHeight();
+            int[] whole = new int[width * height];
+            transform.toDisplayed(raw, new int[]{0, 0, RAW_WIDTH, RAW_HEIGHT}, 0, height, whole);
+
+            int[] strip = new int[width * 2];
+            for (int y = 0; y < height; y += 2) {
+                int rows = Math.min(2, height - y);
+                int[] rect = transform.rawRectForRows(y, rows);
+                int[] region = crop(raw, rect);
+                transform.toDisplayed(region, rect, y, rows, strip);
+                for (int i = 0; i < rows * width; i++) {
+                    assertEquals("orientation " + orientation, whole[y * width + i], strip[i]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rotatedStrips_decodeOnlyTheirColumns() {
+        ExifTransform transform = new ExifTransform(ExifTransform.ROTATE_90, 4000, 3000);
+        assertEquals(3000, transform.getWidth());
+        assertEquals(4000, transform.getHeight());
+        assertArrayEquals(new int[]{256, 0, 512, 3000}, transform.rawRectForRows(256, 256));
+    }
+
+    @Test
+    public void sampleSize_neverDropsBelowTarget() {
+        assertEquals(1, ExifTransform.sampleSizeFor(800, 600, 1024));
+        assertEquals(4, ExifTransform.sampleSizeFor(8000, 6000, 1024));
+        assertEquals(2, ExifTransform.sampleSizeFor(6000, 8000, 2048));
+        assertEquals(8, ExifTransform.sampleSizeFor(8192, 100, 1024));
+    }
+
+    private static int[] crop(int[] raw, int[] rect) {
+        int width = rect[2] - rect[0];
+        int[] out = new int[width * (rect[3] - rect[1])];
+        for (int y = rect[1]; y < rect[3]; y++) {
+            System.arraycopy(raw, y * RAW_WIDTH + rect[0], out, (y - rect[1]) * width, width);
+        }
+        return out;
+    }
+
+    /**
+     * Raw-to-displayed transform as the EXIF specification defines it.
+     */
+    private static AffineTransform referenceFor(int orientation) {
+        AffineTransform t = new AffineTransform();
+        switch (orientation) {
+            case ExifTransform.FLIP_HORIZONTAL:
+                t.translate(RAW_WIDTH, 0);
+                t.scale(-1, 1);
+                break;
+            case ExifTransform.ROTATE_180:
+                t.translate(RAW_WIDTH, RAW_HEIGHT);
+                t.rotate(Math.PI);
+                break;
+            case ExifTransform.FLIP_VERTICAL:
+                t.translate(0, RAW_HEIGHT);
+                t.scale(1, -1);
+                break;
+            case ExifTransform.TRANSPOSE:
+                t.setTransform(0, 1, 1, 0, 0, 0);
+                break;
+            case ExifTransform.ROTATE_90:
+                // 90 degrees clockwise
+                t.translate(RAW_HEIGHT, 0);
+                t.rotate(Math.PI / 2);
+                break;
+            case ExifTransform.TRANSVERSE:
+                t.setTransform(0, -1, -1, 0, RAW_HEIGHT, RAW_WIDTH);
+                break;
+            case ExifTransform.ROTATE_270:
+                t.translate(0, RAW_WIDTH);
+                t.rotate(-Math.PI / 2);
+                break;
+            default:
+                break;
+        }
+        return t;
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.magicquill.data.layer;
+
+import com.example.magicquill.startup.NativeLibrary;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Golden-image tests for the brush rasterizer. The scenes and hashes are
+ * shared with app/src/test/cpp/brush_raster_test.cpp; change both together.
+ */
+public class BrushRasterizerTest {
+
+    private static final int TILE_SIZE = TiledLayer.TILE_SIZE;
+    private static final int GOLDEN_ALPHA = 0x4f07bf30;
+    private static final int GOLDEN_ARGB = 0xce1c598a;
+
+    @After
+    public void restoreNative() {
+        BrushRasterizer.setNativeEnabled(true);
+    }
+
+    @Test
+    public void javaPath_matchesGolden() {
+        BrushRasterizer.setNativeEnabled(false);
+        byte[] alpha = renderAlphaScene();
+        int[] argb = renderArgbScene();
+
+        assertEquals(GOLDEN_ALPHA, fnv(alpha));
+        assertEquals(GOLDEN_ARGB, fnv(argb));
+        // Inside the stroke, far outside it, and on its antialiased edge
+        assertEquals(0xFF, alpha[105 * TILE_SIZE + 110] & 0xFF);
+        assertEquals(0, alpha[250 * TILE_SIZE + 10]);
+        int partial = 0;
+        for (int x = 0; x < TILE_SIZE; x++) {
+            int value = alpha[105 * TILE_SIZE + x] & 0xFF;
+            if (value > 0 && value < 0xFF) {
+                partial++;
+            }
+        }
+        // Antialiased pixels on both sides of the stroke
+        assertTrue(partial >= 2);
+    }
+
+    @Test
+    public void nativePath_matchesJavaByteForByte() throws InterruptedException {
+        assumeTrue(NativeLibrary.magicQuill().await());
+        BrushRasterizer.setNativeEnabled(true);
+        byte[] nativeAlpha = renderAlphaScene();
+        int[] nativeArgb = renderArgbScene();
+        BrushRasterizer.setNativeEnabled(false);
+
+        assertArrayEquals(renderAlphaScene(), nativeAlpha);
+        assertArrayEquals(renderArgbScene(), nativeArgb);
+        assertEquals(GOLDEN_ALPHA, fnv(nativeAlpha));
+    }
+
+    @Test
+    public void fill_reportsCoveredBoundsOnly() {
+        BrushRasterizer.setNativeEnabled(false);
+        int[] hit = new int[4];
+        byte[] tile = new byte[TiledLayer.TILE_PIXELS];
+        assertTrue(BrushRasterizer.fillAlpha(tile, 0, 0, 0, 0, TILE_SIZE, TILE_SIZE,
+                50f, 60f, 50f, 60f, 4f, 0xFF, hit));
+        assertArrayEquals(new int[] {46, 56, 54, 64}, hit);
+        // A clip that misses the brush leaves everything untouched
+        hit[0] = -1;
+        assertFalse(BrushRasterizer.fillAlpha(tile, 0, 0, 100, 100, 120, 120,
+                50f, 60f, 50f, 60f, 4f, 0xFF, hit));
+        assertEquals(-1, hit[0]);
+    }
+
+    @Test
+    public void drawSegment_keepsStrongerAlphaAtJoints() {
+        MaskLayer layer = new MaskLayer(LayerType.TOTAL_MASK, 300, 300, MaskFormat.ALPHA_8, 0xFFFFFF);
+        layer.drawSegment(20f, 20f, 80f, 20f, 6.3f, 0xFFFFFFFF, null);
+        int edge = layer.getAlphaAt(50, 26);
+        assertTrue(edge > 0 && edge < 0xFF);
+        // The next segment of the same stroke overlaps the cap; edges must not grow
+        layer.drawSegment(80f, 20f, 140f, 20f, 6.3f, 0xFFFFFFFF, null);
+        assertEquals(edge, layer.getAlphaAt(50, 26));
+        assertEquals(0xFF, layer.getAlphaAt(80, 20));
+        assertEquals(1, layer.getAllocatedTileCount());
+    }
+
+    private static byte[] renderAlphaScene() {
+        byte[] tile = new byte[TiledLayer.TILE_PIXELS];
+        int[] hit = new int[4];
+        BrushRasterizer.fillAlpha(tile, 0, 0, 0, 0, TILE_SIZE, TILE_SIZE,
+                20.25f, 30.5f, 200.75f, 180.1f, 12.3f, 0xFF, hit);
+        BrushRasterizer.fillAlpha(tile, 0, 0, 0, 0, TILE_SIZE, TILE_SIZE,
+                128f, 40f, 128f, 40f, 0.4f, 200, hit);
+        BrushRasterizer.fillAlpha(tile, 0, 0, 0, 0, TILE_SIZE, TILE_SIZE,
+                100f, 100f, 150f, 90f, 3.7f, 128, hit);
+        // Clipped to part of the tile
+        BrushRasterizer.fillAlpha(tile, 0, 0, 10, 200, 80, 240,
+                0f, 220f, 255f, 220f, 25f, 0xFF, hit);
+        return tile;
+    }
+
+    private static int[] renderArgbScene() {
+        // A tile away from the origin checks the layer-to-tile offsets
+        int[] tile = new int[TiledLayer.TILE_PIXELS];
+        int[] hit = new int[4];
+        BrushRasterizer.fillArgb(tile, 256, 512, 256, 512, 512, 768,
+                260f, 520f, 500f, 700f, 9.6f, 0xFFE01010, hit);
+        BrushRasterizer.fillArgb(tile, 256, 512, 256, 512, 512, 768,
+                300f, 740f, 480f, 530f, 14.2f, 0x803050F0, hit);
+        BrushRasterizer.fillArgb(tile, 256, 512, 256, 512, 512, 768,
+                400.5f, 600.5f, 400.5f, 600.5f, 30f, 0xFF20C040, hit);
+        return tile;
+    }
+
+    private static int fnv(byte[] data) {
+        int hash = 0x811c9dc5;
+        for (byte b : data) {
+            hash = (hash ^ (b & 0xFF)) * 0x01000193;
+        }
+        return hash;
+    }
+
+    private static int fnv(int[] data) {
+        int hash = 0x811c9dc5;
+        for (int v : data) {
+            // Little-endian bytes, as the native test hashes its buffer
+            for (int shift = 0; shift < 32; shift += 8) {
+                hash = (hash ^ (v >>> shift & 0xFF)) * 0x01000193;
+            }
+        }
+        return hash;
+    }
+}
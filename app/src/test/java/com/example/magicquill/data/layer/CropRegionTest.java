@@ -0,0 +1,148 @@
+package com.example.magicquill.data.layer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for content bounds tracking and cropped generate regions.
+ */
+public class CropRegionTest {
+
+    @Test
+    public void contentBounds_followStrokesUndoAndClear() {
+        LayerStore store = new LayerStore(1500, 1000);
+        TiledLayer mask = store.getLayer(LayerType.TOTAL_MASK);
+        int[] bounds = new int[4];
+        assertFalse(mask.getContentBounds(bounds));
+
+        stroke(store, 300f, 240f, 520f, 300f, 12f);
+        int[] first = scanBounds(mask);
+        assertTrue(mask.getContentBounds(bounds));
+        assertArrayEquals(first, bounds);
+
+        // Crosses tile edges; the running box grows with it
+        stroke(store, 700f, 600f, 1100f, 760f, 20f);
+        assertTrue(mask.getContentBounds(bounds));
+        assertArrayEquals(scanBounds(mask), bounds);
+        assertTrue(bounds[2] > 1100 && bounds[3] > 760);
+
+        // Undo restores tiles wholesale; the box shrinks back
+        assertTrue(store.undo());
+        assertTrue(mask.getContentBounds(bounds));
+        assertArrayEquals(first, bounds);
+
+        store.clear();
+        assertFalse(mask.getContentBounds(bounds));
+    }
+
+    @Test
+    public void compute_coversGrownEditWithMarginAndAlignment() {
+        LayerStore store = new LayerStore(4000, 3000);
+        assertNull(CropRegion.compute(store, 10, CropRegion.DEFAULT_MARGIN));
+
+        stroke(store, 2000f, 1500f, 2100f, 1540f, 15f);
+        int growSize = 30;
+        CropRegion region = CropRegion.compute(store, growSize, CropRegion.DEFAULT_MARGIN);
+        assertNotNull(region);
+        int[] bounds = new int[4];
+        store.getLayer(LayerType.TOTAL_MASK).getContentBounds(bounds);
+        int pad = growSize + CropRegion.DEFAULT_MARGIN;
+        assertTrue(region.getLeft() <= bounds[0] - pad);
+        assertTrue(region.getTop() <= bounds[1] - pad);
+        assertTrue(region.getLeft() + region.getWidth() >= bounds[2] + pad);
+        assertTrue(region.getTop() + region.getHeight() >= bounds[3] + pad);
+        assertEquals(0, region.getWidth() % CropRegion.ALIGNMENT);
+        assertEquals(0, region.getHeight() % CropRegion.ALIGNMENT);
+        // Tiny next to the 4000x3000 canvas
+        assertTrue((long) region.getWidth() * region.getHeight() < 4000L * 3000 / 20);
+    }
+
+    @Test
+    public void compute_shiftsSmallEditsInsideTheCanvas() {
+        LayerStore store = new LayerStore(4000, 3000);
+        // A dot in the corner still gets a minimum-size region, shifted inwards
+        stroke(store, 5f, 2995f, 5f, 2995f, 3f);
+        CropRegion region = CropRegion.compute(store, 0, 0);
+        assertEquals(0, region.getLeft());
+        assertEquals(3000, region.getTop() + region.getHeight());
+        assertEquals(CropRegion.MIN_SIZE, region.getWidth());
+        assertEquals(CropRegion.MIN_SIZE, region.getHeight());
+    }
+
+    @Test
+    public void compute_returnsNullWhenTheEditCoversMostOfTheCanvas() {
+        LayerStore store = new LayerStore(800, 600);
+        stroke(store, 50f, 50f, 750f, 550f, 40f);
+        assertNull(CropRegion.compute(store, 0, CropRegion.DEFAULT_MARGIN));
+    }
+
+    @Test
+    public void crop_readsTheRegionOfEveryLayer() {
+        LayerStore store = new LayerStore(900, 700);
+        int[] photo = new int[900 * 700];
+        for (int i = 0; i < photo.length; i++) {
+            photo[i] = 0xFF000000 | (i * 0x9E3779B1) >>> 8;
+        }
+        store.getLayer(LayerType.ORIGINAL_IMAGE).writePixels(photo, 0, 900, 0, 0, 900, 700, null);
+        stroke(store, 400f, 300f, 450f, 320f, 10f);
+
+        CropRegion region = new CropRegion(900, 700, 250, 180, 400, 330);
+        LayerStore cropped = region.crop(store);
+        assertEquals(400, cropped.getWidth());
+        assertEquals(330, cropped.getHeight());
+        for (LayerType type : LayerType.values()) {
+            int[] expected = new int[400 * 330];
+            int[] actual = new int[400 * 330];
+            store.getLayer(type).readPixels(expected, 0, 400, 250, 180, 400, 330);
+            cropped.getLayer(type).readPixels(actual, 0, 400, 0, 0, 400, 330);
+            assertArrayEquals(type.name(), expected, actual);
+        }
+
+        int[] full = new int[4];
+        int[] inCrop = new int[4];
+        store.getLayer(LayerType.TOTAL_MASK).getContentBounds(full);
+        assertTrue(cropped.getLayer(LayerType.TOTAL_MASK).getContentBounds(inCrop));
+        assertArrayEquals(new int[] {full[0] - 250, full[1] - 180, full[2] - 250, full[3] - 180}, inCrop);
+        assertFalse(cropped.getLayer(LayerType.ADD_EDGE).isTileAllocated(0));
+    }
+
+    @Test
+    public void scaleTo_roundsOutwards() {
+        CropRegion full = new CropRegion(4000, 3000, 1001, 751, 499, 333);
+        CropRegion working = full.scaleTo(1000, 750);
+        assertEquals(250, working.getLeft());
+        assertEquals(187, working.getTop());
+        assertTrue(working.getLeft() + working.getWidth() >= (1001 + 499) / 4);
+        assertTrue(working.getTop() + working.getHeight() >= (751 + 333) / 4);
+        assertSame(full, full.scaleTo(4000, 3000));
+    }
+
+    private static void stroke(LayerStore store, float x0, float y0, float x1, float y1, float radius) {
+        store.beginStroke(LayerType.TOTAL_MASK, x0, y0, radius, 0xFFFFFFFF);
+        store.strokeTo(x1, y1);
+        store.endStroke();
+    }
+
+    /**
+     * Find the bounds of the non-transparent pixels by reading every one.
+     */
+    private static int[] scanBounds(TiledLayer layer) {
+        int w = layer.getWidth();
+        int h = layer.getHeight();
+        int[] pixels = new int[w * h];
+        layer.readPixels(pixels, 0, w, 0, 0, w, h);
+        int[] bounds = {Integer.MAX_VALUE, Integer.MAX_VALUE, 0, 0};
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                if (pixels[y * w + x] >>> 24 != 0) {
+                    bounds[0] = Math.min(bounds[0], x);
+                    bounds[1] = Math.min(bounds[1], y);
+                    bounds[2] = Math.max(bounds[2], x + 1);
+                    bounds[3] = Math.max(bounds[3], y + 1);
+                }
+            }
+        }
+        return bounds;
+    }
+}
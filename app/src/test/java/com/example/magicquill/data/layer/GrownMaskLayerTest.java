@@ -0,0 +1,116 @@
+package com.example.magicquill.data.layer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the grow_size preview.
+ */
+public class GrownMaskLayerTest {
+
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 280;
+    // A 60 Hz frame, doubled to leave room for slow CI machines
+    private static final long STEP_BUDGET_NANOS = 2 * 16_666_667L;
+    // Mask pixels, as {x, y} pairs; spread over all four tiles and the edges
+    private static final int[] SEEDS = {
+            10, 12, 255, 255, 256, 100, 299, 279, 140, 270, 0, 200, 270, 20, 128, 128, 129, 128
+    };
+
+    @Test
+    public void grownMask_matchesBruteForceDisk() {
+        MaskLayer mask = new MaskLayer(LayerType.TOTAL_MASK, WIDTH, HEIGHT, MaskFormat.ALPHA_8, 0xFFFFFF);
+        int[] white = {0xFFFFFFFF};
+        for (int i = 0; i < SEEDS.length; i += 2) {
+            mask.writePixels(white, 0, 1, SEEDS[i], SEEDS[i + 1], 1, 1, null);
+        }
+        // Below the threshold: does not count as mask
+        mask.writePixels(new int[] {0x40FFFFFF}, 0, 1, 60, 200, 1, 1, null);
+        GrownMaskLayer grown = new GrownMaskLayer(mask, 0xFFFFFFFF);
+
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int growSize : new int[] {0, 1, 7, 40, GrownMaskLayer.MAX_GROW_SIZE}) {
+            grown.setGrowSize(growSize);
+            grown.readPixels(pixels, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    boolean expected = nearSeed(x, y, growSize);
+                    assertEquals("grow " + growSize + " at " + x + "," + y,
+                            expected ? 0xFFFFFFFF : 0, pixels[y * WIDTH + x]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void tileVersion_tracksGrowSizeAndSourceInReach() {
+        MaskLayer mask = new MaskLayer(LayerType.TOTAL_MASK, 800, 256, MaskFormat.ALPHA_8, 0xFFFFFF);
+        GrownMaskLayer grown = new GrownMaskLayer(mask, 0xFFFFFFFF);
+        grown.setGrowSize(20);
+        long before = grown.getTileVersion(0);
+
+        // More than MAX_GROW_SIZE away from tile 0: cannot affect it
+        mask.drawSegment(700f, 100f, 720f, 100f, 5f, 0xFFFFFFFF, null);
+        assertEquals(before, grown.getTileVersion(0));
+        assertFalse(grown.isTileAllocated(0));
+
+        mask.drawSegment(270f, 100f, 280f, 100f, 5f, 0xFFFFFFFF, null);
+        long afterStroke = grown.getTileVersion(0);
+        assertNotEquals(before, afterStroke);
+        assertTrue(grown.isTileAllocated(0));
+
+        grown.setGrowSize(35);
+        assertNotEquals(afterStroke, grown.getTileVersion(0));
+        // Going back to a size gives back its version, so cached tiles are reused
+        grown.setGrowSize(20);
+        assertEquals(afterStroke, grown.getTileVersion(0));
+    }
+
+    @Test
+    public void growSizeStep_fitsInAFrame() {
+        LayerStore store = new LayerStore(1024, 768);
+        store.beginStroke(LayerType.TOTAL_MASK, 100f, 100f, 30f, 0xFFFFFFFF);
+        for (int i = 1; i <= 40; i++) {
+            store.strokeTo(100f + i * 20f, 100f + i * 14f);
+        }
+        store.endStroke();
+        GrownMaskLayer grown = new GrownMaskLayer(store.getLayer(LayerType.TOTAL_MASK), 0xFFFFFFFF);
+        byte[] alpha = new byte[TiledLayer.TILE_PIXELS];
+
+        // The first read computes the distance field; one untimed pass over
+        // the slider warms up the JIT, as a few drags would in the app
+        readAllTiles(grown, alpha);
+        for (int growSize = 1; growSize <= GrownMaskLayer.MAX_GROW_SIZE; growSize++) {
+            grown.setGrowSize(growSize);
+            readAllTiles(grown, alpha);
+        }
+
+        long slowestStepNanos = 0;
+        for (int growSize = 1; growSize <= GrownMaskLayer.MAX_GROW_SIZE; growSize++) {
+            grown.setGrowSize(growSize);
+            long start = System.nanoTime();
+            readAllTiles(grown, alpha);
+            slowestStepNanos = Math.max(slowestStepNanos, System.nanoTime() - start);
+        }
+        assertTrue("Slowest slider step took " + slowestStepNanos / 1000 + " us",
+                slowestStepNanos < STEP_BUDGET_NANOS);
+    }
+
+    private static void readAllTiles(GrownMaskLayer grown, byte[] alpha) {
+        for (int i = 0; i < grown.getTileCount(); i++) {
+            grown.readTileAlpha(i, alpha);
+        }
+    }
+
+    private static boolean nearSeed(int x, int y, int growSize) {
+        for (int i = 0; i < SEEDS.length; i += 2) {
+            int dx = x - SEEDS[i];
+            int dy = y - SEEDS[i + 1];
+            if (dx * dx + dy * dy <= growSize * growSize) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
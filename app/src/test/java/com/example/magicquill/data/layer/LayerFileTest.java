@@ -0,0 +1,189 @@
+package com.example.magicquill.data.layer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the on-disk layer format and its crash recovery.
+ */
+public class LayerFileTest {
+
+    private static final int WIDTH = 700;
+    private static final int HEIGHT = 500;
+    // Header page, then two one-page roots for a 6-tile layer
+    private static final int PAGE = 4096;
+    private static final long SLOTS_OFFSET = 3 * PAGE;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void commit_storesTilesThatSurviveReopening() throws Exception {
+        File path = folder.newFile("original.layer");
+        ColorLayer layer = new ColorLayer(LayerType.ORIGINAL_IMAGE, WIDTH, HEIGHT);
+        int[] tile = filledInts(0xFF123456);
+        try (LayerFile file = LayerFile.create(path, layer)) {
+            assertEquals(6, file.getTileCount());
+            assertEquals(1, file.getSequence());
+            assertEquals(0, file.getStoredTileCount());
+            file.commit(tiles(2, tile), 7, 1);
+            assertEquals(2, file.getSequence());
+        }
+
+        try (LayerFile file = LayerFile.open(path)) {
+            assertEquals(1, file.getGeneration());
+            assertEquals(LayerType.ORIGINAL_IMAGE, file.getType());
+            assertEquals(LayerFile.FORMAT_ARGB, file.getFormat());
+            assertEquals(WIDTH, file.getWidth());
+            assertEquals(7, file.getLayerVersion());
+            assertEquals(1, file.getStoredTileCount());
+            assertArrayEquals(tile, (int[]) file.readTile(2));
+            assertNull(file.readTile(0));
+        }
+        // Slots that were never written take no space
+        assertTrue(path.length() > SLOTS_OFFSET + 6L * TiledLayer.TILE_PIXELS * 4);
+    }
+
+    @Test
+    public void commit_replacesAndRemovesTiles() throws Exception {
+        MaskLayer layer = new MaskLayer(LayerType.TOTAL_MASK, WIDTH, HEIGHT, MaskFormat.PACKED_1BIT, 0xFFFFFFFF);
+        try (LayerFile file = LayerFile.create(folder.newFile("mask.layer"), layer)) {
+            assertEquals(MaskFormat.PACKED_1BIT, file.getMaskFormat());
+            byte[] first = filledBytes(layer.getBytesPerTile(), (byte) 0x0F);
+            byte[] second = filledBytes(layer.getBytesPerTile(), (byte) 0x70);
+            file.commit(tiles(1, first), 1, 1);
+            file.commit(tiles(1, second), 2, 2);
+            assertArrayEquals(second, (byte[]) file.readTile(1));
+
+            Map<Integer, Object> removal = new HashMap<>();
+            removal.put(1, null);
+            file.commit(removal, 3, 3);
+            assertFalse(file.isTileStored(1));
+            // Rewriting a tile over and over never runs out of slots
+            for (int version = 4; version < 40; version++) {
+                file.commit(tiles(version % 6, first), version, version);
+            }
+            assertEquals(6, file.getStoredTileCount());
+        }
+    }
+
+    @Test
+    public void open_recoversThePreviousCommitWhenTheNewestRootIsTorn() throws Exception {
+        File path = folder.newFile("add_color.layer");
+        ColorLayer layer = new ColorLayer(LayerType.ADD_COLOR, WIDTH, HEIGHT);
+        int[] kept = filledInts(0xFFAA0000);
+        try (LayerFile file = LayerFile.create(path, layer)) {
+            file.commit(tiles(0, kept), 10, 1);
+            Map<Integer, Object> next = tiles(0, filledInts(0xFF00BB00));
+            next.put(5, filledInts(0xFF0000CC));
+            file.commit(next, 11, 2);
+        }
+        // The last commit wrote root 0 (sequence 3); tear its index
+        try (RandomAccessFile raw = new RandomAccessFile(path, "rw")) {
+            raw.seek(PAGE + 32);
+            raw.writeLong(-1L);
+        }
+
+        try (LayerFile file = LayerFile.open(path)) {
+            assertEquals(2, file.getSequence());
+            assertEquals(10, file.getLayerVersion());
+            assertArrayEquals(kept, (int[]) file.readTile(0));
+            assertFalse(file.isTileStored(5));
+        }
+    }
+
+    @Test
+    public void open_goesBackToTheCommitOfAGeneration() throws Exception {
+        File path = folder.newFile("total_mask.layer");
+        MaskLayer layer = new MaskLayer(LayerType.TOTAL_MASK, WIDTH, HEIGHT, MaskFormat.ALPHA_8, 0xFFFFFFFF);
+        byte[] kept = filledBytes(layer.getBytesPerTile(), (byte) 0x40);
+        try (LayerFile file = LayerFile.create(path, layer)) {
+            file.commit(tiles(3, kept), 5, 4);
+            file.commit(tiles(3, filledBytes(layer.getBytesPerTile(), (byte) 0x7F)), 6, 5);
+        }
+
+        try (LayerFile file = LayerFile.open(path, 4)) {
+            assertEquals(4, file.getGeneration());
+            assertEquals(5, file.getLayerVersion());
+            assertArrayEquals(kept, (byte[]) file.readTile(3));
+            // The next commit takes the place of the one left out
+            file.commit(tiles(1, kept), 7, 5);
+        }
+        try (LayerFile file = LayerFile.open(path)) {
+            assertEquals(5, file.getGeneration());
+            assertArrayEquals(kept, (byte[]) file.readTile(3));
+            assertArrayEquals(kept, (byte[]) file.readTile(1));
+        }
+        try {
+            LayerFile.open(path, 3).close();
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            // Both roots are newer
+        }
+    }
+
+    @Test
+    public void readTile_detectsCorruptPixels() throws Exception {
+        File path = folder.newFile("add_edge.layer");
+        MaskLayer layer = new MaskLayer(LayerType.ADD_EDGE, WIDTH, HEIGHT, MaskFormat.ALPHA_8, 0xFF000000);
+        try (LayerFile file = LayerFile.create(path, layer)) {
+            file.commit(tiles(0, filledBytes(layer.getBytesPerTile(), (byte) 0x80)), 1, 1);
+        }
+        try (RandomAccessFile raw = new RandomAccessFile(path, "rw")) {
+            raw.seek(SLOTS_OFFSET + 100);
+            raw.write(0x81);
+        }
+
+        try (LayerFile file = LayerFile.open(path)) {
+            file.readTile(0);
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("corrupt"));
+        }
+    }
+
+    @Test
+    public void open_rejectsFilesThatAreNotLayers() throws Exception {
+        File path = folder.newFile("junk.layer");
+        try (RandomAccessFile raw = new RandomAccessFile(path, "rw")) {
+            raw.writeInt(0x12345678);
+        }
+        try {
+            LayerFile.open(path).close();
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            // Nothing to recover
+        }
+    }
+
+    private static Map<Integer, Object> tiles(int index, Object data) {
+        Map<Integer, Object> tiles = new HashMap<>();
+        tiles.put(index, data);
+        return tiles;
+    }
+
+    private static int[] filledInts(int value) {
+        int[] pixels = new int[TiledLayer.TILE_PIXELS];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = value ^ (i & 0xFF);
+        }
+        return pixels;
+    }
+
+    private static byte[] filledBytes(int length, byte value) {
+        byte[] pixels = new byte[length];
+        for (int i = 0; i < length; i++) {
+            pixels[i] = (byte) (value ^ (i & 0x0F));
+        }
+        return pixels;
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.magicquill.data.layer;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the tiled layer store.
+ */
+public class LayerStoreTest {
+
+    @Test
+    public void emptyStore_allocatesNoTiles() {
+        LayerStore store = new LayerStore(4000, 3000);
+        assertEquals(0, store.getAllocatedBytes());
+        for (LayerType type : LayerType.values()) {
+            assertEquals(0, store.getLayer(type).getAllocatedTileCount());
+        }
+    }
+
+    @Test
+    public void stroke_allocatesAndReportsOnlyTouchedTiles() {
+        LayerStore store = new LayerStore(1024, 1024);
+        store.beginStroke(LayerType.ADD_EDGE, 10f, 10f, 4f, 0xFF000000);
+        store.strokeTo(100f, 10f);
+        DirtyRegion dirty = store.endStroke();
+
+        TiledLayer layer = store.getLayer(LayerType.ADD_EDGE);
+        assertEquals(1, dirty.getTileCount());
+        assertTrue(dirty.containsTile(0));
+        assertEquals(1, layer.getAllocatedTileCount());
+        assertEquals(0, store.getLayer(LayerType.TOTAL_MASK).getAllocatedTileCount());
+        assertTrue(dirty.getLeft() >= 5 && dirty.getRight() <= 105);
+    }
+
+    @Test
+    public void stroke_acrossTileBoundary_dirtiesBothTiles() {
+        LayerStore store = new LayerStore(1024, 1024);
+        store.beginStroke(LayerType.TOTAL_MASK, 200f, 50f, 8f, 0xFFFFFFFF);
+        store.strokeTo(300f, 50f);
+        DirtyRegion dirty = store.endStroke();
+
+        TiledLayer layer = store.getLayer(LayerType.TOTAL_MASK);
+        assertEquals(2, dirty.getTileCount());
+        assertTrue(dirty.containsTile(layer.tileIndex(0, 0)));
+        assertTrue(dirty.containsTile(layer.tileIndex(1, 0)));
+
+        int[] px = new int[1];
+        layer.readPixels(px, 0, 1, 250, 50, 1, 1);
+        assertEquals(0xFFFFFFFF, px[0]);
+        layer.readPixels(px, 0, 1, 250, 80, 1, 1);
+        assertEquals(0, px[0]);
+    }
+
+    @Test
+    public void collectTilesChangedSince_onlyReturnsNewerTiles() {
+        LayerStore store = new LayerStore(1024, 1024);
+        TiledLayer layer = store.getLayer(LayerType.ADD_COLOR);
+        store.beginStroke(LayerType.ADD_COLOR, 10f, 10f, 4f, 0xFFFF0000);
+        store.endStroke();
+        long seen = layer.getVersion();
+
+        store.beginStroke(LayerType.ADD_COLOR, 600f, 600f, 4f, 0xFFFF0000);
+        store.endStroke();
+
+        BitSet changed = new BitSet();
+        assertTrue(layer.collectTilesChangedSince(seen, changed));
+        assertEquals(1, changed.cardinality());
+        assertTrue(changed.get(layer.tileIndex(2, 2)));
+        assertFalse(layer.collectTilesChangedSince(layer.getVersion(), new BitSet()));
+    }
+
+    @Test
+    public void writeAndReadPixels_roundTripAcrossTiles() {
+        ColorLayer layer = new ColorLayer(LayerType.ORIGINAL_IMAGE, 300, 300);
+        int[] src = new int[300 * 300];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = 0xFF000000 | i;
+        }
+        layer.writePixels(src, 0, 300, 0, 0, 300, 300, null);
+        assertEquals(4, layer.getAllocatedTileCount());
+
+        int[] out = new int[src.length];
+        layer.readPixels(out, 0, 300, 0, 0, 300, 300);
+        assertArrayEquals(src, out);
+    }
+
+    @Test
+    public void snapshot_isUnaffectedByLaterStrokes() {
+        LayerStore store = new LayerStore(600, 400);
+        store.beginStroke(LayerType.ADD_COLOR, 20f, 20f, 8f, 0xFFFF0000);
+        store.strokeTo(300f, 200f);
+        store.endStroke();
+        store.beginStroke(LayerType.TOTAL_MASK, 50f, 300f, 10f, 0xFFFFFFFF);
+        store.endStroke();
+        int[] before = readAll(store.getLayer(LayerType.ADD_COLOR));
+        int[] maskBefore = readAll(store.getLayer(LayerType.TOTAL_MASK));
+
+        LayerStore snapshot = store.snapshot();
+        TiledLayer color = snapshot.getLayer(LayerType.ADD_COLOR);
+        assertTrue(color.isSnapshot());
+        assertEquals(store.getLayer(LayerType.ADD_COLOR).getVersion(), color.getVersion());
+        // Strokes over the shared tiles copy them instead of writing through
+        store.beginStroke(LayerType.ADD_COLOR, 20f, 200f, 30f, 0xFF00FF00);
+        store.strokeTo(300f, 20f);
+        store.endStroke();
+        store.beginStroke(LayerType.TOTAL_MASK, 50f, 300f, 40f, 0xFFFFFFFF);
+        store.endStroke();
+
+        assertArrayEquals(before, readAll(color));
+        assertArrayEquals(maskBefore, readAll(snapshot.getLayer(LayerType.TOTAL_MASK)));
+        assertFalse(Arrays.equals(before, readAll(store.getLayer(LayerType.ADD_COLOR))));
+        int[] bounds = new int[4];
+        assertTrue(color.getContentBounds(bounds));
+        assertTrue(bounds[2] <= 310);
+        try {
+            color.drawSegment(0f, 0f, 10f, 10f, 2f, 0xFF000000, null);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+            // Snapshots are read-only
+        }
+    }
+
+    @Test
+    public void snapshot_reusesLayersThatDidNotChange() {
+        LayerStore store = new LayerStore(600, 400);
+        store.beginStroke(LayerType.ADD_COLOR, 20f, 20f, 8f, 0xFFFF0000);
+        store.endStroke();
+        LayerStore first = store.snapshot();
+        store.beginStroke(LayerType.TOTAL_MASK, 50f, 300f, 10f, 0xFFFFFFFF);
+        store.endStroke();
+        LayerStore second = store.snapshot();
+
+        assertSame(first.getLayer(LayerType.ADD_COLOR), second.getLayer(LayerType.ADD_COLOR));
+        assertNotSame(first.getLayer(LayerType.TOTAL_MASK), second.getLayer(LayerType.TOTAL_MASK));
+        store.releaseSnapshots();
+        assertNotSame(second.getLayer(LayerType.ADD_COLOR), store.snapshot().getLayer(LayerType.ADD_COLOR));
+    }
+
+    private static int[] readAll(TiledLayer layer) {
+        int[] pixels = new int[layer.getWidth() * layer.getHeight()];
+        layer.readPixels(pixels, 0, layer.getWidth(), 0, 0, layer.getWidth(), layer.getHeight());
+        return pixels;
+    }
+}
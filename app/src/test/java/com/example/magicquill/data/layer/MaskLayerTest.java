@@ -0,0 +1,63 @@
+package com.example.magicquill.data.layer;
+
+import com.example.magicquill.ui.model.ToolModel;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for alpha-only mask layers.
+ */
+public class MaskLayerTest {
+
+    @Test
+    public void maskLayers_useAlphaStorage() {
+        LayerStore store = new LayerStore(512, 512);
+        assertTrue(store.getLayer(LayerType.ADD_EDGE) instanceof MaskLayer);
+        assertTrue(store.getLayer(LayerType.REMOVE_EDGE) instanceof MaskLayer);
+        assertTrue(store.getLayer(LayerType.TOTAL_MASK) instanceof MaskLayer);
+        assertTrue(store.getLayer(LayerType.ADD_COLOR) instanceof ColorLayer);
+
+        int argbTile = new ColorLayer(LayerType.ADD_COLOR, 1, 1).getBytesPerTile();
+        assertEquals(argbTile / 4, new MaskLayer(LayerType.TOTAL_MASK, 1, 1, MaskFormat.ALPHA_8, 0).getBytesPerTile());
+        assertEquals(argbTile / 32, new MaskLayer(LayerType.TOTAL_MASK, 1, 1, MaskFormat.PACKED_1BIT, 0).getBytesPerTile());
+    }
+
+    @Test
+    public void readPixels_expandsToMaskColor() {
+        LayerStore store = new LayerStore(512, 512);
+        store.beginStroke(LayerType.TOTAL_MASK, 20f, 20f, 5f, 0xFFFFFFFF);
+        store.endStroke();
+        store.beginStroke(LayerType.ADD_EDGE, 20f, 20f, 5f, 0xFF000000);
+        store.endStroke();
+
+        int[] px = new int[1];
+        store.getLayer(LayerType.TOTAL_MASK).readPixels(px, 0, 1, 20, 20, 1, 1);
+        assertEquals(0xFFFFFFFF, px[0]);
+        store.getLayer(LayerType.ADD_EDGE).readPixels(px, 0, 1, 20, 20, 1, 1);
+        assertEquals(0xFF000000, px[0]);
+        store.getLayer(LayerType.ADD_EDGE).readPixels(px, 0, 1, 100, 100, 1, 1);
+        assertEquals(0, px[0]);
+    }
+
+    @Test
+    public void setMaskFormat_convertsExistingPixels() {
+        LayerStore store = new LayerStore(512, 512);
+        store.beginStroke(LayerType.REMOVE_EDGE, 300f, 300f, 6f, 0xFF000000);
+        store.endStroke();
+        store.setMaskFormat(ToolModel.ToolType.REMOVE_EDGE, MaskFormat.PACKED_1BIT);
+
+        MaskLayer layer = (MaskLayer) store.getLayer(LayerType.REMOVE_EDGE);
+        assertEquals(MaskFormat.PACKED_1BIT, layer.getFormat());
+        assertEquals(MaskFormat.PACKED_1BIT, store.getMaskFormat(ToolModel.ToolType.REMOVE_EDGE));
+        assertEquals(0xFF, layer.getAlphaAt(300, 300));
+        assertEquals(0, layer.getAlphaAt(320, 300));
+        assertEquals(1, layer.getAllocatedTileCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setMaskFormat_rejectsNonMaskTool() {
+        new LayerStore(64, 64).setMaskFormat(ToolModel.ToolType.COLOR_BRUSH, MaskFormat.ALPHA_8);
+    }
+}
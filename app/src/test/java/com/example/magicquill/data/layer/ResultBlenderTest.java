@@ -0,0 +1,196 @@
+package com.example.magicquill.data.layer;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for blending generated images into the original layer.
+ */
+public class ResultBlenderTest {
+
+    private static final int WIDTH = 900;
+    private static final int HEIGHT = 600;
+    private static final int GENERATED = 0xFF2040C0;
+
+    private ResultBlender blender;
+
+    @After
+    public void tearDown() {
+        if (blender != null) {
+            blender.shutdown();
+        }
+    }
+
+    @Test
+    public void blend_replacesOnlyTheGrownMaskWithAFeatheredEdge() throws Exception {
+        blender = new ResultBlender(4);
+        LayerStore store = newStore();
+        store.beginStroke(LayerType.TOTAL_MASK, 300f, 300f, 10f, 0xFFFFFFFF);
+        store.strokeTo(340f, 300f);
+        store.endStroke();
+        int[] before = readOriginal(store);
+        TiledLayer original = store.getLayer(LayerType.ORIGINAL_IMAGE);
+        int farTile = original.tileIndex(3, 2);
+        long farVersion = original.getTileVersion(farTile);
+
+        int growSize = 12;
+        int feather = 6;
+        ResultBlender.Blend blend = blender.blend(store, filled(WIDTH * HEIGHT), wholeCanvas(), growSize, feather);
+        DirtyRegion dirty = new DirtyRegion(LayerType.ORIGINAL_IMAGE);
+        assertTrue(blend.apply(store, dirty));
+        assertFalse(dirty.isEmpty());
+        int[] after = readOriginal(store);
+
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int i = y * WIDTH + x;
+                // Distance to the stroke's capsule
+                double d = Math.hypot(x - Math.max(300, Math.min(340, x)), y - 300) - 10;
+                if (d <= growSize - 1) {
+                    assertEquals("inside at " + x + "," + y, GENERATED, after[i]);
+                } else if (d > growSize + feather + 1) {
+                    assertEquals("outside at " + x + "," + y, before[i], after[i]);
+                }
+            }
+        }
+        // A pixel halfway through the fade is a mix of both
+        int mid = after[300 * WIDTH + 340 + 10 + growSize + feather / 2];
+        assertNotEquals(GENERATED, mid);
+        assertNotEquals(before[300 * WIDTH + 340 + 10 + growSize + feather / 2], mid);
+        // Tiles out of reach are not even written
+        assertEquals(farVersion, original.getTileVersion(farTile));
+    }
+
+    @Test
+    public void blend_isTheSameOnOneOrManyThreads() throws Exception {
+        LayerStore store = newStore();
+        store.beginStroke(LayerType.TOTAL_MASK, 100f, 100f, 30f, 0xFFFFFFFF);
+        store.strokeTo(800f, 500f);
+        store.endStroke();
+        int[] generated = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < generated.length; i++) {
+            generated[i] = 0xFF000000 | i * 0x61C88647 >>> 8;
+        }
+
+        LayerStore serialStore = newStore();
+        serialStore.beginStroke(LayerType.TOTAL_MASK, 100f, 100f, 30f, 0xFFFFFFFF);
+        serialStore.strokeTo(800f, 500f);
+        serialStore.endStroke();
+        ResultBlender serial = new ResultBlender(1);
+        blender = new ResultBlender(4);
+        try {
+            assertTrue(serial.blend(serialStore, generated, wholeCanvas(), 20, 8).apply(serialStore, null));
+        } finally {
+            serial.shutdown();
+        }
+        assertTrue(blender.blend(store, generated, wholeCanvas(), 20, 8).apply(store, null));
+        assertArrayEquals(readOriginal(serialStore), readOriginal(store));
+    }
+
+    @Test
+    public void blend_usesTheWholeImageWhenNothingIsMasked() throws Exception {
+        blender = new ResultBlender(2);
+        LayerStore store = newStore();
+        CropRegion area = new CropRegion(WIDTH, HEIGHT, 200, 100, 300, 250);
+        TiledLayer mask = store.getLayer(LayerType.TOTAL_MASK);
+        assertSame(area, ResultBlender.affectedArea(mask, area, 10, ResultBlender.DEFAULT_FEATHER));
+        int[] before = readOriginal(store);
+
+        assertTrue(blender.blend(store, filled(300 * 250), area, 10, ResultBlender.DEFAULT_FEATHER).apply(store, null));
+        int[] after = readOriginal(store);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                boolean inArea = x >= 200 && x < 500 && y >= 100 && y < 350;
+                assertEquals(x + "," + y, inArea ? GENERATED : before[y * WIDTH + x], after[y * WIDTH + x]);
+            }
+        }
+    }
+
+    @Test
+    public void affectedArea_isNullWhenTheMaskIsOutOfReach() {
+        LayerStore store = newStore();
+        store.beginStroke(LayerType.TOTAL_MASK, 800f, 500f, 5f, 0xFFFFFFFF);
+        store.endStroke();
+        CropRegion area = new CropRegion(WIDTH, HEIGHT, 0, 0, 300, 200);
+        TiledLayer mask = store.getLayer(LayerType.TOTAL_MASK);
+        assertNull(ResultBlender.affectedArea(mask, area, 20, ResultBlender.DEFAULT_FEATHER));
+    }
+
+    @Test
+    public void apply_dropsABlendOfAnOutdatedOriginal() throws Exception {
+        blender = new ResultBlender(2);
+        LayerStore store = newStore();
+        store.beginStroke(LayerType.TOTAL_MASK, 300f, 300f, 10f, 0xFFFFFFFF);
+        store.endStroke();
+        ResultBlender.Blend blend = blender.blend(store, filled(WIDTH * HEIGHT), wholeCanvas(), 5, 4);
+        assertTrue(blend.getTileCount() > 0);
+
+        store.getLayer(LayerType.ORIGINAL_IMAGE).writePixels(new int[] {0xFF000000}, 0, 1, 0, 0, 1, 1, null);
+        int[] before = readOriginal(store);
+        assertFalse(blend.apply(store, null));
+        assertArrayEquals(before, readOriginal(store));
+    }
+
+    @Test
+    public void blend_usesTheMaskTheRequestWasSentWith() throws Exception {
+        blender = new ResultBlender(2);
+        LayerStore store = newStore();
+        store.beginStroke(LayerType.TOTAL_MASK, 100f, 100f, 10f, 0xFFFFFFFF);
+        store.endStroke();
+        TiledLayer requestMask = store.snapshot().getLayer(LayerType.TOTAL_MASK);
+        // Masked while the request was out
+        store.beginStroke(LayerType.TOTAL_MASK, 800f, 500f, 10f, 0xFFFFFFFF);
+        store.endStroke();
+
+        CropRegion area = ResultBlender.affectedArea(requestMask, wholeCanvas(), 5, 4);
+        assertTrue(area.toString(), area.getLeft() + area.getWidth() < 300 && area.getTop() + area.getHeight() < 300);
+        ResultBlender.Blend blend = blender.blend(store, requestMask, filled(WIDTH * HEIGHT), wholeCanvas(), 5, 4);
+        assertTrue(blend.getTileCount() > 0);
+        // Strokes made meanwhile do not stop the result from being used
+        int[] before = readOriginal(store);
+        assertTrue(blend.apply(store, null));
+        int[] after = readOriginal(store);
+        assertEquals(GENERATED, after[100 * WIDTH + 100]);
+        assertEquals(before[500 * WIDTH + 800], after[500 * WIDTH + 800]);
+    }
+
+    @Test
+    public void mix_weightsEachChannel() {
+        assertEquals(0xFF000000, ResultBlender.mix(0xFF000000, 0xFFFFFFFF, 0));
+        assertEquals(0xFFFFFFFF, ResultBlender.mix(0xFF000000, 0xFFFFFFFF, 255));
+        assertEquals(0xFF808080, ResultBlender.mix(0xFF000000, 0xFFFFFFFF, 128));
+        assertEquals(0x80FF0000, ResultBlender.mix(0x00FF0000, 0xFFFF0000, 128));
+    }
+
+    private static LayerStore newStore() {
+        LayerStore store = new LayerStore(WIDTH, HEIGHT);
+        int[] photo = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                photo[y * WIDTH + x] = 0xFF000000 | (x & 0xFF) << 16 | (y & 0xFF) << 8 | ((x ^ y) & 0xFF);
+            }
+        }
+        store.getLayer(LayerType.ORIGINAL_IMAGE).writePixels(photo, 0, WIDTH, 0, 0, WIDTH, HEIGHT, null);
+        return store;
+    }
+
+    private static CropRegion wholeCanvas() {
+        return new CropRegion(WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT);
+    }
+
+    private static int[] filled(int count) {
+        int[] pixels = new int[count];
+        Arrays.fill(pixels, GENERATED);
+        return pixels;
+    }
+
+    private static int[] readOriginal(LayerStore store) {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        store.getLayer(LayerType.ORIGINAL_IMAGE).readPixels(pixels, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+        return pixels;
+    }
+}
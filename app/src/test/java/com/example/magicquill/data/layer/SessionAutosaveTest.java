@@ -0,0 +1,210 @@
+package com.example.magicquill.data.layer;
+
+import com.example.magicquill.ui.model.ToolModel;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for saving a canvas to disk and resuming it.
+ */
+public class SessionAutosaveTest {
+
+    private static final int WIDTH = 900;
+    private static final int HEIGHT = 600;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void resume_bringsBackEveryLayer() throws Exception {
+        File dir = folder.newFolder("session");
+        LayerStore store = paintedStore();
+        SessionAutosave autosave = SessionAutosave.create(store, dir);
+        autosave.flush().get();
+        autosave.close();
+
+        SessionAutosave resumed = SessionAutosave.resume(dir);
+        try {
+            assertNotNull(resumed);
+            LayerStore restored = resumed.getStore();
+            assertEquals(WIDTH, restored.getWidth());
+            assertEquals(HEIGHT, restored.getHeight());
+            for (LayerType type : LayerType.values()) {
+                assertArrayEquals(type.toString(), readAll(store, type), readAll(restored, type));
+            }
+            int[] bounds = new int[4];
+            assertTrue(restored.getLayer(LayerType.TOTAL_MASK).getContentBounds(bounds));
+            // Strokes go on as usual, with undo
+            restored.beginStroke(LayerType.ADD_EDGE, 10f, 10f, 4f, 0xFF000000);
+            restored.endStroke();
+            assertTrue(restored.undo());
+        } finally {
+            resumed.close();
+        }
+    }
+
+    @Test
+    public void flush_writesOnlyLayersThatChanged() throws Exception {
+        File dir = folder.newFolder("session");
+        SessionAutosave autosave = SessionAutosave.create(paintedStore(), dir);
+        autosave.flush().get();
+        long originalSequence = sequenceOf(dir, "original_image");
+        long maskSequence = sequenceOf(dir, "total_mask");
+
+        LayerStore store = autosave.getStore();
+        store.beginStroke(LayerType.TOTAL_MASK, 100f, 500f, 8f, 0xFFFFFFFF);
+        store.strokeTo(120f, 520f);
+        store.endStroke();
+        autosave.flush().get();
+        // Nothing changed at all: no commit
+        autosave.flush().get();
+        autosave.close();
+
+        assertEquals(originalSequence, sequenceOf(dir, "original_image"));
+        assertEquals(maskSequence + 1, sequenceOf(dir, "total_mask"));
+        SessionAutosave resumed = SessionAutosave.resume(dir);
+        try {
+            assertArrayEquals(readAll(store, LayerType.TOTAL_MASK), readAll(resumed.getStore(), LayerType.TOTAL_MASK));
+        } finally {
+            resumed.close();
+        }
+    }
+
+    @Test
+    public void flush_rewritesALayerWhoseFormatChanged() throws Exception {
+        File dir = folder.newFolder("session");
+        LayerStore store = paintedStore();
+        SessionAutosave autosave = SessionAutosave.create(store, dir);
+        autosave.flush().get();
+        store.setMaskFormat(ToolModel.ToolType.ERASER, MaskFormat.PACKED_1BIT);
+        autosave.flush().get();
+        autosave.close();
+
+        SessionAutosave resumed = SessionAutosave.resume(dir);
+        try {
+            assertEquals(MaskFormat.PACKED_1BIT, resumed.getStore().getMaskFormat(ToolModel.ToolType.ERASER));
+            assertArrayEquals(readAll(store, LayerType.TOTAL_MASK), readAll(resumed.getStore(), LayerType.TOTAL_MASK));
+        } finally {
+            resumed.close();
+        }
+        assertEquals(0, dir.listFiles((d, name) -> name.endsWith(".tmp")).length);
+    }
+
+    @Test
+    public void resume_findsNothingInAnEmptyDirectory() throws Exception {
+        assertNull(SessionAutosave.resume(folder.newFolder("empty")));
+    }
+
+    @Test
+    public void resume_findsNothingUntilAFlushFinishes() throws Exception {
+        File dir = folder.newFolder("session");
+        SessionAutosave autosave = SessionAutosave.create(paintedStore(), dir);
+        autosave.flush().get();
+        autosave.close();
+        // As if the first flush stopped before the manifest
+        assertTrue(new File(dir, SessionAutosave.MANIFEST).delete());
+
+        assertNull(SessionAutosave.resume(dir));
+    }
+
+    @Test
+    public void resume_bringsLayersBackFromTheSameFlush() throws Exception {
+        File dir = folder.newFolder("session");
+        LayerStore store = paintedStore();
+        SessionAutosave autosave = SessionAutosave.create(store, dir);
+        autosave.flush().get();
+        autosave.close();
+
+        // A second flush committed the mask and a rewritten edge layer, then stopped
+        byte[] filled = new byte[store.getLayer(LayerType.TOTAL_MASK).getBytesPerTile()];
+        Arrays.fill(filled, (byte) 0xFF);
+        try (LayerFile mask = LayerFile.open(new File(dir, "total_mask.layer"))) {
+            mask.commit(tiles(0, filled), mask.getLayerVersion() + 1, mask.getGeneration() + 1);
+        }
+        File rewrite = new File(dir, "add_edge_image.layer.new");
+        try (LayerFile edge = LayerFile.create(rewrite, store.getLayer(LayerType.ADD_EDGE))) {
+            edge.commit(tiles(0, filled), 99, 2);
+        }
+
+        SessionAutosave resumed = SessionAutosave.resume(dir);
+        try {
+            for (LayerType type : LayerType.values()) {
+                assertArrayEquals(type.toString(), readAll(store, type), readAll(resumed.getStore(), type));
+            }
+            assertFalse(rewrite.exists());
+        } finally {
+            resumed.close();
+        }
+    }
+
+    @Test
+    public void resume_finishesARewriteTheManifestNames() throws Exception {
+        File dir = folder.newFolder("session");
+        LayerStore store = paintedStore();
+        SessionAutosave autosave = SessionAutosave.create(store, dir);
+        autosave.flush().get();
+        File maskFile = new File(dir, "total_mask.layer");
+        File before = folder.newFile("total_mask.before");
+        Files.copy(maskFile.toPath(), before.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        store.setMaskFormat(ToolModel.ToolType.ERASER, MaskFormat.PACKED_1BIT);
+        autosave.flush().get();
+        autosave.close();
+
+        // As if the flush stopped after the manifest but before the rename
+        Files.move(maskFile.toPath(), new File(dir, "total_mask.layer.new").toPath());
+        Files.copy(before.toPath(), maskFile.toPath());
+
+        SessionAutosave resumed = SessionAutosave.resume(dir);
+        try {
+            assertEquals(MaskFormat.PACKED_1BIT, resumed.getStore().getMaskFormat(ToolModel.ToolType.ERASER));
+            assertArrayEquals(readAll(store, LayerType.TOTAL_MASK), readAll(resumed.getStore(), LayerType.TOTAL_MASK));
+        } finally {
+            resumed.close();
+        }
+    }
+
+    private static LayerStore paintedStore() {
+        LayerStore store = new LayerStore(WIDTH, HEIGHT);
+        int[] photo = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < photo.length; i++) {
+            photo[i] = 0xFF000000 | i * 0x9E3779B1 >>> 8;
+        }
+        store.getLayer(LayerType.ORIGINAL_IMAGE).writePixels(photo, 0, WIDTH, 0, 0, WIDTH, HEIGHT, null);
+        store.beginStroke(LayerType.ADD_COLOR, 50f, 60f, 20f, 0xFFFF0000);
+        store.strokeTo(400f, 300f);
+        store.endStroke();
+        store.beginStroke(LayerType.TOTAL_MASK, 500f, 100f, 15f, 0xFFFFFFFF);
+        store.strokeTo(800f, 450f);
+        store.endStroke();
+        return store;
+    }
+
+    private static int[] readAll(LayerStore store, LayerType type) {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        store.getLayer(type).readPixels(pixels, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+        return pixels;
+    }
+
+    private static Map<Integer, Object> tiles(int index, Object data) {
+        Map<Integer, Object> tiles = new HashMap<>();
+        tiles.put(index, data);
+        return tiles;
+    }
+
+    private static long sequenceOf(File dir, String name) throws Exception {
+        try (LayerFile file = LayerFile.open(new File(dir, name + ".layer"))) {
+            return file.getSequence();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.magicquill.data.layer;
+
+import com.example.magicquill.ui.model.ToolModel;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for stroke-command undo/redo.
+ */
+public class StrokeHistoryTest {
+
+    private static final LayerType[] STROKE_LAYERS = {
+        LayerType.ADD_EDGE, LayerType.REMOVE_EDGE, LayerType.ADD_COLOR, LayerType.TOTAL_MASK
+    };
+
+    @Test
+    public void undoEveryStroke_matchesStateBeforeIt() {
+        LayerStore store = new LayerStore(700, 500);
+        store.getHistory().setCheckpointInterval(4);
+        Random random = new Random(7);
+        List<int[][]> states = new ArrayList<>();
+        states.add(capture(store));
+        for (int i = 0; i < 20; i++) {
+            drawRandomStroke(store, random);
+            states.add(capture(store));
+        }
+        assertEquals(20, store.getHistory().getUndoDepth());
+        assertTrue(store.getHistory().getCheckpointCount() > 1);
+
+        for (int i = 19; i >= 0; i--) {
+            assertTrue(store.undo());
+            assertStateEquals(states.get(i), store);
+        }
+        assertFalse(store.undo());
+        // Every tile was allocated by a stroke, so undoing them all frees the memory
+        assertEquals(0, store.getAllocatedBytes());
+
+        for (int i = 1; i <= 20; i++) {
+            assertTrue(store.redo());
+            assertStateEquals(states.get(i), store);
+        }
+        assertFalse(store.redo());
+    }
+
+    @Test
+    public void newStroke_afterUndo_discardsRedo() {
+        LayerStore store = new LayerStore(300, 300);
+        Random random = new Random(3);
+        drawRandomStroke(store, random);
+        drawRandomStroke(store, random);
+        assertTrue(store.undo());
+        assertTrue(store.canRedo());
+
+        drawRandomStroke(store, random);
+        int[][] expected = capture(store);
+        assertFalse(store.canRedo());
+        assertTrue(store.undo());
+        assertTrue(store.redo());
+        assertStateEquals(expected, store);
+    }
+
+    @Test
+    public void budget_dropsOldestStrokes() {
+        LayerStore store = new LayerStore(1024, 1024);
+        StrokeHistory history = store.getHistory();
+        history.setCheckpointInterval(2);
+        // Edge tiles are 64 KB; the whole layer is 1 MB
+        long budget = 2 * 1024 * 1024;
+        history.setBudgetBytes(budget);
+        Random random = new Random(11);
+        int[][] latest = null;
+        int[][] previous = null;
+        for (int i = 0; i < 40; i++) {
+            previous = latest;
+            drawRandomStroke(store, random, LayerType.ADD_EDGE);
+            latest = capture(store);
+            assertTrue("used " + history.getUsedBytes(), history.getUsedBytes() <= budget);
+        }
+        assertTrue(history.getUndoDepth() < 40);
+        assertTrue(history.getUndoDepth() > 0);
+
+        // What is left still undoes correctly
+        assertTrue(store.undo());
+        assertStateEquals(previous, store);
+        while (store.undo()) {
+            // Undo as far as the budget allows
+        }
+        assertTrue(store.redo());
+    }
+
+    @Test
+    public void strokesOnOriginal_areNotRecorded() {
+        LayerStore store = new LayerStore(200, 200);
+        store.beginStroke(LayerType.ORIGINAL_IMAGE, 50f, 50f, 5f, 0xFFFF0000);
+        store.endStroke();
+        assertFalse(store.canUndo());
+    }
+
+    @Test
+    public void maskFormatChange_resetsHistory() {
+        LayerStore store = new LayerStore(200, 200);
+        drawRandomStroke(store, new Random(1));
+        store.setMaskFormat(ToolModel.ToolType.ADD_EDGE, MaskFormat.PACKED_1BIT);
+        assertFalse(store.canUndo());
+    }
+
+    @Test
+    public void cancelStroke_restoresPixelsAndRecordsNothing() {
+        LayerStore store = new LayerStore(600, 400);
+        Random random = new Random(3);
+        drawRandomStroke(store, random);
+        int[][] before = capture(store);
+
+        store.beginStroke(LayerType.ADD_EDGE, 20f, 20f, 6f, 0xFF000000);
+        store.strokeTo(500f, 300f);
+        store.cancelStroke();
+
+        assertFalse(store.isStrokeActive());
+        assertStateEquals(before, store);
+        assertEquals(1, store.getHistory().getUndoDepth());
+        assertFalse(store.canRedo());
+    }
+
+    private static void drawRandomStroke(LayerStore store, Random random) {
+        drawRandomStroke(store, random, STROKE_LAYERS[random.nextInt(STROKE_LAYERS.length)]);
+    }
+
+    private static void drawRandomStroke(LayerStore store, Random random, LayerType type) {
+        int color = type == LayerType.ADD_COLOR ? 0xFF000000 | random.nextInt(0xFFFFFF) : type.getDefaultBrushColor();
+        float x = random.nextFloat() * store.getWidth();
+        float y = random.nextFloat() * store.getHeight();
+        store.beginStroke(type, x, y, 3f + random.nextFloat() * 20f, color);
+        for (int i = 0; i < 8; i++) {
+            x += (random.nextFloat() - 0.5f) * 150f;
+            y += (random.nextFloat() - 0.5f) * 150f;
+            store.strokeTo(x, y);
+        }
+        store.endStroke();
+    }
+
+    private static int[][] capture(LayerStore store) {
+        int[][] state = new int[STROKE_LAYERS.length][];
+        for (int i = 0; i < STROKE_LAYERS.length; i++) {
+            state[i] = new int[store.getWidth() * store.getHeight()];
+            store.getLayer(STROKE_LAYERS[i]).readPixels(state[i], 0, store.getWidth(), 0, 0, store.getWidth(), store.getHeight());
+        }
+        return state;
+    }
+
+    private static void assertStateEquals(int[][] expected, LayerStore store) {
+        int[][] actual = capture(store);
+        for (int i = 0; i < STROKE_LAYERS.length; i++) {
+            assertArrayEquals(STROKE_LAYERS[i].name(), expected[i], actual[i]);
+        }
+    }
+}
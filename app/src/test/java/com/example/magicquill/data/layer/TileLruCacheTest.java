@@ -0,0 +1,37 @@
+package com.example.magicquill.data.layer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the per-tile LRU cache.
+ */
+public class TileLruCacheTest {
+
+    @Test
+    public void lruCache_evictsLeastRecentlyUsedOverBudget() {
+        int[] evicted = new int[1];
+        TileLruCache<String> cache = new TileLruCache<>(300, value -> evicted[0]++);
+        cache.put(1, 0, "a", 100);
+        cache.put(2, 0, "b", 100);
+        cache.put(3, 0, "c", 100);
+        assertEquals("a", cache.get(1, 0));
+        cache.put(4, 0, "d", 100);
+        assertNull(cache.peek(2));
+        assertEquals("a", cache.peek(1));
+        assertEquals(1, evicted[0]);
+        // A stale version misses but stays available for reuse
+        assertNull(cache.get(3, 1));
+        assertEquals("c", cache.peek(3));
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getSizeBytes());
+    }
+
+    @Test
+    public void key_separatesLayersAndTiles() {
+        assertNotEquals(TileLruCache.key(LayerType.ADD_COLOR, 3), TileLruCache.key(LayerType.TOTAL_MASK, 3));
+        assertNotEquals(TileLruCache.key(LayerType.ADD_COLOR, 3), TileLruCache.key(LayerType.ADD_COLOR, 4));
+    }
+}
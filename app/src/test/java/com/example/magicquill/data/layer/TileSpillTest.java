@@ -0,0 +1,126 @@
+package com.example.magicquill.data.layer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for spilling layer tiles to disk and reading them back.
+ */
+public class TileSpillTest {
+
+    private static final int WIDTH = 700;
+    private static final int HEIGHT = 500;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void spill_releasesTilesAndRestoreBringsThemBackUnchanged() throws Exception {
+        LayerStore store = paintedStore();
+        int[][] before = readAll(store);
+        long[] versions = versions(store);
+        long heap = allocatedBytes(store);
+        File file = folder.newFile("spill.bin");
+
+        TileSpill spill = new TileSpill(store, file);
+        long written = spill.spill();
+        assertTrue(spill.isSpilled());
+        assertTrue(written >= heap);
+        assertEquals(0, allocatedBytes(store));
+        // A second spill has nothing left to do
+        assertEquals(0, spill.spill());
+
+        spill.restore();
+        assertFalse(spill.isSpilled());
+        assertFalse(file.exists());
+        assertEquals(heap, allocatedBytes(store));
+        for (LayerType type : LayerType.values()) {
+            assertArrayEquals(type.toString(), before[type.ordinal()], readAll(store)[type.ordinal()]);
+        }
+        // Caches built against the old versions stay valid
+        assertArrayEquals(versions, versions(store));
+    }
+
+    @Test
+    public void restore_keepsContentBoundsAndUndo() throws Exception {
+        LayerStore store = paintedStore();
+        int[] bounds = new int[4];
+        assertTrue(store.getLayer(LayerType.TOTAL_MASK).getContentBounds(bounds));
+
+        TileSpill spill = new TileSpill(store, folder.newFile("spill.bin"));
+        spill.spill();
+        spill.restore();
+
+        int[] restored = new int[4];
+        assertTrue(store.getLayer(LayerType.TOTAL_MASK).getContentBounds(restored));
+        assertArrayEquals(bounds, restored);
+        assertTrue(store.undo());
+        assertFalse(store.getLayer(LayerType.TOTAL_MASK).getContentBounds(restored));
+    }
+
+    @Test
+    public void restore_rejectsAFileOfAnotherCanvas() throws Exception {
+        LayerStore store = paintedStore();
+        File file = folder.newFile("spill.bin");
+        TileSpill spill = new TileSpill(store, file);
+        spill.spill();
+        try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+            raw.seek(8);
+            raw.writeInt(WIDTH + 1);
+        }
+
+        try {
+            spill.restore();
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            assertTrue(spill.isSpilled());
+        }
+    }
+
+    private static LayerStore paintedStore() {
+        LayerStore store = new LayerStore(WIDTH, HEIGHT);
+        int[] photo = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < photo.length; i++) {
+            photo[i] = 0xFF000000 | i * 0x9E3779B1 >>> 8;
+        }
+        store.getLayer(LayerType.ORIGINAL_IMAGE).writePixels(photo, 0, WIDTH, 0, 0, WIDTH, HEIGHT, null);
+        store.beginStroke(LayerType.ADD_COLOR, 50f, 60f, 20f, 0xFFFF0000);
+        store.strokeTo(400f, 300f);
+        store.endStroke();
+        store.beginStroke(LayerType.TOTAL_MASK, 500f, 100f, 15f, 0xFFFFFFFF);
+        store.strokeTo(600f, 450f);
+        store.endStroke();
+        return store;
+    }
+
+    private static int[][] readAll(LayerStore store) {
+        int[][] pixels = new int[LayerType.values().length][WIDTH * HEIGHT];
+        for (LayerType type : LayerType.values()) {
+            store.getLayer(type).readPixels(pixels[type.ordinal()], 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+        }
+        return pixels;
+    }
+
+    private static long[] versions(LayerStore store) {
+        long[] versions = new long[LayerType.values().length];
+        for (LayerType type : LayerType.values()) {
+            versions[type.ordinal()] = store.getLayer(type).getVersion();
+        }
+        return versions;
+    }
+
+    private static long allocatedBytes(LayerStore store) {
+        long bytes = 0;
+        for (LayerType type : LayerType.values()) {
+            bytes += store.getLayer(type).getAllocatedBytes();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.magicquill.data.layer;
+
+import com.example.magicquill.data.GenerationQuality;
+import com.example.magicquill.data.encode.LayerSerializer;
+import com.example.magicquill.data.encode.PngEncoder;
+import com.example.magicquill.data.image.RawImageFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the working-resolution / full-resolution pipeline.
+ */
+public class WorkingResolutionTest {
+
+    private File file;
+    private RawImageFile original;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("original", ".raw");
+        original = RawImageFile.create(file, 3000, 2000);
+        int[] row = new int[3000];
+        for (int y = 0; y < 2000; y++) {
+            for (int x = 0; x < 3000; x++) {
+                row[x] = 0xFF000000 | ((x / 12) << 16) | ((y / 8) << 8) | 0x40;
+            }
+            original.writeRows(y, 1, row);
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        original.close();
+        file.delete();
+    }
+
+    @Test
+    public void fitLongEdge_capsAndKeepsAspect() {
+        assertArrayEquals(new int[]{1024, 683}, WorkingResolution.fitLongEdge(3000, 2000, 1024));
+        assertArrayEquals(new int[]{512, 1024}, WorkingResolution.fitLongEdge(4000, 8000, 1024));
+        assertArrayEquals(new int[]{800, 600}, WorkingResolution.fitLongEdge(800, 600, 1024));
+    }
+
+    @Test
+    public void downsample_averagesSourcePixels() throws IOException {
+        RawImageFile reopened = RawImageFile.open(file);
+        try {
+            ColorLayer target = new ColorLayer(LayerType.ORIGINAL_IMAGE, 1500, 1000);
+            WorkingResolution.downsample(reopened, target);
+            int[] px = new int[1];
+            target.readPixels(px, 0, 1, 600, 400, 1, 1);
+            // 2x2 box over x 1200-1201, y 800-801
+            assertEquals(0xFF000000 | (100 << 16) | (100 << 8) | 0x40, px[0]);
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void fullStore_upscalesMasksNearestAndReadsOriginalFromDisk() throws IOException {
+        int[] size = WorkingResolution.fitLongEdge(3000, 2000, WorkingResolution.DEFAULT_MAX_LONG_EDGE);
+        LayerStore working = new LayerStore(size[0], size[1]);
+        WorkingResolution.downsample(original, working.getLayer(LayerType.ORIGINAL_IMAGE));
+        WorkingResolution resolution = new WorkingResolution(working, original);
+        working.beginStroke(LayerType.TOTAL_MASK, 100f, 100f, 10f, 0xFFFFFFFF);
+        working.endStroke();
+
+        assertSame(working, resolution.getStore(GenerationQuality.PREVIEW));
+        LayerStore full = resolution.getStore(GenerationQuality.FULL);
+        assertEquals(3000, full.getWidth());
+        assertEquals(2000, full.getHeight());
+        assertSame(full, resolution.getFullResolutionStore());
+
+        // Nearest-neighbour only repeats working pixels, never blends new values
+        Set<Integer> workingValues = new HashSet<>();
+        int[] workingRow = new int[size[0]];
+        for (int y = 80; y < 120; y++) {
+            working.getLayer(LayerType.TOTAL_MASK).readPixels(workingRow, 0, size[0], 0, y, size[0], 1);
+            for (int value : workingRow) {
+                workingValues.add(value);
+            }
+        }
+        TiledLayer mask = full.getLayer(LayerType.TOTAL_MASK);
+        int[] row = new int[3000];
+        for (int y = 240; y < 350; y++) {
+            mask.readPixels(row, 0, 3000, 0, y, 3000, 1);
+            for (int value : row) {
+                assertTrue(workingValues.contains(value));
+            }
+        }
+        int[] px = new int[1];
+        mask.readPixels(px, 0, 1, 293, 293, 1, 1);
+        assertEquals(0xFFFFFFFF, px[0]);
+        assertEquals(0, full.getLayer(LayerType.ADD_EDGE).getAllocatedTileCount());
+
+        full.getLayer(LayerType.ORIGINAL_IMAGE).readPixels(px, 0, 1, 2999, 1999, 1, 1);
+        assertEquals(0xFF000000 | (249 << 16) | (249 << 8) | 0x40, px[0]);
+
+        // Editing the working original switches the full store to an upscaled copy
+        int[] red = {0xFFFF0000};
+        working.getLayer(LayerType.ORIGINAL_IMAGE).writePixels(red, 0, 1, 0, 0, 1, 1, null);
+        assertNotSame(full, resolution.getFullResolutionStore());
+        resolution.getFullResolutionStore().getLayer(LayerType.ORIGINAL_IMAGE).readPixels(px, 0, 1, 0, 0, 1, 1);
+        assertEquals(0xFFFF0000, px[0]);
+    }
+
+    @Test
+    public void releaseSnapshots_dropsTheReusedFullStore() {
+        LayerStore working = new LayerStore(300, 200);
+        WorkingResolution resolution = new WorkingResolution(working, original);
+        working.beginStroke(LayerType.TOTAL_MASK, 100f, 100f, 10f, 0xFFFFFFFF);
+        working.endStroke();
+
+        LayerStore full = resolution.snapshot(GenerationQuality.FULL);
+        assertSame(full, resolution.snapshot(GenerationQuality.FULL));
+        resolution.releaseSnapshots();
+        LayerStore next = resolution.snapshot(GenerationQuality.FULL);
+        assertNotSame(full, next);
+        assertTrue(next.getLayer(LayerType.TOTAL_MASK).getContentBounds(new int[4]));
+    }
+
+    @Test
+    public void bilinear_blendsInPremultipliedSpace() {
+        // Half-transparent red next to fully transparent: color must stay red
+        int blended = ResampledLayer.blend(0x80FF0000, 0x00000000, 0x80FF0000, 0x00000000, 0.5f, 0.5f);
+        assertEquals(0x40, blended >>> 24);
+        assertEquals(0xFF0000, blended & 0xFFFFFF);
+        assertEquals(0xFF204060, ResampledLayer.blend(0xFF204060, 0xFF204060, 0xFF204060, 0xFF204060, 0.3f, 0.7f));
+    }
+
+    @Test
+    public void fullStore_encodesAtOriginalSize() throws Exception {
+        LayerStore working = new LayerStore(300, 200);
+        WorkingResolution.downsample(original, working.getLayer(LayerType.ORIGINAL_IMAGE));
+        working.beginStroke(LayerType.ADD_COLOR, 50f, 50f, 6f, 0xFF00FF00);
+        working.endStroke();
+        WorkingResolution resolution = new WorkingResolution(working, original);
+
+        LayerSerializer serializer = new LayerSerializer(1, new PngEncoder(1));
+        try {
+            LayerStore full = resolution.getStore(GenerationQuality.FULL);
+            Map<LayerType, byte[]> encoded = serializer.encodeAll(full);
+            BufferedImage color = ImageIO.read(new ByteArrayInputStream(encoded.get(LayerType.ADD_COLOR)));
+            assertEquals(3000, color.getWidth());
+            assertEquals(2000, color.getHeight());
+            assertEquals(0xFF00FF00, color.getRGB(500, 500));
+            assertNull(encoded.get(LayerType.REMOVE_EDGE));
+
+            // Unchanged working layers reuse the cached full-resolution encodings
+            assertSame(encoded.get(LayerType.ADD_COLOR), serializer.encodeAll(resolution.getStore(GenerationQuality.FULL)).get(LayerType.ADD_COLOR));
+        } finally {
+            serializer.shutdown();
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.magicquill.network;
+
+import com.example.magicquill.data.GenerationParams;
+import com.example.magicquill.data.layer.CropRegion;
+import com.example.magicquill.data.layer.LayerStore;
+import com.example.magicquill.data.layer.LayerType;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for cropped generate requests against a stub server
+ * that records the size of every layer it receives.
+ */
+public class CroppedGenerateTest {
+
+    private static final int WIDTH = 1600;
+    private static final int HEIGHT = 1200;
+
+    private HttpServer server;
+    private MagicQuillApi api;
+    private File cacheDirectory;
+
+    // Stub server state: {width, height} of the layers of each request
+    private final List<int[]> layerSizes = new ArrayList<>();
+    private final List<Integer> bodySizes = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/magic_quill/generate", this::handleGenerate);
+        server.start();
+        api = new MagicQuillApi("http://127.0.0.1:" + server.getAddress().getPort());
+    }
+
+    @After
+    public void tearDown() {
+        api.shutdown();
+        server.stop(0);
+        if (cacheDirectory != null) {
+            File[] files = cacheDirectory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            cacheDirectory.delete();
+        }
+    }
+
+    private synchronized void handleGenerate(HttpExchange exchange) throws IOException {
+        byte[] raw = readAll(exchange.getRequestBody());
+        bodySizes.add(raw.length);
+        JSONObject frontend = new JSONObject(new String(raw, StandardCharsets.UTF_8)).getJSONObject("from_frontend");
+        int[] size = null;
+        for (LayerType type : LayerType.values()) {
+            if (frontend.isNull(type.getApiKey())) {
+                continue;
+            }
+            int[] layerSize = pngSize(frontend.getString(type.getApiKey()));
+            if (size == null) {
+                size = layerSize;
+            } else {
+                // Every layer of one request has the same size
+                assertArrayEquals(type.name(), size, layerSize);
+            }
+        }
+        layerSizes.add(size);
+        byte[] bytes = "{\"generated_image\":\"data:image/png;base64,AAAA\",\"seed\":5}".getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Test
+    public void croppedMode_sendsOnlyTheEditedRegion() throws Exception {
+        LayerStore store = newStore();
+        edit(store, 1200f, 900f);
+        GenerationParams params = new GenerationParams();
+        params.setGrowSize(25);
+
+        GenerateResult full = api.generate(store, "cat", params);
+        assertNull(full.getRegion());
+        assertArrayEquals(new int[] {WIDTH, HEIGHT}, layerSizes.get(0));
+
+        api.setRequestMode(RequestMode.CROPPED);
+        GenerateResult cropped = api.generate(store, "cat", params);
+        CropRegion region = cropped.getRegion();
+        assertNotNull(region);
+        assertEquals(WIDTH, region.getCanvasWidth());
+        assertEquals(HEIGHT, region.getCanvasHeight());
+        assertArrayEquals(new int[] {region.getWidth(), region.getHeight()}, layerSizes.get(1));
+        assertTrue(region.getLeft() < 1200 && region.getLeft() + region.getWidth() > 1200);
+        assertTrue("cropped body " + bodySizes.get(1) + " vs full " + bodySizes.get(0),
+                bodySizes.get(1) * 4 < bodySizes.get(0));
+    }
+
+    @Test
+    public void croppedMode_sendsEverythingWhenNothingIsDrawn() throws Exception {
+        api.setRequestMode(RequestMode.CROPPED);
+        GenerateResult result = api.generate(newStore(), "cat", new GenerationParams());
+        assertNull(result.getRegion());
+        assertArrayEquals(new int[] {WIDTH, HEIGHT}, layerSizes.get(0));
+    }
+
+    @Test
+    public void croppedMode_regionIsFixedWhenTheCallIsPrepared() throws Exception {
+        api.setRequestMode(RequestMode.CROPPED);
+        LayerStore store = newStore();
+        edit(store, 300f, 300f);
+        MagicQuillApi.GenerateCall call = api.newGenerateCall(store.snapshot(), "cat", new GenerationParams());
+        CropRegion region = call.getRegion();
+        assertNotNull(region);
+
+        // Strokes after submitting belong to the next request
+        edit(store, 1300f, 1000f);
+        GenerateResult result = call.execute();
+        assertSame(region, result.getRegion());
+        assertArrayEquals(new int[] {region.getWidth(), region.getHeight()}, layerSizes.get(0));
+    }
+
+    @Test
+    public void cachedPatch_isPlacedAtTheCurrentRegion() throws Exception {
+        cacheDirectory = Files.createTempDirectory("cropped-cache").toFile();
+        api.setResultCache(new ResultCache(cacheDirectory, 1024 * 1024));
+        api.setRequestMode(RequestMode.CROPPED);
+        GenerationParams params = new GenerationParams();
+        params.setSeed(42);
+
+        LayerStore first = newStore();
+        edit(first, 500f, 400f);
+        CropRegion firstRegion = api.generate(first, "cat", params).getRegion();
+
+        // The same edit a photo period away crops to identical layers, so it is a cache hit
+        LayerStore second = newStore();
+        edit(second, 756f, 656f);
+        CropRegion secondRegion = api.generate(second, "cat", params).getRegion();
+
+        assertEquals(1, layerSizes.size());
+        assertEquals(firstRegion.getLeft() + 256, secondRegion.getLeft());
+        assertEquals(firstRegion.getTop() + 256, secondRegion.getTop());
+    }
+
+    private static LayerStore newStore() {
+        LayerStore store = new LayerStore(WIDTH, HEIGHT);
+        int[] row = new int[WIDTH];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                // A smooth photo: cheap to encode, but still dominated by its size
+                row[x] = 0xFF000000 | (x & 0xFF) << 16 | (y & 0xFF) << 8 | ((x + y) & 0xFF);
+            }
+            store.getLayer(LayerType.ORIGINAL_IMAGE).writePixels(row, 0, WIDTH, 0, y, WIDTH, 1, null);
+        }
+        return store;
+    }
+
+    /**
+     * Draw a small edit around a point: a mask blob and an edge stroke.
+     */
+    private static void edit(LayerStore store, float x, float y) {
+        store.beginStroke(LayerType.TOTAL_MASK, x, y, 20f, 0xFFFFFFFF);
+        store.strokeTo(x + 40f, y + 10f);
+        store.endStroke();
+        store.beginStroke(LayerType.ADD_EDGE, x - 10f, y, 3f, 0xFF000000);
+        store.strokeTo(x + 50f, y);
+        store.endStroke();
+    }
+
+    /**
+     * Read the size from the header of a base64 PNG data URI.
+     */
+    private static int[] pngSize(String dataUri) {
+        byte[] png = Base64.getDecoder().decode(dataUri.substring(dataUri.indexOf(',') + 1));
+        return new int[] {readInt(png, 16), readInt(png, 20)};
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF) << 24 | (data[offset + 1] & 0xFF) << 16
+                | (data[offset + 2] & 0xFF) << 8 | data[offset + 3] & 0xFF;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.magicquill.network;
+
+import com.example.magicquill.data.GenerationParams;
+import com.example.magicquill.data.layer.LayerStore;
+import com.example.magicquill.data.layer.LayerType;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the delta-upload protocol against a stub server
+ * that stores layers per session and resolves hash references.
+ */
+public class DeltaUploadTest {
+
+    private HttpServer server;
+    private MagicQuillApi api;
+
+    // Stub server state
+    private final Map<String, Map<String, String>> sessions = new HashMap<>();
+    private final List<Integer> bodySizes = new ArrayList<>();
+    private final List<Integer> referenceCounts = new ArrayList<>();
+    private final List<Integer> statuses = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/magic_quill/generate", this::handleGenerate);
+        server.start();
+        api = new MagicQuillApi("http://127.0.0.1:" + server.getAddress().getPort());
+        api.setUploadMode(UploadMode.DELTA);
+    }
+
+    @After
+    public void tearDown() {
+        api.shutdown();
+        server.stop(0);
+    }
+
+    private synchronized void handleGenerate(HttpExchange exchange) throws IOException {
+        byte[] raw = readAll(exchange.getRequestBody());
+        bodySizes.add(raw.length);
+        JSONObject body = new JSONObject(new String(raw, StandardCharsets.UTF_8));
+        JSONObject frontend = body.getJSONObject("from_frontend");
+        JSONObject upload = body.optJSONObject("upload");
+        if (upload == null) {
+            // Plain documented request
+            referenceCounts.add(0);
+            reply(exchange, 200, "{\"generated_image\":\"data:image/png;base64,AAAA\",\"seed\":1}");
+            return;
+        }
+        JSONObject hashes = upload.getJSONObject("hashes");
+        Map<String, String> stored = sessions.computeIfAbsent(upload.getString("session"), k -> new HashMap<>());
+
+        int references = 0;
+        for (LayerType type : LayerType.values()) {
+            if (frontend.isNull(type.getApiKey())) {
+                continue;
+            }
+            String value = frontend.getString(type.getApiKey());
+            if (value.startsWith("sha256:")) {
+                references++;
+                if (!stored.containsKey(value.substring(7))) {
+                    referenceCounts.add(references);
+                    reply(exchange, 409, "{\"missing_layers\":[\"" + type.getApiKey() + "\"]}");
+                    return;
+                }
+            } else {
+                assertTrue(value.startsWith("data:image/png;base64,"));
+                stored.put(hashes.getString(type.getApiKey()), value);
+            }
+        }
+        referenceCounts.add(references);
+        reply(exchange, 200, "{\"generated_image\":\"data:image/png;base64,AAAA\",\"seed\":1}");
+    }
+
+    @Test
+    public void secondRequest_sendsUnchangedLayersAsReferences() throws Exception {
+        LayerStore store = newStore();
+        api.generate(store, "cat", new GenerationParams());
+
+        store.beginStroke(LayerType.ADD_EDGE, 100f, 100f, 4f, 0xFF000000);
+        store.endStroke();
+        api.generate(store, "cat", new GenerationParams());
+
+        assertEquals(2, statuses.size());
+        assertEquals(Integer.valueOf(0), referenceCounts.get(0));
+        // original, color and total mask are unchanged; the new edge layer is sent in full
+        assertEquals(Integer.valueOf(3), referenceCounts.get(1));
+        assertTrue("delta body " + bodySizes.get(1) + " vs full " + bodySizes.get(0),
+                bodySizes.get(1) * 4 < bodySizes.get(0));
+    }
+
+    @Test
+    public void serverMiss_fallsBackToFullUpload() throws Exception {
+        LayerStore store = newStore();
+        api.generate(store, "cat", new GenerationParams());
+        synchronized (this) {
+            sessions.clear();     // Simulate a server restart
+        }
+
+        GenerateResult result = api.generate(store, "cat", new GenerationParams());
+        assertEquals(1, result.getSeed());
+        assertEquals(3, statuses.size());
+        assertEquals(Integer.valueOf(409), statuses.get(1));
+        assertEquals(Integer.valueOf(200), statuses.get(2));
+        assertEquals(Integer.valueOf(0), referenceCounts.get(2));
+
+        // The server holds the layers again, so the next request is a delta
+        api.generate(store, "cat", new GenerationParams());
+        assertEquals(Integer.valueOf(200), statuses.get(3));
+        assertTrue(referenceCounts.get(3) > 0);
+    }
+
+    @Test
+    public void fullMode_neverSendsReferences() throws Exception {
+        api.setUploadMode(UploadMode.FULL);
+        LayerStore store = newStore();
+        api.generate(store, "cat", new GenerationParams());
+        api.generate(store, "cat", new GenerationParams());
+        assertEquals(bodySizes.get(0), bodySizes.get(1));
+    }
+
+    private static LayerStore newStore() {
+        LayerStore store = new LayerStore(300, 200);
+        int[] row = new int[300];
+        for (int y = 0; y < 200; y++) {
+            for (int x = 0; x < 300; x++) {
+                // Noisy pixels so the photo dominates the request size, as in practice
+                row[x] = 0xFF000000 | (((x * 73856093) ^ (y * 19349663)) & 0xFFFFFF);
+            }
+            store.getLayer(LayerType.ORIGINAL_IMAGE).writePixels(row, 0, 300, 0, y, 300, 1, null);
+        }
+        store.beginStroke(LayerType.ADD_COLOR, 50f, 50f, 8f, 0xFFFF0000);
+        store.endStroke();
+        store.beginStroke(LayerType.TOTAL_MASK, 60f, 60f, 10f, 0xFFFFFFFF);
+        store.endStroke();
+        return store;
+    }
+
+    private synchronized void reply(HttpExchange exchange, int status, String json) throws IOException {
+        statuses.add(status);
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.magicquill.network;
+
+import com.example.magicquill.data.GenerationParams;
+import com.example.magicquill.data.layer.LayerStore;
+import com.example.magicquill.data.layer.LayerType;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the streaming generate request body.
+ */
+public class GenerateRequestWriterTest {
+
+    @Test
+    public void writeTo_producesDocumentedStructure() throws Exception {
+        LayerStore store = new LayerStore(64, 48);
+        store.beginStroke(LayerType.TOTAL_MASK, 10f, 10f, 3f, 0xFFFFFFFF);
+        store.endStroke();
+        GenerationParams params = new GenerationParams();
+        params.setSeed(1234);
+
+        String body = write(store, "a \"royal\" crest", params);
+
+        assertTrue(body.startsWith("{\"from_frontend\":{\"total_mask\":\"data:image/png;base64,"));
+        for (LayerType type : LayerType.values()) {
+            assertTrue(type.getApiKey(), body.contains("\"" + type.getApiKey() + "\":\"data:image/png;base64,"));
+        }
+        assertTrue(body.contains("\"from_backend\":{\"prompt\":\"a \\\"royal\\\" crest\"}"));
+        assertTrue(body.contains("\"seed\":1234"));
+        assertTrue(body.contains("\"fine_edge\":\"disable\""));
+        assertTrue(body.contains("\"cfg\":5.0"));
+        assertTrue(body.endsWith("}}"));
+    }
+
+    @Test
+    public void writeTo_embedsDecodablePng() throws Exception {
+        LayerStore store = new LayerStore(64, 48);
+        store.beginStroke(LayerType.TOTAL_MASK, 10f, 10f, 3f, 0xFFFFFFFF);
+        store.endStroke();
+
+        String body = write(store, "p", new GenerationParams());
+        Matcher m = Pattern.compile("\"total_mask\":\"data:image/png;base64,([A-Za-z0-9+/=]+)\"").matcher(body);
+        assertTrue(m.find());
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(Base64.getDecoder().decode(m.group(1))));
+        assertEquals(64, image.getWidth());
+        assertEquals(48, image.getHeight());
+        assertEquals(0xFFFFFFFF, image.getRGB(10, 10));
+        assertEquals(0, image.getRGB(40, 40) >>> 24);
+    }
+
+    private static String write(LayerStore store, String prompt, GenerationParams params) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new GenerateRequestWriter(store, prompt, params).writeTo(out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
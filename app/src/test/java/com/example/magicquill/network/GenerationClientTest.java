@@ -0,0 +1,169 @@
+package com.example.magicquill.network;
+
+import com.example.magicquill.data.GenerationParams;
+import com.example.magicquill.data.layer.LayerStore;
+import com.example.magicquill.data.layer.LayerType;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the async generation client against a mock server.
+ */
+public class GenerationClientTest {
+
+    private HttpServer server;
+    private GenerationClient client;
+    private final BlockingQueue<GenerationEvent> events = new LinkedBlockingQueue<>();
+    private final AtomicInteger generateCount = new AtomicInteger();
+    private final BlockingQueue<Integer> arrived = new LinkedBlockingQueue<>();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private volatile boolean holdFirstRequest;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/magic_quill/generate", this::handleGenerate);
+        server.createContext("/magic_quill/guess_prompt", exchange -> {
+            drain(exchange.getRequestBody());
+            respond(exchange, "\"a cat, a hat\"");
+        });
+        server.start();
+
+        String baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        client = new GenerationClient(new MagicQuillApi(baseUrl), Runnable::run);
+        client.attach(events::add);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        client.shutdown();
+        server.stop(0);
+    }
+
+    private void handleGenerate(HttpExchange exchange) throws IOException {
+        drain(exchange.getRequestBody());
+        int n = generateCount.incrementAndGet();
+        arrived.add(n);
+        if (n == 1 && holdFirstRequest) {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        respond(exchange, "{\"generated_image\":\"data:image/png;base64,AAAA\",\"seed\":" + (100 + n) + "}");
+    }
+
+    @Test
+    public void submitGenerate_deliversResult() throws Exception {
+        long id = client.submitGenerate(newStore(), "a cat", new GenerationParams());
+
+        assertEvent(GenerationEvent.Type.STARTED, id);
+        GenerationEvent done = assertEvent(GenerationEvent.Type.SUCCEEDED, id);
+        assertEquals(101, done.getResult().getSeed());
+        assertEquals("data:image/png;base64,AAAA", done.getResult().getGeneratedImage());
+        assertFalse(client.isBusy());
+    }
+
+    @Test
+    public void submitGenerate_coalescesWaitingRequests() throws Exception {
+        holdFirstRequest = true;
+        LayerStore store = newStore();
+        long first = client.submitGenerate(store, "one", new GenerationParams());
+        assertEvent(GenerationEvent.Type.STARTED, first);
+        assertNotNull(arrived.poll(5, TimeUnit.SECONDS));
+
+        long second = client.submitGenerate(store, "two", new GenerationParams());
+        long third = client.submitGenerate(store, "three", new GenerationParams());
+        assertEvent(GenerationEvent.Type.SUPERSEDED, second);
+        release.countDown();
+
+        assertEvent(GenerationEvent.Type.SUCCEEDED, first);
+        assertEvent(GenerationEvent.Type.STARTED, third);
+        assertEvent(GenerationEvent.Type.SUCCEEDED, third);
+        assertEquals(2, generateCount.get());
+    }
+
+    @Test
+    public void cancelAll_abortsRunningRequest() throws Exception {
+        holdFirstRequest = true;
+        long id = client.submitGenerate(newStore(), "slow", new GenerationParams());
+        assertEvent(GenerationEvent.Type.STARTED, id);
+        assertNotNull(arrived.poll(5, TimeUnit.SECONDS));
+
+        long start = System.nanoTime();
+        client.cancelAll();
+        assertEvent(GenerationEvent.Type.CANCELLED, id);
+        assertTrue("cancel should not wait for the server",
+                System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertFalse(client.isBusy());
+    }
+
+    @Test
+    public void guessPrompt_reportsOnCallback() throws Exception {
+        BlockingQueue<String> results = new LinkedBlockingQueue<>();
+        client.guessPrompt(newStore(), new GenerationClient.ApiCallback<String>() {
+            @Override
+            public void onSuccess(String result) {
+                results.add(result);
+            }
+
+            @Override
+            public void onError(Exception error) {
+                results.add("error: " + error);
+            }
+        });
+        assertEquals("a cat, a hat", results.poll(5, TimeUnit.SECONDS));
+    }
+
+    private GenerationEvent assertEvent(GenerationEvent.Type type, long id) throws InterruptedException {
+        GenerationEvent event = events.poll(10, TimeUnit.SECONDS);
+        assertNotNull("timed out waiting for " + type, event);
+        assertEquals(type, event.getType());
+        assertEquals(id, event.getRequestId());
+        return event;
+    }
+
+    private static LayerStore newStore() {
+        LayerStore store = new LayerStore(64, 64);
+        store.beginStroke(LayerType.TOTAL_MASK, 20f, 20f, 4f, 0xFFFFFFFF);
+        store.endStroke();
+        return store;
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (in.read(buffer) >= 0) {
+            // discard
+        }
+    }
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.magicquill.network;
+
+import com.example.magicquill.data.GenerationParams;
+import com.example.magicquill.data.layer.LayerStore;
+import com.example.magicquill.data.layer.LayerType;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the content-addressed result cache.
+ */
+public class ResultCacheTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("result-cache").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void computeKey_changesWithEveryInput() {
+        Map<LayerType, byte[]> layers = new EnumMap<>(LayerType.class);
+        layers.put(LayerType.ORIGINAL_IMAGE, new byte[]{1, 2, 3});
+        layers.put(LayerType.TOTAL_MASK, new byte[]{4});
+        GenerationParams params = new GenerationParams();
+        params.setSeed(7);
+
+        String key = ResultCache.computeKey(layers, "cat", params);
+        assertEquals(64, key.length());
+        assertEquals(key, ResultCache.computeKey(layers, "cat", new GenerationParams(params)));
+        assertNotEquals(key, ResultCache.computeKey(layers, "dog", params));
+
+        GenerationParams other = new GenerationParams(params);
+        other.setCfg(6.0f);
+        assertNotEquals(key, ResultCache.computeKey(layers, "cat", other));
+
+        Map<LayerType, byte[]> changed = new EnumMap<>(layers);
+        changed.put(LayerType.ADD_EDGE, new byte[]{9});
+        assertNotEquals(key, ResultCache.computeKey(changed, "cat", params));
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsedWithinBudget() {
+        ResultCache cache = new ResultCache(directory, 1000);
+        String image = repeat('x', 300);
+        cache.put("a", new GenerateResult(image, 1));
+        cache.put("b", new GenerateResult(image, 2));
+        assertNotNull(cache.get("a"));           // a is now more recent than b
+        cache.put("c", new GenerateResult(image, 3));
+        cache.put("d", new GenerateResult(image, 4));
+
+        assertTrue(cache.getSizeBytes() <= 1000);
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.get("a").getSeed());
+        assertEquals(4, cache.get("d").getSeed());
+        assertEquals(3, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        ResultCache reopened = new ResultCache(directory, 1000);
+        assertEquals(cache.getEntryCount(), reopened.getEntryCount());
+        assertEquals(image, reopened.get("d").getGeneratedImage());
+    }
+
+    @Test
+    public void generate_servesFixedSeedRepeatsLocally() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/magic_quill/generate", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                while (in.read() >= 0) {
+                    // discard
+                }
+            }
+            int n = requests.incrementAndGet();
+            byte[] body = ("{\"generated_image\":\"data:image/png;base64,R" + n + "\",\"seed\":42}")
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        MagicQuillApi api = new MagicQuillApi("http://127.0.0.1:" + server.getAddress().getPort());
+        try {
+            ResultCache cache = new ResultCache(directory, 1 << 20);
+            api.setResultCache(cache);
+            LayerStore store = new LayerStore(64, 64);
+            store.beginStroke(LayerType.TOTAL_MASK, 10f, 10f, 3f, 0xFFFFFFFF);
+            store.endStroke();
+
+            GenerationParams random = new GenerationParams();
+            api.generate(store, "cat", random);
+            api.generate(store, "cat", random);
+            assertEquals("seed -1 is never cached", 2, requests.get());
+
+            GenerationParams fixed = new GenerationParams();
+            fixed.setSeed(42);
+            GenerateResult first = api.generate(store, "cat", fixed);
+            GenerateResult second = api.generate(store, "cat", fixed);
+            assertEquals(3, requests.get());
+            assertEquals(first.getGeneratedImage(), second.getGeneratedImage());
+            assertEquals(1, cache.getHitCount());
+            assertEquals(1, cache.getMissCount());
+
+            store.beginStroke(LayerType.ADD_EDGE, 30f, 30f, 2f, 0xFF000000);
+            store.endStroke();
+            api.generate(store, "cat", fixed);
+            assertEquals("an edited layer is a new key", 4, requests.get());
+        } finally {
+            api.shutdown();
+            server.stop(0);
+        }
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder sb = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.magicquill.startup;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for startup phase timings and background native loading.
+ */
+public class StartupTraceTest {
+
+    private long now;
+    private final StartupTrace trace = new StartupTrace(() -> now);
+
+    @Test
+    public void phases_reportDurationsAndOffsets() {
+        now = 1000;
+        trace.begin(StartupTrace.Phase.ACTIVITY_CREATE);
+        now = 1200;
+        trace.begin(StartupTrace.Phase.NAV_HOST_SETUP);
+        now = 1500;
+        trace.end(StartupTrace.Phase.NAV_HOST_SETUP);
+        trace.begin(StartupTrace.Phase.BOTTOM_NAV_WIRING);
+        now = 1600;
+        trace.end(StartupTrace.Phase.BOTTOM_NAV_WIRING);
+        now = 1700;
+        trace.end(StartupTrace.Phase.ACTIVITY_CREATE);
+        now = 1800;
+        trace.begin(StartupTrace.Phase.FIRST_CANVAS_FRAME);
+        now = 2500;
+        trace.end(StartupTrace.Phase.FIRST_CANVAS_FRAME);
+
+        assertEquals(700, trace.getDurationNanos(StartupTrace.Phase.ACTIVITY_CREATE));
+        assertEquals(300, trace.getDurationNanos(StartupTrace.Phase.NAV_HOST_SETUP));
+        assertEquals(100, trace.getDurationNanos(StartupTrace.Phase.BOTTOM_NAV_WIRING));
+        assertEquals(700, trace.getDurationNanos(StartupTrace.Phase.FIRST_CANVAS_FRAME));
+        assertEquals(200, trace.getBeginOffsetNanos(StartupTrace.Phase.NAV_HOST_SETUP));
+        // Time to the first canvas frame counts from the start of the activity
+        assertEquals(1500, trace.getEndOffsetNanos(StartupTrace.Phase.FIRST_CANVAS_FRAME));
+        assertEquals(4, trace.getDurationsNanos().size());
+        assertFalse(trace.isComplete());
+        assertEquals(-1, trace.getDurationNanos(StartupTrace.Phase.NATIVE_LOAD));
+    }
+
+    @Test
+    public void phases_keepTheirFirstRecording() {
+        now = 0;
+        trace.begin(StartupTrace.Phase.FIRST_CANVAS_FRAME);
+        now = 50;
+        trace.begin(StartupTrace.Phase.FIRST_CANVAS_FRAME);
+        now = 100;
+        trace.end(StartupTrace.Phase.FIRST_CANVAS_FRAME);
+        now = 400;
+        trace.end(StartupTrace.Phase.FIRST_CANVAS_FRAME);
+        // Ending a phase that never began records nothing
+        trace.end(StartupTrace.Phase.ACTIVITY_CREATE);
+
+        assertEquals(100, trace.getDurationNanos(StartupTrace.Phase.FIRST_CANVAS_FRAME));
+        assertFalse(trace.hasEnded(StartupTrace.Phase.ACTIVITY_CREATE));
+        assertEquals(-1, trace.getBeginOffsetNanos(StartupTrace.Phase.ACTIVITY_CREATE));
+    }
+
+    @Test
+    public void listener_seesEachPhaseOnce() {
+        List<String> events = new ArrayList<>();
+        trace.setListener(new StartupTrace.Listener() {
+            @Override
+            public void onPhaseBegin(StartupTrace.Phase phase) {
+                events.add("begin " + phase);
+            }
+
+            @Override
+            public void onPhaseEnd(StartupTrace.Phase phase, long durationNanos) {
+                events.add("end " + phase + " " + durationNanos);
+            }
+        });
+        now = 10;
+        trace.begin(StartupTrace.Phase.NATIVE_LOAD);
+        trace.begin(StartupTrace.Phase.NATIVE_LOAD);
+        now = 40;
+        trace.end(StartupTrace.Phase.NATIVE_LOAD);
+        trace.end(StartupTrace.Phase.NATIVE_LOAD);
+
+        assertEquals(List.of("begin NATIVE_LOAD", "end NATIVE_LOAD 30"), events);
+    }
+
+    @Test
+    public void nativeLibrary_loadsOnceInTheBackground() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        List<String> threads = new ArrayList<>();
+        NativeLibrary library = new NativeLibrary("test", name -> {
+            loads.incrementAndGet();
+            synchronized (threads) {
+                threads.add(Thread.currentThread().getName());
+            }
+        }, trace);
+
+        Future<Boolean> ready = library.ready();
+        assertSame(ready, library.ready());
+        assertTrue(ready.get(5, TimeUnit.SECONDS));
+        assertTrue(library.await());
+        assertTrue(library.isLoaded());
+        assertEquals(1, loads.get());
+        assertEquals(List.of("native-load-test"), threads);
+        assertTrue(trace.hasEnded(StartupTrace.Phase.NATIVE_LOAD));
+    }
+
+    @Test
+    public void nativeLibrary_reportsAMissingLibrary() throws Exception {
+        NativeLibrary library = new NativeLibrary("missing", name -> {
+            throw new UnsatisfiedLinkError("no " + name);
+        }, trace);
+
+        // Nothing started the load, so await runs it on this thread
+        assertFalse(library.await());
+        assertFalse(library.isLoaded());
+        assertFalse(library.ready().get(5, TimeUnit.SECONDS));
+        assertTrue(trace.hasEnded(StartupTrace.Phase.NATIVE_LOAD));
+    }
+}
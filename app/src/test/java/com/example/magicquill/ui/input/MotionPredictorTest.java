@@ -0,0 +1,58 @@
+package com.example.magicquill.ui.input;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for stroke motion prediction.
+ */
+public class MotionPredictorTest {
+
+    @Test
+    public void constantVelocity_predictsAhead() {
+        MotionPredictor predictor = new MotionPredictor(10, 1000f);
+        for (int t = 0; t <= 40; t += 8) {
+            predictor.addSample(t * 2f, 100f - t, t);
+        }
+        float[] p = predictor.predict();
+        // 2 px/ms right, 1 px/ms up, 10 ms past the last sample at t=40
+        assertEquals(100f, p[0], 0.01f);
+        assertEquals(50f, p[1], 0.01f);
+    }
+
+    @Test
+    public void prediction_isClampedToMaxDistance() {
+        MotionPredictor predictor = new MotionPredictor(16, 20f);
+        predictor.addSample(0f, 0f, 0);
+        predictor.addSample(100f, 0f, 4);
+        float[] p = predictor.predict();
+        assertEquals(120f, p[0], 0.01f);
+        assertEquals(0f, p[1], 0.01f);
+    }
+
+    @Test
+    public void singleSampleOrPause_predictsNoMotion() {
+        MotionPredictor predictor = new MotionPredictor(16, 100f);
+        predictor.addSample(5f, 6f, 0);
+        assertFalse(predictor.hasPrediction());
+        assertArrayEquals(new float[]{5f, 6f}, predictor.predict(), 0f);
+
+        predictor.addSample(25f, 6f, 8);
+        assertTrue(predictor.hasPrediction());
+        // After a long pause the old velocity is discarded
+        predictor.addSample(30f, 6f, 500);
+        assertFalse(predictor.hasPrediction());
+        assertArrayEquals(new float[]{30f, 6f}, predictor.predict(), 0f);
+    }
+
+    @Test
+    public void reset_forgetsPreviousStroke() {
+        MotionPredictor predictor = new MotionPredictor(16, 100f);
+        predictor.addSample(0f, 0f, 0);
+        predictor.addSample(10f, 0f, 5);
+        predictor.reset();
+        predictor.addSample(50f, 50f, 10);
+        assertFalse(predictor.hasPrediction());
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.magicquill.ui.input;
+
+import com.example.magicquill.data.layer.LayerStore;
+import com.example.magicquill.data.layer.LayerType;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the stroke input ring buffer.
+ */
+public class StrokeSampleBufferTest {
+
+    @Test
+    public void drain_returnsSamplesInOrderAcrossWraparound() {
+        StrokeSampleBuffer buffer = new StrokeSampleBuffer(6);
+        assertEquals(8, buffer.capacity());
+        float[] next = {0f};
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 5; i++) {
+                buffer.add(next[0], -next[0], 0.5f, (long) next[0]);
+                next[0]++;
+            }
+            float[] expected = {next[0] - 5};
+            assertEquals(5, buffer.drainTo((x, y, pressure, time) -> {
+                assertEquals(expected[0], x, 0f);
+                assertEquals(-expected[0], y, 0f);
+                assertEquals((long) expected[0], time);
+                expected[0]++;
+            }));
+            assertTrue(buffer.isEmpty());
+        }
+    }
+
+    @Test
+    public void overflow_keepsNewestSamples() {
+        StrokeSampleBuffer buffer = new StrokeSampleBuffer(4);
+        for (int i = 0; i < 6; i++) {
+            buffer.add(i, i, 1f, i);
+        }
+        assertTrue(buffer.isFull());
+        long[] first = {-1};
+        buffer.drainTo((x, y, pressure, time) -> {
+            if (first[0] < 0) {
+                first[0] = time;
+            }
+        });
+        assertEquals(2, first[0]);
+    }
+
+    @Test
+    public void steadyStateStroke_doesNotAllocate() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        LayerStore store = new LayerStore(1024, 1024);
+        StrokeSampleBuffer buffer = new StrokeSampleBuffer(64);
+        StrokeSampleBuffer.SampleSink sink = (x, y, pressure, time) -> store.strokeTo(x, y);
+        store.beginStroke(LayerType.ADD_EDGE, 10f, 10f, 3f, 0xFF000000);
+        // Warm up so the dirty-tile bitsets and the history point buffer (grown by
+        // doubling) have room for the measured samples too
+        feed(buffer, sink, 0, 6000);
+
+        long id = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(id);
+        feed(buffer, sink, 6000, 2000);
+        long allocated = threads.getThreadAllocatedBytes(id) - before;
+        store.endStroke();
+        // The bean itself may allocate a few bytes; a per-sample allocation would be tens of KB
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private static void feed(StrokeSampleBuffer buffer, StrokeSampleBuffer.SampleSink sink, int firstFrame, int frames) {
+        // Keep circling the same tiles so nothing new needs allocating once warm
+        for (int frame = firstFrame; frame < firstFrame + frames; frame++) {
+            // A typical 120 Hz touch panel batches a few samples per 60 Hz frame
+            for (int i = 0; i < 4; i++) {
+                float t = (frame * 4 + i) * 0.01f;
+                buffer.add(512f + 400f * (float) Math.cos(t), 512f + 400f * (float) Math.sin(t), 1f, frame);
+            }
+            buffer.drainTo(sink);
+        }
+    }
+}
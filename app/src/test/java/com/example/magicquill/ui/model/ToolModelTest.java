@@ -0,0 +1,116 @@
+package com.example.magicquill.ui.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for tool model events.
+ */
+public class ToolModelTest {
+
+    @Test
+    public void positionBurst_deliversLatestOnce() {
+        ToolModel model = new ToolModel();
+        List<Runnable> queue = new ArrayList<>();
+        model.setUiExecutor(queue::add);
+        List<float[]> received = new ArrayList<>();
+        model.getMenuPositionEvents().attach((x, y) -> received.add(new float[]{x, y}));
+
+        for (int i = 1; i <= 10; i++) {
+            model.setMenuPosition(i, 2 * i);
+        }
+        assertEquals(1, queue.size());
+        queue.remove(0).run();
+
+        assertEquals(1, received.size());
+        assertArrayEquals(new float[]{10f, 20f}, received.get(0), 0f);
+
+        // A new burst after delivery schedules again
+        model.setMenuPosition(3f, 4f);
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void typedChannels_receiveOnlyTheirEvents() {
+        ToolModel model = new ToolModel();
+        List<ToolModel.ToolType> tools = new ArrayList<>();
+        List<Boolean> expansions = new ArrayList<>();
+        model.getToolEvents().attach(tools::add);
+        model.getMenuExpansionEvents().attach(expansions::add);
+
+        model.setCurrentTool(ToolModel.ToolType.ERASER);
+        model.setMenuExpanded(true);
+        model.setMenuPosition(5f, 5f);
+        model.reset();
+
+        assertEquals(2, tools.size());
+        assertEquals(ToolModel.ToolType.ERASER, tools.get(0));
+        assertEquals(ToolModel.ToolType.NONE, tools.get(1));
+        assertEquals(2, expansions.size());
+        assertTrue(expansions.get(0));
+        assertFalse(expansions.get(1));
+    }
+
+    @Test
+    public void workerPosts_areAppliedInOneBatchOnUiThread() throws Exception {
+        ToolModel model = new ToolModel();
+        ConcurrentLinkedQueue<Runnable> uiQueue = new ConcurrentLinkedQueue<>();
+        model.setUiExecutor(uiQueue::add);
+        List<Float> progress = new ArrayList<>();
+        List<ToolModel.ToolType> tools = new ArrayList<>();
+        model.getProgressEvents().attach(progress::add);
+        model.getToolEvents().attach(tools::add);
+
+        Thread worker = new Thread(() -> {
+            for (int i = 1; i <= 100; i++) {
+                model.postProgress(i / 100f);
+            }
+            model.postCurrentTool(ToolModel.ToolType.SELECT);
+        });
+        worker.start();
+        worker.join();
+
+        // Nothing is delivered on the worker; one flush is queued for the lot
+        assertTrue(progress.isEmpty());
+        assertEquals(1, uiQueue.size());
+        uiQueue.poll().run();
+
+        assertEquals(1, progress.size());
+        assertEquals(1f, progress.get(0), 0f);
+        assertEquals(1, tools.size());
+        assertEquals(ToolModel.ToolType.SELECT, model.getState().getCurrentTool());
+    }
+
+    @Test
+    public void writeFromOtherThread_failsConfinementCheck() throws Exception {
+        // Checked in debug builds only; force it on so release unit tests cover it too
+        ToolModel model = new ToolModel(true);
+        Throwable[] error = new Throwable[1];
+        Thread worker = new Thread(() -> {
+            try {
+                model.setCurrentTool(ToolModel.ToolType.ERASER);
+            } catch (Throwable t) {
+                error[0] = t;
+            }
+        });
+        worker.start();
+        worker.join();
+
+        assertTrue(error[0] instanceof IllegalStateException);
+        assertEquals(ToolModel.ToolType.NONE, model.getCurrentTool());
+    }
+
+    @Test
+    public void menuPosition_isReadAsOnePair() {
+        ToolModel model = new ToolModel();
+        model.setMenuPosition(12.5f, -3f);
+        float[] position = new float[2];
+        model.getMenuPosition(position);
+        assertArrayEquals(new float[]{12.5f, -3f}, position, 0f);
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.magicquill.ui.model;
+
+import com.example.magicquill.data.layer.LayerType;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the tool registry.
+ */
+public class ToolRegistryTest {
+
+    @Test
+    public void defaultRegistry_describesEveryTool() {
+        ToolRegistry registry = ToolRegistry.getDefault();
+        for (ToolModel.ToolType type : ToolModel.ToolType.values()) {
+            ToolSpec spec = registry.get(type);
+            assertNotNull(type.name(), spec);
+            assertSame(type, spec.getType());
+            assertFalse(spec.getLabel().isEmpty());
+        }
+        assertEquals(LayerType.ADD_EDGE, registry.getLayer(ToolModel.ToolType.ADD_EDGE));
+        assertEquals(LayerType.REMOVE_EDGE, registry.getLayer(ToolModel.ToolType.REMOVE_EDGE));
+        assertEquals(LayerType.ADD_COLOR, registry.getLayer(ToolModel.ToolType.COLOR_BRUSH));
+        assertEquals(LayerType.TOTAL_MASK, registry.getLayer(ToolModel.ToolType.ERASER));
+        assertNull(registry.getLayer(ToolModel.ToolType.SELECT));
+        assertNull(registry.getLayer(null));
+        assertEquals(LayerType.TOTAL_MASK.getDefaultBrushColor(), registry.get(ToolModel.ToolType.ERASER).getBrushColor());
+        assertFalse(registry.get(ToolModel.ToolType.ERASER).usesLowLatencyInk());
+        assertTrue(registry.get(ToolModel.ToolType.ADD_EDGE).usesLowLatencyInk());
+    }
+
+    @Test
+    public void layerTypeForTool_readsTheRegistry() {
+        for (ToolModel.ToolType type : ToolModel.ToolType.values()) {
+            assertEquals(type.name(), ToolRegistry.getDefault().getLayer(type), LayerType.forTool(type));
+        }
+    }
+
+    @Test
+    public void toolbarTools_followToolOrderAndSkipToolsWithoutIcon() {
+        ToolRegistry registry = new ToolRegistry();
+        registry.register(new ToolSpec(ToolModel.ToolType.UNDO, 6, "Undo"));
+        registry.register(new ToolSpec(ToolModel.ToolType.NONE, 0, "None"));
+        registry.register(new ToolSpec(ToolModel.ToolType.ADD_EDGE, 1, "Add Edge", LayerType.ADD_EDGE, true));
+        List<ToolSpec> tools = registry.getToolbarTools();
+        assertEquals(2, tools.size());
+        assertSame(ToolModel.ToolType.ADD_EDGE, tools.get(0).getType());
+        assertSame(ToolModel.ToolType.UNDO, tools.get(1).getType());
+        assertEquals("Unknown", registry.getLabel(ToolModel.ToolType.ERASER));
+    }
+
+    @Test
+    public void register_replacesAToolsPreset() {
+        ToolRegistry registry = new ToolRegistry();
+        registry.register(new ToolSpec(ToolModel.ToolType.COLOR_BRUSH, 3, "Color Brush", LayerType.ADD_COLOR, true));
+        registry.register(new ToolSpec(ToolModel.ToolType.COLOR_BRUSH, 3, "Red Marker", LayerType.ADD_COLOR,
+                0xFFFF0000, 30f, true));
+        ToolSpec spec = registry.get(ToolModel.ToolType.COLOR_BRUSH);
+        assertEquals("Red Marker", spec.getLabel());
+        assertEquals(0xFFFF0000, spec.getBrushColor());
+        assertEquals(30f, spec.getBrushRadius(), 0f);
+        assertEquals(1, registry.getToolbarTools().size());
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.magicquill.ui.observer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for copy-on-write event channels.
+ */
+public class EventChannelTest {
+
+    interface Listener {
+        void onEvent(int value);
+    }
+
+    @Test
+    public void attach_ignoresDuplicatesAndNull() {
+        EventChannel<Listener> channel = new EventChannel<>(Listener.class);
+        Listener listener = value -> { };
+        channel.attach(listener);
+        channel.attach(listener);
+        channel.attach(null);
+        assertEquals(1, channel.size());
+        channel.detach(listener);
+        assertTrue(channel.isEmpty());
+    }
+
+    @Test
+    public void detachDuringDelivery_finishesSnapshot() {
+        EventChannel<Listener> channel = new EventChannel<>(Listener.class);
+        List<String> calls = new ArrayList<>();
+        Listener second = value -> calls.add("second " + value);
+        Listener[] first = new Listener[1];
+        first[0] = value -> {
+            calls.add("first " + value);
+            channel.detach(first[0]);
+            channel.detach(second);
+        };
+        channel.attach(first[0]);
+        channel.attach(second);
+
+        deliver(channel, 1);
+        deliver(channel, 2);
+
+        assertEquals(2, calls.size());
+        assertEquals("first 1", calls.get(0));
+        assertEquals("second 1", calls.get(1));
+        assertTrue(channel.isEmpty());
+    }
+
+    @Test
+    public void detach_keepsOrderOfRemaining() {
+        EventChannel<Listener> channel = new EventChannel<>(Listener.class);
+        StringBuilder order = new StringBuilder();
+        Listener a = value -> order.append('a');
+        Listener b = value -> order.append('b');
+        Listener c = value -> order.append('c');
+        channel.attach(a);
+        channel.attach(b);
+        channel.attach(c);
+        channel.detach(b);
+        deliver(channel, 0);
+        assertEquals("ac", order.toString());
+    }
+
+    private static void deliver(EventChannel<Listener> channel, int value) {
+        for (Listener listener : channel.listeners()) {
+            listener.onEvent(value);
+        }
+    }
+}
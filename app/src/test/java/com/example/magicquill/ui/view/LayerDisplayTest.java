@@ -0,0 +1,48 @@
+package com.example.magicquill.ui.view;
+
+import com.example.magicquill.data.layer.LayerType;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for per-layer display settings.
+ */
+public class LayerDisplayTest {
+
+    @Test
+    public void defaults_previewMasksAsTranslucentOverlays() {
+        LayerDisplay display = new LayerDisplay();
+        assertEquals(0xFFFFFFFF, display.getPaintColor(LayerType.ORIGINAL_IMAGE));
+        assertEquals(0x80000000, display.getPaintColor(LayerType.ADD_EDGE));
+        assertEquals(0x80FFFFFF, display.getPaintColor(LayerType.REMOVE_EDGE));
+        assertEquals(0x4DFF0000, display.getPaintColor(LayerType.TOTAL_MASK));
+    }
+
+    @Test
+    public void strokeDisplayColor_matchesCompositedLayer() {
+        LayerDisplay display = new LayerDisplay();
+        // Mask strokes keep only their alpha, shown in the overlay color
+        assertEquals(0x4DFF0000, display.getStrokeDisplayColor(LayerType.TOTAL_MASK, 0xFFFFFFFF));
+        display.setOpacity(LayerType.ADD_COLOR, 0.5f);
+        assertEquals(0x403366CC, display.getStrokeDisplayColor(LayerType.ADD_COLOR, 0x803366CC));
+    }
+
+    @Test
+    public void changes_bumpVersionOnlyWhenSomethingChanges() {
+        LayerDisplay display = new LayerDisplay();
+        long start = display.getVersion();
+        display.setVisible(LayerType.ADD_COLOR, true);
+        display.setOpacity(LayerType.ORIGINAL_IMAGE, 3f);
+        assertEquals(start, display.getVersion());
+
+        display.setVisible(LayerType.ADD_COLOR, false);
+        assertFalse(display.isDrawn(LayerType.ADD_COLOR));
+        display.setOverlayRgb(LayerType.ADD_EDGE, 0x1200FF00);
+        assertEquals(0x00FF00, display.getOverlayRgb(LayerType.ADD_EDGE));
+        display.setOpacity(LayerType.ORIGINAL_IMAGE, 0f);
+        assertFalse(display.isDrawn(LayerType.ORIGINAL_IMAGE));
+        assertEquals(start + 3, display.getVersion());
+    }
+}
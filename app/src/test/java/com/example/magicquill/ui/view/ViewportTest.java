@@ -0,0 +1,49 @@
+package com.example.magicquill.ui.view;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the pan/zoom viewport.
+ */
+public class ViewportTest {
+
+    @Test
+    public void fit_centersContent() {
+        Viewport viewport = new Viewport();
+        viewport.setSizes(1000, 500, 500, 500);
+        assertEquals(0.5f, viewport.getScale(), 1e-6f);
+        assertEquals(0f, viewport.getTranslateX(), 1e-4f);
+        assertEquals(125f, viewport.getTranslateY(), 1e-4f);
+    }
+
+    @Test
+    public void zoom_keepsFocusOverSameLayerPixel() {
+        Viewport viewport = new Viewport();
+        viewport.setSizes(1000, 1000, 500, 500);
+        float layerX = viewport.toLayerX(200f);
+        float layerY = viewport.toLayerY(300f);
+        viewport.zoomBy(4f, 200f, 300f);
+        assertEquals(2f, viewport.getScale(), 1e-6f);
+        assertEquals(200f, viewport.toViewX(layerX), 1e-3f);
+        assertEquals(300f, viewport.toViewY(layerY), 1e-3f);
+    }
+
+    @Test
+    public void panAndZoom_areClamped() {
+        Viewport viewport = new Viewport();
+        viewport.setSizes(1000, 1000, 500, 500);
+        viewport.zoomBy(0.1f, 0f, 0f);
+        assertEquals(0.5f, viewport.getScale(), 1e-6f);
+        viewport.zoomBy(100f, 0f, 0f);
+        assertEquals(Viewport.DEFAULT_MAX_SCALE, viewport.getScale(), 1e-6f);
+
+        // Content edges can't be dragged inside the view
+        viewport.panBy(1000f, 1000f);
+        assertEquals(0f, viewport.getTranslateX(), 1e-4f);
+        viewport.panBy(-1e6f, -1e6f);
+        assertEquals(500f - 1000f * Viewport.DEFAULT_MAX_SCALE, viewport.getTranslateX(), 1e-2f);
+        assertEquals(1000f, viewport.toLayerX(500f), 1e-2f);
+    }
+}